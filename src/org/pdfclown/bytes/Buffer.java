@@ -214,7 +214,7 @@ public final class Buffer
     )
   {
     Buffer clone = new Buffer(getCapacity());
-    clone.append(data);
+    clone.append(data, 0, length);
     return clone;
   }
 
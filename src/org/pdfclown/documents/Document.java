@@ -37,6 +37,7 @@ import java.util.Collection;
 import org.pdfclown.PDF;
 import org.pdfclown.Version;
 import org.pdfclown.VersionEnum;
+import org.pdfclown.documents.contents.ImageCache;
 import org.pdfclown.documents.contents.Resources;
 import org.pdfclown.documents.contents.layers.LayerDefinition;
 import org.pdfclown.documents.interaction.forms.Form;
@@ -101,6 +102,23 @@ public final class Document
       Strict
     }
 
+    /**
+      Page access mode.
+    */
+    public enum PageAccessModeEnum
+    {
+      /**
+        The whole page tree is indexed on first access, so that positional access and reverse
+        lookups take constant time (suitable for documents processed as a whole).
+      */
+      Indexed,
+      /**
+        Page tree paths are resolved on demand, so that accessing a page range doesn't load the
+        rest of the page tree (suitable for extracting a few pages from huge documents).
+      */
+      Lazy
+    }
+
     /**
       Cross-reference mode [PDF:1.6:3.4].
     */
@@ -119,6 +137,10 @@ public final class Document
     }
 
     private CompatibilityModeEnum compatibilityMode = CompatibilityModeEnum.Loose;
+    private boolean fontSubsetting = true;
+    private long imageCacheSize = 32 << 20;
+    private PageAccessModeEnum pageAccessMode = PageAccessModeEnum.Indexed;
+    private int pageTreeFanOut = 32;
     private XRefModeEnum xrefMode = XRefModeEnum.Plain;
 
     private final Document document;
@@ -142,6 +164,33 @@ public final class Document
       )
     {return document;}
 
+    /**
+      Gets the maximum memory footprint (in bytes) of the decoded images cached for rendering.
+    */
+    public long getImageCacheSize(
+      )
+    {return imageCacheSize;}
+
+    /**
+      Gets the document's page access mode.
+      <p>In {@link PageAccessModeEnum#Lazy lazy} mode, {@link Pages#get(int) positional access}
+      resolves just the page tree path to the requested page and {@link Pages#indexOf(Object)
+      reverse lookup} just the path from the page to the root, so that, for example, extracting
+      pages 10000-10050 of a 60000-page document touches only those pages and their ancestors.</p>
+    */
+    public PageAccessModeEnum getPageAccessMode(
+      )
+    {return pageAccessMode;}
+
+    /**
+      Gets the maximum number of kids of each page tree node.
+      <p>The page tree is kept balanced according to this value as pages are added and removed
+      (see {@link Pages#rebalance()}).</p>
+    */
+    public int getPageTreeFanOut(
+      )
+    {return pageTreeFanOut;}
+
     /**
       Gets the document's cross-reference mode.
     */
@@ -149,6 +198,14 @@ public final class Document
       )
     {return xrefMode;}
 
+    /**
+      Gets whether the fonts embedded by this document are reduced to the glyphs actually used
+      when the document is saved.
+    */
+    public boolean isFontSubsetting(
+      )
+    {return fontSubsetting;}
+
     /**
       @see #getCompatibilityMode()
     */
@@ -157,6 +214,43 @@ public final class Document
       )
     {compatibilityMode = value;}
 
+    /**
+      @see #isFontSubsetting()
+    */
+    public void setFontSubsetting(
+      boolean value
+      )
+    {fontSubsetting = value;}
+
+    /**
+      @see #getImageCacheSize()
+    */
+    public void setImageCacheSize(
+      long value
+      )
+    {imageCacheSize = value;}
+
+    /**
+      @see #getPageAccessMode()
+    */
+    public void setPageAccessMode(
+      PageAccessModeEnum value
+      )
+    {pageAccessMode = value;}
+
+    /**
+      @see #getPageTreeFanOut()
+    */
+    public void setPageTreeFanOut(
+      int value
+      )
+    {
+      if(value < 2)
+        throw new IllegalArgumentException("Page tree fan-out MUST be at least 2.");
+
+      pageTreeFanOut = value;
+    }
+
     /**
       @see #getXrefMode()
     */
@@ -311,6 +405,7 @@ public final class Document
   public java.util.Hashtable<PdfReference,Object> cache = new java.util.Hashtable<PdfReference,Object>();
 
   private Configuration configuration = new Configuration(this);
+  private ImageCache imageCache;
   // </fields>
 
   // <constructors>
@@ -405,6 +500,18 @@ public final class Document
     )
   {return configuration;}
 
+  /**
+    <span style="color:red">For internal use only.</span>
+    Gets the cache of the images decoded for rendering.
+  */
+  public synchronized ImageCache getImageCache(
+    )
+  {
+    if(imageCache == null)
+    {imageCache = new ImageCache(this);}
+    return imageCache;
+  }
+
   /**
     Gets the interactive form (AcroForm).
 
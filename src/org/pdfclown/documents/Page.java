@@ -45,6 +45,7 @@ import org.pdfclown.documents.contents.RotationEnum;
 import org.pdfclown.documents.contents.composition.PrimitiveComposer;
 import org.pdfclown.documents.contents.objects.ContentObject;
 import org.pdfclown.documents.contents.xObjects.FormXObject;
+import org.pdfclown.documents.contents.xObjects.ImageXObject;
 import org.pdfclown.documents.contents.xObjects.XObject;
 import org.pdfclown.documents.interaction.navigation.page.Transition;
 import org.pdfclown.files.File;
@@ -57,7 +58,6 @@ import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfNumber;
 import org.pdfclown.objects.PdfObjectWrapper;
 import org.pdfclown.objects.PdfReal;
-import org.pdfclown.objects.PdfReference;
 import org.pdfclown.objects.PdfStream;
 import org.pdfclown.objects.Rectangle;
 import org.pdfclown.util.NotImplementedException;
@@ -334,54 +334,17 @@ public final class Page
 
   /**
     Gets the index of the page.
+
+    @return -1, in case the page doesn't belong to the page tree of its document.
   */
   public int getIndex(
     )
   {
     /*
-      NOTE: We'll scan sequentially each page-tree level above this page object
-      collecting page counts. At each level we'll scan the kids array from the
-      lower-indexed item to the ancestor of this page object at that level.
+      NOTE: The page tree keeps an index of its pages (see Pages.indexOf(Object)), so there's no
+      need to scan the page-tree levels above this page object.
     */
-    PdfReference ancestorKidReference = (PdfReference)getBaseObject();
-    PdfReference parentReference = (PdfReference)getBaseDataObject().get(PdfName.Parent);
-    PdfDictionary parent = (PdfDictionary)parentReference.getDataObject();
-    PdfArray kids = (PdfArray)parent.resolve(PdfName.Kids);
-    int index = 0;
-    for(
-      int i = 0;
-      true;
-      i++
-      )
-    {
-      PdfReference kidReference = (PdfReference)kids.get(i);
-      // Is the current-level counting complete?
-      // NOTE: It's complete when it reaches the ancestor at the current level.
-      if(kidReference.equals(ancestorKidReference)) // Ancestor node.
-      {
-        // Does the current level correspond to the page-tree root node?
-        if(!parent.containsKey(PdfName.Parent))
-        {
-          // We reached the top: counting's finished.
-          return index;
-        }
-        // Set the ancestor at the next level!
-        ancestorKidReference = parentReference;
-        // Move up one level!
-        parentReference = (PdfReference)parent.get(PdfName.Parent);
-        parent = (PdfDictionary)parentReference.getDataObject();
-        kids = (PdfArray)parent.resolve(PdfName.Kids);
-        i = -1;
-      }
-      else // Intermediate node.
-      {
-        PdfDictionary kid = (PdfDictionary)kidReference.getDataObject();
-        if(kid.get(PdfName.Type).equals(PdfName.Page))
-          index++;
-        else
-          index += ((PdfInteger)kid.get(PdfName.Count)).getRawValue();
-      }
-    }
+    return getDocument().getPages().indexOf(this);
   }
 
   /**
@@ -399,6 +362,18 @@ public final class Page
     )
   {return TabOrderEnum.get((PdfName)getBaseDataObject().get(PdfName.Tabs));}
 
+  /**
+    Gets the thumbnail image of the page [PDF:1.6:8.2.3].
+
+    @return <code>null</code>, if the page has no embedded thumbnail.
+  */
+  public ImageXObject getThumbnail(
+    )
+  {
+    PdfDirectObject thumbnailObject = getBaseDataObject().get(PdfName.Thumb);
+    return thumbnailObject != null ? new ImageXObject(thumbnailObject) : null;
+  }
+
   /**
     Gets the transition effect to be used when displaying the page during presentations.
   */
@@ -516,6 +491,14 @@ public final class Page
     )
   {getBaseDataObject().put(PdfName.Tabs,value.getCode());}
 
+  /**
+    @see #getThumbnail()
+  */
+  public void setThumbnail(
+    ImageXObject value
+    )
+  {getBaseDataObject().put(PdfName.Thumb, PdfObjectWrapper.getBaseObject(value));}
+
   /**
     @see #getTransition()
   */
@@ -28,15 +28,20 @@ package org.pdfclown.documents;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.Stack;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
-import org.pdfclown.files.File;
+import org.pdfclown.documents.Document.Configuration.PageAccessModeEnum;
 import org.pdfclown.objects.PdfArray;
 import org.pdfclown.objects.PdfDictionary;
 import org.pdfclown.objects.PdfDirectObject;
@@ -50,7 +55,7 @@ import org.pdfclown.util.NotImplementedException;
   Document pages collection [PDF:1.6:3.6.2].
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
-  @version 0.1.2, 08/23/12
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class Pages
@@ -58,11 +63,116 @@ public final class Pages
   implements List<Page>
 {
   /*
-    TODO:IMPL A B-tree algorithm should be implemented to optimize the inner layout
-    of the page tree (better insertion/deletion performance). In this case, it would
-    be necessary to keep track of the modified tree nodes for incremental update.
+    NOTE: The page tree is kept balanced as a B-tree whose nodes hold at most
+    Document.Configuration.getPageTreeFanOut() kids (see commonAddAll(...), commonRemove(...) and
+    rebalance()).
   */
   // <class>
+  // <classes>
+  /**
+    Page index, mapping page positions to page references and back.
+    <p>It's built on demand, walking the whole page tree once, and then kept up to date by the
+    structural operations of the pages collection; this way, random access and reverse lookups
+    don't need to scan the page tree.</p>
+  */
+  private static final class Index
+  {
+    /**
+      Page references by position.
+    */
+    private final List<PdfReference> pageReferences;
+    /**
+      Page positions by reference (lazily rebuilt after position shifts).
+    */
+    private Map<PdfReference,Integer> pageIndexes;
+
+    private Index(
+      List<PdfReference> pageReferences
+      )
+    {this.pageReferences = pageReferences;}
+
+    public void add(
+      int index,
+      List<PdfReference> pageReferences
+      )
+    {
+      if(index == -1) // Append.
+      {
+        if(pageIndexes != null)
+        {
+          for(
+            int pageIndex = this.pageReferences.size(),
+              offset = 0;
+            offset < pageReferences.size();
+            offset++
+            )
+          {pageIndexes.put(pageReferences.get(offset),pageIndex + offset);}
+        }
+        this.pageReferences.addAll(pageReferences);
+      }
+      else // Insert.
+      {
+        this.pageReferences.addAll(index,pageReferences);
+        pageIndexes = null; // Following positions shifted.
+      }
+    }
+
+    public PdfReference get(
+      int index
+      )
+    {return index >= 0 && index < pageReferences.size() ? pageReferences.get(index) : null;}
+
+    public int indexOf(
+      PdfReference pageReference
+      )
+    {
+      if(pageIndexes == null)
+      {
+        pageIndexes = new HashMap<PdfReference,Integer>(pageReferences.size() * 4 / 3 + 1);
+        for(
+          int index = 0,
+            length = pageReferences.size();
+          index < length;
+          index++
+          )
+        {pageIndexes.put(pageReferences.get(index),index);}
+      }
+      Integer index = pageIndexes.get(pageReference);
+      return index != null ? index : -1;
+    }
+
+    public void removeAll(
+      Set<PdfReference> pageReferences
+      )
+    {
+      if(pageReferences.isEmpty())
+        return;
+
+      this.pageReferences.removeAll(pageReferences);
+      pageIndexes = null; // Following positions shifted.
+    }
+
+    public int size(
+      )
+    {return pageReferences.size();}
+  }
+  // </classes>
+
+  // <static>
+  // <fields>
+  /**
+    Page attributes inheritable from page tree nodes [PDF:1.6:3.6.2].
+  */
+  private static final PdfName[] InheritableAttributeKeys = new PdfName[]
+    {
+      PdfName.Resources,
+      PdfName.MediaBox,
+      PdfName.CropBox,
+      PdfName.Rotate
+    };
+  // </fields>
+  // </static>
+
   // <dynamic>
   // <constructors>
   Pages(
@@ -102,6 +212,62 @@ public final class Pages
     )
   {throw new NotImplementedException();}
 
+  /**
+    Rebuilds the page tree as a balanced tree.
+    <p>Pages are added and removed keeping the page tree balanced; this method is useful to
+    restructure page trees of existing documents (for example, flat page trees whose root holds
+    all the pages), preserving page order and inherited attributes.</p>
+
+    @see Document.Configuration#getPageTreeFanOut()
+  */
+  public void rebalance(
+    )
+  {
+    List<PdfReference> pageReferences = new ArrayList<PdfReference>(getIndex().pageReferences);
+    PdfReference root = (PdfReference)getBaseObject();
+
+    // 1. Detach the pages from the intermediate nodes.
+    Set<PdfReference> nodes = new HashSet<PdfReference>();
+    for(PdfReference pageReference : pageReferences)
+    {
+      PdfDictionary pageData = (PdfDictionary)pageReference.getDataObject();
+      /*
+        NOTE: Attributes inherited from intermediate nodes have to be materialized into the page,
+        as such nodes are going to be discarded (root's attributes are still inherited).
+      */
+      PdfReference node = (PdfReference)pageData.get(PdfName.Parent);
+      while(!node.equals(root))
+      {
+        nodes.add(node);
+        PdfDictionary nodeData = (PdfDictionary)node.getDataObject();
+        for(PdfName key : InheritableAttributeKeys)
+        {
+          if(!pageData.containsKey(key))
+          {
+            PdfDirectObject value = nodeData.get(key);
+            if(value != null)
+            {pageData.put(key, getInheritableAttributeCopy(value));}
+          }
+        }
+        node = (PdfReference)nodeData.get(PdfName.Parent);
+      }
+    }
+    for(PdfReference node : nodes)
+    {node.delete();}
+
+    // 2. Flatten the page tree.
+    PdfArray kidsData = (PdfArray)getBaseDataObject().resolve(PdfName.Kids);
+    removeKids(kidsData, 0);
+    moveKids(new ArrayList<PdfDirectObject>(pageReferences), root);
+
+    // 3. Rebuild the page tree.
+    /*
+      NOTE: As no further kids are expected, they are evenly partitioned: packing full nodes would
+      leave the remainder (possibly a single kid) into a degenerate last node at each level.
+    */
+    split(root, false);
+  }
+
   // <List>
   @Override
   public void add(
@@ -122,63 +288,25 @@ public final class Pages
     int index
     )
   {
-    /*
-      NOTE: As stated in [PDF:1.6:3.6.2], to retrieve pages is a matter of diving
-      inside a B-tree. To keep it as efficient as possible, this implementation
-      does NOT adopt recursion to deepen its search, opting for an iterative strategy
-      instead.
-    */
-    int pageOffset = 0;
-    PdfDictionary parent = getBaseDataObject();
-    PdfArray kids = (PdfArray)parent.resolve(PdfName.Kids);
-    for(
-      int i = 0;
-      i < kids.size();
-      i++
-      )
-    {
-      PdfReference kidReference = (PdfReference)kids.get(i);
-      PdfDictionary kid = (PdfDictionary)kidReference.getDataObject();
-      // Is current kid a page object?
-      if(kid.get(PdfName.Type).equals(PdfName.Page)) // Page object.
-      {
-        // Did we reach the searched position?
-        if(pageOffset == index) // Vertical scan (we finished).
-        {
-          // We got it!
-          return Page.wrap(kidReference);
-        }
-        else // Horizontal scan (go past).
-        {
-          // Cumulate current page object count!
-          pageOffset++;
-        }
-      }
-      else // Page tree node.
-      {
-        // Does the current subtree contain the searched page?
-        if(((PdfInteger)kid.get(PdfName.Count)).getRawValue() + pageOffset > index) // Vertical scan (deepen the search).
-        {
-          // Go down one level!
-          parent = kid;
-          kids = (PdfArray)parent.resolve(PdfName.Kids);
-          i = -1;
-        }
-        else // Horizontal scan (go past).
-        {
-          // Cumulate current subtree count!
-          pageOffset += ((PdfInteger)kid.get(PdfName.Count)).getRawValue();
-        }
-      }
-    }
-    return null;
+    Index pageIndex = getIndex(isIndexed());
+    if(pageIndex == null)
+      return locate(index);
+
+    PdfReference pageReference = pageIndex.get(index);
+    return pageReference != null ? Page.wrap(pageReference) : null;
   }
 
   @Override
   public int indexOf(
     Object page
     )
-  {return ((Page)page).getIndex();}
+  {
+    Index pageIndex = getIndex(isIndexed());
+    if(pageIndex == null)
+      return locate((Page)page);
+
+    return pageIndex.indexOf((PdfReference)((Page)page).getBaseObject());
+  }
 
   @Override
   public int lastIndexOf(
@@ -293,33 +421,12 @@ public final class Pages
     Object page
     )
   {
-    Page pageObj = (Page)page;
-    PdfDictionary pageData = pageObj.getBaseDataObject();
-    // Get the parent tree node!
-    PdfDirectObject parent = pageData.get(PdfName.Parent);
-    PdfDictionary parentData = (PdfDictionary)File.resolve(parent);
-    // Get the parent's page collection!
-    PdfDirectObject kids = parentData.get(PdfName.Kids);
-    PdfArray kidsData = (PdfArray)File.resolve(kids);
-    // Remove the page!
-    kidsData.remove(pageObj.getBaseObject());
-
-    // Unbind the page from its parent!
-    pageData.put(PdfName.Parent,null);
-
-    // Decrementing the pages counters...
-    do
-    {
-      // Get the page collection counter!
-      PdfInteger countObject = (PdfInteger)parentData.get(PdfName.Count);
-      // Decrement the counter at the current level!
-      parentData.put(PdfName.Count, PdfInteger.get(countObject.getValue()-1));
-
-      // Iterate upward!
-      parent = parentData.get(PdfName.Parent);
-      parentData = (PdfDictionary)File.resolve(parent);
-    } while(parent != null);
+    Index pageIndex = getIndex(isIndexed());
+    if(!commonRemove((Page)page))
+      return false;
 
+    if(pageIndex != null)
+    {pageIndex.removeAll(Collections.singleton((PdfReference)((Page)page).getBaseObject()));}
     return true;
   }
 
@@ -333,11 +440,17 @@ public final class Pages
       items, so we cannot adopt the optimized approach of the add*(...) methods family,
       where adding-collection's items are explicitly ordered.
     */
-    boolean changed = false;
+    Index pageIndex = getIndex(isIndexed());
+    Set<PdfReference> removedPageReferences = new HashSet<PdfReference>();
     for(Object page : pages)
-    {changed |= remove(page);}
+    {
+      if(commonRemove((Page)page))
+      {removedPageReferences.add((PdfReference)((Page)page).getBaseObject());}
+    }
+    if(pageIndex != null)
+    {pageIndex.removeAll(removedPageReferences);}
 
-    return changed;
+    return !removedPageReferences.isEmpty();
   }
 
   @Override
@@ -484,71 +597,585 @@ public final class Pages
     Collection<? extends Page> pages
     )
   {
-    PdfDirectObject parent;
-    PdfDictionary parentData;
-    PdfDirectObject kids;
+    PdfReference parent;
     PdfArray kidsData;
     int offset;
     // Append operation?
     if(index == -1) // Append operation.
     {
       // Get the parent tree node!
-      parent = getBaseObject();
-      parentData = getBaseDataObject();
-      // Get the parent's page collection!
-      kids = parentData.get(PdfName.Kids);
-      kidsData = (PdfArray)File.resolve(kids);
-      offset = 0; // Not used.
+      /*
+        NOTE: Pages are appended to the last leaf node of the page tree.
+      */
+      parent = (PdfReference)getBaseObject();
+      kidsData = (PdfArray)getBaseDataObject().resolve(PdfName.Kids);
+      while(!kidsData.isEmpty())
+      {
+        PdfReference lastKid = (PdfReference)kidsData.get(kidsData.size() - 1);
+        PdfDictionary lastKidData = (PdfDictionary)lastKid.getDataObject();
+        if(!lastKidData.get(PdfName.Type).equals(PdfName.Pages))
+          break;
+
+        parent = lastKid;
+        kidsData = (PdfArray)lastKidData.resolve(PdfName.Kids);
+      }
+      offset = kidsData.size();
     }
     else // Insert operation.
     {
       // Get the page currently at the specified position!
       Page pivotPage = get(index);
       // Get the parent tree node!
-      parent = pivotPage.getBaseDataObject().get(PdfName.Parent);
-      parentData = (PdfDictionary)File.resolve(parent);
+      parent = (PdfReference)pivotPage.getBaseDataObject().get(PdfName.Parent);
       // Get the parent's page collection!
-      kids = parentData.get(PdfName.Kids);
-      kidsData = (PdfArray)File.resolve(kids);
+      kidsData = (PdfArray)((PdfDictionary)parent.getDataObject()).resolve(PdfName.Kids);
       // Get the insertion's relative position within the parent's page collection!
       offset = kidsData.indexOf(pivotPage.getBaseObject());
     }
 
     // Adding the pages...
+    Index pageIndex = getIndex(isIndexed());
+    int fanOut = getFanOut();
+    List<PdfReference> pageReferences = new ArrayList<PdfReference>(pages.size());
     for(Page page : pages)
     {
-      // Append?
-      if(index == -1) // Append.
+      PdfReference pageReference = (PdfReference)page.getBaseObject();
+      pageReferences.add(pageReference);
+      // Insert the page into the collection!
+      kidsData.add(offset++, pageReference);
+      // Bind the page to the collection!
+      page.getBaseDataObject().put(PdfName.Parent,parent);
+      // Increment the pages counters!
+      updateCounts(parent, 1);
+
+      // Keep the page tree balanced!
+      if(kidsData.size() > fanOut)
       {
-        // Append the page to the collection!
-        kidsData.add(page.getBaseObject());
+        split(parent, offset == kidsData.size());
+
+        // Relocate the insertion point (the page may have been moved to another node)!
+        parent = (PdfReference)page.getBaseDataObject().get(PdfName.Parent);
+        kidsData = (PdfArray)((PdfDictionary)parent.getDataObject()).resolve(PdfName.Kids);
+        offset = kidsData.indexOf(pageReference) + 1;
       }
-      else // Insert.
+    }
+
+    if(pageIndex != null)
+    {pageIndex.add(index,pageReferences);}
+
+    return true;
+  }
+
+  /**
+    Removes the given page from the page tree.
+
+    @return Whether the page was removed.
+  */
+  private boolean commonRemove(
+    Page page
+    )
+  {
+    PdfDictionary pageData = page.getBaseDataObject();
+    // Get the parent tree node!
+    PdfReference parent = (PdfReference)pageData.get(PdfName.Parent);
+    if(parent == null) // Detached page.
+      return false;
+
+    // Get the parent's page collection!
+    PdfArray kidsData = (PdfArray)((PdfDictionary)parent.getDataObject()).resolve(PdfName.Kids);
+    // Remove the page!
+    kidsData.remove(page.getBaseObject());
+
+    // Unbind the page from its parent!
+    pageData.put(PdfName.Parent,null);
+
+    // Decrement the pages counters!
+    updateCounts(parent, -1);
+
+    // Keep the page tree balanced!
+    shrink(parent);
+
+    return true;
+  }
+
+  /**
+    Creates a page tree node.
+
+    @param parent Parent node.
+    @param kids Kids to move into the new node.
+    @param template Node whose inheritable attributes have to be copied into the new node.
+    @return Reference to the new node.
+  */
+  private PdfReference createNode(
+    PdfReference parent,
+    List<PdfDirectObject> kids,
+    PdfDictionary template
+    )
+  {
+    PdfDictionary node = new PdfDictionary(
+      new PdfName[]
+      {
+        PdfName.Type,
+        PdfName.Parent,
+        PdfName.Kids,
+        PdfName.Count
+      },
+      new PdfDirectObject[]
       {
-        // Insert the page into the collection!
-        kidsData.add(
-          offset++,
-          page.getBaseObject()
-          );
+        PdfName.Pages,
+        parent,
+        new PdfArray(),
+        PdfInteger.get(getCount(kids))
+      }
+      );
+    if(template != null)
+    {
+      for(PdfName key : InheritableAttributeKeys)
+      {
+        PdfDirectObject value = template.get(key);
+        if(value != null)
+        {node.put(key, getInheritableAttributeCopy(value));}
       }
-      // Bind the page to the collection!
-      page.getBaseDataObject().put(PdfName.Parent,parent);
     }
+    PdfReference nodeReference = getFile().register(node);
+    moveKids(kids, nodeReference);
+    return nodeReference;
+  }
 
-    // Incrementing the pages counters...
-    do
+  /**
+    Gets the number of pages descending from the given page tree nodes.
+  */
+  private int getCount(
+    List<PdfDirectObject> kids
+    )
+  {
+    int count = 0;
+    for(PdfDirectObject kid : kids)
     {
-      // Get the page collection counter!
-      PdfInteger countObject = (PdfInteger)parentData.get(PdfName.Count);
-      // Increment the counter at the current level!
-      parentData.put(PdfName.Count, PdfInteger.get(countObject.getValue()+pages.size()));
+      PdfDictionary kidData = (PdfDictionary)((PdfReference)kid).getDataObject();
+      count += (kidData.get(PdfName.Type).equals(PdfName.Page)
+        ? 1
+        : ((PdfInteger)kidData.get(PdfName.Count)).getRawValue());
+    }
+    return count;
+  }
 
-      // Iterate upward!
-      parent = parentData.get(PdfName.Parent);
-      parentData = (PdfDictionary)File.resolve(parent);
-    } while(parent != null);
+  /**
+    Gets the maximum number of kids per page tree node.
+  */
+  private int getFanOut(
+    )
+  {return getDocument().getConfiguration().getPageTreeFanOut();}
 
-    return true;
+  /**
+    Gets a copy of the given inheritable attribute value suitable to be shared by another node.
+  */
+  private PdfDirectObject getInheritableAttributeCopy(
+    PdfDirectObject value
+    )
+  {
+    /*
+      NOTE: Indirect values are shared, whilst direct values MUST be duplicated as each direct
+      object belongs to a single container.
+    */
+    return value instanceof PdfReference ? value : (PdfDirectObject)value.clone(getFile());
+  }
+
+  /**
+    Gets whether the given page tree node defines any inheritable attribute.
+  */
+  private boolean hasInheritableAttributes(
+    PdfDictionary node
+    )
+  {
+    for(PdfName key : InheritableAttributeKeys)
+    {
+      if(node.containsKey(key))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+    Moves the given kids under the given page tree node.
+  */
+  private void moveKids(
+    List<PdfDirectObject> kids,
+    PdfReference node
+    )
+  {
+    PdfArray kidsData = (PdfArray)((PdfDictionary)node.getDataObject()).resolve(PdfName.Kids);
+    for(PdfDirectObject kid : kids)
+    {
+      ((PdfDictionary)((PdfReference)kid).getDataObject()).put(PdfName.Parent, node);
+      kidsData.add(kid);
+    }
+  }
+
+  /**
+    Removes the kids of the given page tree node from the given position on.
+  */
+  private void removeKids(
+    PdfArray kidsData,
+    int fromIndex
+    )
+  {
+    // NOTE: Removal proceeds backward to avoid shifting the remaining kids.
+    for(int index = kidsData.size() - 1; index >= fromIndex; index--)
+    {kidsData.remove(index);}
+  }
+
+  /**
+    Keeps the given page tree node (and its ancestors) compact after a removal.
+    <p>Empty nodes are dropped, underfull nodes are merged into their adjacent siblings whenever
+    possible, and the root collapses its single intermediate kid.</p>
+  */
+  private void shrink(
+    PdfReference node
+    )
+  {
+    int fanOut = getFanOut();
+    PdfReference root = (PdfReference)getBaseObject();
+    while(!node.equals(root))
+    {
+      PdfDictionary nodeData = (PdfDictionary)node.getDataObject();
+      PdfArray kidsData = (PdfArray)nodeData.resolve(PdfName.Kids);
+      PdfReference parent = (PdfReference)nodeData.get(PdfName.Parent);
+      PdfArray parentKidsData = (PdfArray)((PdfDictionary)parent.getDataObject()).resolve(PdfName.Kids);
+      if(kidsData.isEmpty()) // Empty node.
+      {
+        parentKidsData.remove(node);
+        node.delete();
+      }
+      else if(kidsData.size() < fanOut / 2
+        && !hasInheritableAttributes(nodeData)) // Underfull node.
+      {
+        // Merge the node into an adjacent sibling!
+        int nodeIndex = parentKidsData.indexOf(node);
+        for(int siblingIndex : new int[]{nodeIndex - 1, nodeIndex + 1})
+        {
+          if(siblingIndex < 0 || siblingIndex >= parentKidsData.size())
+            continue;
+
+          PdfReference sibling = (PdfReference)parentKidsData.get(siblingIndex);
+          PdfDictionary siblingData = (PdfDictionary)sibling.getDataObject();
+          if(!siblingData.get(PdfName.Type).equals(PdfName.Pages)
+            || hasInheritableAttributes(siblingData))
+            continue;
+
+          PdfArray siblingKidsData = (PdfArray)siblingData.resolve(PdfName.Kids);
+          if(siblingKidsData.size() + kidsData.size() > fanOut)
+            continue;
+
+          List<PdfDirectObject> kids = new ArrayList<PdfDirectObject>(kidsData);
+          removeKids(kidsData, 0);
+          if(siblingIndex < nodeIndex) // Previous sibling.
+          {moveKids(kids, sibling);}
+          else // Next sibling.
+          {
+            for(int index = kids.size() - 1; index >= 0; index--)
+            {
+              PdfDirectObject kid = kids.get(index);
+              ((PdfDictionary)((PdfReference)kid).getDataObject()).put(PdfName.Parent, sibling);
+              siblingKidsData.add(0, kid);
+            }
+          }
+          siblingData.put(PdfName.Count, PdfInteger.get(((PdfInteger)siblingData.get(PdfName.Count)).getRawValue() + getCount(kids)));
+          parentKidsData.remove(node);
+          node.delete();
+          break;
+        }
+      }
+      node = parent;
+    }
+
+    // Collapse the root's single intermediate kid!
+    PdfDictionary rootData = getBaseDataObject();
+    PdfArray rootKidsData = (PdfArray)rootData.resolve(PdfName.Kids);
+    while(rootKidsData.size() == 1)
+    {
+      PdfReference kid = (PdfReference)rootKidsData.get(0);
+      PdfDictionary kidData = (PdfDictionary)kid.getDataObject();
+      if(!kidData.get(PdfName.Type).equals(PdfName.Pages)
+        || hasInheritableAttributes(kidData))
+        break;
+
+      List<PdfDirectObject> kids = new ArrayList<PdfDirectObject>((PdfArray)kidData.resolve(PdfName.Kids));
+      rootKidsData.remove(0);
+      kid.delete();
+      moveKids(kids, root);
+    }
+  }
+
+  /**
+    Splits the given page tree node in case it exceeds the fan-out, propagating the split upward.
+
+    @param node Page tree node to split.
+    @param append Whether the node has grown at its end (in such case, split nodes are kept as
+      full as possible, as further kids are expected to be appended).
+  */
+  private void split(
+    PdfReference node,
+    boolean append
+    )
+  {
+    int fanOut = getFanOut();
+    PdfDictionary nodeData = (PdfDictionary)node.getDataObject();
+    PdfArray kidsData = (PdfArray)nodeData.resolve(PdfName.Kids);
+    int kidCount = kidsData.size();
+    if(kidCount <= fanOut)
+      return;
+
+    // Partition the kids!
+    int chunkCount = (kidCount + fanOut - 1) / fanOut;
+    List<List<PdfDirectObject>> chunks = new ArrayList<List<PdfDirectObject>>(chunkCount);
+    for(
+      int chunkIndex = 0,
+        kidIndex = 0;
+      chunkIndex < chunkCount;
+      chunkIndex++
+      )
+    {
+      int chunkSize = (append
+        ? Math.min(fanOut, kidCount - kidIndex)
+        : kidCount / chunkCount + (chunkIndex < kidCount % chunkCount ? 1 : 0));
+      chunks.add(new ArrayList<PdfDirectObject>(kidsData.subList(kidIndex, kidIndex += chunkSize)));
+    }
+
+    PdfReference parent = (PdfReference)nodeData.get(PdfName.Parent);
+    if(parent == null) // Root node.
+    {
+      /*
+        NOTE: As the root node's identity has to be preserved, the tree grows one level deeper:
+        the root's kids are moved into new intermediate nodes (inheritable attributes stay on the
+        root, which is still their ancestor).
+      */
+      removeKids(kidsData, 0);
+      for(List<PdfDirectObject> chunk : chunks)
+      {kidsData.add(createNode(node, chunk, null));}
+
+      split(node, append);
+    }
+    else // Intermediate node.
+    {
+      // The node keeps the first chunk, the others are moved into new siblings.
+      removeKids(kidsData, chunks.get(0).size());
+      nodeData.put(PdfName.Count, PdfInteger.get(getCount(chunks.get(0))));
+
+      PdfArray parentKidsData = (PdfArray)((PdfDictionary)parent.getDataObject()).resolve(PdfName.Kids);
+      int nodeIndex = parentKidsData.indexOf(node);
+      for(List<PdfDirectObject> chunk : chunks.subList(1, chunkCount))
+      {parentKidsData.add(++nodeIndex, createNode(parent, chunk, nodeData));}
+
+      split(parent, append && nodeIndex == parentKidsData.size() - 1);
+    }
+  }
+
+  /**
+    Updates the pages counters from the given page tree node upward.
+  */
+  private void updateCounts(
+    PdfReference node,
+    int delta
+    )
+  {
+    PdfDictionary nodeData = (PdfDictionary)node.getDataObject();
+    while(true)
+    {
+      PdfInteger countObject = (PdfInteger)nodeData.get(PdfName.Count);
+      nodeData.put(PdfName.Count, PdfInteger.get(countObject.getRawValue() + delta));
+
+      PdfReference parent = (PdfReference)nodeData.get(PdfName.Parent);
+      if(parent == null)
+        break;
+
+      nodeData = (PdfDictionary)parent.getDataObject();
+    }
+  }
+
+  /**
+    Gets the page index of this page tree.
+    <p>The index is shared by all the wrappers of this page tree through the document cache.</p>
+  */
+  private Index getIndex(
+    )
+  {return getIndex(true);}
+
+  /**
+    Gets the page index of this page tree.
+
+    @param build Whether the index has to be built in case it's not available.
+    @return <code>null</code>, if the index is not available and <code>build</code> is false.
+  */
+  private Index getIndex(
+    boolean build
+    )
+  {
+    PdfReference reference = (PdfReference)getBaseObject();
+    Map<PdfReference,Object> cache = getDocument().cache;
+    Index index = (Index)cache.get(reference);
+    /*
+      NOTE: A size mismatch means the page tree was modified bypassing this collection:
+      the index has to be rebuilt.
+    */
+    if(index == null
+      || index.size() != size())
+    {
+      if(build)
+      {cache.put(reference, index = new Index(collectPageReferences()));}
+      else
+      {
+        cache.remove(reference);
+        index = null;
+      }
+    }
+    return index;
+  }
+
+  /**
+    Gets whether the page tree has to be indexed as a whole.
+
+    @see Document.Configuration#getPageAccessMode()
+  */
+  private boolean isIndexed(
+    )
+  {return getDocument().getConfiguration().getPageAccessMode() == PageAccessModeEnum.Indexed;}
+
+  /**
+    Gets the page at the specified position, resolving just its page tree path.
+
+    @return <code>null</code>, if <code>index</code> is out of range.
+  */
+  private Page locate(
+    int index
+    )
+  {
+    /*
+      NOTE: As stated in [PDF:1.6:3.6.2], to retrieve pages is a matter of diving
+      inside a B-tree. To keep it as efficient as possible, this implementation
+      does NOT adopt recursion to deepen its search, opting for an iterative strategy
+      instead.
+    */
+    int pageOffset = 0;
+    PdfArray kids = (PdfArray)getBaseDataObject().resolve(PdfName.Kids);
+    for(
+      int i = 0;
+      i < kids.size();
+      i++
+      )
+    {
+      PdfReference kidReference = (PdfReference)kids.get(i);
+      PdfDictionary kid = (PdfDictionary)kidReference.getDataObject();
+      // Is current kid a page object?
+      if(kid.get(PdfName.Type).equals(PdfName.Page)) // Page object.
+      {
+        // Did we reach the searched position?
+        if(pageOffset == index) // Vertical scan (we finished).
+          return Page.wrap(kidReference);
+
+        // Horizontal scan (go past).
+        pageOffset++;
+      }
+      else // Page tree node.
+      {
+        int kidCount = ((PdfInteger)kid.get(PdfName.Count)).getRawValue();
+        // Does the current subtree contain the searched page?
+        if(kidCount + pageOffset > index) // Vertical scan (deepen the search).
+        {
+          // Go down one level!
+          kids = (PdfArray)kid.resolve(PdfName.Kids);
+          i = -1;
+        }
+        else // Horizontal scan (go past).
+        {pageOffset += kidCount;}
+      }
+    }
+    return null;
+  }
+
+  /**
+    Gets the position of the specified page, resolving just its page tree path.
+
+    @return <code>-1</code>, if <code>page</code> doesn't belong to this page tree.
+  */
+  private int locate(
+    Page page
+    )
+  {
+    if(page.getFile() != getFile())
+      return -1;
+
+    int index = 0;
+    PdfReference kidReference = (PdfReference)page.getBaseObject();
+    PdfReference parent = (PdfReference)page.getBaseDataObject().get(PdfName.Parent);
+    // Go upward to the root, counting the pages preceding the current kid at each level!
+    while(parent != null)
+    {
+      PdfDictionary parentData = (PdfDictionary)parent.getDataObject();
+      for(PdfDirectObject kid : (PdfArray)parentData.resolve(PdfName.Kids))
+      {
+        if(kid.equals(kidReference))
+          break;
+
+        PdfDictionary kidData = (PdfDictionary)((PdfReference)kid).getDataObject();
+        index += (kidData.get(PdfName.Type).equals(PdfName.Page)
+          ? 1
+          : ((PdfInteger)kidData.get(PdfName.Count)).getRawValue());
+      }
+      kidReference = parent;
+      parent = (PdfReference)parentData.get(PdfName.Parent);
+    }
+    return kidReference != page.getBaseObject() && kidReference.equals(getBaseObject()) ? index : -1;
+  }
+
+  /**
+    Collects the page references of this page tree, in page order.
+  */
+  private List<PdfReference> collectPageReferences(
+    )
+  {
+    /*
+      NOTE: As stated in [PDF:1.6:3.6.2], to retrieve pages is a matter of diving
+      inside a B-tree. To keep it as efficient as possible, this implementation
+      does NOT adopt recursion to deepen its search, opting for an iterative strategy
+      instead.
+    */
+    List<PdfReference> pageReferences = new ArrayList<PdfReference>(size());
+    Stack<Integer> levelIndexes = new Stack<Integer>();
+    PdfArray kids = (PdfArray)getBaseDataObject().resolve(PdfName.Kids);
+    Stack<PdfArray> levelKids = new Stack<PdfArray>();
+    int levelIndex = 0;
+    while(true)
+    {
+      if(levelIndex == kids.size()) // Level complete.
+      {
+        if(levelKids.isEmpty())
+          break;
+
+        // Go upward one level!
+        kids = levelKids.pop();
+        levelIndex = levelIndexes.pop() + 1;
+      }
+      else // Level incomplete.
+      {
+        PdfReference kidReference = (PdfReference)kids.get(levelIndex);
+        PdfDictionary kid = (PdfDictionary)kidReference.getDataObject();
+        if(kid.get(PdfName.Type).equals(PdfName.Page)) // Page object.
+        {
+          pageReferences.add(kidReference);
+          levelIndex++;
+        }
+        else // Page tree node.
+        {
+          // Go downward one level!
+          levelKids.push(kids);
+          levelIndexes.push(levelIndex);
+          kids = (PdfArray)kid.resolve(PdfName.Kids);
+          levelIndex = 0;
+        }
+      }
+    }
+    return pageReferences;
   }
   // </private>
   // </interface>
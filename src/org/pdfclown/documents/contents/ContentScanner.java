@@ -32,6 +32,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -46,6 +47,8 @@ import org.pdfclown.documents.contents.objects.CompositeObject;
 import org.pdfclown.documents.contents.objects.ContainerObject;
 import org.pdfclown.documents.contents.objects.ContentObject;
 import org.pdfclown.documents.contents.objects.InlineImage;
+import org.pdfclown.documents.contents.objects.LocalGraphicsState;
+import org.pdfclown.documents.contents.objects.Path;
 import org.pdfclown.documents.contents.objects.ShowText;
 import org.pdfclown.documents.contents.objects.Text;
 import org.pdfclown.documents.contents.objects.XObject;
@@ -68,7 +71,7 @@ import org.pdfclown.util.math.geom.Dimension;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.4
-  @version 0.1.2, 08/23/12
+  @version 0.1.2, 10/19/12
 */
 public final class ContentScanner
 {
@@ -93,11 +96,22 @@ public final class ContentScanner
   // <classes>
   /**
     Graphics state [PDF:1.6:4.3].
+    <p>Its matrices are copied on write: states copied from each other share them until they are
+    retrieved through their getters (which may be used to modify them in place).</p>
   */
   public static final class GraphicsState
     implements Cloneable
   {
     // <class>
+    // <static>
+    // <fields>
+    /**
+      Shared identity matrix (it MUST NOT be modified).
+    */
+    private static final AffineTransform IdentityMatrix = new AffineTransform();
+    // </fields>
+    // </static>
+
     // <dynamic>
     // <fields>
     private List<BlendModeEnum> blendMode;
@@ -122,6 +136,14 @@ public final class ContentScanner
     private AffineTransform tm;
     private double wordSpace;
 
+    /*
+      NOTE: Shared matrices are referenced by other states too, so they have to be copied before
+      being exposed.
+    */
+    private boolean ctmShared;
+    private boolean tlmShared;
+    private boolean tmShared;
+
     private ContentScanner scanner;
     // </fields>
 
@@ -153,10 +175,10 @@ public final class ContentScanner
         {throw new RuntimeException(e);} // NOTE: It should never happen.
 
         // Deep copy.
-        /* NOTE: Mutable objects are to be cloned. */
-        clone.ctm = (AffineTransform)ctm.clone();
-        clone.tlm = (AffineTransform)tlm.clone();
-        clone.tm = (AffineTransform)tm.clone();
+        /* NOTE: Mutable objects are to be copied on write. */
+        clone.ctmShared = ctmShared = true;
+        clone.tlmShared = tlmShared = true;
+        clone.tmShared = tmShared = true;
       }
       return clone;
     }
@@ -170,36 +192,8 @@ public final class ContentScanner
       GraphicsState state
       )
     {
-      state.blendMode = blendMode;
-      state.charSpace = charSpace;
-      state.ctm = (AffineTransform)ctm.clone();
-      state.fillColor = fillColor;
-      state.fillColorSpace = fillColorSpace;
-      state.font = font;
-      state.fontSize = fontSize;
-      state.lead = lead;
-      state.lineCap = lineCap;
-      state.lineDash = lineDash;
-      state.lineJoin = lineJoin;
-      state.lineWidth = lineWidth;
-      state.miterLimit = miterLimit;
-      state.renderMode = renderMode;
-      state.rise = rise;
-      state.scale = scale;
-      state.strokeColor = strokeColor;
-      state.strokeColorSpace = strokeColorSpace;
     //TODO:temporary hack (define TextState for textual parameters!)...
-      if(state.scanner.getParent() instanceof Text)
-      {
-        state.tlm = (AffineTransform)tlm.clone();
-        state.tm = (AffineTransform)tm.clone();
-      }
-      else
-      {
-        state.tlm = new AffineTransform();
-        state.tm = new AffineTransform();
-      }
-      state.wordSpace = wordSpace;
+      copyTo(state, state.scanner.getParent() instanceof Text);
     }
 
     /**
@@ -222,7 +216,11 @@ public final class ContentScanner
     */
     public AffineTransform getCtm(
       )
-    {return ctm;}
+    {
+      if(ctmShared)
+      {ctm = (AffineTransform)ctm.clone(); ctmShared = false;}
+      return ctm;
+    }
 
     /**
       Gets the current color for nonstroking operations [PDF:1.6:4.5.1].
@@ -291,7 +289,9 @@ public final class ContentScanner
         }
 
         // Scaling.
-        Rectangle2D contentBox = contentContext.getBox();
+        Rectangle2D contentBox = getScanner().getRenderArea();
+        if(contentBox == null)
+        {contentBox = contentContext.getBox();}
         Dimension2D rotatedCanvasSize = rotation.transform(canvasSize);
         initialCtm.scale(
           rotatedCanvasSize.getWidth() / contentBox.getWidth(),
@@ -393,14 +393,22 @@ public final class ContentScanner
     */
     public AffineTransform getTlm(
       )
-    {return tlm;}
+    {
+      if(tlmShared)
+      {tlm = (AffineTransform)tlm.clone(); tlmShared = false;}
+      return tlm;
+    }
 
     /**
       Gets the current text matrix [PDF:1.6:5.3].
     */
     public AffineTransform getTm(
       )
-    {return tm;}
+    {
+      if(tmShared)
+      {tm = (AffineTransform)tm.clone(); tmShared = false;}
+      return tm;
+    }
 
     /**
       Gets the current word spacing [PDF:1.6:5.2.2].
@@ -431,7 +439,7 @@ public final class ContentScanner
     public void setCtm(
       AffineTransform value
       )
-    {ctm = value;}
+    {ctm = value; ctmShared = false;}
 
     /**
       @see #getFillColor()
@@ -559,7 +567,7 @@ public final class ContentScanner
     public void setTlm(
       AffineTransform value
       )
-    {tlm = value;}
+    {tlm = value; tlmShared = false;}
 
     /**
       @see #getTm()
@@ -567,7 +575,7 @@ public final class ContentScanner
     public void setTm(
       AffineTransform value
       )
-    {tm = value;}
+    {tm = value; tmShared = false;}
 
     /**
       @see #getWordSpace()
@@ -634,13 +642,55 @@ public final class ContentScanner
       return state;
     }
 
+    /**
+      Copies this graphics state into the specified one.
+
+      @param state Target graphics state object.
+      @param textState Whether text matrices have to be copied (otherwise they are reset).
+    */
+    private void copyTo(
+      GraphicsState state,
+      boolean textState
+      )
+    {
+      state.blendMode = blendMode;
+      state.charSpace = charSpace;
+      state.ctm = ctm; state.ctmShared = ctmShared = true;
+      state.fillColor = fillColor;
+      state.fillColorSpace = fillColorSpace;
+      state.font = font;
+      state.fontSize = fontSize;
+      state.lead = lead;
+      state.lineCap = lineCap;
+      state.lineDash = lineDash;
+      state.lineJoin = lineJoin;
+      state.lineWidth = lineWidth;
+      state.miterLimit = miterLimit;
+      state.renderMode = renderMode;
+      state.rise = rise;
+      state.scale = scale;
+      state.strokeColor = strokeColor;
+      state.strokeColorSpace = strokeColorSpace;
+      if(textState)
+      {
+        state.tlm = tlm; state.tlmShared = tlmShared = true;
+        state.tm = tm; state.tmShared = tmShared = true;
+      }
+      else
+      {
+        state.tlm = state.tm = IdentityMatrix;
+        state.tlmShared = state.tmShared = true;
+      }
+      state.wordSpace = wordSpace;
+    }
+
     private void initialize(
       )
     {
       // State parameters initialization.
       blendMode = Collections.emptyList();
       charSpace = 0;
-      ctm = getInitialCtm();
+      ctm = getInitialCtm(); ctmShared = false;
       fillColor = DeviceGrayColor.Default;
       fillColorSpace = DeviceGrayColorSpace.Default;
       font = null;
@@ -656,8 +706,7 @@ public final class ContentScanner
       scale = 100;
       strokeColor = DeviceGrayColor.Default;
       strokeColorSpace = DeviceGrayColorSpace.Default;
-      tlm = new AffineTransform();
-      tm = new AffineTransform();
+      tlm = tm = IdentityMatrix; tlmShared = tmShared = true;
       wordSpace = 0;
 
       // Rendering context initialization.
@@ -827,8 +876,13 @@ public final class ContentScanner
     extends GraphicsObjectWrapper<ShowText>
     implements ITextString
   {
+    private final ShowText.GlyphRun glyphRun;
     private TextStyle style;
-    private final List<TextChar> textChars;
+    /**
+      Character views (lazily created, see {@link #getTextChars()}).
+    */
+    private TextChar[] textCharViews;
+    private List<TextChar> textChars;
 
     TextStringWrapper(
       ContentScanner scanner
@@ -836,40 +890,17 @@ public final class ContentScanner
     {
       super((ShowText)scanner.getCurrent());
 
-      textChars = new ArrayList<TextChar>();
-      {
-        GraphicsState state = scanner.getState();
-        style = new TextStyle(
-          state.getFont(),
-          state.getFontSize() * state.getTm().getScaleY(),
-          state.getRenderMode(),
-          state.getStrokeColor(),
-          state.getStrokeColorSpace(),
-          state.getFillColor(),
-          state.getFillColorSpace()
-          );
-        getBaseDataObject().scan(
-          state,
-          new ShowText.IScanner()
-          {
-            @Override
-            public void scanChar(
-              char textChar,
-              Rectangle2D textCharBox
-              )
-            {
-              textChars.add(
-                new TextChar(
-                  textChar,
-                  textCharBox,
-                  style,
-                  false
-                  )
-                );
-            }
-          }
-          );
-      }
+      GraphicsState state = scanner.getState();
+      style = new TextStyle(
+        state.getFont(),
+        state.getFontSize() * state.getTm().getScaleY(),
+        state.getRenderMode(),
+        state.getStrokeColor(),
+        state.getStrokeColorSpace(),
+        state.getFillColor(),
+        state.getFillColorSpace()
+        );
+      glyphRun = getBaseDataObject().scan(state, new ShowText.GlyphRun());
     }
 
     @Override
@@ -877,18 +908,17 @@ public final class ContentScanner
       )
     {
       if(box == null)
-      {
-        for(TextChar textChar : textChars)
-        {
-          if(box == null)
-          {box = (Rectangle2D)textChar.getBox().clone();}
-          else
-          {box.add(textChar.getBox());}
-        }
-      }
+      {box = glyphRun.getBounds();}
       return box;
     }
 
+    /**
+      Gets the glyphs of this text string.
+    */
+    public ShowText.GlyphRun getGlyphRun(
+      )
+    {return glyphRun;}
+
     /**
       Gets the text style.
      */
@@ -899,17 +929,47 @@ public final class ContentScanner
     @Override
     public String getText(
       )
-    {
-      StringBuilder textBuilder = new StringBuilder();
-      for(TextChar textChar : textChars)
-      {textBuilder.append(textChar);}
-      return textBuilder.toString();
-    }
+    {return glyphRun.getText();}
 
+    /**
+      {@inheritDoc}
+      <p>The returned list is read-only; its elements are created on demand.</p>
+    */
     @Override
     public List<TextChar> getTextChars(
       )
-    {return textChars;}
+    {
+      if(textChars == null)
+      {
+        textCharViews = new TextChar[glyphRun.getCount()];
+        textChars = new AbstractList<TextChar>()
+        {
+          @Override
+          public TextChar get(
+            int index
+            )
+          {
+            TextChar textChar = textCharViews[index];
+            if(textChar == null)
+            {
+              textCharViews[index] = textChar = new TextChar(
+                glyphRun.getChar(index),
+                glyphRun.getBox(index),
+                style,
+                false
+                );
+            }
+            return textChar;
+          }
+
+          @Override
+          public int size(
+            )
+          {return textCharViews.length;}
+        };
+      }
+      return textChars;
+    }
   }
 
   /**
@@ -964,7 +1024,12 @@ public final class ContentScanner
   // <dynamic>
   // <fields>
   /**
-    Child level.
+    Bounding box builder of the parent object, fed while walking through this level
+    (<code>null</code> if not needed).
+  */
+  private CompositeObject.BoxBuilder boxBuilder;
+  /**
+    Child level (created on demand, see {@link #getChildLevel()}).
   */
   private ContentScanner childLevel;
   /**
@@ -978,20 +1043,38 @@ public final class ContentScanner
   /**
     Object collection at this level.
   */
-  private final List<ContentObject> objects;
+  private List<ContentObject> objects;
   /**
     Parent level.
   */
   private final ContentScanner parentLevel;
+  /**
+    Recycled child level.
+    <p>As at most one child level is active at a time, the same instance (along with its graphics
+    state and descendant levels) is reused for each composite object of this level.</p>
+  */
+  private ContentScanner spareChildLevel;
   /**
     Current graphics state.
   */
   private GraphicsState state;
 
+  /**
+    Content area to render.
+  */
+  private Rectangle2D renderArea;
   /**
     Rendering context.
   */
   private Graphics2D renderContext;
+  /**
+    Minimum device-space size of the rendered paths and text.
+  */
+  private double renderDetailThreshold;
+  /**
+    Rendering hints.
+  */
+  private RenderingHints renderingHints;
   /**
     Rendering object.
   */
@@ -1056,9 +1139,13 @@ public final class ContentScanner
         {
           // Adjust the initial graphics state to the external form context!
           scanner.getState().getCtm().concatenate(formXObject.getMatrix());
-          /*
-            TODO: On rendering, clip according to the form dictionary's BBox entry!
-          */
+          Graphics2D renderContext = scanner.getRenderContext();
+          if(renderContext != null)
+          {
+            renderContext.setTransform(scanner.getState().getCtm());
+            // Clip according to the form dictionary's BBox entry [PDF:1.6:4.9.1]!
+            renderContext.clip(formXObject.getBox());
+          }
         }
       });
     moveStart();
@@ -1108,13 +1195,27 @@ public final class ContentScanner
 
   /**
     Gets the current child scan level.
+    <p>Child levels are recycled: the returned level is valid until this level moves to another
+    object.</p>
 
+    @return <code>null</code> in case the current object isn't composite.
     @see #getParentLevel()
     @see #getRootLevel()
   */
   public ContentScanner getChildLevel(
     )
-  {return childLevel;}
+  {
+    if(childLevel == null
+      && getCurrent() instanceof CompositeObject)
+    {
+      if(spareChildLevel == null)
+      {spareChildLevel = new ContentScanner(this);}
+      else
+      {spareChildLevel.reset();}
+      childLevel = spareChildLevel;
+    }
+    return childLevel;
+  }
 
   /**
     Gets the content context associated to the content objects collection.
@@ -1182,6 +1283,16 @@ public final class ContentScanner
     )
   {return parentLevel;}
 
+  /**
+    Gets the content area being rendered.
+
+    @return <code>null</code> in case of dry scanning or rendering of the entire
+      {@link IContentContext#getBox() content bounding box}.
+  */
+  public Rectangle2D getRenderArea(
+    )
+  {return (parentLevel == null ? renderArea : getRootLevel().renderArea);}
+
   /**
     Gets the rendering context.
 
@@ -1191,6 +1302,26 @@ public final class ContentScanner
     )
   {return renderContext;}
 
+  /**
+    Gets the minimum device-space size of the paths and text to render.
+    <p>Paths whose extent and text whose font size fall below it along both axes are skipped, as
+    they would hardly be discernible (e.g. in thumbnails). Default value is 0 (everything is
+    rendered). As it's relevant to the root level only, child levels inherit it.</p>
+  */
+  public double getRenderDetailThreshold(
+    )
+  {return (parentLevel == null ? renderDetailThreshold : getRootLevel().renderDetailThreshold);}
+
+  /**
+    Gets the rendering hints applied to the rendering context.
+    <p>As they are relevant to the root level only, child levels inherit them.</p>
+
+    @return <code>null</code> in case of default hints (antialiasing and bicubic interpolation).
+  */
+  public RenderingHints getRenderingHints(
+    )
+  {return (parentLevel == null ? renderingHints : getRootLevel().renderingHints);}
+
   /**
     Gets the rendering object.
 
@@ -1238,6 +1369,7 @@ public final class ContentScanner
     {index = 0;}
 
     objects.add(index,object);
+    invalidate();
     refresh();
   }
 
@@ -1329,21 +1461,27 @@ public final class ContentScanner
     ContentObject currentObject = getCurrent();
     if(currentObject != null)
     {
-    	
-    	String cmdStr = currentObject.toString();
-    	/*
-    	if(cmdStr.contains("f*") || cmdStr.contains("{f }")) {
-    		System.out.println(cmdStr);
-    	}
-    	*/
-    	if(!cmdStr.contains("{re [36, 270, 540, 720]}, {f }")) {
-    		currentObject.scan(state);
-    	}
+      if(boxBuilder != null)
+      {boxBuilder.add(currentObject, state);}
+      if(currentObject instanceof CompositeObject
+        && isCulled((CompositeObject)currentObject))
+      {skip((CompositeObject)currentObject);}
+      else
+      {currentObject.scan(state);}
     }
 
     // Moving to the next object...
     if(index < objects.size())
-    {index++; refresh();}
+    {
+      index++; refresh();
+      if(index == objects.size()
+        && boxBuilder != null)
+      {
+        // The parent object has been entirely walked through: its bounding box is ready.
+        boxBuilder.commit();
+        boxBuilder = null;
+      }
+    }
 
     return getCurrent() != null;
   }
@@ -1369,6 +1507,8 @@ public final class ContentScanner
       else
       {parentLevel.state.copyTo(state);}
     }
+    if(parentLevel != null)
+    {boxBuilder = ((CompositeObject)parentLevel.getCurrent()).newBoxBuilder(state);}
 
     notifyStart();
 
@@ -1384,6 +1524,7 @@ public final class ContentScanner
     )
   {
     ContentObject removedObject = objects.remove(index);
+    invalidate();
     refresh();
 
     return removedObject;
@@ -1426,18 +1567,43 @@ public final class ContentScanner
     Dimension2D renderSize,
     Shape renderObject
     )
+  {render(renderContext, renderSize, null, renderObject);}
+
+  /**
+    Renders the specified content area into the specified object.
+    <p>The content area is stretched to fit the rendering canvas; as it's relevant to the root level
+    only, child levels inherit it.</p>
+
+    @param renderContext Rendering context.
+    @param renderSize Rendering canvas size.
+    @param renderArea Content area to render; <code>null</code> corresponds to the entire
+      {@link IContentContext#getBox() content bounding box}.
+    @param renderObject Rendering object.
+    @since 0.1.2
+  */
+  public void render(
+    Graphics2D renderContext,
+    Dimension2D renderSize,
+    Rectangle2D renderArea,
+    Shape renderObject
+    )
   {
     if(isRootLevel())
     {
       // Initialize the context!
-      renderContext.setRenderingHint(
-        RenderingHints.KEY_ANTIALIASING,
-        RenderingHints.VALUE_ANTIALIAS_ON
-        );
-      renderContext.setRenderingHint(
-        RenderingHints.KEY_INTERPOLATION,
-        RenderingHints.VALUE_INTERPOLATION_BICUBIC
-        );
+      if(renderingHints != null)
+      {renderContext.addRenderingHints(renderingHints);}
+      else
+      {
+        renderContext.setRenderingHint(
+          RenderingHints.KEY_ANTIALIASING,
+          RenderingHints.VALUE_ANTIALIAS_ON
+          );
+        renderContext.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BICUBIC
+          );
+      }
 
       // Paint the canvas background!
       renderContext.setColor(java.awt.Color.WHITE);
@@ -1448,6 +1614,7 @@ public final class ContentScanner
     {
       this.renderContext = renderContext;
       this.renderSize = renderSize;
+      this.renderArea = renderArea;
       this.renderObject = renderObject;
 
       // Scan this level for rendering!
@@ -1458,6 +1625,7 @@ public final class ContentScanner
     } finally {
       this.renderContext = null;
       this.renderSize = null;
+      this.renderArea = null;
       this.renderObject = null;
     }
   }
@@ -1472,10 +1640,27 @@ public final class ContentScanner
     )
   {
     ContentObject replacedObject = objects.set(index,value);
+    invalidate();
     refresh();
 
     return replacedObject;
   }
+
+  /**
+    @see #getRenderDetailThreshold()
+  */
+  public void setRenderDetailThreshold(
+    double value
+    )
+  {renderDetailThreshold = value;}
+
+  /**
+    @see #getRenderingHints()
+  */
+  public void setRenderingHints(
+    RenderingHints value
+    )
+  {renderingHints = value;}
   // </public>
 
   // <protected>
@@ -1491,16 +1676,106 @@ public final class ContentScanner
   // </protected>
 
   // <private>
+  /**
+    Discards the bounding boxes affected by a change of the objects at this level, that is those of
+    the composite objects containing it.
+  */
+  private void invalidate(
+    )
+  {
+    for(
+      ContentScanner level = this;
+      level.parentLevel != null;
+      level = level.parentLevel
+      )
+    {
+      level.boxBuilder = null; // Walk no longer consistent.
+      ((CompositeObject)level.parentLevel.getCurrent()).invalidateBox();
+    }
+  }
+
+  /**
+    Gets whether the specified (current) composite object can be skipped on rendering, as it paints
+    nothing within the clipping region or (in case of paths) nothing above the
+    {@link #getRenderDetailThreshold() detail threshold}.
+  */
+  private boolean isCulled(
+    CompositeObject object
+    )
+  {
+    if(renderContext == null)
+      return false;
+
+    Rectangle2D box = object.getBox(state);
+    if(box == null
+      || (object.isClipping(state) && !(object instanceof LocalGraphicsState)))
+      return false;
+
+    // Device-space comparison.
+    AffineTransform ctm = state.getCtm();
+    Rectangle2D deviceBox = ctm.createTransformedShape(box).getBounds2D();
+    if(object instanceof Path)
+    {
+      double detailThreshold = getRenderDetailThreshold();
+      if(deviceBox.getWidth() < detailThreshold
+        && deviceBox.getHeight() < detailThreshold)
+        return true;
+    }
+    Shape clip = renderContext.getClip();
+    Rectangle2D deviceClipBox = (clip != null
+      ? ctm.createTransformedShape(clip.getBounds2D()).getBounds2D()
+      : new Rectangle2D.Double(0, 0, renderSize.getWidth(), renderSize.getHeight()));
+    // NOTE: Comparison is inclusive and padded, as antialiasing and hairlines spill over geometric bounds.
+    return deviceBox.getMaxX() + 1 < deviceClipBox.getMinX()
+      || deviceBox.getMinX() - 1 > deviceClipBox.getMaxX()
+      || deviceBox.getMaxY() + 1 < deviceClipBox.getMinY()
+      || deviceBox.getMinY() - 1 > deviceClipBox.getMaxY();
+  }
+
+  /**
+    Skips the specified (current) composite object, applying just its effects on the graphics state.
+  */
+  private void skip(
+    CompositeObject object
+    )
+  {
+    if(object instanceof LocalGraphicsState)
+      return; // Isolated graphics state.
+
+    // NOTE: As the render context is bound to the scanning level, the child level is dry-scanned.
+    ContentScanner childLevel = getChildLevel();
+    childLevel.moveEnd();
+    childLevel.getState().copyTo(state);
+    renderContext.setTransform(state.getCtm());
+  }
+
   /**
     Synchronizes the scanner state.
   */
   private void refresh(
     )
   {
-    if(getCurrent() instanceof CompositeObject)
-    {childLevel = new ContentScanner(this);}
-    else
-    {childLevel = null;}
+    // NOTE: The child level is (re)started on demand, at the graphics state preceding the current object.
+    childLevel = null;
+  }
+
+  /**
+    Restarts this (recycled) child level on the current object of its parent level.
+  */
+  private void reset(
+    )
+  {
+    objects = ((CompositeObject)parentLevel.getCurrent()).getObjects();
+    listeners.clear();
+
+    index = StartIndex;
+    // NOTE: Like a new child level, it inherits the whole parent state (text matrices included).
+    parentLevel.state.copyTo(state, true);
+    boxBuilder = ((CompositeObject)parentLevel.getCurrent()).newBoxBuilder(state);
+
+    notifyStart();
+
+    refresh();
   }
   // </private>
   // </interface>
@@ -0,0 +1,417 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pdfclown.documents.contents.fonts.Font;
+
+/**
+  Cache of rasterized glyphs.
+  <p>Glyph outlines are rasterized into coverage masks keyed by font, character code, size bucket
+  and subpixel offset, and evicted on a least-recently-used basis as soon as their overall size
+  exceeds the {@link #getMaxSize() configured limit}. A single cache serves all the documents, pages
+  and threads of the process; as fonts are weakly referenced, it doesn't retain their documents.
+  </p>
+  <p>This class is thread-safe.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class GlyphCache
+{
+  // <class>
+  // <classes>
+  private static final class Glyph
+  {
+    /**
+      Horizontal offset of the mask from the glyph origin (in device pixels).
+    */
+    private final int left;
+    /**
+      Coverage mask (<code>null</code> for blank glyphs).
+    */
+    private final WritableRaster mask;
+    /**
+      Vertical offset of the mask from the glyph origin (in device pixels).
+    */
+    private final int top;
+
+    private Glyph(
+      WritableRaster mask,
+      int left,
+      int top
+      )
+    {
+      this.mask = mask;
+      this.left = left;
+      this.top = top;
+    }
+
+    private long getSize(
+      )
+    {return 32 + (mask != null ? (long)mask.getWidth() * mask.getHeight() : 0);}
+  }
+
+  private static final class Key
+  {
+    private final int charCode;
+    private final int charCodeLength;
+    /**
+      Glyph font (compared by identity).
+    */
+    private final WeakReference<Font> font;
+    private final int fontHashCode;
+    private final int offsetX;
+    private final int offsetY;
+    private final int sizeX;
+    private final int sizeY;
+
+    private Key(
+      Font font,
+      int charCode,
+      int charCodeLength,
+      int sizeX,
+      int sizeY,
+      int offsetX,
+      int offsetY
+      )
+    {
+      this.font = new WeakReference<Font>(font);
+      fontHashCode = System.identityHashCode(font);
+      this.charCode = charCode;
+      this.charCodeLength = charCodeLength;
+      this.sizeX = sizeX;
+      this.sizeY = sizeY;
+      this.offsetX = offsetX;
+      this.offsetY = offsetY;
+    }
+
+    @Override
+    public boolean equals(
+      Object object
+      )
+    {
+      if(!(object instanceof Key))
+        return false;
+
+      Key key = (Key)object;
+      Font font = this.font.get();
+      return font != null // Collected fonts match no key.
+        && key.font.get() == font
+        && key.charCode == charCode
+        && key.charCodeLength == charCodeLength
+        && key.sizeX == sizeX
+        && key.sizeY == sizeY
+        && key.offsetX == offsetX
+        && key.offsetY == offsetY;
+    }
+
+    @Override
+    public int hashCode(
+      )
+    {return (((((fontHashCode * 31 + charCode) * 31 + charCodeLength) * 31 + sizeX) * 31 + sizeY) * 31 + offsetX) * 31 + offsetY;}
+  }
+  // </classes>
+
+  // <static>
+  // <fields>
+  /**
+    Maximum number of cached color models.
+  */
+  private static final int ColorModelCacheSize = 32;
+  /**
+    Maximum glyph size (in device pixels per em) to rasterize through the cache; larger glyphs are
+    filled directly, as their masks would be expensive to keep and rarely reused.
+  */
+  private static final double MaxGlyphSize = 256;
+  /**
+    Size buckets per device pixel per em.
+  */
+  private static final int SizeResolution = 4;
+  /**
+    Subpixel positions per device pixel.
+  */
+  private static final int SubpixelResolution = 4;
+  /**
+    Glyph space units per em.
+  */
+  private static final double UnitsPerEm = 1000;
+
+  private static final GlyphCache instance = new GlyphCache();
+  // </fields>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the shared glyph cache.
+  */
+  public static GlyphCache get(
+    )
+  {return instance;}
+  // </public>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final LinkedHashMap<Integer,IndexColorModel> colorModels = new LinkedHashMap<Integer,IndexColorModel>(16, .75f, true);
+  private final LinkedHashMap<Key,Glyph> glyphs = new LinkedHashMap<Key,Glyph>(256, .75f, true);
+  private long maxSize = 8 << 20;
+  private long size;
+  // </fields>
+
+  // <constructors>
+  private GlyphCache(
+    )
+  {}
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Removes all the cached glyphs.
+  */
+  public synchronized void clear(
+    )
+  {
+    glyphs.clear();
+    colorModels.clear();
+    size = 0;
+  }
+
+  /**
+    Gets the maximum memory footprint of the cached glyphs (in bytes).
+  */
+  public synchronized long getMaxSize(
+    )
+  {return maxSize;}
+
+  /**
+    Gets the overall memory footprint of the cached glyphs (in bytes).
+  */
+  public synchronized long getSize(
+    )
+  {return size;}
+
+  /**
+    Paints the specified glyph through its cached coverage mask.
+    <p>Glyphs can be cached only if their device transform is axis-aligned, they aren't too large
+    and their paint is a solid color; otherwise, nothing is painted and the caller is expected to
+    fill the outline by itself.</p>
+
+    @param context Rendering context.
+    @param font Glyph font.
+    @param charCode Glyph character code (see {@link Font#getGlyphOutline(int, int)}).
+    @param charCodeLength Glyph character code byte size.
+    @param glyphTransform Glyph space (1000 units per em) to the user space of <code>context</code>.
+    @param color Fill color.
+    @return Whether the glyph has been painted.
+  */
+  public boolean paint(
+    Graphics2D context,
+    Font font,
+    int charCode,
+    int charCodeLength,
+    AffineTransform glyphTransform,
+    Color color
+    )
+  {
+    AffineTransform contextTransform = context.getTransform();
+    AffineTransform deviceTransform = new AffineTransform(contextTransform);
+    deviceTransform.concatenate(glyphTransform);
+    if(deviceTransform.getShearX() != 0 || deviceTransform.getShearY() != 0)
+      return false;
+
+    // Size bucket.
+    int sizeX = (int)Math.round(deviceTransform.getScaleX() * UnitsPerEm * SizeResolution);
+    int sizeY = (int)Math.round(deviceTransform.getScaleY() * UnitsPerEm * SizeResolution);
+    if(sizeX == 0 || sizeY == 0
+      || Math.abs(sizeX) > MaxGlyphSize * SizeResolution
+      || Math.abs(sizeY) > MaxGlyphSize * SizeResolution)
+      return false;
+
+    // Subpixel offset.
+    double originX = deviceTransform.getTranslateX(), originY = deviceTransform.getTranslateY();
+    int x = (int)Math.floor(originX), y = (int)Math.floor(originY);
+    int offsetX = (int)Math.round((originX - x) * SubpixelResolution);
+    if(offsetX == SubpixelResolution)
+    {x++; offsetX = 0;}
+    int offsetY = (int)Math.round((originY - y) * SubpixelResolution);
+    if(offsetY == SubpixelResolution)
+    {y++; offsetY = 0;}
+
+    Key key = new Key(font, charCode, charCodeLength, sizeX, sizeY, offsetX, offsetY);
+    Glyph glyph;
+    synchronized(this)
+    {glyph = glyphs.get(key);}
+    if(glyph == null)
+    {
+      /*
+        NOTE: Rasterization happens outside the lock, so that concurrent renderings don't
+        serialize on it; in case of race, the same mask is just rasterized twice.
+      */
+      glyph = rasterize(font.getGlyphOutline(charCode, charCodeLength), key);
+      put(key, glyph);
+    }
+    if(glyph.mask == null)
+      return true;
+
+    BufferedImage image = new BufferedImage(getColorModel(color), glyph.mask, false, null);
+    context.setTransform(new AffineTransform());
+    context.drawImage(image, x + glyph.left, y + glyph.top, null);
+    context.setTransform(contextTransform);
+    return true;
+  }
+
+  /**
+    @see #getMaxSize()
+  */
+  public synchronized void setMaxSize(
+    long value
+    )
+  {
+    maxSize = value;
+    trim();
+  }
+  // </public>
+
+  // <private>
+  /**
+    Gets the color model mapping coverage values to the specified color.
+  */
+  private synchronized IndexColorModel getColorModel(
+    Color color
+    )
+  {
+    Integer key = color.getRGB();
+    IndexColorModel colorModel = colorModels.get(key);
+    if(colorModel == null)
+    {
+      byte[] reds = new byte[256], greens = new byte[256], blues = new byte[256], alphas = new byte[256];
+      int alpha = color.getAlpha();
+      for(int index = 0; index < 256; index++)
+      {
+        reds[index] = (byte)color.getRed();
+        greens[index] = (byte)color.getGreen();
+        blues[index] = (byte)color.getBlue();
+        alphas[index] = (byte)((index * alpha + 127) / 255);
+      }
+      colorModel = new IndexColorModel(8, 256, reds, greens, blues, alphas);
+      colorModels.put(key, colorModel);
+      if(colorModels.size() > ColorModelCacheSize)
+      {
+        Iterator<Integer> keyIterator = colorModels.keySet().iterator();
+        keyIterator.next();
+        keyIterator.remove();
+      }
+    }
+    return colorModel;
+  }
+
+  private synchronized void put(
+    Key key,
+    Glyph glyph
+    )
+  {
+    Glyph oldGlyph = glyphs.put(key, glyph);
+    if(oldGlyph != null)
+    {size -= oldGlyph.getSize();}
+    size += glyph.getSize();
+    trim();
+  }
+
+  /**
+    Renders the coverage mask of the specified glyph.
+
+    @param outline Glyph outline (<code>null</code> if unavailable).
+    @param key Glyph key.
+  */
+  private Glyph rasterize(
+    Shape outline,
+    Key key
+    )
+  {
+    if(outline == null)
+      return new Glyph(null, 0, 0);
+
+    AffineTransform rasterTransform = new AffineTransform(
+      (double)key.sizeX / (UnitsPerEm * SizeResolution),
+      0,
+      0,
+      (double)key.sizeY / (UnitsPerEm * SizeResolution),
+      (double)key.offsetX / SubpixelResolution,
+      (double)key.offsetY / SubpixelResolution
+      );
+    Shape shape = rasterTransform.createTransformedShape(outline);
+    Rectangle2D bounds = shape.getBounds2D();
+    if(bounds.isEmpty())
+      return new Glyph(null, 0, 0);
+
+    int left = (int)Math.floor(bounds.getMinX()), top = (int)Math.floor(bounds.getMinY());
+    int width = (int)Math.ceil(bounds.getMaxX()) - left, height = (int)Math.ceil(bounds.getMaxY()) - top;
+    BufferedImage mask = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_BYTE_GRAY);
+    Graphics2D maskContext = mask.createGraphics();
+    maskContext.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    maskContext.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    maskContext.setColor(Color.WHITE);
+    maskContext.translate(-left, -top);
+    maskContext.fill(shape);
+    maskContext.dispose();
+    return new Glyph(mask.getRaster(), left, top);
+  }
+
+  /**
+    Evicts the least recently used glyphs until the cache fits its size limit.
+  */
+  private void trim(
+    )
+  {
+    Iterator<Map.Entry<Key,Glyph>> entryIterator = glyphs.entrySet().iterator();
+    while(size > maxSize && entryIterator.hasNext())
+    {
+      size -= entryIterator.next().getValue().getSize();
+      entryIterator.remove();
+    }
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -0,0 +1,203 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pdfclown.documents.Document;
+import org.pdfclown.objects.PdfReference;
+
+/**
+  Cache of decoded images.
+  <p>Decoded images are shared by all the renderings of a document, keyed by their stream reference
+  and target resolution, and evicted on a least-recently-used basis as soon as their overall size
+  exceeds the {@link Document.Configuration#getImageCacheSize() configured limit}.</p>
+  <p>This class is thread-safe.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class ImageCache
+{
+  // <class>
+  // <classes>
+  private static final class Key
+  {
+    private final Color maskColor;
+    private final PdfReference reference;
+    private final int subsampling;
+
+    private Key(
+      PdfReference reference,
+      int subsampling,
+      Color maskColor
+      )
+    {
+      this.reference = reference;
+      this.subsampling = subsampling;
+      this.maskColor = maskColor;
+    }
+
+    @Override
+    public boolean equals(
+      Object object
+      )
+    {
+      if(!(object instanceof Key))
+        return false;
+
+      Key key = (Key)object;
+      return key.reference.equals(reference)
+        && key.subsampling == subsampling
+        && (key.maskColor == null ? maskColor == null : key.maskColor.equals(maskColor));
+    }
+
+    @Override
+    public int hashCode(
+      )
+    {return (reference.hashCode() * 31 + subsampling) * 31 + (maskColor != null ? maskColor.hashCode() : 0);}
+  }
+  // </classes>
+
+  // <static>
+  // <interface>
+  // <private>
+  /**
+    Gets the memory footprint of the specified image (in bytes).
+  */
+  private static long getSize(
+    BufferedImage image
+    )
+  {return (long)image.getWidth() * image.getHeight() * 4;}
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final Document document;
+  private final LinkedHashMap<Key,BufferedImage> images = new LinkedHashMap<Key,BufferedImage>(16, .75f, true);
+  private long size;
+  // </fields>
+
+  // <constructors>
+  /**
+    <span style="color:red">For internal use only.</span>
+  */
+  public ImageCache(
+    Document document
+    )
+  {this.document = document;}
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Removes all the cached images.
+  */
+  public synchronized void clear(
+    )
+  {
+    images.clear();
+    size = 0;
+  }
+
+  /**
+    Gets the decoded image corresponding to the specified stream.
+
+    @param reference Image stream reference.
+    @param subsampling Subsampling factor the image was decoded with.
+    @param maskColor Painting color (stencil masks only).
+    @return <code>null</code>, if the image isn't cached.
+  */
+  public synchronized BufferedImage get(
+    PdfReference reference,
+    int subsampling,
+    Color maskColor
+    )
+  {return images.get(new Key(reference, subsampling, maskColor));}
+
+  /**
+    Gets the overall memory footprint of the cached images (in bytes).
+  */
+  public synchronized long getSize(
+    )
+  {return size;}
+
+  /**
+    Caches the decoded image corresponding to the specified stream.
+    <p>Images exceeding the cache size limit by themselves are ignored.</p>
+
+    @param reference Image stream reference.
+    @param subsampling Subsampling factor the image was decoded with.
+    @param maskColor Painting color (stencil masks only).
+    @param image Decoded image.
+  */
+  public synchronized void put(
+    PdfReference reference,
+    int subsampling,
+    Color maskColor,
+    BufferedImage image
+    )
+  {
+    long maxSize = document.getConfiguration().getImageCacheSize();
+    long imageSize = getSize(image);
+    if(imageSize > maxSize)
+      return;
+
+    BufferedImage oldImage = images.put(new Key(reference, subsampling, maskColor), image);
+    if(oldImage != null)
+    {size -= getSize(oldImage);}
+    size += imageSize;
+    trim(maxSize);
+  }
+  // </public>
+
+  // <private>
+  /**
+    Evicts the least recently used images until the cache fits the specified size.
+  */
+  private void trim(
+    long maxSize
+    )
+  {
+    Iterator<Map.Entry<Key,BufferedImage>> entryIterator = images.entrySet().iterator();
+    while(size > maxSize && entryIterator.hasNext())
+    {
+      size -= getSize(entryIterator.next().getValue());
+      entryIterator.remove();
+    }
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -0,0 +1,568 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Transparency;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.pdfclown.bytes.filters.Filter;
+import org.pdfclown.documents.contents.colorSpaces.CalGrayColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.CalRGBColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.ColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.DeviceCMYKColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.DeviceGrayColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.DeviceRGBColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.ICCBasedColorSpace;
+import org.pdfclown.documents.contents.colorSpaces.IndexedColorSpace;
+import org.pdfclown.files.File;
+import org.pdfclown.objects.PdfArray;
+import org.pdfclown.objects.PdfBoolean;
+import org.pdfclown.objects.PdfDictionary;
+import org.pdfclown.objects.PdfDirectObject;
+import org.pdfclown.objects.PdfInteger;
+import org.pdfclown.objects.PdfName;
+import org.pdfclown.objects.PdfNumber;
+import org.pdfclown.objects.PdfReal;
+import org.pdfclown.util.NotImplementedException;
+
+/**
+  Image sample decoder [PDF:1.6:4.8].
+  <p>It converts the samples of image XObjects and inline images into rendering images, reducing
+  their resolution at decode time whenever the target device doesn't need the full one.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class ImageDecoder
+{
+  // <class>
+  // <static>
+  // <fields>
+  /*
+    NOTE: Sample conversion modes, according to the image color space.
+  */
+  private static final int CmykMode = 0;
+  private static final int GenericMode = 1;
+  private static final int GrayMode = 2;
+  private static final int IccMode = 3;
+  private static final int IndexedMode = 4;
+  private static final int MaskMode = 5;
+  private static final int RgbMode = 6;
+  // </fields>
+
+  // <interface>
+  // <public>
+  /**
+    Merges the specified soft mask [PDF:1.6:7.5.4] into the specified image.
+
+    @param image Image to mask.
+    @param mask Soft mask (its luminosity is interpreted as opacity); it's stretched to the image
+      size whenever their sizes don't match.
+    @return Masked image.
+  */
+  public static BufferedImage applySoftMask(
+    BufferedImage image,
+    BufferedImage mask
+    )
+  {
+    int width = image.getWidth(), height = image.getHeight();
+    int maskWidth = mask.getWidth(), maskHeight = mask.getHeight();
+    int[] maskPixels = mask.getRGB(0, 0, maskWidth, maskHeight, null, 0, maskWidth);
+
+    BufferedImage maskedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ((DataBufferInt)maskedImage.getRaster().getDataBuffer()).getData();
+    image.getRGB(0, 0, width, height, pixels, 0, width);
+    for(int y = 0, index = 0; y < height; y++)
+    {
+      int maskRowOffset = (int)((long)y * maskHeight / height) * maskWidth;
+      for(int x = 0; x < width; x++, index++)
+      {
+        int alpha = maskPixels[maskRowOffset + (int)((long)x * maskWidth / width)] & 0xff;
+        pixels[index] = (pixels[index] & 0xffffff) | (alpha << 24);
+      }
+    }
+    return maskedImage;
+  }
+
+  /**
+    Decodes the specified image.
+
+    @param header Image dictionary (either the stream header of an image XObject or the header of
+      an inline image, whose abbreviated keys are supported too).
+    @param data Encoded image samples.
+    @param filter Encoding filters.
+    @param parameters Encoding filter parameters.
+    @param colorSpace Color space of the image samples (ignored by stencil masks).
+    @param subsampling Number of samples per decoded pixel along each axis.
+    @param maskColor Painting color (stencil masks only).
+    @return <code>null</code>, if the image encoding isn't supported.
+  */
+  public static BufferedImage decode(
+    Map<PdfName,PdfDirectObject> header,
+    byte[] data,
+    PdfDirectObject filter,
+    PdfDirectObject parameters,
+    ColorSpace<?> colorSpace,
+    int subsampling,
+    Color maskColor
+    )
+  {
+    int width = getInt(header, PdfName.W, PdfName.Width, 0);
+    int height = getInt(header, PdfName.H, PdfName.Height, 0);
+    PdfBoolean imageMaskObject = (PdfBoolean)get(header, PdfName.IM, PdfName.ImageMask);
+    boolean imageMask = (imageMaskObject != null && imageMaskObject.getValue());
+    int bitsPerComponent = (imageMask ? 1 : getInt(header, PdfName.BPC, PdfName.BitsPerComponent, 8));
+    PdfArray decodeObject = (PdfArray)get(header, PdfName.D, PdfName.Decode);
+    if(width <= 0 || height <= 0
+      || (!imageMask && colorSpace == null))
+      return null;
+
+    // 1. Stream decoding.
+    PdfName imageFilter = null;
+    try
+    {
+      PdfArray filters = (filter instanceof PdfArray ? (PdfArray)filter : null);
+      for(int index = 0, count = (filters != null ? filters.size() : filter != null ? 1 : 0); index < count; index++)
+      {
+        PdfName filterName = (PdfName)(filters != null ? filters.resolve(index) : filter);
+        if(filterName.equals(PdfName.DCTDecode)
+          || filterName.equals(PdfName.DCT)
+          || filterName.equals(PdfName.JPXDecode))
+        {
+          if(index < count - 1)
+            return null;
+
+          /*
+            NOTE: Image-specific encodings are delegated to ImageIO, which can natively
+            reduce their resolution while reading.
+          */
+          imageFilter = filterName;
+          break;
+        }
+
+        Filter filterObject = Filter.get(filterName);
+        if(filterObject == null)
+          return null;
+
+        PdfDictionary filterParameters = (PdfDictionary)File.resolve(filters == null ? parameters
+          : parameters instanceof PdfArray && index < ((PdfArray)parameters).size() ? ((PdfArray)parameters).get(index)
+          : null);
+        data = filterObject.decode(data, 0, data.length, filterParameters);
+      }
+    }
+    catch(NotImplementedException e)
+    {return null;} // Unsupported encoding.
+
+    // 2. Sample decoding.
+    if(imageFilter != null)
+      return decodeEncodedImage(data, colorSpace, decodeObject, subsampling);
+    else
+      return decodeSamples(data, width, height, bitsPerComponent, imageMask ? null : colorSpace, decodeObject, subsampling, maskColor);
+  }
+
+  /**
+    Gets the subsampling factor matching the resolution of the specified image to the device it's
+    rendered on.
+
+    @param ctm Current transformation matrix (mapping the unit square to the device).
+    @param width Image width (in samples).
+    @param height Image height (in samples).
+    @return Power of 2 such that the subsampled image still covers the device resolution.
+  */
+  public static int getSubsampling(
+    AffineTransform ctm,
+    int width,
+    int height
+    )
+  {
+    double deviceWidth = Math.max(Math.hypot(ctm.getScaleX(), ctm.getShearY()), 1);
+    double deviceHeight = Math.max(Math.hypot(ctm.getShearX(), ctm.getScaleY()), 1);
+    double ratio = Math.min(width / deviceWidth, height / deviceHeight);
+    return ratio < 2 ? 1 : Integer.highestOneBit((int)Math.min(ratio, Integer.MAX_VALUE));
+  }
+
+  /**
+    Paints the specified image into the unit square of the current user space.
+
+    @param context Rendering context.
+    @param ctm Current transformation matrix.
+    @param image Image to paint.
+  */
+  public static void paint(
+    Graphics2D context,
+    AffineTransform ctm,
+    BufferedImage image
+    )
+  {
+    AffineTransform contextTransform = context.getTransform();
+    context.setTransform(ctm);
+    /*
+      NOTE: Image space is mapped to the unit square with its first row at the top [PDF:1.6:4.8.3].
+    */
+    context.drawImage(
+      image,
+      new AffineTransform(1d / image.getWidth(), 0, 0, -1d / image.getHeight(), 0, 1),
+      null
+      );
+    context.setTransform(contextTransform);
+  }
+  // </public>
+
+  // <private>
+  /**
+    Decodes an image encoded through an image-specific filter (such as DCTDecode).
+  */
+  private static BufferedImage decodeEncodedImage(
+    byte[] data,
+    ColorSpace<?> colorSpace,
+    PdfArray decodeObject,
+    int subsampling
+    )
+  {
+    try
+    {
+      ImageReader reader;
+      {
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if(!readers.hasNext())
+          return null;
+
+        reader = readers.next();
+        reader.setInput(input);
+      }
+      try
+      {
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        try
+        {return reader.read(0, readParam);}
+        catch(IIOException e)
+        {
+          /*
+            NOTE: Standard readers don't convert some sample encodings (e.g. CMYK JPEG): their
+            raw samples are converted through the image color space instead.
+          */
+          if(!reader.canReadRaster() || colorSpace == null)
+            return null;
+
+          reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+          Raster raster = reader.readRaster(0, readParam);
+          if(raster.getNumBands() != colorSpace.getComponentCount())
+            return null;
+
+          int[] samples = raster.getPixels(0, 0, raster.getWidth(), raster.getHeight(), (int[])null);
+          byte[] sampleBytes = new byte[samples.length];
+          for(int index = 0; index < samples.length; index++)
+          {sampleBytes[index] = (byte)samples[index];}
+          return decodeSamples(sampleBytes, raster.getWidth(), raster.getHeight(), 8, colorSpace, decodeObject, 1, null);
+        }
+      }
+      finally
+      {reader.dispose();}
+    }
+    catch(IOException e)
+    {return null;} // Corrupted image.
+  }
+
+  /**
+    Decodes raw image samples.
+
+    @param colorSpace <code>null</code>, in case of stencil mask.
+  */
+  private static BufferedImage decodeSamples(
+    byte[] data,
+    int width,
+    int height,
+    int bitsPerComponent,
+    ColorSpace<?> colorSpace,
+    PdfArray decodeObject,
+    int subsampling,
+    Color maskColor
+    )
+  {
+    int mode;
+    if(colorSpace == null)
+    {mode = MaskMode;}
+    else if(colorSpace instanceof DeviceGrayColorSpace
+      || colorSpace instanceof CalGrayColorSpace)
+    {mode = GrayMode;}
+    else if(colorSpace instanceof DeviceRGBColorSpace
+      || colorSpace instanceof CalRGBColorSpace)
+    {mode = RgbMode;}
+    else if(colorSpace instanceof DeviceCMYKColorSpace)
+    {mode = CmykMode;}
+    else if(colorSpace instanceof IndexedColorSpace)
+    {mode = IndexedMode;}
+    else if(colorSpace instanceof ICCBasedColorSpace)
+    {mode = IccMode;}
+    else
+    {mode = GenericMode;}
+    int componentCount = (mode == MaskMode ? 1 : colorSpace.getComponentCount());
+    if(bitsPerComponent != 1 && bitsPerComponent != 2 && bitsPerComponent != 4
+      && bitsPerComponent != 8 && bitsPerComponent != 16)
+      return null;
+
+    long rowBitLength = ((long)width * componentCount * bitsPerComponent + 7) / 8 * 8;
+    height = (int)Math.min(height, data.length * 8L / rowBitLength); // Truncated data tolerance.
+    if(height == 0)
+      return null;
+
+    // 1. Component value mapping.
+    /*
+      NOTE: Samples are mapped to 8-bit values through the decode array [PDF:1.6:4.8.4] (16-bit
+      samples are reduced to their high-order byte), so that the per-pixel conversion is a matter of
+      table lookups.
+    */
+    int sampleBitLength = Math.min(bitsPerComponent, 8);
+    int maxSampleValue = (1 << sampleBitLength) - 1;
+    int maxComponentValue = (mode == IndexedMode ? ((PdfNumber<?>)((PdfArray)colorSpace.getBaseDataObject()).resolve(2)).getValue().intValue() : 255);
+    int[][] componentMaps = new int[componentCount][maxSampleValue + 1];
+    {
+      for(int componentIndex = 0; componentIndex < componentCount; componentIndex++)
+      {
+        double min, max;
+        if(decodeObject != null && decodeObject.size() >= componentIndex * 2 + 2)
+        {
+          min = ((PdfNumber<?>)decodeObject.resolve(componentIndex * 2)).getValue().doubleValue();
+          max = ((PdfNumber<?>)decodeObject.resolve(componentIndex * 2 + 1)).getValue().doubleValue();
+          if(mode != IndexedMode)
+          {min *= 255; max *= 255;}
+        }
+        else
+        {
+          min = 0;
+          max = (mode == IndexedMode ? (1 << bitsPerComponent) - 1 : 255);
+        }
+        int[] componentMap = componentMaps[componentIndex];
+        for(int sampleValue = 0; sampleValue <= maxSampleValue; sampleValue++)
+        {
+          int componentValue = (int)Math.round(min + sampleValue * (max - min) / maxSampleValue);
+          componentMap[sampleValue] = (componentValue < 0 ? 0 : componentValue > maxComponentValue ? maxComponentValue : componentValue);
+        }
+      }
+    }
+
+    // 2. Color conversion setup.
+    int[] palette = null;
+    Map<Integer,Integer> genericColors = null;
+    ICC_ColorSpace iccSpace = null;
+    switch(mode)
+    {
+      case IndexedMode:
+      {
+        IndexedColorSpace indexedSpace = (IndexedColorSpace)colorSpace;
+        palette = new int[maxComponentValue + 1];
+        for(int index = 0; index < palette.length; index++)
+        {
+          List<PdfDirectObject> components = new ArrayList<PdfDirectObject>(1);
+          components.add(PdfInteger.get(index));
+          palette[index] = toRGB(indexedSpace.getPaint(indexedSpace.getColor(components, null)));
+        }
+        break;
+      }
+      case IccMode:
+        iccSpace = ((ICCBasedColorSpace)colorSpace).getProfileSpace();
+        if(iccSpace.getNumComponents() != componentCount)
+          return null;
+        break;
+      case GenericMode:
+        genericColors = new HashMap<Integer,Integer>();
+        break;
+    }
+
+    // 3. Pixel conversion.
+    int imageWidth = (width + subsampling - 1) / subsampling;
+    int imageHeight = (height + subsampling - 1) / subsampling;
+    BufferedImage image = new BufferedImage(
+      imageWidth,
+      imageHeight,
+      mode == MaskMode ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB
+      );
+    int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    byte[] iccSamples = (mode == IccMode ? new byte[imageWidth * imageHeight * componentCount] : null);
+    int maskPixel = (maskColor != null ? maskColor.getRGB() : 0xff000000);
+    int[] components = new int[componentCount];
+    long pixelBitLength = (long)componentCount * bitsPerComponent;
+    for(int imageY = 0, pixelIndex = 0; imageY < imageHeight; imageY++)
+    {
+      long rowBitOffset = imageY * subsampling * rowBitLength;
+      for(int imageX = 0; imageX < imageWidth; imageX++, pixelIndex++)
+      {
+        long bitOffset = rowBitOffset + imageX * subsampling * pixelBitLength;
+        for(int componentIndex = 0; componentIndex < componentCount; componentIndex++, bitOffset += bitsPerComponent)
+        {components[componentIndex] = componentMaps[componentIndex][getSample(data, bitOffset, bitsPerComponent)];}
+
+        switch(mode)
+        {
+          case GrayMode:
+          {
+            int gray = components[0];
+            pixels[pixelIndex] = (gray << 16) | (gray << 8) | gray;
+            break;
+          }
+          case RgbMode:
+            pixels[pixelIndex] = (components[0] << 16) | (components[1] << 8) | components[2];
+            break;
+          case CmykMode:
+          {
+            int white = 255 - components[3];
+            pixels[pixelIndex] = (((255 - components[0]) * white / 255) << 16)
+              | (((255 - components[1]) * white / 255) << 8)
+              | ((255 - components[2]) * white / 255);
+            break;
+          }
+          case IndexedMode:
+            pixels[pixelIndex] = palette[components[0]];
+            break;
+          case MaskMode:
+            // NOTE: Mask samples valued 0 are painted, whilst samples valued 1 are masked out.
+            pixels[pixelIndex] = (components[0] == 0 ? maskPixel : 0);
+            break;
+          case IccMode:
+          {
+            for(int componentIndex = 0, sampleIndex = pixelIndex * componentCount; componentIndex < componentCount; componentIndex++)
+            {iccSamples[sampleIndex++] = (byte)components[componentIndex];}
+            break;
+          }
+          default:
+            pixels[pixelIndex] = getGenericColor(colorSpace, components, genericColors);
+        }
+      }
+    }
+    if(mode == IccMode)
+    {
+      ComponentColorModel iccModel = new ComponentColorModel(iccSpace, false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+      WritableRaster iccRaster = iccModel.createCompatibleWritableRaster(imageWidth, imageHeight);
+      System.arraycopy(iccSamples, 0, ((DataBufferByte)iccRaster.getDataBuffer()).getData(), 0, iccSamples.length);
+      new ColorConvertOp(null).filter(new BufferedImage(iccModel, iccRaster, false, null), image);
+    }
+    return image;
+  }
+
+  private static PdfDirectObject get(
+    Map<PdfName,PdfDirectObject> header,
+    PdfName abbreviatedKey,
+    PdfName key
+    )
+  {return (PdfDirectObject)File.resolve(header.containsKey(abbreviatedKey) ? header.get(abbreviatedKey) : header.get(key));}
+
+  /**
+    Gets the RGB value of the specified color components, interpreted according to an arbitrary
+    color space.
+  */
+  private static int getGenericColor(
+    ColorSpace<?> colorSpace,
+    int[] components,
+    Map<Integer,Integer> colors
+    )
+  {
+    Integer key = null;
+    if(components.length <= 4)
+    {
+      int packedComponents = 0;
+      for(int component : components)
+      {packedComponents = (packedComponents << 8) | component;}
+      Integer color = colors.get(key = packedComponents);
+      if(color != null)
+        return color;
+    }
+
+    List<PdfDirectObject> componentObjects = new ArrayList<PdfDirectObject>(components.length);
+    for(int component : components)
+    {componentObjects.add(PdfReal.get(component / 255d));}
+    int color = toRGB(colorSpace.getPaint(colorSpace.getColor(componentObjects, null)));
+    if(key != null)
+    {colors.put(key, color);}
+    return color;
+  }
+
+  private static int getInt(
+    Map<PdfName,PdfDirectObject> header,
+    PdfName abbreviatedKey,
+    PdfName key,
+    int defaultValue
+    )
+  {
+    PdfNumber<?> value = (PdfNumber<?>)get(header, abbreviatedKey, key);
+    return value != null ? value.getValue().intValue() : defaultValue;
+  }
+
+  /**
+    Gets the sample at the specified bit position.
+  */
+  private static int getSample(
+    byte[] data,
+    long bitOffset,
+    int bitLength
+    )
+  {
+    int byteValue = data[(int)(bitOffset >>> 3)] & 0xff;
+    switch(bitLength)
+    {
+      case 8:
+      case 16: // High-order byte only.
+        return byteValue;
+      default:
+        return (byteValue >> (8 - bitLength - (int)(bitOffset & 7))) & ((1 << bitLength) - 1);
+    }
+  }
+
+  private static int toRGB(
+    Paint paint
+    )
+  {return paint instanceof Color ? ((Color)paint).getRGB() & 0xffffff : 0;}
+  // </private>
+  // </interface>
+  // </static>
+  // </class>
+}
@@ -45,7 +45,7 @@ import org.pdfclown.util.NotImplementedException;
   ICC-based color space [PDF:1.6:4.5.4].
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
-  @version 0.1.1, 04/10/11
+  @version 0.1.2, 10/19/12
 */
 // TODO:IMPL improve profile support (see ICC.1:2003-09 spec)!!!
 @PDF(VersionEnum.PDF13)
@@ -162,6 +162,15 @@ public final class ICCBasedColorSpace
   public PdfStream getProfile(
     )
   {return (PdfStream)getBaseDataObject().resolve(1);}
+
+  /**
+    Gets the rendering representation of this color space.
+
+    @since 0.1.2
+  */
+  public ICC_ColorSpace getProfileSpace(
+    )
+  {return cs;}
   // </public>
   // </interface>
   // </dynamic>
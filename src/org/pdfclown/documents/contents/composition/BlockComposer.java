@@ -56,7 +56,7 @@ import org.pdfclown.util.math.OperationUtils;
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @author Manuel Guilbault (manuel.guilbault@gmail.com)
   @since 0.0.3
-  @version 0.1.2, 01/20/12
+  @version 0.1.2, 10/19/12
 */
 /*
   TODO: Manage all the graphics parameters (especially
@@ -284,6 +284,7 @@ public final class BlockComposer
         -boundBox.y // Vertical translation.
         )
       );
+    container.invalidateBox();
 
     // Close the block local state!
     baseComposer.end();
@@ -867,6 +868,7 @@ trailParsing:
           objectYOffset // Vertical alignment.
           )
         );
+      object.container.invalidateBox();
     }
 
     // Update the actual block height!
@@ -27,11 +27,13 @@ package org.pdfclown.documents.contents.fonts;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.pdfclown.util.IntIntMap;
+
 /**
   AFM file format parser [AFM:4.1].
 
@@ -75,11 +77,16 @@ final class AfmParser
   // <fields>
   public FontMetrics metrics;
 
-  public Map<Integer,Integer> glyphIndexes;
-  public Map<Integer,Integer> glyphKernings;
-  public Map<Integer,Integer> glyphWidths;
+  public IntIntMap glyphIndexes;
+  public IntIntMap glyphKernings;
+  public IntIntMap glyphWidths;
 
   public BufferedReader fontData;//TODO: convert to IInputStream
+
+  /**
+    Character codes by character name.
+  */
+  private Map<String,Integer> charCodes;
   // </fields>
 
   // <constructors>
@@ -110,6 +117,8 @@ final class AfmParser
     }
     catch(IOException e)
     {throw new RuntimeException(e);}
+    finally
+    {charCodes = null;}
   }
 
   /**
@@ -180,8 +189,9 @@ final class AfmParser
   private void loadCharMetrics(
     ) throws IOException
   {
-    glyphIndexes = new Hashtable<Integer, Integer>();
-    glyphWidths = new Hashtable<Integer,Integer>();
+    glyphIndexes = new IntIntMap();
+    glyphWidths = new IntIntMap();
+    charCodes = new HashMap<String,Integer>();
 
     String line;
     Pattern linePattern = Pattern.compile("C (\\S+) ; WX (\\S+) ; N (\\S+)");
@@ -207,14 +217,17 @@ final class AfmParser
 
         charCode = ++implicitCharCode;
       }
-      int code = (
+      Integer code = (
         charName == null
             || metrics.isCustomEncoding
-          ? charCode
+          ? (Integer)charCode
           : GlyphMapping.nameToCode(charName)
         );
-      glyphIndexes.put(code,charCode);
+      if(code != null)
+      {glyphIndexes.put(code,charCode);}
       glyphWidths.put(charCode,width);
+      if(charName != null)
+      {charCodes.put(charName,charCode);}
     }
   }
 
@@ -226,7 +239,7 @@ final class AfmParser
   private void loadKerningData(
     ) throws IOException
   {
-    glyphKernings = new Hashtable<Integer,Integer>();
+    glyphKernings = new IntIntMap();
 
     String line;
     while((line = fontData.readLine()) != null)
@@ -247,9 +260,16 @@ final class AfmParser
         continue;
       }
 
-      int code1 = GlyphMapping.nameToCode(lineMatcher.group(1));
-      int code2 = GlyphMapping.nameToCode(lineMatcher.group(2));
-      int pair = code1 << 16 + code2;
+      /*
+        NOTE: Kerning pairs are keyed by glyph index (that is, in AFM terms, character code)
+        consistently with the other font formats.
+      */
+      Integer charCode1 = charCodes.get(lineMatcher.group(1));
+      Integer charCode2 = charCodes.get(lineMatcher.group(2));
+      if(charCode1 == null || charCode2 == null)
+        continue;
+
+      int pair = charCode1 << 16 | charCode2;
       int value = Integer.valueOf(lineMatcher.group(3));
 
       glyphKernings.put(pair,value);
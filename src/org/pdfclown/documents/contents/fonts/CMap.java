@@ -28,6 +28,8 @@ package org.pdfclown.documents.contents.fonts;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Hashtable;
 import java.util.Map;
 
 import org.pdfclown.bytes.Buffer;
@@ -47,7 +49,22 @@ import org.pdfclown.util.ByteArray;
 final class CMap
 {
   // <static>
+  // <fields>
+  /**
+    Placeholder for predefined character maps known to be unavailable.
+  */
+  private static final Map<ByteArray,Integer> MissingCMap = Collections.unmodifiableMap(new Hashtable<ByteArray,Integer>());
+
+  /**
+    Predefined character maps by name.
+    <p>Predefined character maps are immutable resources: once parsed, they are shared read-only
+    across all the documents of the process.</p>
+  */
+  private static final Map<String,Map<ByteArray,Integer>> PredefinedCMaps = new Hashtable<String,Map<ByteArray,Integer>>();
+  // </fields>
+
   // <interface>
+  // <public>
   /**
     Gets the character map extracted from the given data.
 
@@ -107,25 +124,58 @@ final class CMap
     Gets the character map corresponding to the given name.
 
     @param name Predefined character map name.
-    @return <code>null</code>, in case no name matching occurs.
+    @return Read-only character map (shared across documents); <code>null</code>, in case no name
+    matching occurs.
   */
   public static Map<ByteArray,Integer> get(
     String name
     )
   {
-    Map<ByteArray,Integer> cmap;
+    Map<ByteArray,Integer> cmap = PredefinedCMaps.get(name);
+    if(cmap == null)
     {
-      InputStream cmapResourceStream = CMap.class.getResourceAsStream("/fonts/cmap/" + name);
-      if(cmapResourceStream == null)
-        return null;
-
-      BufferedReader cmapStream = new BufferedReader(
-        new InputStreamReader(cmapResourceStream)
-        );
-      cmap = get(new Buffer(cmapStream));
+      /*
+        NOTE: Concurrent misses may parse the same resource twice; as the outcome is identical,
+        that's harmless and cheaper than serializing all the lookups.
+      */
+      cmap = load(name);
+      PredefinedCMaps.put(name, cmap != null ? cmap : MissingCMap);
     }
+    else if(cmap == MissingCMap)
+    {cmap = null;}
     return cmap;
   }
+  // </public>
+
+  // <private>
+  /**
+    Loads the predefined character map corresponding to the given name.
+
+    @param name Predefined character map name.
+    @return Read-only character map; <code>null</code>, in case no name matching occurs.
+  */
+  private static Map<ByteArray,Integer> load(
+    String name
+    )
+  {
+    InputStream cmapResourceStream = CMap.class.getResourceAsStream("/fonts/cmap/" + name);
+    if(cmapResourceStream == null)
+      return null;
+
+    BufferedReader cmapStream = new BufferedReader(
+      new InputStreamReader(cmapResourceStream)
+      );
+    try
+    {return Collections.unmodifiableMap(get(new Buffer(cmapStream)));}
+    finally
+    {
+      try
+      {cmapStream.close();}
+      catch(Exception e)
+      {/* NOOP */}
+    }
+  }
+  // </private>
   // </interface>
   // </static>
 
@@ -201,7 +201,27 @@ final class CMapParser
     switch(getTokenType())
     {
       case Hex: // Character code in hexadecimal format.
-        return Integer.parseInt((String)getToken(), 16);
+      {
+        String hex = (String)getToken();
+        /*
+          NOTE: Unicode values are UTF-16BE encoded, so supplementary characters are expressed
+          as surrogate pairs [PDF:1.6:5.9.2]. Values may also be multi-character sequences (e.g.
+          ligatures): as a code maps to a single character, just the leading one is kept.
+          Malformed values whose length is not a multiple of the 2-byte unit are split anyway,
+          their trailing partial unit being taken as it is.
+        */
+        if(hex.length() <= 4)
+          return Integer.parseInt(hex, 16);
+
+        // Leading unit pair (enough to decode a surrogate pair).
+        char[] chars = new char[Math.min((hex.length() + 3) / 4, 2)];
+        for(int index = 0; index < chars.length; index++)
+        {
+          int unitStart = index * 4;
+          chars[index] = (char)Integer.parseInt(hex.substring(unitStart, Math.min(unitStart + 4, hex.length())), 16);
+        }
+        return Character.codePointAt(chars, 0);
+      }
       case Integer: // Character code in plain format.
         return (Integer)getToken();
       case Name: // Character name.
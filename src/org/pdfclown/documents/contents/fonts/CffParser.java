@@ -25,6 +25,9 @@
 
 package org.pdfclown.documents.contents.fonts;
 
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.IOException;
@@ -41,7 +44,9 @@ import java.util.Set;
 
 import org.pdfclown.bytes.Buffer;
 import org.pdfclown.bytes.IInputStream;
+import org.pdfclown.objects.PdfName;
 import org.pdfclown.tokens.CharsetName;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.NotImplementedException;
 
 /**
@@ -49,7 +54,7 @@ import org.pdfclown.util.NotImplementedException;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.1.1
-  @version 0.1.2, 02/04/12
+  @version 0.1.2, 10/19/12
 */
 final class CffParser
 {
@@ -66,7 +71,13 @@ final class CffParser
       Charset("charset", 15),
       CharStrings(17),
       CharstringType(6 + OperatorValueEscape),
-      Encoding(16);
+      Encoding(16),
+      FDArray(36 + OperatorValueEscape),
+      FDSelect(37 + OperatorValueEscape),
+      FontMatrix(7 + OperatorValueEscape),
+      Private(18),
+      ROS(30 + OperatorValueEscape),
+      Subrs(19);
 
       private final String name;
       private final int value;
@@ -119,7 +130,7 @@ final class CffParser
         {
           int operator = b0;
           if(b0 == 12) // 2-byte operator.
-          {operator = operator << 8 + stream.readUnsignedByte();}
+          {operator = (operator << 8) + stream.readUnsignedByte();}
 
           /*
             NOTE: In order to resiliently support unknown operators on parsing, parsed operators
@@ -134,9 +145,9 @@ final class CffParser
           {operands = new ArrayList<Number>();}
 
           if(b0 == 28) // 3-byte integer.
-          {operands.add(stream.readUnsignedByte() << 8 + stream.readUnsignedByte());}
+          {operands.add((int)stream.readShort());}
           else if(b0 == 29) // 5-byte integer.
-          {operands.add(stream.readUnsignedByte() << 24 + stream.readUnsignedByte() << 16 + stream.readUnsignedByte() << 8 + stream.readUnsignedByte());}
+          {operands.add(stream.readInt());}
           else if(b0 == 30) // Variable-length real.
           {
             StringBuilder operandBuilder = new StringBuilder();
@@ -186,9 +197,9 @@ final class CffParser
           else if (b0 >= 32 && b0 <= 246) // 1-byte integer.
           {operands.add(b0 - 139);}
           else if (b0 >= 247 && b0 <= 250) // 2-byte positive integer.
-          {operands.add((b0 - 247) << 8 + stream.readUnsignedByte() + 108);}
+          {operands.add(((b0 - 247) << 8) + stream.readUnsignedByte() + 108);}
           else if (b0 >= 251 && b0 <= 254) // 2-byte negative integer.
-          {operands.add(-(b0 - 251) << 8 - stream.readUnsignedByte() - 108);}
+          {operands.add(-((b0 - 251) << 8) - stream.readUnsignedByte() - 108);}
           else // Reserved.
           { /* NOOP */ }
         }
@@ -304,6 +315,7 @@ final class CffParser
       ) throws EOFException
     {
       byte[][] data = new byte[stream.readUnsignedShort()][];
+      if(data.length > 0) // NOTE: Empty indexes consist of their count only.
       {
         int[] offsets = new int[data.length + 1];
         int offSize = stream.readUnsignedByte();
@@ -518,6 +530,7 @@ final class CffParser
 
     final int id;
     final Map<Integer,Integer> map;
+    final Map<Integer,String> names;
 
     private StandardCharsetEnum(
       int id
@@ -526,6 +539,7 @@ final class CffParser
       this.id = id;
 
       map = new HashMap<Integer,Integer>();
+      names = new HashMap<Integer,String>();
       {
         BufferedReader stream = null;
         try
@@ -542,6 +556,7 @@ final class CffParser
           {
             String[] lineItems = line.split(",");
             map.put(Integer.parseInt(lineItems[0]), GlyphMapping.nameToCode(lineItems[1]));
+            names.put(Integer.parseInt(lineItems[0]), lineItems[1]);
           }
         }
         catch(IOException e)
@@ -566,6 +581,10 @@ final class CffParser
     public Map<Integer,Integer> getMap(
       )
     {return map;}
+
+    public Map<Integer,String> getNames(
+      )
+    {return names;}
   }
   // </classes>
 
@@ -624,9 +643,51 @@ final class CffParser
 
   // <dynamic>
   // <fields>
-  public Map<Integer,Integer> glyphIndexes;
+  /**
+    Unicodes by glyph index.
+  */
+  public IntIntMap glyphIndexes;
 
+  /**
+    Charset (SIDs or, in case of CID-keyed fonts, CIDs by glyph index; <code>null</code> in case
+    of predefined charset).
+  */
+  private int[] charset;
+  /**
+    Glyph names by glyph index (predefined charsets only).
+  */
+  private Map<Integer,String> charsetNames;
+  /**
+    Glyph programs by glyph index (<code>null</code> in case of unsupported charstring type).
+  */
+  private byte[][] charStrings;
+  /**
+    Glyph indexes by CID (CID-keyed fonts only).
+  */
+  private IntIntMap cidGlyphIndexes;
+  /**
+    Glyph indexes by character code (custom encodings only).
+  */
+  private IntIntMap codeGlyphIndexes;
+  /**
+    Local subroutines by font dictionary (CID-keyed fonts only).
+  */
+  private byte[][][] fdLocalSubrs;
+  /**
+    Font dictionary indexes by glyph index (CID-keyed fonts only).
+  */
+  private byte[] fdSelect;
   private final IInputStream fontData;
+  /**
+    Transformation from glyph space to 1000-units glyph space.
+  */
+  private AffineTransform fontMatrix;
+  private byte[][] globalSubrs;
+  private byte[][] localSubrs;
+  /**
+    Glyph indexes by glyph name.
+  */
+  private Map<String,Integer> nameGlyphIndexes;
   private Index stringIndex;
   // <fields>
 
@@ -642,7 +703,153 @@ final class CffParser
   // </constructors>
 
   // <interface>
+  // <public>
+  /**
+    Gets the glyph index corresponding to the given CID.
+    <p>In case of non-CID-keyed fonts, CIDs are glyph indexes.</p>
+
+    @return -1, in case no glyph matches.
+  */
+  public synchronized int getCIDGlyphIndex(
+    int cid
+    )
+  {
+    if(!isCIDKeyed())
+      return cid;
+
+    if(cidGlyphIndexes == null)
+    {
+      cidGlyphIndexes = new IntIntMap(charset.length);
+      for(int glyphIndex = 0; glyphIndex < charset.length; glyphIndex++)
+      {cidGlyphIndexes.put(charset[glyphIndex], glyphIndex);}
+    }
+    return cidGlyphIndexes.get(cid, -1);
+  }
+
+  /**
+    Gets the glyph index corresponding to the given character code, according to the built-in
+    encoding.
+
+    @return -1, in case the font has no custom encoding or no glyph matches.
+  */
+  public int getCodeGlyphIndex(
+    int code
+    )
+  {return codeGlyphIndexes != null ? codeGlyphIndexes.get(code, -1) : -1;}
+
+  /**
+    Gets the glyph index corresponding to the given glyph name.
+
+    @return -1, in case no glyph matches.
+  */
+  public synchronized int getGlyphIndex(
+    String name
+    )
+  {
+    if(nameGlyphIndexes == null)
+    {
+      nameGlyphIndexes = new HashMap<String,Integer>();
+      if(charStrings != null && !isCIDKeyed())
+      {
+        for(int glyphIndex = charStrings.length - 1; glyphIndex > 0; glyphIndex--)
+        {
+          String glyphName;
+          try
+          {glyphName = getGlyphName(glyphIndex);}
+          catch(UnsupportedEncodingException e)
+          {throw new RuntimeException(e);}
+          if(glyphName != null)
+          {nameGlyphIndexes.put(glyphName, glyphIndex);}
+        }
+      }
+    }
+    Integer glyphIndex = nameGlyphIndexes.get(name);
+    return glyphIndex != null ? glyphIndex : -1;
+  }
+
+  /**
+    Gets the outline of the given glyph.
+    <p>Outlines are expressed in glyph space, normalized to 1000 units per em.</p>
+
+    @param glyphIndex Glyph index.
+    @return <code>null</code>, in case the glyph is undefined.
+  */
+  public Shape getGlyphOutline(
+    int glyphIndex
+    )
+  {
+    if(charStrings == null
+      || glyphIndex < 0
+      || glyphIndex >= charStrings.length)
+      return null;
+
+    byte[][] localSubrs;
+    if(isCIDKeyed())
+    {
+      int fdIndex = fdSelect[glyphIndex] & 0xFF;
+      localSubrs = (fdIndex < fdLocalSubrs.length ? fdLocalSubrs[fdIndex] : null);
+    }
+    else
+    {localSubrs = this.localSubrs;}
+    Path2D outline = new Type2CharStringParser(this, globalSubrs, localSubrs).parse(charStrings[glyphIndex]);
+    if(fontMatrix != null)
+    {outline.transform(fontMatrix);}
+    return outline;
+  }
+
+  /**
+    Gets whether this font is CID-keyed.
+  */
+  public boolean isCIDKeyed(
+    )
+  {return fdSelect != null;}
+  // </public>
+
+  // <internal>
+  /**
+    Gets the program of the glyph corresponding to the given code in the standard encoding.
+    <p>It's used to compose accented characters.</p>
+
+    @return <code>null</code>, in case no glyph matches.
+  */
+  byte[] getStandardCharString(
+    int code
+    )
+  {
+    int glyphIndex = getStandardGlyphIndex(code);
+    return glyphIndex > 0 ? charStrings[glyphIndex] : null;
+  }
+
+  /**
+    Gets the index of the glyph corresponding to the given code in the standard encoding.
+
+    @return -1, in case no glyph matches.
+  */
+  int getStandardGlyphIndex(
+    int code
+    )
+  {
+    String name = Encoding.get(PdfName.StandardEncoding).getName(code);
+    return name != null ? getGlyphIndex(name) : -1;
+  }
+  // </internal>
+
   // <private>
+  /**
+    Gets the name of the given glyph.
+
+    @throws UnsupportedEncodingException
+  */
+  private String getGlyphName(
+    int glyphIndex
+    ) throws UnsupportedEncodingException
+  {
+    if(charset != null)
+      return glyphIndex < charset.length ? getString(charset[glyphIndex]) : null;
+    else
+      return charsetNames.get(glyphIndex);
+  }
+
   /**
     Loads the font data.
   */
@@ -656,53 +863,210 @@ final class CffParser
       Index nameIndex = Index.parse(fontData);
       Index topDictIndex = Index.parse(fontData);
       stringIndex = Index.parse(fontData);
-      Index globalSubrIndex = Index.parse(fontData);
+      globalSubrs = Index.parse(fontData).data;
 
       String fontName = toString(nameIndex.get(0));
       Dict topDict = Dict.parse(topDictIndex.get(0));
 
-//      int encodingOffset = topDict.get(Dict.OperatorEnum.Encoding, 0, 0).intValue();
-      //TODO: encoding
-
       int charstringType = topDict.get(Dict.OperatorEnum.CharstringType, 0, 2).intValue();
       int charStringsOffset = topDict.get(Dict.OperatorEnum.CharStrings, 0).intValue();
       Index charStringsIndex = Index.parse(fontData, charStringsOffset);
+      /*
+        NOTE: Type 1 charstrings within CFF are obsolete, so just Type 2 outlines are supported.
+      */
+      charStrings = (charstringType == 2 ? charStringsIndex.data : null);
+
+      List<Number> fontMatrixOperands = topDict.get(Dict.OperatorEnum.FontMatrix.getValue());
+      if(fontMatrixOperands != null && fontMatrixOperands.size() == 6)
+      {
+        fontMatrix = new AffineTransform(
+          fontMatrixOperands.get(0).doubleValue() * 1000,
+          fontMatrixOperands.get(1).doubleValue() * 1000,
+          fontMatrixOperands.get(2).doubleValue() * 1000,
+          fontMatrixOperands.get(3).doubleValue() * 1000,
+          fontMatrixOperands.get(4).doubleValue() * 1000,
+          fontMatrixOperands.get(5).doubleValue() * 1000
+          );
+        if(fontMatrix.isIdentity())
+        {fontMatrix = null;}
+      }
+
+      boolean cidKeyed = topDict.containsKey(Dict.OperatorEnum.ROS.getValue());
+      if(cidKeyed)
+      {
+        // Font dictionaries.
+        Index fdArrayIndex = Index.parse(fontData, topDict.get(Dict.OperatorEnum.FDArray, 0).intValue());
+        fdLocalSubrs = new byte[fdArrayIndex.size()][][];
+        for(int fdIndex = 0, fdCount = fdArrayIndex.size(); fdIndex < fdCount; fdIndex++)
+        {fdLocalSubrs[fdIndex] = loadLocalSubrs(Dict.parse(fdArrayIndex.get(fdIndex)));}
+
+        // Font dictionary selector.
+        fdSelect = new byte[charStringsIndex.size()];
+        fontData.setPosition(topDict.get(Dict.OperatorEnum.FDSelect, 0).intValue());
+        int fdSelectFormat = fontData.readUnsignedByte();
+        switch(fdSelectFormat)
+        {
+          case 0:
+            fontData.read(fdSelect);
+            break;
+          case 3:
+          {
+            int rangeCount = fontData.readUnsignedShort();
+            int first = fontData.readUnsignedShort();
+            for(int rangeIndex = 0; rangeIndex < rangeCount; rangeIndex++)
+            {
+              byte fdIndex = fontData.readByte();
+              int next = fontData.readUnsignedShort();
+              for(int glyphIndex = first, glyphEndIndex = Math.min(next, fdSelect.length); glyphIndex < glyphEndIndex; glyphIndex++)
+              {fdSelect[glyphIndex] = fdIndex;}
+              first = next;
+            }
+            break;
+          }
+        }
+      }
+      else
+      {localSubrs = loadLocalSubrs(topDict);}
 
       int charsetOffset = topDict.get(Dict.OperatorEnum.Charset, 0, 0).intValue();
-      StandardCharsetEnum charset = StandardCharsetEnum.get(charsetOffset);
-      if(charset != null)
+      StandardCharsetEnum standardCharset = (cidKeyed ? null : StandardCharsetEnum.get(charsetOffset));
+      if(standardCharset != null)
       {
-        glyphIndexes = new HashMap<Integer,Integer>(charset.getMap());
+        Map<Integer,Integer> charsetMap = standardCharset.getMap();
+        glyphIndexes = new IntIntMap(charsetMap.size());
+        for(Map.Entry<Integer,Integer> charsetEntry : charsetMap.entrySet())
+        {glyphIndexes.put(charsetEntry.getKey(),charsetEntry.getValue());}
+        charsetNames = standardCharset.getNames();
       }
       else
       {
-        glyphIndexes = new HashMap<Integer,Integer>();
+        int glyphCount = charStringsIndex.size();
+        glyphIndexes = new IntIntMap(glyphCount);
+        charset = new int[glyphCount];
         fontData.setPosition(charsetOffset);
         int charsetFormat = fontData.readUnsignedByte();
-        for (int index = 1, count = charStringsIndex.size(); index <= count;)
+        // NOTE: Glyph 0 (.notdef) is implicitly mapped to SID/CID 0.
+        for (int index = 1; index < glyphCount;)
         {
           switch(charsetFormat)
           {
             case 0:
-              glyphIndexes.put(index++, toUnicode(fontData.readUnsignedShort()));
+              charset[index] = fontData.readUnsignedShort();
+              glyphIndexes.put(index, toUnicode(charset[index]));
+              index++;
               break;
             case 1:
             case 2:
             {
               int first = fontData.readUnsignedShort();
               int nLeft = (charsetFormat == 1 ? fontData.readUnsignedByte() : fontData.readUnsignedShort());
-              for (int rangeItemIndex = first, rangeItemEndIndex = first + nLeft; rangeItemIndex <= rangeItemEndIndex; rangeItemIndex++)
-              {glyphIndexes.put(index++, toUnicode(rangeItemIndex));}
+              for (int rangeItemIndex = first, rangeItemEndIndex = first + nLeft; rangeItemIndex <= rangeItemEndIndex && index < glyphCount; rangeItemIndex++)
+              {
+                charset[index] = rangeItemIndex;
+                glyphIndexes.put(index++, toUnicode(rangeItemIndex));
+              }
             }
               break;
+            default:
+              index = glyphCount;
+              break;
           }
         }
       }
+
+      if(!cidKeyed)
+      {
+        int encodingOffset = topDict.get(Dict.OperatorEnum.Encoding, 0, 0).intValue();
+        if(encodingOffset > 1) // Custom encoding (0 and 1 are predefined ones).
+        {loadEncoding(encodingOffset);}
+      }
     }
     catch(Exception e)
     {throw new RuntimeException(e);}
   }
 
+  /**
+    Loads the custom built-in encoding [CFF:1.0:12].
+
+    @param offset Encoding position.
+  */
+  private void loadEncoding(
+    int offset
+    ) throws EOFException, UnsupportedEncodingException
+  {
+    codeGlyphIndexes = new IntIntMap();
+    fontData.setPosition(offset);
+    int format = fontData.readUnsignedByte();
+    switch(format & 0x7f)
+    {
+      case 0:
+      {
+        int codeCount = fontData.readUnsignedByte();
+        for(int glyphIndex = 1; glyphIndex <= codeCount; glyphIndex++)
+        {codeGlyphIndexes.put(fontData.readUnsignedByte(), glyphIndex);}
+        break;
+      }
+      case 1:
+      {
+        int rangeCount = fontData.readUnsignedByte();
+        for(int rangeIndex = 0, glyphIndex = 1; rangeIndex < rangeCount; rangeIndex++)
+        {
+          int first = fontData.readUnsignedByte();
+          int nLeft = fontData.readUnsignedByte();
+          for(int code = first, endCode = first + nLeft; code <= endCode; code++)
+          {codeGlyphIndexes.put(code, glyphIndex++);}
+        }
+        break;
+      }
+    }
+    if((format & 0x80) != 0) // Supplements.
+    {
+      int supplementCount = fontData.readUnsignedByte();
+      for(int supplementIndex = 0; supplementIndex < supplementCount; supplementIndex++)
+      {
+        int code = fontData.readUnsignedByte();
+        int sid = fontData.readUnsignedShort();
+        if(charset == null)
+          continue;
+
+        for(int glyphIndex = 0; glyphIndex < charset.length; glyphIndex++)
+        {
+          if(charset[glyphIndex] == sid)
+          {
+            codeGlyphIndexes.put(code, glyphIndex);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+    Loads the local subroutines referenced by the private dictionary of the given font dictionary.
+
+    @return <code>null</code>, in case no local subroutine is defined.
+  */
+  private byte[][] loadLocalSubrs(
+    Dict fontDict
+    ) throws EOFException
+  {
+    List<Number> privateOperands = fontDict.get(Dict.OperatorEnum.Private.getValue());
+    if(privateOperands == null || privateOperands.size() < 2)
+      return null;
+
+    int privateSize = privateOperands.get(0).intValue();
+    int privateOffset = privateOperands.get(1).intValue();
+    byte[] privateData = new byte[privateSize];
+    fontData.setPosition(privateOffset);
+    fontData.read(privateData);
+    Number subrsOffset = Dict.parse(privateData).get(Dict.OperatorEnum.Subrs, 0, null);
+    if(subrsOffset == null)
+      return null;
+
+    // NOTE: Local subroutines are positioned relative to their private dictionary.
+    return Index.parse(fontData, privateOffset + subrsOffset.intValue()).data;
+  }
+
   /**
     Gets the string corresponding to the specified identifier.
 
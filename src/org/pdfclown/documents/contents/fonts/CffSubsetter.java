@@ -0,0 +1,899 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents.fonts;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.pdfclown.bytes.Buffer;
+
+/**
+  CFF subsetter [CFF:1.0].
+  <p>It replaces the charstrings of the glyphs which are not used (along with the subroutines
+  they exclusively call) with empty ones, preserving the glyph indexes; trailing unused glyphs are
+  dropped altogether. Only Type 2 charstrings [CFF:5177] are subset: any other font program is
+  retained as a whole.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+final class CffSubsetter
+{
+  // <class>
+  // <classes>
+  /**
+    Charstring interpretation state [CFF:5177:3].
+  */
+  private static final class CharStringState
+  {
+    /**
+      Subroutine nesting limit [CFF:5177:B].
+    */
+    private static final int MaxDepth = 10;
+    private static final int MaxStackSize = 48;
+
+    private boolean ended;
+    private final double[] stack = new double[MaxStackSize];
+    private int stackSize;
+    private int stemCount;
+
+    private void push(
+      double value
+      )
+    {
+      if(stackSize < MaxStackSize)
+      {stack[stackSize++] = value;}
+    }
+  }
+  // </classes>
+
+  // <static>
+  // <fields>
+  /*
+    DICT operators [CFF:1.0:9,10,19,20].
+  */
+  private static final int Operator_Charset = 15;
+  private static final int Operator_CharStrings = 17;
+  private static final int Operator_CharstringType = 12 << 8 | 6;
+  private static final int Operator_Encoding = 16;
+  private static final int Operator_FDArray = 12 << 8 | 36;
+  private static final int Operator_FDSelect = 12 << 8 | 37;
+  private static final int Operator_Private = 18;
+  private static final int Operator_ROS = 12 << 8 | 30;
+  private static final int Operator_Subrs = 19;
+
+  /*
+    Charstring operators [CFF:5177:A].
+  */
+  private static final byte Operator_EndChar = 14;
+  private static final byte Operator_Return = 11;
+
+  private static final byte[] EmptyCharString = {Operator_EndChar};
+  private static final byte[] EmptySubr = {Operator_Return};
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Gets the bias applied to the numbers of the given subroutines [CFF:5177:4.7].
+  */
+  private static int getBias(
+    byte[][] subrs
+    )
+  {
+    int count = subrs.length;
+    return count < 1240 ? 107 : count < 33900 ? 1131 : 32768;
+  }
+
+  /**
+    Gets the byte size of the DICT operand starting at the given position [CFF:1.0:4].
+  */
+  private static int getOperandLength(
+    byte[] dict,
+    int position
+    )
+  {
+    int b0 = dict[position] & 0xFF;
+    if(b0 == 28)
+      return 3;
+    else if(b0 == 29)
+      return 5;
+    else if(b0 == 30) // Real number (packed BCD, terminated by a 0xf nibble).
+    {
+      int index = position + 1;
+      while(index < dict.length
+        && (dict[index] & 0x0F) != 0x0F
+        && (dict[index] & 0xF0) != 0xF0)
+      {index++;}
+      return index - position + 1;
+    }
+    else if(b0 >= 247 && b0 <= 254)
+      return 2;
+    else
+      return 1;
+  }
+
+  /**
+    Gets the integer value of the DICT operand starting at the given position [CFF:1.0:4].
+    <p>Real numbers are evaluated as 0, as just integer operands (offsets and sizes) are of
+    interest here.</p>
+  */
+  private static int getOperandValue(
+    byte[] dict,
+    int position
+    )
+  {
+    int b0 = dict[position] & 0xFF;
+    if(b0 == 28)
+      return (short)((dict[position + 1] & 0xFF) << 8 | dict[position + 2] & 0xFF);
+    else if(b0 == 29)
+      return (dict[position + 1] & 0xFF) << 24
+        | (dict[position + 2] & 0xFF) << 16
+        | (dict[position + 3] & 0xFF) << 8
+        | dict[position + 4] & 0xFF;
+    else if(b0 >= 32 && b0 <= 246)
+      return b0 - 139;
+    else if(b0 >= 247 && b0 <= 250)
+      return (b0 - 247) * 256 + (dict[position + 1] & 0xFF) + 108;
+    else if(b0 >= 251 && b0 <= 254)
+      return -(b0 - 251) * 256 - (dict[position + 1] & 0xFF) - 108;
+    else
+      return 0;
+  }
+
+  /**
+    Parses the given DICT into its integer operands by operator [CFF:1.0:4].
+  */
+  private static Map<Integer,int[]> parseDict(
+    byte[] dict
+    )
+  {
+    Map<Integer,int[]> entries = new HashMap<Integer,int[]>();
+    int[] operands = new int[CharStringState.MaxStackSize];
+    int operandCount = 0;
+    for(int position = 0; position < dict.length;)
+    {
+      int b0 = dict[position] & 0xFF;
+      if(b0 <= 21) // Operator.
+      {
+        int operator = b0;
+        if(b0 == 12 && ++position < dict.length) // 2-byte operator.
+        {operator = 12 << 8 | dict[position] & 0xFF;}
+        position++;
+        entries.put(operator, Arrays.copyOf(operands, operandCount));
+        operandCount = 0;
+      }
+      else // Operand.
+      {
+        if(operandCount < operands.length)
+        {operands[operandCount++] = getOperandValue(dict, position);}
+        position += getOperandLength(dict, position);
+      }
+    }
+    return entries;
+  }
+
+  /**
+    Serializes the given DICT replacing the operands of the given operators [CFF:1.0:4].
+    <p>Replacing operands are encoded as 5-byte integers, so that the size of the resulting DICT
+    doesn't depend on their values.</p>
+
+    @param replacements Operands by operator.
+  */
+  private static byte[] rewriteDict(
+    byte[] dict,
+    Map<Integer,int[]> replacements
+    )
+  {
+    Buffer buffer = new Buffer();
+    int operandsStart = 0;
+    for(int position = 0; position < dict.length;)
+    {
+      int b0 = dict[position] & 0xFF;
+      if(b0 <= 21) // Operator.
+      {
+        int operatorStart = position;
+        int operator = b0;
+        if(b0 == 12 && ++position < dict.length) // 2-byte operator.
+        {operator = 12 << 8 | dict[position] & 0xFF;}
+        position = Math.min(position + 1, dict.length);
+
+        int[] operands = replacements.get(operator);
+        if(operands != null)
+        {
+          for(int operand : operands)
+          {
+            buffer.append((byte)29);
+            buffer.append(toBytes(operand, 4));
+          }
+        }
+        else
+        {buffer.append(dict, operandsStart, operatorStart - operandsStart);}
+        buffer.append(dict, operatorStart, position - operatorStart);
+        operandsStart = position;
+      }
+      else // Operand.
+      {position += getOperandLength(dict, position);}
+    }
+    return buffer.toByteArray();
+  }
+
+  private static byte[] toBytes(
+    int value,
+    int length
+    )
+  {
+    byte[] data = new byte[length];
+    for(int index = length - 1; index >= 0; index--)
+    {
+      data[index] = (byte)(value & 0xFF);
+      value >>= 8;
+    }
+    return data;
+  }
+
+  /**
+    Serializes the given objects into an INDEX [CFF:1.0:5].
+  */
+  private static byte[] writeIndex(
+    byte[][] objects
+    )
+  {
+    Buffer buffer = new Buffer();
+    buffer.append(toBytes(objects.length, 2));
+    if(objects.length > 0) // NOTE: Empty indexes consist of their count only.
+    {
+      int dataLength = 0;
+      for(byte[] object : objects)
+      {dataLength += object.length;}
+      int offSize = (dataLength + 1 < 1 << 8 ? 1 : dataLength + 1 < 1 << 16 ? 2 : dataLength + 1 < 1 << 24 ? 3 : 4);
+      buffer.append((byte)offSize);
+      int offset = 1;
+      buffer.append(toBytes(offset, offSize));
+      for(byte[] object : objects)
+      {buffer.append(toBytes(offset += object.length, offSize));}
+      for(byte[] object : objects)
+      {buffer.append(object);}
+    }
+    return buffer.toByteArray();
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final byte[] data;
+
+  private int charsetOffset;
+  private byte[][] charStrings;
+  private int charstringType;
+  private int encodingOffset;
+  /**
+    Font dictionaries (CID-keyed fonts only).
+  */
+  private byte[][] fdArray;
+  /**
+    Font dictionary indexes by glyph index (CID-keyed fonts only).
+  */
+  private byte[] fdSelect;
+  private byte[][] globalSubrs;
+  private int globalSubrsOffset;
+  /**
+    Local subroutines by font dictionary.
+  */
+  private byte[][][] localSubrs;
+  /**
+    Private dictionaries by font dictionary.
+  */
+  private byte[][] privateDicts;
+  private int stringIndexOffset;
+  private byte[] topDict;
+  private Map<Integer,int[]> topDictEntries;
+  private int topDictIndexOffset;
+
+  /**
+    Standard-encoding accent components resolver (see {@link #retainAccentGlyph(int,boolean[],
+    LinkedList)}).
+  */
+  private CffParser parser;
+  /**
+    Whether subroutine numbers are computed at run time, so that their usage can't be determined.
+  */
+  private boolean dynamicSubrs;
+  private boolean[] usedGlobalSubrs;
+  private boolean[][] usedLocalSubrs;
+  // </fields>
+
+  // <constructors>
+  CffSubsetter(
+    byte[] data
+    )
+  {
+    this.data = data;
+
+    load();
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the font program reduced to the given glyphs.
+
+    @param retainedGlyphs Whether each glyph has to be retained. Glyph 0 (<code>.notdef</code>)
+    is implicitly retained; on return, the components of accented glyphs are marked as retained
+    too (in case the font program can't be subset, all the glyphs are).
+  */
+  public byte[] subset(
+    boolean[] retainedGlyphs
+    )
+  {
+    if(charStrings == null || charstringType != 2)
+    {
+      Arrays.fill(retainedGlyphs, true);
+      return data;
+    }
+
+    // 1. Glyph and subroutine closure.
+    usedGlobalSubrs = new boolean[globalSubrs.length];
+    usedLocalSubrs = new boolean[localSubrs.length][];
+    for(int fdIndex = 0; fdIndex < localSubrs.length; fdIndex++)
+    {usedLocalSubrs[fdIndex] = new boolean[localSubrs[fdIndex] != null ? localSubrs[fdIndex].length : 0];}
+    LinkedList<Integer> pendingGlyphs = new LinkedList<Integer>();
+    retainedGlyphs[0] = true;
+    for(int glyphIndex = 0, glyphCount = Math.min(retainedGlyphs.length, charStrings.length); glyphIndex < glyphCount; glyphIndex++)
+    {
+      if(retainedGlyphs[glyphIndex])
+      {pendingGlyphs.add(glyphIndex);}
+    }
+    while(!pendingGlyphs.isEmpty())
+    {
+      int glyphIndex = pendingGlyphs.removeFirst();
+      CharStringState state = new CharStringState();
+      scan(charStrings[glyphIndex], getFDIndex(glyphIndex), state, 0);
+      if(state.ended && state.stackSize >= 4) // Accented character (seac-like endchar [CFF:5177:A]).
+      {
+        retainAccentGlyph((int)state.stack[state.stackSize - 2], retainedGlyphs, pendingGlyphs);
+        retainAccentGlyph((int)state.stack[state.stackSize - 1], retainedGlyphs, pendingGlyphs);
+      }
+    }
+    if(dynamicSubrs)
+    {
+      Arrays.fill(usedGlobalSubrs, true);
+      for(boolean[] fdUsedLocalSubrs : usedLocalSubrs)
+      {Arrays.fill(fdUsedLocalSubrs, true);}
+    }
+
+    // 2. Glyph programs.
+    int glyphCount = Math.min(retainedGlyphs.length, charStrings.length);
+    while(glyphCount > 1 && !retainedGlyphs[glyphCount - 1])
+    {glyphCount--;}
+    byte[][] subsetCharStrings = new byte[glyphCount][];
+    for(int glyphIndex = 0; glyphIndex < glyphCount; glyphIndex++)
+    {subsetCharStrings[glyphIndex] = (retainedGlyphs[glyphIndex] ? charStrings[glyphIndex] : EmptyCharString);}
+    byte[] charStringsIndex = writeIndex(subsetCharStrings);
+    byte[] globalSubrsIndex = writeIndex(subsetSubrs(globalSubrs, usedGlobalSubrs));
+
+    // 3. Private dictionaries.
+    int fdCount = privateDicts.length;
+    byte[][] subsetPrivateDicts = new byte[fdCount][];
+    byte[][] localSubrsIndexes = new byte[fdCount][];
+    for(int fdIndex = 0; fdIndex < fdCount; fdIndex++)
+    {
+      if(privateDicts[fdIndex] == null)
+        continue;
+
+      Map<Integer,int[]> privateReplacements = new HashMap<Integer,int[]>();
+      if(localSubrs[fdIndex] != null)
+      {
+        // NOTE: Local subroutines are placed right after their private dictionary.
+        privateReplacements.put(Operator_Subrs, new int[]{0});
+        privateReplacements.put(Operator_Subrs, new int[]{rewriteDict(privateDicts[fdIndex], privateReplacements).length});
+        localSubrsIndexes[fdIndex] = writeIndex(subsetSubrs(localSubrs[fdIndex], usedLocalSubrs[fdIndex]));
+      }
+      subsetPrivateDicts[fdIndex] = rewriteDict(privateDicts[fdIndex], privateReplacements);
+    }
+
+    // 4. Charset, encoding and font dictionary selector.
+    byte[] charsetData = (charsetOffset > 2 ? subsetCharset(glyphCount) : null);
+    byte[] encodingData = (encodingOffset > 1 && fdSelect == null ? getEncodingData() : null);
+    byte[] fdSelectData = (fdSelect != null ? subsetFDSelect(glyphCount) : null);
+
+    /*
+      5. Layout.
+      NOTE: As offsets are encoded with fixed size, the structures can be measured before their
+      actual offsets are known.
+    */
+    int[] privateOffsets = new int[fdCount];
+    int[] offsets = new int[4]; // charset, encoding, FDSelect, CharStrings.
+    int fdArrayOffset = 0;
+    int topDictIndexLength = writeIndex(new byte[][]{rewriteTopDict(offsets, fdArrayOffset, subsetPrivateDicts, privateOffsets)}).length;
+    int position = topDictIndexOffset + topDictIndexLength
+      + (globalSubrsOffset - stringIndexOffset) // String INDEX.
+      + globalSubrsIndex.length;
+    offsets[0] = position; position += (charsetData != null ? charsetData.length : 0);
+    offsets[1] = position; position += (encodingData != null ? encodingData.length : 0);
+    offsets[2] = position; position += (fdSelectData != null ? fdSelectData.length : 0);
+    offsets[3] = position; position += charStringsIndex.length;
+    fdArrayOffset = position;
+    if(fdArray != null)
+    {position += writeIndex(rewriteFDArray(subsetPrivateDicts, privateOffsets)).length;}
+    for(int fdIndex = 0; fdIndex < fdCount; fdIndex++)
+    {
+      if(subsetPrivateDicts[fdIndex] == null)
+        continue;
+
+      privateOffsets[fdIndex] = position;
+      position += subsetPrivateDicts[fdIndex].length
+        + (localSubrsIndexes[fdIndex] != null ? localSubrsIndexes[fdIndex].length : 0);
+    }
+
+    // 6. Serialization.
+    Buffer buffer = new Buffer();
+    buffer.append(data, 0, topDictIndexOffset); // Header and Name INDEX.
+    buffer.append(writeIndex(new byte[][]{rewriteTopDict(offsets, fdArrayOffset, subsetPrivateDicts, privateOffsets)}));
+    buffer.append(data, stringIndexOffset, globalSubrsOffset - stringIndexOffset); // String INDEX.
+    buffer.append(globalSubrsIndex);
+    if(charsetData != null)
+    {buffer.append(charsetData);}
+    if(encodingData != null)
+    {buffer.append(encodingData);}
+    if(fdSelectData != null)
+    {buffer.append(fdSelectData);}
+    buffer.append(charStringsIndex);
+    if(fdArray != null)
+    {buffer.append(writeIndex(rewriteFDArray(subsetPrivateDicts, privateOffsets)));}
+    for(int fdIndex = 0; fdIndex < fdCount; fdIndex++)
+    {
+      if(subsetPrivateDicts[fdIndex] == null)
+        continue;
+
+      buffer.append(subsetPrivateDicts[fdIndex]);
+      if(localSubrsIndexes[fdIndex] != null)
+      {buffer.append(localSubrsIndexes[fdIndex]);}
+    }
+    return buffer.toByteArray();
+  }
+  // </public>
+
+  // <private>
+  /**
+    Gets the built-in encoding data [CFF:1.0:12].
+  */
+  private byte[] getEncodingData(
+    )
+  {
+    int format = data[encodingOffset] & 0xFF;
+    int count = data[encodingOffset + 1] & 0xFF;
+    int length = 2 + ((format & 0x7F) == 0 ? count : count * 2);
+    if((format & 0x80) != 0) // Supplements.
+    {length += 1 + (data[encodingOffset + length] & 0xFF) * 3;}
+    return Arrays.copyOfRange(data, encodingOffset, encodingOffset + length);
+  }
+
+  private int getFDIndex(
+    int glyphIndex
+    )
+  {return fdSelect != null ? fdSelect[glyphIndex] & 0xFF : 0;}
+
+  /**
+    Gets the byte size of the INDEX starting at the given position [CFF:1.0:5].
+  */
+  private int getIndexLength(
+    int offset
+    )
+  {
+    int count = readCard(offset, 2);
+    if(count == 0)
+      return 2;
+
+    int offSize = data[offset + 2] & 0xFF;
+    return 3 + (count + 1) * offSize + readCard(offset + 3 + count * offSize, offSize) - 1;
+  }
+
+  /**
+    Loads the font structures.
+  */
+  private void load(
+    )
+  {
+    // Header [CFF:1.0:6].
+    int hdrSize = data[2] & 0xFF;
+
+    // Name INDEX [CFF:1.0:7].
+    topDictIndexOffset = hdrSize + getIndexLength(hdrSize);
+
+    // Top DICT INDEX [CFF:1.0:9].
+    topDict = readIndex(topDictIndexOffset)[0];
+    topDictEntries = parseDict(topDict);
+
+    // String INDEX [CFF:1.0:10].
+    stringIndexOffset = topDictIndexOffset + getIndexLength(topDictIndexOffset);
+
+    // Global Subr INDEX [CFF:1.0:16].
+    globalSubrsOffset = stringIndexOffset + getIndexLength(stringIndexOffset);
+    globalSubrs = readIndex(globalSubrsOffset);
+
+    charstringType = getTopDictValue(Operator_CharstringType, 2);
+    charsetOffset = getTopDictValue(Operator_Charset, 0);
+    encodingOffset = getTopDictValue(Operator_Encoding, 0);
+    int charStringsOffset = getTopDictValue(Operator_CharStrings, 0);
+    if(charStringsOffset == 0)
+      return;
+
+    charStrings = readIndex(charStringsOffset);
+    if(topDictEntries.containsKey(Operator_ROS)) // CID-keyed font.
+    {
+      fdArray = readIndex(getTopDictValue(Operator_FDArray, 0));
+      privateDicts = new byte[fdArray.length][];
+      localSubrs = new byte[fdArray.length][][];
+      for(int fdIndex = 0; fdIndex < fdArray.length; fdIndex++)
+      {loadPrivate(parseDict(fdArray[fdIndex]), fdIndex);}
+
+      // Font dictionary selector [CFF:1.0:19].
+      fdSelect = new byte[charStrings.length];
+      int fdSelectOffset = getTopDictValue(Operator_FDSelect, 0);
+      switch(data[fdSelectOffset])
+      {
+        case 0:
+          System.arraycopy(data, fdSelectOffset + 1, fdSelect, 0, fdSelect.length);
+          break;
+        case 3:
+        {
+          int rangeCount = readCard(fdSelectOffset + 1, 2);
+          for(int rangeIndex = 0; rangeIndex < rangeCount; rangeIndex++)
+          {
+            int rangeOffset = fdSelectOffset + 3 + rangeIndex * 3;
+            int first = readCard(rangeOffset, 2);
+            int next = readCard(rangeOffset + 3, 2);
+            Arrays.fill(fdSelect, Math.min(first, fdSelect.length), Math.min(next, fdSelect.length), data[rangeOffset + 2]);
+          }
+          break;
+        }
+      }
+    }
+    else
+    {
+      privateDicts = new byte[1][];
+      localSubrs = new byte[1][][];
+      loadPrivate(topDictEntries, 0);
+    }
+  }
+
+  /**
+    Loads the private dictionary (and its local subroutines) referenced by the given font
+    dictionary [CFF:1.0:15].
+  */
+  private void loadPrivate(
+    Map<Integer,int[]> fontDictEntries,
+    int fdIndex
+    )
+  {
+    int[] privateOperands = fontDictEntries.get(Operator_Private);
+    if(privateOperands == null || privateOperands.length < 2)
+      return;
+
+    int privateSize = privateOperands[0];
+    int privateOffset = privateOperands[1];
+    privateDicts[fdIndex] = Arrays.copyOfRange(data, privateOffset, privateOffset + privateSize);
+    int[] subrsOperands = parseDict(privateDicts[fdIndex]).get(Operator_Subrs);
+    if(subrsOperands != null && subrsOperands.length > 0)
+    {
+      // NOTE: Local subroutines are positioned relative to their private dictionary.
+      localSubrs[fdIndex] = readIndex(privateOffset + subrsOperands[0]);
+    }
+  }
+
+  private int getTopDictValue(
+    int operator,
+    int defaultValue
+    )
+  {
+    int[] operands = topDictEntries.get(operator);
+    return operands != null && operands.length > 0 ? operands[operands.length - 1] : defaultValue;
+  }
+
+  private int readCard(
+    int offset,
+    int size
+    )
+  {
+    int value = 0;
+    for(int index = 0; index < size; index++)
+    {value = value << 8 | data[offset + index] & 0xFF;}
+    return value;
+  }
+
+  private byte[][] readIndex(
+    int offset
+    )
+  {
+    byte[][] objects = new byte[readCard(offset, 2)][];
+    if(objects.length > 0)
+    {
+      int offSize = data[offset + 2] & 0xFF;
+      int dataOffset = offset + 3 + (objects.length + 1) * offSize - 1;
+      for(int index = 0; index < objects.length; index++)
+      {
+        objects[index] = Arrays.copyOfRange(
+          data,
+          dataOffset + readCard(offset + 3 + index * offSize, offSize),
+          dataOffset + readCard(offset + 3 + (index + 1) * offSize, offSize)
+          );
+      }
+    }
+    return objects;
+  }
+
+  /**
+    Marks the glyph corresponding to the given standard-encoding code as retained.
+  */
+  private void retainAccentGlyph(
+    int code,
+    boolean[] retainedGlyphs,
+    LinkedList<Integer> pendingGlyphs
+    )
+  {
+    if(parser == null)
+    {parser = new CffParser(new Buffer(data));}
+    int glyphIndex = parser.getStandardGlyphIndex(code);
+    if(glyphIndex > 0
+      && glyphIndex < retainedGlyphs.length
+      && glyphIndex < charStrings.length
+      && !retainedGlyphs[glyphIndex])
+    {
+      retainedGlyphs[glyphIndex] = true;
+      pendingGlyphs.add(glyphIndex);
+    }
+  }
+
+  /**
+    Serializes the font dictionaries updating the location of their private dictionaries.
+  */
+  private byte[][] rewriteFDArray(
+    byte[][] subsetPrivateDicts,
+    int[] privateOffsets
+    )
+  {
+    byte[][] subsetFDArray = new byte[fdArray.length][];
+    for(int fdIndex = 0; fdIndex < fdArray.length; fdIndex++)
+    {
+      Map<Integer,int[]> replacements = new HashMap<Integer,int[]>();
+      if(subsetPrivateDicts[fdIndex] != null)
+      {replacements.put(Operator_Private, new int[]{subsetPrivateDicts[fdIndex].length, privateOffsets[fdIndex]});}
+      subsetFDArray[fdIndex] = rewriteDict(fdArray[fdIndex], replacements);
+    }
+    return subsetFDArray;
+  }
+
+  /**
+    Serializes the top dictionary updating the location of its structures.
+
+    @param offsets Offsets of charset, encoding, FDSelect and CharStrings.
+  */
+  private byte[] rewriteTopDict(
+    int[] offsets,
+    int fdArrayOffset,
+    byte[][] subsetPrivateDicts,
+    int[] privateOffsets
+    )
+  {
+    Map<Integer,int[]> replacements = new HashMap<Integer,int[]>();
+    if(charsetOffset > 2) // Custom charset (0 to 2 are predefined ones).
+    {replacements.put(Operator_Charset, new int[]{offsets[0]});}
+    if(encodingOffset > 1 && fdSelect == null) // Custom encoding (0 and 1 are predefined ones).
+    {replacements.put(Operator_Encoding, new int[]{offsets[1]});}
+    replacements.put(Operator_CharStrings, new int[]{offsets[3]});
+    if(fdSelect != null)
+    {
+      replacements.put(Operator_FDSelect, new int[]{offsets[2]});
+      replacements.put(Operator_FDArray, new int[]{fdArrayOffset});
+    }
+    else if(subsetPrivateDicts[0] != null)
+    {replacements.put(Operator_Private, new int[]{subsetPrivateDicts[0].length, privateOffsets[0]});}
+    return rewriteDict(topDict, replacements);
+  }
+
+  /**
+    Interprets the given charstring to collect the subroutines it calls [CFF:5177:4].
+
+    @param fdIndex Font dictionary the charstring belongs to.
+  */
+  private void scan(
+    byte[] charString,
+    int fdIndex,
+    CharStringState state,
+    int depth
+    )
+  {
+    for(int index = 0, length = charString.length; index < length && !state.ended;)
+    {
+      int b0 = charString[index++] & 0xFF;
+      if(b0 == 28) // Operand (short integer).
+      {
+        state.push((short)((charString[index] & 0xFF) << 8 | charString[index + 1] & 0xFF));
+        index += 2;
+      }
+      else if(b0 >= 32 && b0 <= 246) // Operand.
+      {state.push(b0 - 139);}
+      else if(b0 >= 247 && b0 <= 250) // Operand.
+      {state.push((b0 - 247) * 256 + (charString[index++] & 0xFF) + 108);}
+      else if(b0 >= 251 && b0 <= 254) // Operand.
+      {state.push(-(b0 - 251) * 256 - (charString[index++] & 0xFF) - 108);}
+      else if(b0 == 255) // Operand (16.16 fixed-point number).
+      {
+        state.push((double)((charString[index] & 0xFF) << 24
+          | (charString[index + 1] & 0xFF) << 16
+          | (charString[index + 2] & 0xFF) << 8
+          | charString[index + 3] & 0xFF) / 65536);
+        index += 4;
+      }
+      else // Operator.
+      {
+        switch(b0)
+        {
+          case 1: // hstem.
+          case 3: // vstem.
+          case 18: // hstemhm.
+          case 23: // vstemhm.
+            state.stemCount += state.stackSize / 2;
+            state.stackSize = 0;
+            break;
+          case 19: // hintmask.
+          case 20: // cntrmask.
+            // NOTE: Pending operands are implicit vstem hints.
+            state.stemCount += state.stackSize / 2;
+            state.stackSize = 0;
+            index += (state.stemCount + 7) / 8;
+            break;
+          case 10: // callsubr.
+          case 29: // callgsubr.
+          {
+            byte[][] subrs = (b0 == 10 ? localSubrs[fdIndex] : globalSubrs);
+            boolean[] usedSubrs = (b0 == 10 ? usedLocalSubrs[fdIndex] : usedGlobalSubrs);
+            if(subrs == null || state.stackSize == 0 || depth >= CharStringState.MaxDepth)
+            {
+              // NOTE: Malformed charstrings are just truncated.
+              state.ended = true;
+              state.stackSize = 0;
+              break;
+            }
+
+            int subrIndex = (int)state.stack[--state.stackSize] + getBias(subrs);
+            if(subrIndex < 0 || subrIndex >= subrs.length)
+            {
+              // NOTE: Malformed charstrings are just truncated.
+              state.ended = true;
+              state.stackSize = 0;
+              break;
+            }
+
+            usedSubrs[subrIndex] = true;
+            scan(subrs[subrIndex], fdIndex, state, depth + 1);
+            break;
+          }
+          case 11: // return.
+            return;
+          case 14: // endchar.
+            state.ended = true;
+            break;
+          case 12: // Escape.
+          {
+            int b1 = (index < length ? charString[index++] & 0xFF : 0);
+            if(b1 != 0 // dotsection.
+              && (b1 < 34 || b1 > 37)) // Flex operators.
+            {
+              // NOTE: Arithmetic and storage operators may compute subroutine numbers.
+              dynamicSubrs = true;
+            }
+            state.stackSize = 0;
+            break;
+          }
+          default:
+            state.stackSize = 0;
+            break;
+        }
+      }
+    }
+  }
+
+  /**
+    Gets the charset data covering the given number of glyphs [CFF:1.0:13].
+  */
+  private byte[] subsetCharset(
+    int glyphCount
+    )
+  {
+    int format = data[charsetOffset] & 0xFF;
+    int length = 1;
+    switch(format)
+    {
+      case 0:
+        length += (glyphCount - 1) * 2;
+        break;
+      case 1:
+      case 2:
+      {
+        int rangeLength = (format == 1 ? 3 : 4);
+        // NOTE: Glyph 0 (.notdef) is implicitly mapped.
+        for(int coveredCount = 1; coveredCount < glyphCount; length += rangeLength)
+        {coveredCount += readCard(charsetOffset + length + 2, rangeLength - 2) + 1;}
+        break;
+      }
+    }
+    return Arrays.copyOfRange(data, charsetOffset, charsetOffset + length);
+  }
+
+  /**
+    Gets the font dictionary selector covering the given number of glyphs, in ranges format
+    [CFF:1.0:19].
+  */
+  private byte[] subsetFDSelect(
+    int glyphCount
+    )
+  {
+    Buffer ranges = new Buffer();
+    int rangeCount = 0;
+    for(int glyphIndex = 0; glyphIndex < glyphCount; glyphIndex++)
+    {
+      if(glyphIndex == 0 || fdSelect[glyphIndex] != fdSelect[glyphIndex - 1])
+      {
+        ranges.append(toBytes(glyphIndex, 2));
+        ranges.append(fdSelect[glyphIndex]);
+        rangeCount++;
+      }
+    }
+
+    Buffer buffer = new Buffer();
+    buffer.append((byte)3);
+    buffer.append(toBytes(rangeCount, 2));
+    buffer.append(ranges.toByteArray());
+    buffer.append(toBytes(glyphCount, 2)); // Sentinel.
+    return buffer.toByteArray();
+  }
+
+  /**
+    Gets the given subroutines, replacing the ones which are not used with empty ones.
+  */
+  private byte[][] subsetSubrs(
+    byte[][] subrs,
+    boolean[] usedSubrs
+    )
+  {
+    byte[][] subsetSubrs = new byte[subrs.length][];
+    for(int index = 0; index < subrs.length; index++)
+    {subsetSubrs[index] = (usedSubrs[index] ? subrs[index] : EmptySubr);}
+    return subsetSubrs;
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -25,14 +25,18 @@
 
 package org.pdfclown.documents.contents.fonts;
 
+import java.awt.Shape;
 import java.awt.geom.Point2D;
-import java.util.Hashtable;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.bytes.Buffer;
+import org.pdfclown.bytes.IBuffer;
 import org.pdfclown.bytes.IInputStream;
 import org.pdfclown.documents.Document;
 import org.pdfclown.objects.PdfArray;
@@ -49,6 +53,7 @@ import org.pdfclown.objects.Rectangle;
 import org.pdfclown.util.BiMap;
 import org.pdfclown.util.ByteArray;
 import org.pdfclown.util.ConvertUtils;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.NotImplementedException;
 
 /**
@@ -58,7 +63,7 @@ import org.pdfclown.util.NotImplementedException;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.2, 08/23/12
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF12)
 public abstract class CompositeFont
@@ -68,16 +73,39 @@ public abstract class CompositeFont
   // <static>
   // <fields>
   private static final String HexPadding = "0000";
+  /**
+    Last character code available to newly-embedded fonts.
+  */
+  private static final int MaxCode = 0xFFFF;
+  /**
+    Space character code.
+    <p>Space is encoded as a single byte (so that word spacing applies to it [PDF:1.6:5.2.2]):
+    2-byte codes starting with the same byte are therefore excluded from the codespace.</p>
+  */
+  private static final int SpaceCode = 0x20;
+  private static final int SubsetTagLength = 6;
   // </fields>
 
   // <interface>
   // <public>
+  /**
+    Creates the representation of a font.
+    <p>The font program is parsed once per process: its metrics are shared by all the documents
+    it's used in.</p>
+  */
   public static CompositeFont get(
     Document context,
     IInputStream fontData
     )
+  {return get(context,OpenFontParser.get(fontData));}
+  // </public>
+
+  // <internal>
+  static CompositeFont get(
+    Document context,
+    OpenFontParser parser
+    )
   {
-    OpenFontParser parser = new OpenFontParser(fontData);
     switch(parser.outlineFormat)
     {
       case CFF:
@@ -87,9 +115,31 @@ public abstract class CompositeFont
     }
     throw new UnsupportedOperationException("Unknown composite font format.");
   }
-  // </public>
+  // </internal>
 
   // <private>
+  /**
+    Gets the subset tag corresponding to the given characters [PDF:1.6:5.5.3].
+    <p>The tag is derived from the characters, so that the same subset is consistently named.</p>
+  */
+  private static String getSubsetTag(
+    int[] codes
+    )
+  {
+    long hash = 0;
+    for(int code : codes)
+    {hash = hash * 31 + code;}
+    hash &= Long.MAX_VALUE;
+
+    StringBuilder tagBuilder = new StringBuilder(SubsetTagLength + 1);
+    for(int index = 0; index < SubsetTagLength; index++)
+    {
+      tagBuilder.append((char)('A' + hash % 26));
+      hash /= 26;
+    }
+    return tagBuilder.append('+').toString();
+  }
+
   private static String getHex(
     int value
     )
@@ -98,12 +148,55 @@ public abstract class CompositeFont
 
     return HexPadding.substring(hex.length()) + hex;
   }
+
+  /**
+    Gets the UTF-16BE hexadecimal representation of the given Unicode code point
+    (supplementary characters are represented by their surrogate pair [PDF:1.6:5.9.2]).
+  */
+  private static String getUnicodeHex(
+    int unicode
+    )
+  {
+    StringBuilder hexBuilder = new StringBuilder();
+    for(char unicodeChar : Character.toChars(unicode))
+    {hexBuilder.append(getHex(unicodeChar));}
+    return hexBuilder.toString();
+  }
   // </private>
   // </interface>
   // </static>
 
   // <dynamic>
   // <fields>
+  /**
+    Embedded compact font program parser (available only for existing fonts).
+  */
+  private CffParser cffParser;
+  /**
+    CIDs by character code, according to the font encoding (available only for existing fonts).
+  */
+  private Map<ByteArray,Integer> cids;
+  /**
+    Embedded font program parser (available only for existing fonts).
+  */
+  private OpenFontParser embeddedParser;
+  /**
+    CID-to-glyph-index mapping (2 bytes per CID; <code>null</code> in case of identity mapping).
+  */
+  private byte[] glyphIndexMap;
+  /**
+    Next character code to assign (newly-embedded fonts only).
+  */
+  private int nextCode = 1;
+  /**
+    Font program parser (available only for newly-embedded fonts).
+  */
+  private OpenFontParser parser;
+  private boolean programLoaded;
+  /**
+    Number of used codes the font structures were last flushed to.
+  */
+  private int flushedCodeCount = -1;
   // </fields>
 
   // <constructors>
@@ -130,9 +223,103 @@ public abstract class CompositeFont
     Document context
     )
   {throw new NotImplementedException();}
+
+  /**
+    <span style="color:red">For internal use only.</span>
+    Restricts the encoding structures to the codes actually used and subsets the embedded font
+    program to their glyphs (see {@link Document.Configuration#isFontSubsetting()}).
+  */
+  @Override
+  public void flush(
+    )
+  {
+    if(parser == null
+      || usedCodes.size() == flushedCodeCount) // Font structures already up to date.
+      return;
+
+    // 1. Encoding.
+    writeEncoding();
+
+    // 2. Font program.
+    if(getDocument().getConfiguration().isFontSubsetting())
+    {
+      // Used glyphs.
+      IntIntMap usedGlyphIndexes = new IntIntMap(usedCodes.size());
+      for(int usedCode : usedCodes)
+      {
+        int glyphIndex = parser.glyphIndexes.get(usedCode,-1);
+        if(glyphIndex != -1)
+        {usedGlyphIndexes.put(usedCode,glyphIndex);}
+      }
+      int[] subsetCodes = usedGlyphIndexes.keys();
+      Arrays.sort(subsetCodes);
+
+      // Font file.
+      PdfDictionary descriptor = getDescriptor();
+      {
+        IBuffer fontFileBody = ((PdfStream)descriptor.resolve(
+          parser.outlineFormat == OpenFontParser.OutlineFormatEnum.CFF ? PdfName.FontFile3 : PdfName.FontFile2
+          )).getBody();
+        fontFileBody.setLength(0);
+        /*
+          NOTE: The font program is shared across documents (see OpenFontParser.get(...)), so it
+          has to be accessed through a private copy.
+        */
+        fontFileBody.append(
+          new OpenFontSubsetter(new Buffer(parser.getFontData())).subset(usedGlyphIndexes)
+          );
+      }
+
+      // Font name.
+      PdfName subsetFontName = new PdfName(getSubsetTag(subsetCodes) + parser.fontName);
+      getBaseDataObject().put(PdfName.BaseFont, subsetFontName);
+      getCIDFontDictionary().put(PdfName.BaseFont, subsetFontName);
+      descriptor.put(PdfName.FontName, subsetFontName);
+    }
+
+    flushedCodeCount = usedCodes.size();
+  }
   // </public>
 
   // <protected>
+  /**
+    {@inheritDoc}
+    <p>Newly-embedded fonts assign their codes on demand, so that their encoding covers just the
+    characters actually used.</p>
+  */
+  @Override
+  protected synchronized ByteArray getCode(
+    int textCode
+    )
+  {
+    ByteArray code = super.getCode(textCode);
+    if(code != null
+      || parser == null
+      || !parser.glyphIndexes.containsKey(textCode))
+      return code;
+
+    if(textCode == SpaceCode)
+    {code = new ByteArray(new byte[]{(byte)SpaceCode});}
+    else
+    {
+      if((nextCode >> 8) == SpaceCode) // Skips the codes overlapping the space code.
+      {nextCode = (SpaceCode + 1) << 8;}
+      if(nextCode > MaxCode)
+        throw new IllegalStateException("No more character codes available in font " + parser.fontName + " (too many distinct characters).");
+
+      code = new ByteArray(
+        new byte[]
+        {
+          (byte)((nextCode >> 8) & 0xFF),
+          (byte)(nextCode & 0xFF)
+        }
+        );
+      nextCode++;
+    }
+    putCode(code, textCode);
+    return code;
+  }
+
   /**
     Gets the CIDFont dictionary that is the descendant of this composite font.
   */
@@ -151,7 +338,7 @@ public abstract class CompositeFont
     PdfDataObject encodingObject = getBaseDataObject().resolve(PdfName.Encoding);
 
     // CMap [PDF:1.6:5.6.4].
-    Map<ByteArray,Integer> cmap = CMap.get(encodingObject);
+    Map<ByteArray,Integer> cmap = cids = CMap.get(encodingObject);
 
     // 1. Unicode.
     if(codes == null)
@@ -198,7 +385,7 @@ public abstract class CompositeFont
     TODO: gids map for glyph indexes as glyphIndexes is used to map cids!!!
     */
     // Character-code-to-CID mapping [PDF:1.6:5.6.4,5].
-    glyphIndexes = new Hashtable<Integer,Integer>();
+    IntIntMap glyphIndexes = new IntIntMap(cmap.size());
     for(Map.Entry<ByteArray,Integer> cmapEntry : cmap.entrySet())
     {
       if(!codes.containsKey(cmapEntry.getKey()))
@@ -206,44 +393,93 @@ public abstract class CompositeFont
 
       glyphIndexes.put(codes.get(cmapEntry.getKey()),cmapEntry.getValue());
     }
+    this.glyphIndexes = glyphIndexes;
   }
 
   @Override
-  protected void onLoad(
+  protected Shape loadGlyphOutline(
+    ByteArray charCode
     )
   {
-    loadEncoding();
+    if(parser != null) // Newly-embedded font.
+    {
+      // NOTE: Newly-embedded fonts map CIDs to their glyph indexes by identity.
+      Integer textChar = codes.get(charCode);
+      int glyphIndex = (textChar != null ? parser.glyphIndexes.get(textChar,-1) : -1);
+      return glyphIndex != -1 ? parser.getGlyphOutline(glyphIndex) : null;
+    }
+
+    if(!programLoaded)
+    {loadProgram();}
+    if(embeddedParser == null && cffParser == null)
+      return super.loadGlyphOutline(charCode);
 
-    // Glyph widths.
+    Integer cid = cids.get(charCode);
+    if(cid == null)
+      return null;
+
+    if(cffParser != null)
+    {
+      int glyphIndex = cffParser.getCIDGlyphIndex(cid);
+      return glyphIndex != -1 ? cffParser.getGlyphOutline(glyphIndex) : null;
+    }
+    else
     {
-      glyphWidths = new Hashtable<Integer,Integer>();
-      PdfArray glyphWidthObjects = (PdfArray)getCIDFontDictionary().resolve(PdfName.W);
-      if(glyphWidthObjects != null)
+      int glyphIndex;
+      if(glyphIndexMap == null) // Identity mapping.
+      {glyphIndex = cid;}
+      else if(cid * 2 + 1 < glyphIndexMap.length)
+      {glyphIndex = ((glyphIndexMap[cid * 2] & 0xFF) << 8) | (glyphIndexMap[cid * 2 + 1] & 0xFF);}
+      else
+        return null;
+      return embeddedParser.getGlyphOutline(glyphIndex);
+    }
+  }
+
+  @Override
+  protected void onLoad(
+    )
+  {
+    /*
+      NOTE: Newly-embedded fonts are already provided with their encoding structures (see
+      load(OpenFontParser)).
+    */
+    if(parser == null)
+    {
+      loadEncoding();
+
+      // Glyph widths.
       {
-        for(Iterator<PdfDirectObject> iterator = glyphWidthObjects.iterator(); iterator.hasNext();)
+        IntIntMap glyphWidths = new IntIntMap();
+        PdfArray glyphWidthObjects = (PdfArray)getCIDFontDictionary().resolve(PdfName.W);
+        if(glyphWidthObjects != null)
         {
-          //TODO: this algorithm is valid only in case cid-to-gid mapping is identity (see cidtogid map)!!
-          /*
-            NOTE: Font widths are grouped in one of the following formats [PDF:1.6:5.6.3]:
-              1. startCID [glyphWidth1 glyphWidth2 ... glyphWidthn]
-              2. startCID endCID glyphWidth
-          */
-          int startCID = ((PdfInteger)iterator.next()).getRawValue();
-          PdfDirectObject glyphWidthObject2 = iterator.next();
-          if(glyphWidthObject2 instanceof PdfArray) // Format 1: startCID [glyphWidth1 glyphWidth2 ... glyphWidthn].
-          {
-            int cID = startCID;
-            for(PdfDirectObject glyphWidthObject : (PdfArray)glyphWidthObject2)
-            {glyphWidths.put(cID++,((PdfInteger)glyphWidthObject).getRawValue());}
-          }
-          else // Format 2: startCID endCID glyphWidth.
+          for(Iterator<PdfDirectObject> iterator = glyphWidthObjects.iterator(); iterator.hasNext();)
           {
-            int endCID = ((PdfInteger)glyphWidthObject2).getRawValue();
-            int glyphWidth = ((PdfInteger)iterator.next()).getRawValue();
-            for(int cID = startCID; cID <= endCID; cID++)
-            {glyphWidths.put(cID,glyphWidth);}
+            //TODO: this algorithm is valid only in case cid-to-gid mapping is identity (see cidtogid map)!!
+            /*
+              NOTE: Font widths are grouped in one of the following formats [PDF:1.6:5.6.3]:
+                1. startCID [glyphWidth1 glyphWidth2 ... glyphWidthn]
+                2. startCID endCID glyphWidth
+            */
+            int startCID = ((PdfInteger)iterator.next()).getRawValue();
+            PdfDirectObject glyphWidthObject2 = iterator.next();
+            if(glyphWidthObject2 instanceof PdfArray) // Format 1: startCID [glyphWidth1 glyphWidth2 ... glyphWidthn].
+            {
+              int cID = startCID;
+              for(PdfDirectObject glyphWidthObject : (PdfArray)glyphWidthObject2)
+              {glyphWidths.put(cID++,((PdfInteger)glyphWidthObject).getRawValue());}
+            }
+            else // Format 2: startCID endCID glyphWidth.
+            {
+              int endCID = ((PdfInteger)glyphWidthObject2).getRawValue();
+              int glyphWidth = ((PdfInteger)iterator.next()).getRawValue();
+              for(int cID = startCID; cID <= endCID; cID++)
+              {glyphWidths.put(cID,glyphWidth);}
+            }
           }
         }
+        this.glyphWidths = glyphWidths;
       }
     }
     // Default glyph width.
@@ -262,9 +498,7 @@ public abstract class CompositeFont
     OpenFontParser parser
     )
   {
-    glyphIndexes = parser.glyphIndexes;
-    glyphKernings = parser.glyphKernings;
-    glyphWidths = parser.glyphWidths;
+    this.parser = parser;
 
     PdfDictionary baseDataObject = getBaseDataObject();
 
@@ -293,6 +527,10 @@ public abstract class CompositeFont
       }
       cidFontDictionary.put(PdfName.Subtype,subType);
 
+      // CIDToGIDMap.
+      // NOTE: CIDs are glyph indexes.
+      cidFontDictionary.put(PdfName.CIDToGIDMap, PdfName.Identity);
+
       // BaseFont.
       cidFontDictionary.put(
         PdfName.BaseFont,
@@ -332,130 +570,66 @@ public abstract class CompositeFont
       new PdfArray(new PdfDirectObject[]{getFile().register(cidFontDictionary)})
       );
 
+    /*
+      NOTE: Decoded encoding structures are reused, instead of being parsed back from their
+      serialized counterparts.
+    */
+    codes = new BiMap<ByteArray,Integer>(); // NOTE: Codes are assigned on demand (see getCode(int)).
+    glyphIndexes = parser.glyphIndexes;
+    glyphKernings = parser.glyphKernings;
+    glyphWidths = parser.glyphWidths;
+    symbolic = false;
     load();
+
+    writeEncoding();
   }
 
   /**
-    Creates the character code mapping for composite fonts.
+    Loads the embedded font program of this existing font.
   */
-  private void load_createEncoding(
-    PdfDictionary font,
-    PdfDictionary cidFont
+  private void loadProgram(
     )
   {
-    // CMap [PDF:1.6:5.6.4].
-    Buffer cmapBuffer = new Buffer();
-    cmapBuffer.append(
-      "%!PS-Adobe-3.0 Resource-CMap\n"
-        + "%%DocumentNeededResources: ProcSet (CIDInit)\n"
-        + "%%IncludeResource: ProcSet (CIDInit)\n"
-        + "%%BeginResource: CMap (Adobe-Identity-UCS)\n"
-        + "%%Title: (Adobe-Identity-UCS Adobe Identity 0)\n"
-        + "%%Version: 1\n"
-        + "%%EndComments\n"
-        + "/CIDInit /ProcSet findresource begin\n"
-        + "12 dict begin\n"
-        + "begincmap\n"
-        + "/CIDSystemInfo\n"
-        + "3 dict dup begin\n"
-        + "/Registry (Adobe) def\n"
-        + "/Ordering (Identity) def\n"
-        + "/Supplement 0 def\n"
-        + "end def\n"
-        + "/CMapName /Adobe-Identity-UCS def\n"
-        + "/CMapVersion 1 def\n"
-        + "/CMapType 0 def\n"
-        + "/WMode 0 def\n"
-        + "2 begincodespacerange\n"
-        + "<20> <20>\n"
-        + "<0000> <19FF>\n"
-        + "endcodespacerange\n"
-        + glyphIndexes.size() + " begincidchar\n"
-      );
-    // ToUnicode [PDF:1.6:5.9.2].
-    Buffer toUnicodeBuffer = new Buffer();
-    toUnicodeBuffer.append(
-      "/CIDInit /ProcSet findresource begin\n"
-        + "12 dict begin\n"
-        + "begincmap\n"
-        + "/CIDSystemInfo\n"
-        + "<< /Registry (Adobe)\n"
-        + "/Ordering (UCS)\n"
-        + "/Supplement 0\n"
-        + ">> def\n"
-        + "/CMapName /Adobe-Identity-UCS def\n"
-        + "/CMapVersion 10.001 def\n"
-        + "/CMapType 2 def\n"
-        + "2 begincodespacerange\n"
-        + "<20> <20>\n"
-        + "<0000> <19FF>\n"
-        + "endcodespacerange\n"
-        + glyphIndexes.size() + " beginbfchar\n"
-      );
-    // CIDToGIDMap [PDF:1.6:5.6.3].
-    Buffer gIdBuffer = new Buffer();
-    gIdBuffer.append((byte)0);
-    gIdBuffer.append((byte)0);
-    int code = 0;
-    codes = new BiMap<ByteArray,Integer>(glyphIndexes.size());
-    PdfArray widthsObject = new PdfArray(glyphWidths.size());
-    for(Map.Entry<Integer,Integer> glyphIndexEntry : glyphIndexes.entrySet())
+    programLoaded = true;
+
+    PdfDictionary descriptor = getDescriptor();
+    if(descriptor == null)
+      return;
+
+    try
     {
-      // Character code (codepoint to unicode) entry.
-      code++;
-      byte[] charCode = (glyphIndexEntry.getKey() == 32
-        ? new byte[]{32}
-        : new byte[]
-          {
-            (byte)((code >> 8) & 0xFF),
-            (byte)(code & 0xFF)
-          });
-      codes.put(new ByteArray(charCode),glyphIndexEntry.getKey());
-
-      // CMap entry.
-      cmapBuffer.append("<");
-      toUnicodeBuffer.append("<");
-      for(int charCodeBytesIndex = 0,
-          charCodeBytesLength = charCode.length;
-        charCodeBytesIndex < charCodeBytesLength;
-        charCodeBytesIndex++
-        )
+      if(descriptor.containsKey(PdfName.FontFile2)) // Embedded TrueType font file.
       {
-        String hex = Integer.toHexString(charCode[charCodeBytesIndex]);
-        //TODO:improve hex padding!!!
-        if(hex.length() == 1)
-        {hex = "0" + hex;}
-        else
-        {hex = hex.substring(hex.length()-2,hex.length());}
-        cmapBuffer.append(hex);
-        toUnicodeBuffer.append(hex);
+        embeddedParser = new OpenFontParser(((PdfStream)descriptor.resolve(PdfName.FontFile2)).getBody());
+        PdfDataObject glyphIndexMapObject = getCIDFontDictionary().resolve(PdfName.CIDToGIDMap);
+        if(glyphIndexMapObject instanceof PdfStream)
+        {glyphIndexMap = ((PdfStream)glyphIndexMapObject).getBody().toByteArray();}
+      }
+      else if(descriptor.containsKey(PdfName.FontFile3))
+      {
+        PdfStream fontFileStream = (PdfStream)descriptor.resolve(PdfName.FontFile3);
+        PdfName fontFileSubtype = (PdfName)fontFileStream.getHeader().get(PdfName.Subtype);
+        if(PdfName.OpenType.equals(fontFileSubtype)) // Embedded OpenFont font file.
+        {embeddedParser = new OpenFontParser(fontFileStream.getBody());}
+        else if(PdfName.CIDFontType0C.equals(fontFileSubtype)
+          || PdfName.Type1C.equals(fontFileSubtype)) // Embedded CFF font file.
+        {cffParser = new CffParser(fontFileStream.getBody());}
       }
-      cmapBuffer.append("> " + code + "\n");
-      toUnicodeBuffer.append("> <" + getHex(glyphIndexEntry.getKey()) + ">\n");
-
-      // CID-to-GID entry.
-      int glyphIndex = glyphIndexEntry.getValue();
-      gIdBuffer.append((byte)((glyphIndex >> 8) & 0xFF));
-      gIdBuffer.append((byte)(glyphIndex & 0xFF));
-
-      // Width.
-      Integer width = glyphWidths.get(glyphIndex);
-      if(width == null)
-      {width = 0;}
-      else if(width > 1000)
-      {width=1000;}
-      widthsObject.add(PdfInteger.get(width));
     }
-    cmapBuffer.append(
-      "endcidchar\n"
-        + "endcmap\n"
-        + "CMapName currentdict /CMap defineresource pop\n"
-        + "end\n"
-        + "end\n"
-        + "%%EndResource\n"
-        + "%%EOF"
-      );
-    PdfStream cmapStream = new PdfStream(cmapBuffer);
+    catch(RuntimeException e)
+    {/* NOOP: Malformed font programs fall back to substitute outlines. */}
+  }
+
+  /**
+    Creates the character code mapping for composite fonts.
+    <p>The mapping structures are populated on flush (see {@link #writeEncoding()}).</p>
+  */
+  private void load_createEncoding(
+    PdfDictionary font,
+    PdfDictionary cidFont
+    )
+  {
+    PdfStream cmapStream = new PdfStream();
     PdfDictionary cmapHead = cmapStream.getHeader();
     cmapHead.put(
       PdfName.Type,
@@ -487,28 +661,14 @@ public abstract class CompositeFont
       getFile().register(cmapStream)
       );
 
-    PdfStream gIdStream = new PdfStream(gIdBuffer);
-    cidFont.put(
-      PdfName.CIDToGIDMap,
-      getFile().register(gIdStream)
-      );
-
     cidFont.put(
       PdfName.W,
-      new PdfArray(new PdfDirectObject[]{PdfInteger.get(1), widthsObject})
+      new PdfArray()
       );
 
-    toUnicodeBuffer.append(
-      "endbfchar\n"
-        + "endcmap\n"
-        + "CMapName currentdict /CMap defineresource pop\n"
-        + "end\n"
-        + "end\n"
-      );
-    PdfStream toUnicodeStream = new PdfStream(toUnicodeBuffer);
     font.put(
       PdfName.ToUnicode,
-      getFile().register(toUnicodeStream)
+      getFile().register(new PdfStream())
       );
   }
 
@@ -592,15 +752,159 @@ public abstract class CompositeFont
       fontDescriptor.put(PdfName.StemV, PdfInteger.get(100));
 
       // FontFile.
-      fontDescriptor.put(
-        PdfName.FontFile2,
-        getFile().register(
-          new PdfStream(new Buffer(parser.fontData.toByteArray()))
-          )
-        );
+      PdfStream fontFileStream = new PdfStream(new Buffer(parser.getFontData()));
+      if(parser.outlineFormat == OpenFontParser.OutlineFormatEnum.CFF)
+      {
+        // NOTE: CFF outlines are embedded along with their OpenType wrapper [PDF:1.6:5.8].
+        fontFileStream.getHeader().put(PdfName.Subtype, PdfName.OpenType);
+        fontDescriptor.put(PdfName.FontFile3, getFile().register(fontFileStream));
+      }
+      else
+      {fontDescriptor.put(PdfName.FontFile2, getFile().register(fontFileStream));}
     }
     return getFile().register(fontDescriptor);
   }
+
+  /**
+    Writes the encoding structures (CMap, ToUnicode and glyph widths) covering the used codes.
+  */
+  private void writeEncoding(
+    )
+  {
+    /*
+      NOTE: Character-code mapping entries are grouped in blocks of at most 100 entries
+      [PDF:1.6:5.6.4].
+    */
+    final int MaxBlockSize = 100;
+
+    int[] encodedCodes = new int[usedCodes.size()];
+    int encodedCodeCount = 0;
+    for(int usedCode : usedCodes)
+    {
+      if(codes.containsValue(usedCode) && glyphIndexes.containsKey(usedCode))
+      {encodedCodes[encodedCodeCount++] = usedCode;}
+    }
+    encodedCodes = Arrays.copyOf(encodedCodes, encodedCodeCount);
+    Arrays.sort(encodedCodes);
+
+    // CMap [PDF:1.6:5.6.4].
+    Buffer cmapBuffer = new Buffer();
+    cmapBuffer.append(
+      "%!PS-Adobe-3.0 Resource-CMap\n"
+        + "%%DocumentNeededResources: ProcSet (CIDInit)\n"
+        + "%%IncludeResource: ProcSet (CIDInit)\n"
+        + "%%BeginResource: CMap (Adobe-Identity-UCS)\n"
+        + "%%Title: (Adobe-Identity-UCS Adobe Identity 0)\n"
+        + "%%Version: 1\n"
+        + "%%EndComments\n"
+        + "/CIDInit /ProcSet findresource begin\n"
+        + "12 dict begin\n"
+        + "begincmap\n"
+        + "/CIDSystemInfo\n"
+        + "3 dict dup begin\n"
+        + "/Registry (Adobe) def\n"
+        + "/Ordering (Identity) def\n"
+        + "/Supplement 0 def\n"
+        + "end def\n"
+        + "/CMapName /Adobe-Identity-UCS def\n"
+        + "/CMapVersion 1 def\n"
+        + "/CMapType 0 def\n"
+        + "/WMode 0 def\n"
+        + "3 begincodespacerange\n"
+        + "<20> <20>\n"
+        + "<0000> <1FFF>\n"
+        + "<2100> <FFFF>\n"
+        + "endcodespacerange\n"
+      );
+    // ToUnicode [PDF:1.6:5.9.2].
+    Buffer toUnicodeBuffer = new Buffer();
+    toUnicodeBuffer.append(
+      "/CIDInit /ProcSet findresource begin\n"
+        + "12 dict begin\n"
+        + "begincmap\n"
+        + "/CIDSystemInfo\n"
+        + "<< /Registry (Adobe)\n"
+        + "/Ordering (UCS)\n"
+        + "/Supplement 0\n"
+        + ">> def\n"
+        + "/CMapName /Adobe-Identity-UCS def\n"
+        + "/CMapVersion 10.001 def\n"
+        + "/CMapType 2 def\n"
+        + "3 begincodespacerange\n"
+        + "<20> <20>\n"
+        + "<0000> <1FFF>\n"
+        + "<2100> <FFFF>\n"
+        + "endcodespacerange\n"
+      );
+    // Widths [PDF:1.6:5.6.3].
+    SortedMap<Integer,Integer> widths = new TreeMap<Integer,Integer>();
+    for(int index = 0; index < encodedCodeCount; index++)
+    {
+      int unicode = encodedCodes[index];
+      if(index % MaxBlockSize == 0)
+      {
+        int blockSize = Math.min(MaxBlockSize, encodedCodeCount - index);
+        cmapBuffer.append(blockSize + " begincidchar\n");
+        toUnicodeBuffer.append(blockSize + " beginbfchar\n");
+      }
+
+      String charCodeHex = ConvertUtils.byteArrayToHex(codes.getKey(unicode).data);
+      int cid = glyphIndexes.get(unicode,0);
+      cmapBuffer.append("<" + charCodeHex + "> " + cid + "\n");
+      toUnicodeBuffer.append("<" + charCodeHex + "> <" + getUnicodeHex(unicode) + ">\n");
+      widths.put(cid, glyphWidths.get(cid,defaultGlyphWidth));
+
+      if(index % MaxBlockSize == MaxBlockSize - 1 || index == encodedCodeCount - 1)
+      {
+        cmapBuffer.append("endcidchar\n");
+        toUnicodeBuffer.append("endbfchar\n");
+      }
+    }
+    cmapBuffer.append(
+      "endcmap\n"
+        + "CMapName currentdict /CMap defineresource pop\n"
+        + "end\n"
+        + "end\n"
+        + "%%EndResource\n"
+        + "%%EOF"
+      );
+    toUnicodeBuffer.append(
+      "endcmap\n"
+        + "CMapName currentdict /CMap defineresource pop\n"
+        + "end\n"
+        + "end\n"
+      );
+
+    PdfDictionary baseDataObject = getBaseDataObject();
+    {
+      IBuffer cmapBody = ((PdfStream)baseDataObject.resolve(PdfName.Encoding)).getBody();
+      cmapBody.setLength(0);
+      cmapBody.append(cmapBuffer.toByteArray());
+    }
+    {
+      IBuffer toUnicodeBody = ((PdfStream)baseDataObject.resolve(PdfName.ToUnicode)).getBody();
+      toUnicodeBody.setLength(0);
+      toUnicodeBody.append(toUnicodeBuffer.toByteArray());
+    }
+    {
+      // NOTE: Consecutive CIDs are grouped in the format 'startCID [width1 width2 ... widthN]'.
+      PdfArray widthsObject = (PdfArray)getCIDFontDictionary().resolve(PdfName.W);
+      widthsObject.clear();
+      PdfArray widthRunObject = null;
+      int lastCID = -2;
+      for(Map.Entry<Integer,Integer> widthEntry : widths.entrySet())
+      {
+        int cid = widthEntry.getKey();
+        if(cid != lastCID + 1)
+        {
+          widthsObject.add(PdfInteger.get(cid));
+          widthsObject.add(widthRunObject = new PdfArray());
+        }
+        widthRunObject.add(PdfInteger.get(widthEntry.getValue()));
+        lastCID = cid;
+      }
+    }
+  }
   // </private>
   // </interface>
   // </dynamic>
@@ -37,7 +37,7 @@ import org.pdfclown.util.ByteArray;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 // TODO: This hierarchy is going to be superseded by org.pdfclown.tokens.Encoding.
 class Encoding
@@ -68,6 +68,10 @@ class Encoding
   // <dynamic>
   // <fields>
   private final Hashtable<ByteArray,Integer> codes = new Hashtable<ByteArray,Integer>();
+  /**
+    Character names by character code.
+  */
+  private final String[] names = new String[256];
   // </fields>
 
   // <interface>
@@ -75,6 +79,17 @@ class Encoding
   public Map<ByteArray,Integer> getCodes(
     )
   {return new Hashtable<ByteArray,Integer>(codes);}
+
+  /**
+    Gets the name of the character corresponding to the given code.
+
+    @return <code>null</code>, in case the code is undefined.
+    @since 0.1.2
+  */
+  public String getName(
+    int charCode
+    )
+  {return charCode >= 0 && charCode < names.length ? names[charCode] : null;}
   // </public>
 
   // <protected>
@@ -82,7 +97,10 @@ class Encoding
     int charCode,
     String charName
     )
-  {codes.put(new ByteArray(new byte[]{(byte)charCode}),GlyphMapping.nameToCode(charName));}
+  {
+    codes.put(new ByteArray(new byte[]{(byte)charCode}),GlyphMapping.nameToCode(charName));
+    names[charCode & 0xFF] = charName;
+  }
   // </protected>
   // </interface>
   // </dynamic>
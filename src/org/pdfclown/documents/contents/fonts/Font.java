@@ -25,10 +25,15 @@
 
 package org.pdfclown.documents.contents.fonts;
 
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
 import java.io.ByteArrayOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
@@ -36,7 +41,6 @@ import java.util.Set;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
-import org.pdfclown.bytes.FileInputStream;
 import org.pdfclown.bytes.IInputStream;
 import org.pdfclown.documents.Document;
 import org.pdfclown.objects.PdfArray;
@@ -50,13 +54,16 @@ import org.pdfclown.objects.PdfReference;
 import org.pdfclown.objects.PdfStream;
 import org.pdfclown.util.BiMap;
 import org.pdfclown.util.ByteArray;
+import org.pdfclown.util.ConvertUtils;
+import org.pdfclown.util.IIntMap;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.NotImplementedException;
 
 /**
   Abstract font [PDF:1.6:5.4].
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
-  @version 0.1.1, 11/09/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public abstract class Font
@@ -160,28 +167,24 @@ public abstract class Font
     Document context,
     String path
     )
-  {
-    try
-    {
-      return get(
-        context,
-        new FileInputStream(
-          new java.io.RandomAccessFile(path,"r")
-          )
-        );
-    }
-    catch(FileNotFoundException e)
-    {throw new RuntimeException(e);}
-  }
+  {return get(context,new java.io.File(path));}
 
   /**
    * Creates the representation of a font.
+   * <p>The font file is parsed once per process (as long as it's unmodified): its metrics
+   * are shared by all the documents it's used in.</p>
    */
   public static Font get(
     Document context,
     java.io.File file
     )
-  {return get(context,file.getPath());}
+  {
+    OpenFontParser parser = OpenFontParser.get(file);
+    if(parser == null)
+      throw new NotImplementedException();
+
+    return CompositeFont.get(context,parser);
+  }
 
   /**
    * Creates the representation of a font.
@@ -296,15 +299,17 @@ public abstract class Font
   /**
     Glyph indexes by unicode.
   */
-  protected Map<Integer,Integer> glyphIndexes;
+  protected IIntMap glyphIndexes;
   /**
     Glyph kernings by (left-right) glyph index pairs.
+    <p>Each key packs the left-hand glyph index into its high 16 bits and the right-hand glyph
+    index into its low 16 bits.</p>
   */
-  protected Map<Integer,Integer> glyphKernings;
+  protected IIntMap glyphKernings;
   /**
     Glyph widths by glyph index.
   */
-  protected Map<Integer,Integer> glyphWidths;
+  protected IIntMap glyphWidths;
   /**
     Whether the font encoding is custom (that is non-Unicode).
   */
@@ -318,6 +323,21 @@ public abstract class Font
     Maximum character code byte size.
   */
   private int charCodeMaxLength = 0;
+  /**
+    Glyph outlines by character code (see {@link #getGlyphOutline(int, int)}; <code>null</code>
+    values mark unavailable outlines).
+  */
+  private final Map<Long,Shape> glyphOutlines = new HashMap<Long,Shape>();
+  /**
+    System font replacing the missing font program (see {@link #loadGlyphOutline(ByteArray)}).
+  */
+  private java.awt.Font substituteFont;
+  /**
+    Unicodes by character code, grouped by character code byte size.
+    <p>It mirrors {@link #codes} for allocation-free decoding: each character code is keyed by its
+    big-endian integer value within the table corresponding to its byte size.</p>
+  */
+  private IntIntMap[] charCodeTables;
   // </fields>
 
   // <constructors>
@@ -364,46 +384,44 @@ public abstract class Font
     byte[] code
     )
   {
-    StringBuilder textBuilder = new StringBuilder();
+    StringBuilder textBuilder = new StringBuilder(code.length);
     {
-      byte[][] codeBuffers = new byte[charCodeMaxLength+1][];
-      for(
-        int codeBufferIndex = 0;
-        codeBufferIndex <= charCodeMaxLength;
-        codeBufferIndex++
-        )
-      {codeBuffers[codeBufferIndex] = new byte[codeBufferIndex];}
       int position = 0;
       int codeLength = code.length;
-      int codeBufferSize = 1;
       while(position < codeLength)
       {
-        byte[] codeBuffer = codeBuffers[codeBufferSize];
-        System.arraycopy(code,position,codeBuffer,0,codeBufferSize);
-        Integer textChar = codes.get(new ByteArray(codeBuffer));
-        if(textChar == null)
-        {
-          if(codeBufferSize < charCodeMaxLength)
-          {
-            codeBufferSize++;
-            continue;
-          }
-          /*
-            NOTE: In case no valid code entry is found, a default space is resiliantely
-            applied instead of throwing an exception.
-            This is potentially risky as failing to determine the actual code length
-            may result in a "code shifting" which could affect following characters.
-           */
-          textChar = (int)' ';
-        }
-        textBuilder.append((char)(int)textChar);
-        position += codeBufferSize;
-        codeBufferSize = 1;
+        int charCodeLength = getCharCodeLength(code, position);
+        int charCode = 0;
+        for(int index = 0; index < charCodeLength; index++)
+        {charCode = (charCode << 8) | (code[position + index] & 0xFF);}
+        textBuilder.appendCodePoint(decode(charCode, charCodeLength));
+        position += charCodeLength;
       }
     }
     return textBuilder.toString();
   }
 
+  /**
+    Gets the character corresponding to the given character code.
+
+    @param charCode Character code (big-endian value of its bytes).
+    @param charCodeLength Character code byte size.
+    @return Character (Unicode code point); in case the code isn't mapped, a default space is
+      resiliently returned.
+    @see #getCharCodeLength(byte[], int)
+    @since 0.1.2
+  */
+  public final int decode(
+    int charCode,
+    int charCodeLength
+    )
+  {
+    int textChar = (charCodeLength <= charCodeMaxLength
+      ? charCodeTables[charCodeLength].get(charCode,-1)
+      : -1);
+    return textChar != -1 ? textChar : (int)' ';
+  }
+
   /**
     Gets the internal representation of the given text.
 
@@ -417,12 +435,14 @@ public abstract class Font
     ByteArrayOutputStream encodedStream = new ByteArrayOutputStream();
     try
     {
-      for(int index = 0, length = text.length(); index < length; index++)
+      for(int index = 0, length = text.length(); index < length;)
       {
-        int textCode = text.charAt(index);
-        byte[] charCode = codes.getKey(textCode).data;
+        // NOTE: Supplementary characters are encoded as a whole (surrogate pairs).
+        int textCode = text.codePointAt(index);
+        byte[] charCode = getCode(textCode).data;
         encodedStream.write(charCode);
         usedCodes.add(textCode);
+        index += Character.charCount(textCode);
       }
       encodedStream.close();
     }
@@ -442,6 +462,15 @@ public abstract class Font
       && ((Font)object).getName().equals(getName());
   }
 
+  /**
+    <span style="color:red">For internal use only.</span>
+    Completes the font structures before their serialization.
+    <p>It's invoked whenever the file containing this font is saved.</p>
+  */
+  public void flush(
+    )
+  {/* NOOP */}
+
   /**
     Gets the unscaled vertical offset from the baseline to the ascender line (ascent).
     The value is a positive number.
@@ -494,6 +523,75 @@ public abstract class Font
     return FlagsEnum.toEnumSet(flagsObject.getRawValue());
   }
 
+  /**
+    Gets the byte size of the character code at the given position of the given internal
+    representation.
+
+    @param code Internal representation.
+    @param position Character code position.
+    @since 0.1.2
+  */
+  public final int getCharCodeLength(
+    byte[] code,
+    int position
+    )
+  {
+    int charCode = 0;
+    int charCodeLength = 0;
+    while(charCodeLength < charCodeMaxLength
+      && position + charCodeLength < code.length)
+    {
+      charCode = (charCode << 8) | (code[position + charCodeLength++] & 0xFF);
+      if(charCodeTables[charCodeLength].containsKey(charCode))
+        return charCodeLength;
+    }
+    /*
+      NOTE: In case no valid code entry is found, the scanned bytes are resiliently taken as an
+      unmapped code (see decode(int, int)) instead of throwing an exception.
+      This is potentially risky as failing to determine the actual code length may result in a
+      "code shifting" which could affect following characters.
+    */
+    return charCodeLength > 0 ? charCodeLength : 1;
+  }
+
+  /**
+    Gets the outline of the glyph corresponding to the given character code.
+    <p>Glyphs are identified by code rather than by character, as distinct codes may map to the
+    same character (or to none) while selecting distinct glyphs.</p>
+    <p>Outlines are expressed in unscaled glyph space (1000 units per em, just like unscaled widths):
+    to get them in text space, scale them by {@link #getScalingFactor(double)}. As they are cached,
+    they MUST NOT be modified.</p>
+
+    @param charCode Character code (big-endian value of its bytes).
+    @param charCodeLength Character code byte size.
+    @return <code>null</code>, in case no outline is available.
+    @see #getCharCodeLength(byte[], int)
+    @since 0.1.2
+  */
+  public final Shape getGlyphOutline(
+    int charCode,
+    int charCodeLength
+    )
+  {
+    Long key = ((long)charCodeLength << 32) | (charCode & 0xFFFFFFFFL);
+    synchronized(glyphOutlines)
+    {
+      Shape outline = glyphOutlines.get(key);
+      if(outline == null && !glyphOutlines.containsKey(key))
+      {
+        byte[] charCodeData = new byte[charCodeLength];
+        for(int index = charCodeLength - 1; index >= 0; index--, charCode >>>= 8)
+        {charCodeData[index] = (byte)charCode;}
+        try
+        {outline = loadGlyphOutline(new ByteArray(charCodeData));}
+        catch(RuntimeException e)
+        {/* NOOP: Malformed font programs are resiliently treated as missing glyphs. */}
+        glyphOutlines.put(key, outline);
+      }
+      return outline;
+    }
+  }
+
   /**
     Gets the unscaled height of the given character.
 
@@ -560,27 +658,7 @@ public abstract class Font
     char textChar1,
     char textChar2
     )
-  {
-    if(glyphKernings == null)
-      return 0;
-
-    Integer textChar1Index = glyphIndexes.get((int)textChar1);
-    if(textChar1Index == null)
-      return 0;
-
-    Integer textChar2Index = glyphIndexes.get((int)textChar2);
-    if(textChar2Index == null)
-      return 0;
-
-    Integer kerning = glyphKernings.get(
-      textChar1Index << 16 // Left-hand glyph index.
-        + textChar2Index // Right-hand glyph index.
-      );
-    if(kerning == null)
-      return 0;
-
-    return kerning;
-  }
+  {return getGlyphKerning(textChar1, textChar2);}
 
   /**
     Gets the unscaled kerning width inside the given text.
@@ -592,18 +670,20 @@ public abstract class Font
     )
   {
     int kerning = 0;
-    char textChars[] = text.toCharArray();
-    for(
-      int index = 0,
-        length = text.length() - 1;
-      index < length;
-      index++
-      )
+    if(text.length() > 0)
     {
-      kerning += getKerning(
-        textChars[index],
-        textChars[index + 1]
-        );
+      int textChar1 = text.codePointAt(0);
+      for(
+        int index = Character.charCount(textChar1),
+          length = text.length();
+        index < length;
+        )
+      {
+        int textChar2 = text.codePointAt(index);
+        kerning += getGlyphKerning(textChar1, textChar2);
+        textChar1 = textChar2;
+        index += Character.charCount(textChar2);
+      }
     }
     return kerning;
   }
@@ -652,14 +732,7 @@ public abstract class Font
   public int getWidth(
     char textChar
     )
-  {
-    Integer glyphIndex = glyphIndexes.get((int)textChar);
-    if(glyphIndex == null)
-      return 0;
-
-    Integer glyphWidth = glyphWidths.get(glyphIndex);
-    return glyphWidth != null ? glyphWidth : defaultGlyphWidth;
-  }
+  {return getGlyphWidth(textChar);}
 
   /**
     Gets the width of the given character, scaled to the given font size.
@@ -683,8 +756,16 @@ public abstract class Font
     )
   {
     int width = 0;
-    for(char textChar : text.toCharArray())
-    {width += getWidth(textChar);}
+    for(
+      int index = 0,
+        length = text.length();
+      index < length;
+      )
+    {
+      int textChar = text.codePointAt(index);
+      width += getGlyphWidth(textChar);
+      index += Character.charCount(textChar);
+    }
     return width;
   }
 
@@ -714,19 +795,86 @@ public abstract class Font
   // </public>
 
   // <protected>
+  /**
+    Gets the character code corresponding to the given unicode.
+    <p>By default, it's looked up into the existing codes; fonts which can extend their encoding
+    on demand may assign new codes here (see {@link #putCode(ByteArray,int)}).</p>
+
+    @param textCode Character (Unicode code point).
+    @return <code>null</code>, in case no code is available.
+  */
+  protected ByteArray getCode(
+    int textCode
+    )
+  {return codes.getKey(textCode);}
+
   /**
     Gets the font descriptor.
   */
   protected abstract PdfDictionary getDescriptor(
     );
 
+  /**
+    Loads the outline of the glyph corresponding to the given character code.
+    <p>By default, as no font program is available, glyph outlines are borrowed from the system
+    font which best matches the style of this font, stretched to fit the glyph widths.</p>
+
+    @param charCode Character code.
+    @return <code>null</code>, in case no outline is available.
+    @see #getGlyphOutline(int, int)
+    @since 0.1.2
+  */
+  protected Shape loadGlyphOutline(
+    ByteArray charCode
+    )
+  {
+    Integer textChar = codes.get(charCode);
+    if(textChar == null)
+      return null;
+
+    if(substituteFont == null)
+    {
+      String name = getName();
+      EnumSet<FlagsEnum> flags = (getDescriptor() != null ? getFlags() : EnumSet.noneOf(FlagsEnum.class));
+      String family;
+      if(flags.contains(FlagsEnum.FixedPitch) || name.contains("Courier") || name.contains("Mono"))
+      {family = java.awt.Font.MONOSPACED;}
+      else if(flags.contains(FlagsEnum.Serif) || name.contains("Times"))
+      {family = java.awt.Font.SERIF;}
+      else
+      {family = java.awt.Font.SANS_SERIF;}
+      int style = java.awt.Font.PLAIN;
+      if(flags.contains(FlagsEnum.ForceBold) || name.contains("Bold") || name.contains("Black"))
+      {style |= java.awt.Font.BOLD;}
+      if(flags.contains(FlagsEnum.Italic) || name.contains("Italic") || name.contains("Oblique"))
+      {style |= java.awt.Font.ITALIC;}
+      substituteFont = new java.awt.Font(family, style, 1000);
+    }
+    if(!substituteFont.canDisplay(textChar))
+      return null;
+
+    GlyphVector glyphVector = substituteFont.createGlyphVector(
+      new FontRenderContext(null, true, true),
+      new String(Character.toChars(textChar))
+      );
+    double substituteWidth = glyphVector.getGlyphMetrics(0).getAdvanceX();
+    int width = getGlyphWidth(textChar);
+    // NOTE: System fonts are y-down.
+    return new AffineTransform(
+      width > 0 && substituteWidth > 0 ? width / substituteWidth : 1, 0,
+      0, -1,
+      0, 0
+      ).createTransformedShape(glyphVector.getOutline());
+  }
+
   /**
     Loads font information from existing PDF font structure.
   */
   protected void load(
     )
   {
-    if(getBaseDataObject().containsKey(PdfName.ToUnicode)) // To-Unicode explicit mapping.
+    if(codes == null
+      && getBaseDataObject().containsKey(PdfName.ToUnicode)) // To-Unicode explicit mapping.
     {
       PdfStream toUnicodeStream = (PdfStream)getBaseDataObject().resolve(PdfName.ToUnicode);
       @SuppressWarnings("resource")
@@ -737,12 +885,7 @@ public abstract class Font
 
     onLoad();
 
-    // Maximum character code length.
-    for(ByteArray charCode : codes.keySet())
-    {
-      if(charCode.data.length > charCodeMaxLength)
-      {charCodeMaxLength = charCode.data.length;}
-    }
+    loadCharCodeTables();
   }
 
   /**
@@ -750,9 +893,119 @@ public abstract class Font
    */
   protected abstract void onLoad(
     );
+
+  /**
+    Maps the given character code to the given unicode, keeping the decoding tables in sync.
+  */
+  protected final void putCode(
+    ByteArray charCode,
+    int textCode
+    )
+  {
+    codes.put(charCode,textCode);
+
+    int charCodeLength = charCode.data.length;
+    if(charCodeLength == 0 || charCodeLength > 4)
+      return;
+
+    if(charCodeLength > charCodeMaxLength)
+    {
+      charCodeTables = Arrays.copyOf(charCodeTables, charCodeLength + 1);
+      for(
+        int tableIndex = charCodeMaxLength + 1;
+        tableIndex <= charCodeLength;
+        tableIndex++
+        )
+      {charCodeTables[tableIndex] = new IntIntMap();}
+      charCodeMaxLength = charCodeLength;
+    }
+    charCodeTables[charCodeLength].put(ConvertUtils.byteArrayToInt(charCode.data), textCode);
+  }
   // </protected>
 
   // <private>
+  /**
+    Gets the unscaled kerning width between two given characters.
+
+    @param textChar1 Left character (Unicode code point).
+    @param textChar2 Right character (Unicode code point).
+  */
+  private int getGlyphKerning(
+    int textChar1,
+    int textChar2
+    )
+  {
+    if(glyphKernings == null)
+      return 0;
+
+    int textChar1Index = glyphIndexes.get(textChar1,-1);
+    if(textChar1Index == -1)
+      return 0;
+
+    int textChar2Index = glyphIndexes.get(textChar2,-1);
+    if(textChar2Index == -1)
+      return 0;
+
+    return glyphKernings.get(
+      textChar1Index << 16 // Left-hand glyph index.
+        | textChar2Index, // Right-hand glyph index.
+      0
+      );
+  }
+
+  /**
+    Gets the unscaled width of the given character.
+
+    @param textChar Character (Unicode code point).
+  */
+  private int getGlyphWidth(
+    int textChar
+    )
+  {
+    int glyphIndex = glyphIndexes.get(textChar,-1);
+    if(glyphIndex == -1)
+      return 0;
+
+    return glyphWidths.get(glyphIndex,defaultGlyphWidth);
+  }
+
+  /**
+    Loads the decoding tables corresponding to the current character codes.
+  */
+  private void loadCharCodeTables(
+    )
+  {
+    // Maximum character code length.
+    /*
+      NOTE: Character codes are at most 4 bytes long [PDF:1.6:5.6.4].
+    */
+    charCodeMaxLength = 0;
+    for(ByteArray charCode : codes.keySet())
+    {
+      if(charCode.data.length > charCodeMaxLength)
+      {charCodeMaxLength = Math.min(charCode.data.length, 4);}
+    }
+
+    charCodeTables = new IntIntMap[charCodeMaxLength + 1];
+    for(
+      int charCodeLength = 1;
+      charCodeLength <= charCodeMaxLength;
+      charCodeLength++
+      )
+    {charCodeTables[charCodeLength] = new IntIntMap();}
+    for(Map.Entry<ByteArray,Integer> codeEntry : codes.entrySet())
+    {
+      byte[] charCode = codeEntry.getKey().data;
+      if(charCode.length == 0 || charCode.length > charCodeMaxLength)
+        continue;
+
+      charCodeTables[charCode.length].put(
+        ConvertUtils.byteArrayToInt(charCode),
+        codeEntry.getValue()
+        );
+    }
+  }
+
   private void initialize(
     )
   {
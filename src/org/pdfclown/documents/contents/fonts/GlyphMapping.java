@@ -37,15 +37,29 @@ import java.util.regex.Pattern;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 final class GlyphMapping
 {
   private static Hashtable<String,Integer> codes = new Hashtable<String,Integer>();
+  private static Hashtable<Integer,String> names = new Hashtable<Integer,String>();
 
   static
   {load();}
 
+  /**
+    Gets the name of the given character code.
+    <p>In case several names map to the same code, the first listed one is returned.</p>
+
+    @param code Character code (unicode encoding).
+    @return <code>null</code>, in case no name matches.
+    @since 0.1.2
+  */
+  public static String codeToName(
+    int code
+    )
+  {return names.get(code);}
+
   public static Integer nameToCode(
     String name
     )
@@ -85,6 +99,8 @@ final class GlyphMapping
 
         // Associate the character name with its corresponding character code!
         codes.put(name,code);
+        if(!names.containsKey(code))
+        {names.put(code,name);}
       }
     }
     catch(IOException e)
@@ -25,13 +25,24 @@
 
 package org.pdfclown.documents.contents.fonts;
 
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.io.EOFException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.pdfclown.bytes.Buffer;
 import org.pdfclown.bytes.IInputStream;
 import org.pdfclown.tokens.CharsetName;
+import org.pdfclown.util.IIntMap;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.parsers.ParseException;
 
 /**
@@ -39,7 +50,7 @@ import org.pdfclown.util.parsers.ParseException;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 final class OpenFontParser
 {
@@ -81,6 +92,10 @@ final class OpenFontParser
     public short caretSlopeRise;
     public short caretSlopeRun;
     public int numberOfHMetrics; // USHORT.
+    /*
+      Maximum Profile ('maxp' table).
+    */
+    public int numGlyphs; // USHORT.
     /*
       OS/2 table ('OS/2' table).
     */
@@ -98,6 +113,321 @@ final class OpenFontParser
     public boolean isFixedPitch;
   }
 
+  /**
+    Character-to-glyph-index mapping backed by the segments of a 'cmap' subtable.
+    <p>Lookups are resolved by binary search over the segments, so that no per-code expansion
+    is needed, whatever the extent of the covered character ranges.</p>
+  */
+  static final class GlyphIndexTable
+    implements IIntMap
+  {
+    private final int[] startCodes;
+    private final int[] endCodes;
+    /**
+      Per-segment glyph index deltas (start glyph index, in case of constant segments).
+    */
+    private final int[] deltas;
+    /**
+      Per-segment offsets into the glyph ID array (-1 in case the segment doesn't rely on it).
+    */
+    private final int[] glyphIdOffsets;
+    private final int[] glyphIds;
+    private final int glyphIndexMask;
+    /**
+      Whether all the codes of a segment map to the same glyph.
+    */
+    private final boolean constant;
+
+    private int size = -1;
+
+    /**
+      Creates a single-segment table whose glyph indexes are listed one per code.
+    */
+    GlyphIndexTable(
+      int[] glyphIds,
+      int firstCode
+      )
+    {
+      this(
+        new int[]{firstCode},
+        new int[]{firstCode + glyphIds.length - 1},
+        new int[]{0},
+        new int[]{0},
+        glyphIds,
+        -1,
+        false
+        );
+    }
+
+    /**
+      @param startCodes Start character code of each segment (sorted in ascending order).
+      @param endCodes End character code of each segment.
+      @param deltas Delta of each segment.
+      @param glyphIdOffsets Offset of each segment into <code>glyphIds</code> (-1 in case of
+        direct delta mapping); <code>null</code> in case no segment relies on glyph IDs.
+      @param glyphIds Glyph ID array.
+      @param glyphIndexMask Mask applied to delta-mapped glyph indexes (modulo arithmetic).
+      @param constant Whether all the codes of a segment map to the same glyph.
+    */
+    GlyphIndexTable(
+      int[] startCodes,
+      int[] endCodes,
+      int[] deltas,
+      int[] glyphIdOffsets,
+      int[] glyphIds,
+      int glyphIndexMask,
+      boolean constant
+      )
+    {
+      this.startCodes = startCodes;
+      this.endCodes = endCodes;
+      this.deltas = deltas;
+      this.glyphIdOffsets = glyphIdOffsets;
+      this.glyphIds = glyphIds;
+      this.glyphIndexMask = glyphIndexMask;
+      this.constant = constant;
+    }
+
+    @Override
+    public boolean containsKey(
+      int key
+      )
+    {return get(key, 0) != 0;}
+
+    @Override
+    public int get(
+      int key,
+      int defaultValue
+      )
+    {
+      int segmentIndex = getSegmentIndex(key);
+      if(segmentIndex < 0)
+        return defaultValue;
+
+      int glyphIndex = getGlyphIndex(segmentIndex, key);
+      /*
+        NOTE: Glyph index 0 is the missing-character glyph, so it means no mapping.
+      */
+      return glyphIndex != 0 ? glyphIndex : defaultValue;
+    }
+
+    /**
+      {@inheritDoc}
+      <p>As keys are expanded code by code, this method is expensive on fonts covering large
+      character ranges (e.g. last-resort fonts): lookups should be preferred.</p>
+    */
+    @Override
+    public int[] keys(
+      )
+    {
+      int[] keys = new int[size()];
+      int keyIndex = 0;
+      for(
+        int segmentIndex = 0;
+        segmentIndex < startCodes.length;
+        segmentIndex++
+        )
+      {
+        for(
+          long code = startCodes[segmentIndex],
+            endCode = getLastCode(segmentIndex);
+          code <= endCode;
+          code++
+          )
+        {
+          if(getGlyphIndex(segmentIndex, (int)code) != 0)
+          {keys[keyIndex++] = (int)code;}
+        }
+      }
+      return keys;
+    }
+
+    @Override
+    public int size(
+      )
+    {
+      if(size < 0)
+      {
+        long size = 0;
+        for(
+          int segmentIndex = 0;
+          segmentIndex < startCodes.length;
+          segmentIndex++
+          )
+        {size += getSize(segmentIndex);}
+        this.size = (int)Math.min(size, Integer.MAX_VALUE);
+      }
+      return size;
+    }
+
+    private int getGlyphIndex(
+      int segmentIndex,
+      int code
+      )
+    {
+      if(constant)
+        return deltas[segmentIndex];
+
+      int glyphIdOffset = (glyphIdOffsets != null ? glyphIdOffsets[segmentIndex] : -1);
+      if(glyphIdOffset < 0) // Direct delta mapping.
+        return (code + deltas[segmentIndex]) & glyphIndexMask;
+      else // Glyph-ID reliance.
+      {
+        int glyphIdIndex = glyphIdOffset + (code - startCodes[segmentIndex]);
+        if(glyphIdIndex < 0 || glyphIdIndex >= glyphIds.length)
+          return 0;
+
+        int glyphId = glyphIds[glyphIdIndex];
+        return glyphId != 0 ? (glyphId + deltas[segmentIndex]) & glyphIndexMask : 0;
+      }
+    }
+
+    /**
+      Gets the last code of the given segment which may be mapped.
+      <p>Codes relying on the glyph ID array can't exceed its extent.</p>
+    */
+    private long getLastCode(
+      int segmentIndex
+      )
+    {
+      long endCode = endCodes[segmentIndex];
+      int glyphIdOffset = (!constant && glyphIdOffsets != null ? glyphIdOffsets[segmentIndex] : -1);
+      if(glyphIdOffset >= 0)
+      {endCode = Math.min(endCode, (long)startCodes[segmentIndex] + glyphIds.length - glyphIdOffset - 1);}
+      return endCode;
+    }
+
+    /**
+      Gets the number of codes mapped by the given segment.
+      <p>Constant and delta-mapped segments are measured arithmetically, so that no per-code
+      expansion is needed.</p>
+    */
+    private long getSize(
+      int segmentIndex
+      )
+    {
+      long startCode = startCodes[segmentIndex];
+      long endCode = endCodes[segmentIndex];
+      if(constant)
+        return deltas[segmentIndex] != 0 ? endCode - startCode + 1 : 0;
+
+      int glyphIdOffset = (glyphIdOffsets != null ? glyphIdOffsets[segmentIndex] : -1);
+      if(glyphIdOffset < 0) // Direct delta mapping.
+      {
+        /*
+          NOTE: Codes mapped to glyph 0 (i.e. unmapped) are those matching the negated delta
+          modulo the glyph index range.
+        */
+        long modulus = (glyphIndexMask == -1 ? 1L << 32 : (glyphIndexMask & 0xFFFFFFFFL) + 1);
+        long zeroCode = ((-(long)deltas[segmentIndex]) % modulus + modulus) % modulus;
+        if(zeroCode < startCode)
+        {zeroCode += ((startCode - zeroCode + modulus - 1) / modulus) * modulus;}
+        long zeroCount = (zeroCode <= endCode ? (endCode - zeroCode) / modulus + 1 : 0);
+        return endCode - startCode + 1 - zeroCount;
+      }
+      else // Glyph-ID reliance.
+      {
+        long size = 0;
+        for(
+          long code = startCode,
+            lastCode = getLastCode(segmentIndex);
+          code <= lastCode;
+          code++
+          )
+        {
+          if(getGlyphIndex(segmentIndex, (int)code) != 0)
+          {size++;}
+        }
+        return size;
+      }
+    }
+
+    /**
+      Gets the index of the segment containing the given code (-1 if none).
+    */
+    private int getSegmentIndex(
+      int code
+      )
+    {
+      int low = 0, high = startCodes.length - 1;
+      while(low <= high)
+      {
+        int middle = (low + high) >>> 1;
+        if(code < startCodes[middle])
+        {high = middle - 1;}
+        else if(code > endCodes[middle])
+        {low = middle + 1;}
+        else
+          return middle;
+      }
+      return -1;
+    }
+  }
+
+  /**
+    Glyph-index-to-width mapping backed by the horizontal metrics ('hmtx' table).
+  */
+  static final class GlyphWidthTable
+    implements IIntMap
+  {
+    private final int[] advanceWidths;
+    private final int glyphCount;
+
+    /**
+      @param advanceWidths Advance widths of the first <code>numberOfHMetrics</code> glyphs.
+      @param glyphCount Number of glyphs in the font.
+    */
+    GlyphWidthTable(
+      int[] advanceWidths,
+      int glyphCount
+      )
+    {
+      this.advanceWidths = advanceWidths;
+      this.glyphCount = (advanceWidths.length > 0 ? glyphCount : 0);
+    }
+
+    @Override
+    public boolean containsKey(
+      int key
+      )
+    {return key >= 0 && key < glyphCount;}
+
+    @Override
+    public int get(
+      int key,
+      int defaultValue
+      )
+    {
+      if(!containsKey(key))
+        return defaultValue;
+
+      /*
+        NOTE: Glyphs beyond numberOfHMetrics share the advance width of the last entry
+        (monospaced runs at the end of the font).
+      */
+      return advanceWidths[Math.min(key, advanceWidths.length - 1)];
+    }
+
+    @Override
+    public int[] keys(
+      )
+    {
+      int[] keys = new int[glyphCount];
+      for(
+        int index = 0;
+        index < glyphCount;
+        index++
+        )
+      {keys[index] = index;}
+      return keys;
+    }
+
+    @Override
+    public int size(
+      )
+    {return glyphCount;}
+  }
+
   /**
     Outline format.
   */
@@ -122,6 +452,30 @@ final class OpenFontParser
   private static final int PlatformID_Unicode = 0;
   private static final int PlatformID_Macintosh = 1;
   private static final int PlatformID_Microsoft = 3;
+
+  /**
+    Maximum number of font programs kept in the process-wide cache.
+  */
+  private static final int ProgramCacheCapacity = 32;
+
+  /**
+    Parsed font programs by identity key (least-recently-used first).
+    <p>Parsing a font program is both IO- and CPU-intensive, whilst its outcome depends on the
+    program data only: so it's shared across documents, the document-specific structures (font
+    dictionaries and streams) being derived from it.</p>
+  */
+  private static final Map<String,OpenFontParser> Programs = Collections.synchronizedMap(
+    new LinkedHashMap<String,OpenFontParser>(ProgramCacheCapacity, .75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String,OpenFontParser> eldest
+        )
+      {return size() > ProgramCacheCapacity;}
+    }
+    );
   // </fields>
 
   // <interface>
@@ -147,7 +501,75 @@ final class OpenFontParser
   }
   // </public>
 
+  // <internal>
+  /**
+    Gets the parsed program of the given font file.
+    <p>Parsed programs are cached process-wide, keyed by file identity (path, size and
+    modification time).</p>
+
+    @return <code>null</code>, in case the file isn't an Open Font.
+  */
+  static OpenFontParser get(
+    java.io.File file
+    )
+  {
+    String key = "file:" + file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    OpenFontParser parser = Programs.get(key);
+    if(parser == null)
+    {
+      IInputStream fontData;
+      try
+      {
+        java.io.FileInputStream fileStream = new java.io.FileInputStream(file);
+        try
+        {fontData = new Buffer(fileStream);}
+        finally
+        {fileStream.close();}
+      }
+      catch(IOException e)
+      {throw new RuntimeException(e);}
+      if(!isOpenFont(fontData))
+        return null;
+
+      Programs.put(key, parser = new OpenFontParser(fontData));
+    }
+    return parser;
+  }
+
+  /**
+    Gets the parsed program of the given font data.
+    <p>Parsed programs are cached process-wide, keyed by content digest.</p>
+  */
+  static OpenFontParser get(
+    IInputStream fontData
+    )
+  {
+    byte[] data = fontData.toByteArray();
+    String key = "data:" + data.length + ":" + getDigest(data);
+    OpenFontParser parser = Programs.get(key);
+    if(parser == null)
+    {Programs.put(key, parser = new OpenFontParser(new Buffer(data)));}
+    return parser;
+  }
+  // </internal>
+
   // <private>
+  private static String getDigest(
+    byte[] data
+    )
+  {
+    MessageDigest md5;
+    try
+    {md5 = MessageDigest.getInstance("MD5");}
+    catch(NoSuchAlgorithmException e)
+    {throw new RuntimeException("MD5 algorithm unavailable.", e);}
+
+    StringBuilder digestBuilder = new StringBuilder();
+    for(byte digestByte : md5.digest(data))
+    {digestBuilder.append(Integer.toHexString((digestByte & 0xFF) | 0x100).substring(1));}
+    return digestBuilder.toString();
+  }
+
   /**
     Gets the outline format corresponding to the specified version code.
 
@@ -186,12 +608,25 @@ final class OpenFontParser
   */
   public boolean symbolic;
 
-  public Map<Integer,Integer> glyphIndexes;
-  public Map<Integer,Integer> glyphKernings;
-  public Map<Integer,Integer> glyphWidths;
-
-  public IInputStream fontData;
+  public IIntMap glyphIndexes;
+  public IntIntMap glyphKernings;
+  public IIntMap glyphWidths;
 
+  /**
+    CFF outlines ('CFF ' table).
+  */
+  private CffParser cffParser;
+  /**
+    Font file data.
+    <p>As parsers are shared across documents (see {@link #get(IInputStream)}), its position state
+    MUST be accessed under the parser's monitor only.</p>
+  */
+  private final IInputStream fontData;
+  /**
+    Glyph data offsets, relative to the 'glyf' table ('loca' table).
+  */
+  private int[] glyphOffsets;
+  private Map<String,Integer> tableLengths;
   private Map<String,Integer> tableOffsets;
   // </fields>
 
@@ -207,7 +642,141 @@ final class OpenFontParser
   // </constructors>
 
   // <interface>
+  // <public>
+  /**
+    Gets a copy of the font file data.
+  */
+  public synchronized byte[] getFontData(
+    )
+  {return fontData.toByteArray();}
+
+  /**
+    Gets the outline of the given glyph.
+    <p>Outlines are expressed in glyph space, normalized to 1000 units per em.</p>
+
+    @param glyphIndex Glyph index.
+    @return <code>null</code>, in case the glyph is undefined.
+  */
+  public synchronized Shape getGlyphOutline(
+    int glyphIndex
+    )
+  {
+    try
+    {
+      switch(outlineFormat)
+      {
+        case TrueType:
+        {
+          if(glyphOffsets == null)
+          {loadGlyphOffsets();}
+
+          Path2D outline = new Path2D.Float(Path2D.WIND_NON_ZERO);
+          if(!loadGlyphOutline(glyphIndex, outline, 0))
+            return null;
+
+          outline.transform(AffineTransform.getScaleInstance(metrics.unitNorm, metrics.unitNorm));
+          return outline;
+        }
+        case CFF:
+        {
+          if(cffParser == null)
+          {
+            Integer tableOffset = tableOffsets.get("CFF ");
+            if(tableOffset == null)
+              return null;
+
+            byte[] tableData = new byte[tableLengths.get("CFF ")];
+            fontData.seek(tableOffset);
+            fontData.read(tableData);
+            cffParser = new CffParser(new Buffer(tableData));
+          }
+          return cffParser.getGlyphOutline(glyphIndex);
+        }
+        default:
+          return null;
+      }
+    }
+    catch(EOFException e)
+    {throw new ParseException(e);}
+  }
+  // </public>
+
   // <private>
+  /**
+    Appends the quadratic contour between the given points to the given outline [OFF:2009:5.3.3].
+
+    @param outline Target outline.
+    @param xs Point abscissas.
+    @param ys Point ordinates.
+    @param onCurves Whether points are on-curve or control ones.
+    @param start First contour point.
+    @param end Last contour point.
+  */
+  private void appendContour(
+    Path2D outline,
+    int[] xs,
+    int[] ys,
+    boolean[] onCurves,
+    int start,
+    int end
+    )
+  {
+    int count = end - start + 1;
+    if(count < 2)
+      return;
+
+    // Start point.
+    /*
+      NOTE: Contours may start with a control point: in such case, the contour starts from its
+      first on-curve point, or from the implicit midpoint between the first and last points
+      whether all the points are control ones.
+    */
+    int first = -1;
+    for(int index = start; index <= end; index++)
+    {
+      if(onCurves[index])
+      {
+        first = index;
+        break;
+      }
+    }
+    float startX, startY;
+    if(first >= 0)
+    {startX = xs[first]; startY = ys[first];}
+    else
+    {
+      first = start - 1;
+      startX = (xs[start] + xs[end]) / 2f; startY = (ys[start] + ys[end]) / 2f;
+    }
+    outline.moveTo(startX, startY);
+
+    boolean controlPending = false;
+    float controlX = 0, controlY = 0;
+    for(int step = 1; step <= count; step++)
+    {
+      int index = start + (first - start + step + count) % count;
+      float x = xs[index], y = ys[index];
+      if(onCurves[index])
+      {
+        if(controlPending)
+        {outline.quadTo(controlX, controlY, x, y);}
+        else
+        {outline.lineTo(x, y);}
+        controlPending = false;
+      }
+      else
+      {
+        if(controlPending) // Implicit on-curve midpoint.
+        {outline.quadTo(controlX, controlY, (controlX + x) / 2, (controlY + y) / 2);}
+        controlX = x; controlY = y;
+        controlPending = true;
+      }
+    }
+    if(controlPending)
+    {outline.quadTo(controlX, controlY, startX, startY);}
+    outline.closePath();
+  }
+
   /**
     Loads the font data.
   */
@@ -255,10 +824,20 @@ final class OpenFontParser
     // Retrieve the location info!
     Integer tableOffset = tableOffsets.get("cmap");
     if(tableOffset == null)
-      throw new ParseException("'cmap' table does NOT exist.");
+    {
+      /*
+        NOTE: Font programs embedded in PDF files may lack the tables which are useless to their
+        rendering, such as 'cmap' in case of CIDFontType2 fonts [PDF:1.6:5.8].
+      */
+      glyphIndexes = new IntIntMap();
+      return;
+    }
 
+    int cmap0Offset = 0; // Unicode BMP.
+    int cmap0FullOffset = 0; // Unicode full repertoire.
     int cmap10Offset = 0;
     int cmap31Offset = 0;
+    int cmap310Offset = 0;
     // Header.
     // Go to the number of tables!
     fontData.seek(tableOffset + 2);
@@ -279,6 +858,26 @@ final class OpenFontParser
       int offset = fontData.readInt();
       switch(platformID)
       {
+        case PlatformID_Unicode:
+          switch(encodingID)
+          {
+            case 0: // Unicode 1.0 semantics.
+            case 1: // Unicode 1.1 semantics.
+            case 2: // ISO/IEC 10646 semantics.
+            case 3: // Unicode 2.0+ semantics (BMP only).
+              cmap0Offset = offset;
+              break;
+            case 4: // Unicode 2.0+ semantics (full repertoire).
+            case 6: // Full Unicode coverage (used with format 13).
+              cmap0FullOffset = offset;
+              break;
+            /*
+              NOTE: Encoding 5 (Unicode Variation Sequences) is always associated to format 14,
+              which maps code point pairs (base character + variation selector) rather than single
+              character codes: as such, it's no replacement for the primary subtable.
+            */
+          }
+          break;
         case PlatformID_Macintosh:
           switch(encodingID)
           {
@@ -292,9 +891,12 @@ final class OpenFontParser
           {
             case 0: // Symbolic font.
               break;
-            case 1: // Nonsymbolic font.
+            case 1: // Nonsymbolic font (Unicode BMP).
               cmap31Offset = offset;
               break;
+            case 10: // Nonsymbolic font (Unicode full repertoire).
+              cmap310Offset = offset;
+              break;
           }
           break;
       }
@@ -303,21 +905,31 @@ final class OpenFontParser
     /*
       NOTE: Symbolic fonts use specific (non-standard, i.e. neither Unicode nor
       platform-standard) font encodings.
+      Full-repertoire Unicode subtables are preferred as they are supersets of the BMP ones.
     */
-    if(cmap31Offset > 0) // Nonsymbolic.
-    {
-      metrics.isCustomEncoding = false;
-      // Go to the beginning of the subtable!
-      fontData.seek(tableOffset + cmap31Offset);
-    }
+    int subtableOffset;
+    if(cmap310Offset > 0) // Nonsymbolic (full repertoire).
+    {subtableOffset = cmap310Offset;}
+    else if(cmap0FullOffset > 0) // Nonsymbolic (full repertoire).
+    {subtableOffset = cmap0FullOffset;}
+    else if(cmap31Offset > 0) // Nonsymbolic.
+    {subtableOffset = cmap31Offset;}
+    else if(cmap0Offset > 0) // Nonsymbolic.
+    {subtableOffset = cmap0Offset;}
+    else
+    {subtableOffset = 0;}
+
+    if(subtableOffset > 0) // Nonsymbolic.
+    {metrics.isCustomEncoding = false;}
     else if(cmap10Offset > 0) // Symbolic.
     {
       metrics.isCustomEncoding = true;
-      // Go to the beginning of the subtable!
-      fontData.seek(tableOffset + cmap10Offset);
+      subtableOffset = cmap10Offset;
     }
     else
       throw new ParseException("CMAP table unavailable.");
+    // Go to the beginning of the subtable!
+    fontData.seek(tableOffset + subtableOffset);
 
     int format = fontData.readUnsignedShort();
     // Which cmap table format?
@@ -329,6 +941,9 @@ final class OpenFontParser
         loadCMapFormat4(); break;
       case 6: // Trimmed table mapping.
         loadCMapFormat6(); break;
+      case 12: // Segmented coverage.
+      case 13: // Many-to-one range mappings.
+        loadCMapFormat12(format == 13); break;
       default:
         throw new UnsupportedOperationException("Cmap table format " + format + " NOT supported.");
     }
@@ -348,23 +963,19 @@ final class OpenFontParser
       The glyph collection is limited to 256 entries.
     */
     symbolic = true;
-    glyphIndexes = new Hashtable<Integer,Integer>(256);
 
     // Skip to the mapping array!
     fontData.skip(4);
     // Glyph index array.
-    // Iterating through the glyph indexes...
+    int[] glyphIds = new int[256]; // BYTE.
     for(
       int code = 0;
-      code < 256;
+      code < glyphIds.length;
       code++
       )
-    {
-      glyphIndexes.put(
-        code, // Character code.
-        fontData.readUnsignedByte() // Glyph index.
-        );
-    }
+    {glyphIds[code] = fontData.readUnsignedByte();}
+
+    glyphIndexes = new GlyphIndexTable(glyphIds, 0);
   }
 
   /**
@@ -422,7 +1033,7 @@ final class OpenFontParser
     {startCodes[index] = fontData.readUnsignedShort();}
 
     // Delta for all character codes in segment.
-    short[] deltas = new short[segmentCount];
+    int[] deltas = new int[segmentCount]; // SHORT.
     for(
       int index = 0;
       index < segmentCount;
@@ -431,13 +1042,43 @@ final class OpenFontParser
     {deltas[index] = fontData.readShort();}
 
     // Offsets into glyph index array.
-    int[] rangeOffsets = new int[segmentCount]; // USHORT.
+    int[] glyphIdOffsets = new int[segmentCount];
     for(
       int index = 0;
       index < segmentCount;
       index++
       )
-    {rangeOffsets[index] = fontData.readUnsignedShort();}
+    {
+      int rangeOffset = fontData.readUnsignedShort(); // USHORT.
+      // Doesn't the mapping of character codes rely on glyph ID?
+      if(rangeOffset == 0) // No glyph-ID reliance.
+      {
+        /*
+          NOTE: If the range offset is 0, the delta value is added directly to the character
+          code to get the corresponding glyph index.
+        */
+        glyphIdOffsets[index] = -1;
+      }
+      else // Glyph-ID reliance.
+      {
+        /*
+          NOTE: If the range offset is NOT 0, the mapping of character codes relies on glyph ID.
+          The character code offset from start code is added to the range offset. This sum is
+          used as an offset from the current location within range offset itself to index out
+          the correct glyph ID. This obscure indexing trick (sic!) works because glyph ID
+          immediately follows range offset in the font file. The C expression that yields the
+          address to the glyph ID is:
+            *(rangeOffsets[segmentIndex]/2
+            + (code - startCodes[segmentIndex])
+            + &idRangeOffset[segmentIndex])
+          As Java language semantics don't deal directly with pointers, we have to further
+          exploit such a trick reasoning with 16-bit displacements in order to yield an index
+          instead of an address (sooo-good!).
+        */
+        glyphIdOffsets[index] = rangeOffset / 2 // 16-bit word range offset.
+          - (segmentCount - index); // Physical offset between the offsets into glyph index array and the glyph index array.
+      }
+    }
 
     // 3. Glyph ID array.
     /*
@@ -447,7 +1088,7 @@ final class OpenFontParser
     int glyphIndexCount = tableLength / 2 // Number of 16-bit words inside the table.
       - 8 // Number of single-word header fields (8 fields: format, length, language, segCountX2, searchRange, entrySelector, rangeShift, reservedPad).
       - segmentCount * 4; // Number of single-word items in the arrays describing the segments (4 arrays of segmentCount items).
-    int[] glyphIds = new int[glyphIndexCount]; // USHORT.
+    int[] glyphIds = new int[Math.max(glyphIndexCount, 0)]; // USHORT.
     for(
       int index = 0;
       index < glyphIds.length;
@@ -455,74 +1096,13 @@ final class OpenFontParser
       )
     {glyphIds[index] = fontData.readUnsignedShort();}
 
-    glyphIndexes = new Hashtable<Integer,Integer>(glyphIndexCount);
-    // Iterating through the segments...
-    for(
-      int segmentIndex = 0;
-      segmentIndex < segmentCount;
-      segmentIndex++
-      )
-    {
-      int endCode = endCodes[segmentIndex];
-      // Is it NOT the last end character code?
-      /*
-        NOTE: The final segment's endCode MUST be 0xFFFF. This segment need not (but MAY)
-        contain any valid mappings (it can just map the single character code 0xFFFF to
-        missing glyph). However, the segment MUST be present.
-      */
-      if(endCode < 0xFFFF)
-      {endCode++;}
-      // Iterating inside the current segment...
-      for(
-        int code = startCodes[segmentIndex];
-        code < endCode;
-        code++
-        )
-      {
-        int glyphIndex;
-        // Doesn't the mapping of character codes rely on glyph ID?
-        if(rangeOffsets[segmentIndex] == 0) // No glyph-ID reliance.
-        {
-          /*
-            NOTE: If the range offset is 0, the delta value is added directly to the character
-            code to get the corresponding glyph index. The delta arithmetic is modulo 65536.
-          */
-          glyphIndex = (code + deltas[segmentIndex]) & 0xFFFF;
-        }
-        else // Glyph-ID reliance.
-        {
-          /*
-            NOTE: If the range offset is NOT 0, the mapping of character codes relies on glyph ID.
-            The character code offset from start code is added to the range offset. This sum is
-            used as an offset from the current location within range offset itself to index out
-            the correct glyph ID. This obscure indexing trick (sic!) works because glyph ID
-            immediately follows range offset in the font file. The C expression that yields the
-            address to the glyph ID is:
-              *(rangeOffsets[segmentIndex]/2
-              + (code - startCodes[segmentIndex])
-              + &idRangeOffset[segmentIndex])
-            As Java language semantics don't deal directly with pointers, we have to further
-            exploit such a trick reasoning with 16-bit displacements in order to yield an index
-            instead of an address (sooo-good!).
-          */
-          // Retrieve the glyph index!
-          int glyphIdIndex = rangeOffsets[segmentIndex] / 2 // 16-bit word range offset.
-            + (code - startCodes[segmentIndex]) // Character code offset from start code.
-            - (segmentCount - segmentIndex); // Physical offset between the offsets into glyph index array and the glyph index array.
-
-          /*
-            NOTE: The delta value is added to the glyph ID to get the corresponding glyph index.
-            The delta arithmetic is modulo 65536.
-          */
-          glyphIndex = (glyphIds[glyphIdIndex] + deltas[segmentIndex]) & 0xFFFF;
-        }
-
-        glyphIndexes.put(
-          code, // Character code.
-          glyphIndex // Glyph index.
-          );
-      }
-    }
+    /*
+      NOTE: The final segment's endCode MUST be 0xFFFF. This segment need not (but MAY)
+      contain any valid mappings (it can just map the single character code 0xFFFF to
+      missing glyph). However, the segment MUST be present.
+      The delta arithmetic is modulo 65536.
+    */
+    glyphIndexes = new GlyphIndexTable(startCodes, endCodes, deltas, glyphIdOffsets, glyphIds, 0xFFFF, false);
   }
 
   /**
@@ -538,19 +1118,56 @@ final class OpenFontParser
     fontData.skip(4);
     int firstCode = fontData.readUnsignedShort();
     int codeCount = fontData.readUnsignedShort();
-    glyphIndexes = new Hashtable<Integer,Integer>(codeCount);
+    int[] glyphIds = new int[codeCount]; // USHORT.
     for(
-      int code = firstCode,
-        lastCode = firstCode + codeCount;
-      code < lastCode;
-      code++
+      int index = 0;
+      index < codeCount;
+      index++
+      )
+    {glyphIds[index] = fontData.readUnsignedShort();}
+
+    glyphIndexes = new GlyphIndexTable(glyphIds, firstCode);
+  }
+
+  /**
+    Loads format-12 (Segmented coverage) or format-13 (Many-to-one range mappings) cmap subtable.
+
+    @param constant Whether all the codes of a group map to the same glyph (format 13).
+    @throws EOFException
+  */
+  private void loadCMapFormat12(
+    boolean constant
+    ) throws EOFException
+  {
+    /*
+      NOTE: These formats extend the segment model to 32-bit character codes, so that fonts
+      covering the supplementary planes (U+10000 - U+10FFFF) can be mapped. Each group is
+      expressed by its start and end codes along with its start glyph index.
+    */
+    symbolic = false;
+    // Skip to the group count!
+    fontData.skip(10);
+    int groupCount = fontData.readInt(); // ULONG.
+    int[] startCodes = new int[groupCount];
+    int[] endCodes = new int[groupCount];
+    int[] deltas = new int[groupCount];
+    for(
+      int index = 0;
+      index < groupCount;
+      index++
       )
     {
-      glyphIndexes.put(
-        code, // Character code.
-        fontData.readUnsignedShort() // Glyph index.
-        );
+      startCodes[index] = fontData.readInt(); // ULONG.
+      endCodes[index] = fontData.readInt(); // ULONG.
+      int startGlyphIndex = fontData.readInt(); // ULONG.
+      /*
+        NOTE: Format-13 groups map all their codes to their start glyph index, whilst format-12
+        ones map them to consecutive glyph indexes.
+      */
+      deltas[index] = (constant ? startGlyphIndex : startGlyphIndex - startCodes[index]);
     }
+
+    glyphIndexes = new GlyphIndexTable(startCodes, endCodes, deltas, null, null, -1, constant);
   }
 
   /**
@@ -566,8 +1183,8 @@ final class OpenFontParser
   {
     // Naming Table ('name' table).
     Integer tableOffset = tableOffsets.get("name");
-    if(tableOffset == null)
-      throw new ParseException("'name' table does NOT exist.");
+    if(tableOffset == null) // NOTE: Embedded font programs may lack it (see loadCMap()).
+      return null;
 
     // Go to the number of name records!
     fontData.seek(tableOffset + 2);
@@ -632,7 +1249,7 @@ final class OpenFontParser
     fontData.seek(tableOffset + 2);
     int subtableCount = fontData.readUnsignedShort(); // USHORT.
 
-    glyphKernings = new Hashtable<Integer,Integer>();
+    glyphKernings = new IntIntMap();
     int subtableOffset = (int)fontData.getPosition();
     // Iterating through the subtables...
     for(
@@ -680,6 +1297,164 @@ final class OpenFontParser
     }
   }
 
+  /**
+    Loads the glyph data offsets ('loca' table).
+
+    @throws EOFException
+  */
+  private void loadGlyphOffsets(
+    ) throws EOFException
+  {
+    Integer tableOffset = tableOffsets.get("loca");
+    Integer headOffset = tableOffsets.get("head");
+    if(tableOffset == null || headOffset == null || !tableOffsets.containsKey("glyf"))
+    {
+      glyphOffsets = new int[0];
+      return;
+    }
+
+    // Go to the offset format!
+    fontData.seek(headOffset + 50);
+    boolean longOffsets = (fontData.readShort() != 0);
+
+    int glyphCount = metrics.numGlyphs;
+    if(glyphCount == 0) // 'maxp' table missing.
+    {glyphCount = tableLengths.get("loca") / (longOffsets ? 4 : 2) - 1;}
+    glyphOffsets = new int[Math.max(glyphCount + 1, 0)];
+    fontData.seek(tableOffset);
+    for(int index = 0; index < glyphOffsets.length; index++)
+    {glyphOffsets[index] = (longOffsets ? fontData.readInt() : fontData.readUnsignedShort() * 2);}
+  }
+
+  /**
+    Loads the outline of the given glyph ('glyf' table) [OFF:2009:5.3.3].
+
+    @param glyphIndex Glyph index.
+    @param outline Target outline (in font design units).
+    @param depth Nesting level (composite glyphs).
+    @return Whether the glyph exists.
+    @throws EOFException
+  */
+  private boolean loadGlyphOutline(
+    int glyphIndex,
+    Path2D outline,
+    int depth
+    ) throws EOFException
+  {
+    if(glyphIndex < 0
+      || glyphIndex >= glyphOffsets.length - 1
+      || depth > 8) // NOTE: Excessive nesting is most likely due to circular references.
+      return false;
+
+    int glyphOffset = glyphOffsets[glyphIndex];
+    if(glyphOffsets[glyphIndex + 1] <= glyphOffset) // Empty glyph (e.g. space).
+      return true;
+
+    fontData.seek(tableOffsets.get("glyf") + glyphOffset);
+    int contourCount = fontData.readShort();
+    // Skip the bounding box!
+    fontData.skip(8);
+    if(contourCount >= 0) // Simple glyph.
+    {
+      int[] contourEnds = new int[contourCount];
+      for(int index = 0; index < contourCount; index++)
+      {contourEnds[index] = fontData.readUnsignedShort();}
+      int pointCount = (contourCount > 0 ? contourEnds[contourCount - 1] + 1 : 0);
+      // Skip the instructions!
+      fontData.skip(fontData.readUnsignedShort());
+
+      // Point flags.
+      byte[] flags = new byte[pointCount];
+      for(int index = 0; index < pointCount;)
+      {
+        byte flag = fontData.readByte();
+        flags[index++] = flag;
+        if((flag & 0x08) != 0) // Repeated flag.
+        {
+          for(int repeatCount = fontData.readUnsignedByte(); repeatCount > 0 && index < pointCount; repeatCount--)
+          {flags[index++] = flag;}
+        }
+      }
+      // Point coordinates.
+      /*
+        NOTE: Coordinates are delta-encoded, either as unsigned bytes (whose sign is given by the
+        corresponding flag) or as signed shorts (unless repeated).
+      */
+      int[] xs = new int[pointCount];
+      for(int index = 0, x = 0; index < pointCount; index++)
+      {
+        int flag = flags[index];
+        if((flag & 0x02) != 0) // Short vector.
+        {
+          int delta = fontData.readUnsignedByte();
+          x += ((flag & 0x10) != 0 ? delta : -delta);
+        }
+        else if((flag & 0x10) == 0) // Long vector.
+        {x += fontData.readShort();}
+        xs[index] = x;
+      }
+      int[] ys = new int[pointCount];
+      for(int index = 0, y = 0; index < pointCount; index++)
+      {
+        int flag = flags[index];
+        if((flag & 0x04) != 0) // Short vector.
+        {
+          int delta = fontData.readUnsignedByte();
+          y += ((flag & 0x20) != 0 ? delta : -delta);
+        }
+        else if((flag & 0x20) == 0) // Long vector.
+        {y += fontData.readShort();}
+        ys[index] = y;
+      }
+      boolean[] onCurves = new boolean[pointCount];
+      for(int index = 0; index < pointCount; index++)
+      {onCurves[index] = ((flags[index] & 0x01) != 0);}
+
+      for(int contourIndex = 0, start = 0; contourIndex < contourCount; contourIndex++)
+      {
+        int end = contourEnds[contourIndex];
+        if(end >= pointCount)
+          break;
+
+        appendContour(outline, xs, ys, onCurves, start, end);
+        start = end + 1;
+      }
+    }
+    else // Composite glyph.
+    {
+      int flags;
+      do
+      {
+        flags = fontData.readUnsignedShort();
+        int componentGlyphIndex = fontData.readUnsignedShort();
+        double dx, dy;
+        if((flags & 0x0001) != 0) // ARG_1_AND_2_ARE_WORDS.
+        {dx = fontData.readShort(); dy = fontData.readShort();}
+        else
+        {dx = fontData.readByte(); dy = fontData.readByte();}
+        if((flags & 0x0002) == 0) // Point matching (unsupported).
+        {dx = dy = 0;}
+        double a = 1, b = 0, c = 0, d = 1;
+        if((flags & 0x0008) != 0) // WE_HAVE_A_SCALE.
+        {a = d = fontData.readShort() / 16384d;}
+        else if((flags & 0x0040) != 0) // WE_HAVE_AN_X_AND_Y_SCALE.
+        {a = fontData.readShort() / 16384d; d = fontData.readShort() / 16384d;}
+        else if((flags & 0x0080) != 0) // WE_HAVE_A_TWO_BY_TWO.
+        {
+          a = fontData.readShort() / 16384d; b = fontData.readShort() / 16384d;
+          c = fontData.readShort() / 16384d; d = fontData.readShort() / 16384d;
+        }
+
+        long position = fontData.getPosition();
+        Path2D componentOutline = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        if(loadGlyphOutline(componentGlyphIndex, componentOutline, depth + 1))
+        {outline.append(componentOutline.getPathIterator(new AffineTransform(a, b, c, d, dx, dy)), false);}
+        fontData.setPosition(position);
+      } while((flags & 0x0020) != 0); // MORE_COMPONENTS.
+    }
+    return true;
+  }
+
   /**
     Loads the glyph widths.
 
@@ -695,18 +1470,19 @@ final class OpenFontParser
 
     // Go to the glyph horizontal-metrics entries!
     fontData.seek(tableOffset);
-    glyphWidths = new Hashtable<Integer,Integer>(metrics.numberOfHMetrics);
+    int[] advanceWidths = new int[metrics.numberOfHMetrics];
     for(
       int index = 0;
-      index < metrics.numberOfHMetrics;
+      index < advanceWidths.length;
       index++
       )
     {
       // Get the glyph width!
-      glyphWidths.put(index,(int)(fontData.readUnsignedShort() * metrics.unitNorm));
+      advanceWidths[index] = (int)(fontData.readUnsignedShort() * metrics.unitNorm);
       // Skip the left side bearing!
       fontData.skip(2);
     }
+    glyphWidths = new GlyphWidthTable(advanceWidths, Math.max(metrics.numGlyphs, advanceWidths.length));
   }
 
   /**
@@ -730,6 +1506,7 @@ final class OpenFontParser
     fontData.skip(6);
     // Collecting the table offsets...
     this.tableOffsets = new Hashtable<String,Integer>(tableCount);
+    this.tableLengths = new Hashtable<String,Integer>(tableCount);
     for(
       int index = 0;
       index < tableCount;
@@ -744,9 +1521,8 @@ final class OpenFontParser
       int offset = fontData.readInt();
       // Collect the table offset!
       tableOffsets.put(tag,offset);
-
-      // Skip to the next entry!
-      fontData.skip(4);
+      // Collect the table length!
+      tableLengths.put(tag,fontData.readInt());
     }
   }
 
@@ -824,10 +1600,19 @@ final class OpenFontParser
     fontData.skip(12);
     metrics.numberOfHMetrics = fontData.readUnsignedShort();
 
+    // Maximum Profile ('maxp' table).
+    tableOffset = tableOffsets.get("maxp");
+    if(tableOffset != null)
+    {
+      // Go to the number of glyphs!
+      fontData.seek(tableOffset + 4);
+      metrics.numGlyphs = fontData.readUnsignedShort();
+    }
+
     // PostScript ('post' table).
     tableOffset = tableOffsets.get("post");
-    if(tableOffset == null)
-      throw new ParseException("'post' table does NOT exist.");
+    if(tableOffset == null) // NOTE: Embedded font programs may lack it (see loadCMap()).
+      return;
 
     // Go to the italic angle!
     fontData.seek(tableOffset + 4);
@@ -0,0 +1,539 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents.fonts;
+
+import java.io.EOFException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.pdfclown.bytes.Buffer;
+import org.pdfclown.bytes.IInputStream;
+import org.pdfclown.util.IntIntMap;
+import org.pdfclown.util.parsers.ParseException;
+
+/**
+  Open Font Format subsetter [OFF:2009].
+  <p>It strips the glyph descriptions which are not used, preserving the glyph indexes (so that
+  existing CID-to-GID mappings keep being valid), truncates the glyph tables after the last used
+  glyph and replaces the character map with one covering just the used characters. Both TrueType
+  and CFF outlines (see {@link CffSubsetter}) are supported. Besides the tables required to embed
+  the font [PDF:1.6:5.8], the resulting font program retains the naming and OS/2 tables.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+final class OpenFontSubsetter
+{
+  // <class>
+  // <static>
+  // <fields>
+  /**
+    Tables to retain into the subset.
+  */
+  private static final String[] RetainedTableTags = {"CFF ", "OS/2", "cmap", "cvt ", "fpgm", "glyf", "head", "hhea", "hmtx", "loca", "maxp", "name", "prep"};
+
+  /*
+    Composite glyph flags [OFF:2009:5.3.4].
+  */
+  private static final int ComponentFlag_Arg1And2AreWords = 0x0001;
+  private static final int ComponentFlag_WeHaveAScale = 0x0008;
+  private static final int ComponentFlag_MoreComponents = 0x0020;
+  private static final int ComponentFlag_WeHaveAnXAndYScale = 0x0040;
+  private static final int ComponentFlag_WeHaveATwoByTwo = 0x0080;
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Computes the checksum of the given table data [OFF:2009:4.5].
+  */
+  private static int getChecksum(
+    byte[] data
+    )
+  {
+    int checksum = 0;
+    for(
+      int index = 0,
+        length = data.length;
+      index < length;
+      index += 4
+      )
+    {
+      int value = 0;
+      for(int byteIndex = 0; byteIndex < 4; byteIndex++)
+      {
+        value <<= 8;
+        if(index + byteIndex < length)
+        {value |= data[index + byteIndex] & 0xFF;}
+      }
+      checksum += value;
+    }
+    return checksum;
+  }
+
+  private static byte[] toBytes(
+    long value,
+    int length
+    )
+  {
+    byte[] data = new byte[length];
+    for(int index = length - 1; index >= 0; index--)
+    {
+      data[index] = (byte)(value & 0xFF);
+      value >>= 8;
+    }
+    return data;
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final IInputStream fontData;
+
+  /**
+    Whether the glyph outlines are in CFF format.
+  */
+  private boolean cff;
+  private int glyphCount;
+  private int[] glyphOffsets;
+  private int numberOfHMetrics;
+  private Map<String,int[]> tableRanges;
+  // </fields>
+
+  // <constructors>
+  OpenFontSubsetter(
+    IInputStream fontData
+    )
+  {
+    this.fontData = fontData;
+
+    load();
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the font program reduced to the given glyphs.
+
+    @param glyphIndexes Glyph indexes to retain, by unicode (glyph 0, i.e. <code>.notdef</code>,
+    and the components of composite glyphs are implicitly retained).
+  */
+  public byte[] subset(
+    IntIntMap glyphIndexes
+    )
+  {
+    try
+    {
+      // 1. Glyph closure.
+      boolean[] retainedGlyphs = new boolean[glyphCount];
+      byte[] cffTable = null;
+      if(cff)
+      {
+        for(int code : glyphIndexes.keys())
+        {
+          int glyphIndex = glyphIndexes.get(code,0);
+          if(glyphIndex >= 0 && glyphIndex < glyphCount)
+          {retainedGlyphs[glyphIndex] = true;}
+        }
+        // NOTE: Accented glyphs are resolved along with their subroutines.
+        cffTable = subsetCff(retainedGlyphs);
+      }
+      else
+      {
+        retainGlyph(0, retainedGlyphs);
+        for(int code : glyphIndexes.keys())
+        {retainGlyph(glyphIndexes.get(code,0), retainedGlyphs);}
+      }
+      // NOTE: Trailing unused glyphs are dropped.
+      int subsetGlyphCount = glyphCount;
+      while(subsetGlyphCount > 1 && !retainedGlyphs[subsetGlyphCount - 1])
+      {subsetGlyphCount--;}
+
+      // 2. Glyph data and locations.
+      Buffer glyfTable = new Buffer();
+      Buffer locaTable = new Buffer();
+      int[] glyfRange = tableRanges.get("glyf");
+      for(
+        int glyphIndex = 0;
+        !cff && glyphIndex < subsetGlyphCount;
+        glyphIndex++
+        )
+      {
+        locaTable.append(toBytes(glyfTable.getLength(), 4));
+        if(!retainedGlyphs[glyphIndex])
+          continue;
+
+        int glyphLength = glyphOffsets[glyphIndex + 1] - glyphOffsets[glyphIndex];
+        if(glyphLength > 0)
+        {
+          byte[] glyphData = new byte[glyphLength];
+          fontData.seek(glyfRange[0] + glyphOffsets[glyphIndex]);
+          fontData.read(glyphData);
+          glyfTable.append(glyphData);
+          // NOTE: Long offsets are used, so 4-byte alignment is just a courtesy.
+          while(glyfTable.getLength() % 4 != 0)
+          {glyfTable.append((byte)0);}
+        }
+      }
+      locaTable.append(toBytes(glyfTable.getLength(), 4));
+
+      // 3. Tables.
+      Map<String,byte[]> tables = new TreeMap<String,byte[]>();
+      for(String tag : RetainedTableTags)
+      {
+        if(tag.equals("cmap"))
+        {tables.put(tag, createCMap(glyphIndexes));}
+        else if(!tableRanges.containsKey(tag))
+          continue;
+        else if(tag.equals("CFF "))
+        {tables.put(tag, cffTable);}
+        else if(tag.equals("glyf"))
+        {tables.put(tag, glyfTable.toByteArray());}
+        else if(tag.equals("hmtx"))
+        {tables.put(tag, subsetHorizontalMetrics(subsetGlyphCount));}
+        else if(tag.equals("loca"))
+        {tables.put(tag, locaTable.toByteArray());}
+        else
+        {
+          byte[] tableData = readTable(tag);
+          if(tag.equals("head"))
+          {
+            // Reset the checksum adjustment (to be computed later)!
+            System.arraycopy(toBytes(0, 4), 0, tableData, 8, 4);
+            // Force long offsets ('loca' table)!
+            System.arraycopy(toBytes(1, 2), 0, tableData, 50, 2);
+          }
+          else if(tag.equals("hhea"))
+          {
+            // Number of horizontal metrics ('hmtx' table).
+            System.arraycopy(toBytes(Math.min(numberOfHMetrics, subsetGlyphCount), 2), 0, tableData, 34, 2);
+          }
+          else if(tag.equals("maxp"))
+          {
+            // Number of glyphs.
+            System.arraycopy(toBytes(subsetGlyphCount, 2), 0, tableData, 4, 2);
+          }
+          tables.put(tag, tableData);
+        }
+      }
+
+      return write(tables);
+    }
+    catch(EOFException e)
+    {throw new ParseException(e);}
+  }
+  // </public>
+
+  // <private>
+  /**
+    Creates a character map table containing a format-4 (Microsoft Unicode) subtable for the given
+    glyphs [OFF:2009:5.2.1.3.4].
+  */
+  private byte[] createCMap(
+    IntIntMap glyphIndexes
+    )
+  {
+    // Collect the segments!
+    /*
+      NOTE: Each segment groups consecutive codes sharing the same glyph index delta.
+      Codes outside the Basic Multilingual Plane cannot be represented by this format.
+    */
+    int[] codes = glyphIndexes.keys();
+    Arrays.sort(codes);
+    int[] startCodes = new int[codes.length + 1];
+    int[] endCodes = new int[codes.length + 1];
+    int[] deltas = new int[codes.length + 1];
+    int segmentCount = 0;
+    for(int code : codes)
+    {
+      if(code > 0xFFFE)
+        break;
+
+      int delta = glyphIndexes.get(code,0) - code;
+      if(segmentCount > 0
+        && endCodes[segmentCount - 1] == code - 1
+        && deltas[segmentCount - 1] == delta)
+      {endCodes[segmentCount - 1] = code;}
+      else
+      {
+        startCodes[segmentCount] = endCodes[segmentCount] = code;
+        deltas[segmentCount++] = delta;
+      }
+    }
+    // Final segment (mandatory).
+    startCodes[segmentCount] = endCodes[segmentCount] = 0xFFFF;
+    deltas[segmentCount++] = 1;
+
+    int entrySelector = 0;
+    while((1 << (entrySelector + 1)) <= segmentCount)
+    {entrySelector++;}
+    int searchRange = (1 << entrySelector) * 2;
+
+    Buffer cmap = new Buffer();
+    // 1. Header.
+    cmap.append(toBytes(0, 2)); // Version.
+    cmap.append(toBytes(1, 2)); // Number of encoding tables.
+    cmap.append(toBytes(3, 2)); // Platform ID (Microsoft).
+    cmap.append(toBytes(1, 2)); // Encoding ID (Unicode BMP).
+    cmap.append(toBytes(12, 4)); // Subtable offset.
+    // 2. Subtable.
+    cmap.append(toBytes(4, 2)); // Format.
+    cmap.append(toBytes(16 + segmentCount * 8, 2)); // Length.
+    cmap.append(toBytes(0, 2)); // Language.
+    cmap.append(toBytes(segmentCount * 2, 2));
+    cmap.append(toBytes(searchRange, 2));
+    cmap.append(toBytes(entrySelector, 2));
+    cmap.append(toBytes(segmentCount * 2 - searchRange, 2));
+    for(int index = 0; index < segmentCount; index++)
+    {cmap.append(toBytes(endCodes[index], 2));}
+    cmap.append(toBytes(0, 2)); // Reserved pad.
+    for(int index = 0; index < segmentCount; index++)
+    {cmap.append(toBytes(startCodes[index], 2));}
+    for(int index = 0; index < segmentCount; index++)
+    {cmap.append(toBytes(deltas[index], 2));}
+    for(int index = 0; index < segmentCount; index++)
+    {cmap.append(toBytes(0, 2));} // Range offsets.
+    return cmap.toByteArray();
+  }
+
+  /**
+    Loads the table directory and the glyph locations.
+  */
+  private void load(
+    )
+  {
+    try
+    {
+      // 1. Table directory.
+      fontData.seek(4);
+      int tableCount = fontData.readUnsignedShort();
+      fontData.skip(6);
+      tableRanges = new TreeMap<String,int[]>();
+      for(
+        int index = 0;
+        index < tableCount;
+        index++
+        )
+      {
+        String tag = fontData.readString(4);
+        fontData.skip(4); // Checksum.
+        int offset = fontData.readInt();
+        int length = fontData.readInt();
+        tableRanges.put(tag, new int[]{offset, length});
+      }
+      cff = tableRanges.containsKey("CFF ");
+      for(String tag : (cff ? new String[]{"CFF ", "head", "maxp"} : new String[]{"glyf", "head", "loca", "maxp"}))
+      {
+        if(!tableRanges.containsKey(tag))
+          throw new ParseException("'" + tag + "' table does NOT exist.");
+      }
+
+      // 2. Glyph count ('maxp' table).
+      fontData.seek(tableRanges.get("maxp")[0] + 4);
+      glyphCount = fontData.readUnsignedShort();
+
+      // 3. Number of horizontal metrics ('hhea' table).
+      if(tableRanges.containsKey("hhea"))
+      {
+        fontData.seek(tableRanges.get("hhea")[0] + 34);
+        numberOfHMetrics = fontData.readUnsignedShort();
+      }
+      if(cff)
+        return;
+
+      // 4. Glyph locations ('loca' table).
+      fontData.seek(tableRanges.get("head")[0] + 50);
+      boolean longOffsets = (fontData.readShort() != 0);
+      fontData.seek(tableRanges.get("loca")[0]);
+      glyphOffsets = new int[glyphCount + 1];
+      for(
+        int index = 0;
+        index <= glyphCount;
+        index++
+        )
+      {glyphOffsets[index] = (longOffsets ? fontData.readInt() : fontData.readUnsignedShort() * 2);}
+    }
+    catch(EOFException e)
+    {throw new ParseException(e);}
+  }
+
+  private byte[] readTable(
+    String tag
+    ) throws EOFException
+  {
+    int[] tableRange = tableRanges.get(tag);
+    byte[] tableData = new byte[tableRange[1]];
+    fontData.seek(tableRange[0]);
+    fontData.read(tableData);
+    return tableData;
+  }
+
+  /**
+    Marks the given glyph (along with its components, if composite) as retained.
+  */
+  private void retainGlyph(
+    int glyphIndex,
+    boolean[] retainedGlyphs
+    ) throws EOFException
+  {
+    if(glyphIndex < 0
+      || glyphIndex >= glyphCount
+      || retainedGlyphs[glyphIndex])
+      return;
+
+    retainedGlyphs[glyphIndex] = true;
+    if(glyphOffsets[glyphIndex + 1] - glyphOffsets[glyphIndex] == 0) // Empty glyph.
+      return;
+
+    fontData.seek(tableRanges.get("glyf")[0] + glyphOffsets[glyphIndex]);
+    if(fontData.readShort() >= 0) // Simple glyph.
+      return;
+
+    // Composite glyph.
+    fontData.skip(8); // Bounding box.
+    int flags;
+    do
+    {
+      flags = fontData.readUnsignedShort();
+      int componentGlyphIndex = fontData.readUnsignedShort();
+      long nextComponentPosition = fontData.getPosition()
+        + ((flags & ComponentFlag_Arg1And2AreWords) != 0 ? 4 : 2)
+        + ((flags & ComponentFlag_WeHaveAScale) != 0 ? 2
+          : (flags & ComponentFlag_WeHaveAnXAndYScale) != 0 ? 4
+          : (flags & ComponentFlag_WeHaveATwoByTwo) != 0 ? 8
+          : 0);
+
+      retainGlyph(componentGlyphIndex, retainedGlyphs);
+      fontData.seek(nextComponentPosition);
+    } while((flags & ComponentFlag_MoreComponents) != 0);
+  }
+
+  /**
+    Gets the CFF table reduced to the given glyphs.
+    <p>In case the font program can't be subset, it's retained as a whole.</p>
+
+    @param retainedGlyphs Whether each glyph has to be retained (updated with the components of
+    accented glyphs).
+  */
+  private byte[] subsetCff(
+    boolean[] retainedGlyphs
+    ) throws EOFException
+  {
+    byte[] tableData = readTable("CFF ");
+    try
+    {return new CffSubsetter(tableData).subset(retainedGlyphs);}
+    catch(RuntimeException e)
+    {
+      // NOTE: Malformed font programs are resiliently retained as a whole.
+      Arrays.fill(retainedGlyphs, true);
+      return tableData;
+    }
+  }
+
+  /**
+    Gets the horizontal metrics table truncated to the given number of glyphs [OFF:2009:5.2.4].
+  */
+  private byte[] subsetHorizontalMetrics(
+    int subsetGlyphCount
+    ) throws EOFException
+  {
+    byte[] tableData = readTable("hmtx");
+    int subsetNumberOfHMetrics = Math.min(numberOfHMetrics, subsetGlyphCount);
+    /*
+      NOTE: Glyphs beyond the horizontal metrics keep just their left side bearing, which follows
+      the full metrics of the original glyphs.
+    */
+    Buffer table = new Buffer();
+    table.append(tableData, 0, Math.min(subsetNumberOfHMetrics * 4, tableData.length));
+    int leftSideBearingsOffset = numberOfHMetrics * 4;
+    int leftSideBearingsLength = (subsetGlyphCount - subsetNumberOfHMetrics) * 2;
+    if(leftSideBearingsOffset + leftSideBearingsLength <= tableData.length)
+    {table.append(tableData, leftSideBearingsOffset, leftSideBearingsLength);}
+    return table.toByteArray();
+  }
+
+  /**
+    Serializes the given tables into a font program [OFF:2009:4.5].
+
+    @param tables Table data by tag (sorted by tag).
+  */
+  private byte[] write(
+    Map<String,byte[]> tables
+    )
+  {
+    int tableCount = tables.size();
+    int entrySelector = 0;
+    while((1 << (entrySelector + 1)) <= tableCount)
+    {entrySelector++;}
+    int searchRange = (1 << entrySelector) * 16;
+
+    Buffer font = new Buffer();
+    // 1. Offset table.
+    font.append(toBytes(cff ? 0x4F54544F : 0x00010000, 4)); // 'OTTO' (CFF outlines) or TrueType outlines.
+    font.append(toBytes(tableCount, 2));
+    font.append(toBytes(searchRange, 2));
+    font.append(toBytes(entrySelector, 2));
+    font.append(toBytes(tableCount * 16 - searchRange, 2));
+
+    // 2. Table directory.
+    int offset = 12 + tableCount * 16;
+    int headOffset = 0;
+    for(Map.Entry<String,byte[]> tableEntry : tables.entrySet())
+    {
+      byte[] tableData = tableEntry.getValue();
+      if(tableEntry.getKey().equals("head"))
+      {headOffset = offset;}
+
+      font.append(tableEntry.getKey());
+      font.append(toBytes(getChecksum(tableData), 4));
+      font.append(toBytes(offset, 4));
+      font.append(toBytes(tableData.length, 4));
+      offset += (tableData.length + 3) & ~3;
+    }
+
+    // 3. Tables.
+    for(byte[] tableData : tables.values())
+    {
+      font.append(tableData);
+      for(int padding = ((tableData.length + 3) & ~3) - tableData.length; padding > 0; padding--)
+      {font.append((byte)0);}
+    }
+
+    byte[] fontBytes = font.toByteArray();
+    // Font checksum adjustment ('head' table).
+    System.arraycopy(toBytes(0xB1B0AFBAL - getChecksum(fontBytes), 4), 0, fontBytes, headOffset + 8, 4);
+    return fontBytes;
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
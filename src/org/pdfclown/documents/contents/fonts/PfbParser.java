@@ -25,13 +25,20 @@
 
 package org.pdfclown.documents.contents.fonts;
 
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.io.EOFException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.pdfclown.bytes.IInputStream;
+import org.pdfclown.objects.PdfName;
+import org.pdfclown.tokens.CharsetName;
 import org.pdfclown.util.ByteArray;
 import org.pdfclown.util.parsers.ParseException;
 
@@ -40,16 +47,147 @@ import org.pdfclown.util.parsers.ParseException;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 04/25/11
+  @version 0.1.2, 10/19/12
 */
 final class PfbParser
 {
+  // <class>
+  // <static>
+  // <fields>
+  /**
+    Charstring encryption key [T1:7.1].
+  */
+  private static final int CharStringKey = 4330;
+  /**
+    Private dictionary encryption key [T1:7.1].
+  */
+  private static final int EexecKey = 55665;
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Decrypts the given data [T1:7].
+
+    @param data Data to decrypt.
+    @param offset Data position.
+    @param length Data length.
+    @param key Encryption key.
+    @param skipLength Number of leading random bytes to discard.
+  */
+  private static byte[] decrypt(
+    byte[] data,
+    int offset,
+    int length,
+    int key,
+    int skipLength
+    )
+  {
+    if(skipLength < 0) // Unencrypted.
+    {
+      byte[] result = new byte[length];
+      System.arraycopy(data, offset, result, 0, length);
+      return result;
+    }
+
+    byte[] result = new byte[Math.max(0, length - skipLength)];
+    int r = key;
+    for(int index = 0; index < length; index++)
+    {
+      int cipher = data[offset + index] & 0xFF;
+      int plain = cipher ^ (r >> 8);
+      r = ((cipher + r) * 52845 + 22719) & 0xFFFF;
+      if(index >= skipLength)
+      {result[index - skipLength] = (byte)plain;}
+    }
+    return result;
+  }
+
+  private static boolean isHexDigit(
+    int b
+    )
+  {return (b >= '0' && b <= '9') || (b >= 'A' && b <= 'F') || (b >= 'a' && b <= 'f');}
+
+  private static boolean isWhitespace(
+    int b
+    )
+  {return b == ' ' || b == '\r' || b == '\n' || b == '\t' || b == '\f' || b == 0;}
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
   private final IInputStream stream;
 
+  /**
+    Glyph programs (decrypted) by glyph name.
+  */
+  private Map<String,byte[]> charStrings;
+  /**
+    Character names by character code, according to the built-in encoding.
+  */
+  private String[] encodingNames;
+  /**
+    Transformation from glyph space to 1000-units glyph space.
+  */
+  private AffineTransform fontMatrix;
+  /**
+    Subroutines (decrypted).
+  */
+  private byte[][] subrs;
+
+  /**
+    Decrypted private data (being scanned).
+  */
+  private byte[] privateData;
+  private int privatePosition;
+  // </fields>
+
+  // <constructors>
   PfbParser(
     IInputStream stream
     )
   {this.stream = stream;}
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the name of the character corresponding to the given code, according to the built-in
+    encoding.
+
+    @return <code>null</code>, in case the code is undefined.
+  */
+  public synchronized String getEncodingName(
+    int code
+    )
+  {
+    loadCharStrings();
+    return code >= 0 && code < encodingNames.length ? encodingNames[code] : null;
+  }
+
+  /**
+    Gets the outline of the given glyph.
+    <p>Outlines are expressed in glyph space, normalized to 1000 units per em.</p>
+
+    @param name Glyph name.
+    @return <code>null</code>, in case the glyph is undefined.
+  */
+  public synchronized Shape getGlyphOutline(
+    String name
+    )
+  {
+    loadCharStrings();
+    byte[] charString = charStrings.get(name);
+    if(charString == null)
+      return null;
+
+    Path2D outline = new Type1CharStringParser(this, subrs).parse(charString);
+    if(fontMatrix != null)
+    {outline.transform(fontMatrix);}
+    return outline;
+  }
 
   /**
     Parses the character-code-to-unicode mapping [PDF:1.6:5.9.1].
@@ -103,4 +241,293 @@ final class PfbParser
     }
     return codes;
   }
+  // </public>
+
+  // <internal>
+  /**
+    Gets the program of the glyph corresponding to the given code in the standard encoding.
+    <p>It's used to compose accented characters.</p>
+
+    @return <code>null</code>, in case no glyph matches.
+  */
+  byte[] getStandardCharString(
+    int code
+    )
+  {
+    String name = Encoding.get(PdfName.StandardEncoding).getName(code);
+    return name != null ? charStrings.get(name) : null;
+  }
+  // </internal>
+
+  // <private>
+  /**
+    Loads the glyph programs [T1:7].
+  */
+  private void loadCharStrings(
+    )
+  {
+    if(charStrings != null)
+      return;
+
+    charStrings = new HashMap<String,byte[]>();
+    encodingNames = new String[256];
+    byte[] data = stream.toByteArray();
+    // Segmented (PFB) data?
+    if(data.length > 6 && (data[0] & 0xFF) == 0x80)
+    {data = unwrapSegments(data);}
+
+    // 1. Clear-text portion.
+    String clearText;
+    int eexecEnd;
+    {
+      int eexecStart = indexOf(data, "eexec", 0);
+      if(eexecStart < 0)
+        return;
+
+      try
+      {clearText = new String(data, 0, eexecStart, CharsetName.ISO88591);}
+      catch(UnsupportedEncodingException e)
+      {throw new RuntimeException(e);}
+      eexecEnd = eexecStart + 5;
+      while(eexecEnd < data.length && isWhitespace(data[eexecEnd] & 0xFF))
+      {eexecEnd++;}
+    }
+    {
+      Matcher fontMatrixMatcher = Pattern.compile("/FontMatrix\\s*[\\[{]([^\\]}]*)[\\]}]").matcher(clearText);
+      if(fontMatrixMatcher.find())
+      {
+        String[] items = fontMatrixMatcher.group(1).trim().split("\\s+");
+        if(items.length == 6)
+        {
+          double[] matrix = new double[6];
+          for(int index = 0; index < 6; index++)
+          {matrix[index] = Double.parseDouble(items[index]) * 1000;}
+          fontMatrix = new AffineTransform(matrix);
+          if(fontMatrix.isIdentity())
+          {fontMatrix = null;}
+        }
+      }
+    }
+    if(Pattern.compile("/Encoding\\s+StandardEncoding").matcher(clearText).find())
+    {
+      Encoding standardEncoding = Encoding.get(PdfName.StandardEncoding);
+      for(int code = 0; code < encodingNames.length; code++)
+      {encodingNames[code] = standardEncoding.getName(code);}
+    }
+    else
+    {
+      Matcher encodingMatcher = Pattern.compile("dup\\s+(\\d+)\\s*/(\\S+)\\s+put").matcher(clearText);
+      while(encodingMatcher.find())
+      {
+        int code = Integer.parseInt(encodingMatcher.group(1));
+        if(code < encodingNames.length)
+        {encodingNames[code] = encodingMatcher.group(2);}
+      }
+    }
+
+    // 2. Encrypted portion.
+    {
+      byte[] encryptedData = data;
+      int encryptedStart = eexecEnd;
+      int encryptedLength = data.length - eexecEnd;
+      if(encryptedLength >= 4
+        && isHexDigit(data[eexecEnd]) && isHexDigit(data[eexecEnd + 1])
+        && isHexDigit(data[eexecEnd + 2]) && isHexDigit(data[eexecEnd + 3])) // Hexadecimal.
+      {
+        encryptedData = new byte[encryptedLength / 2];
+        encryptedLength = 0;
+        int high = -1;
+        for(int index = eexecEnd; index < data.length; index++)
+        {
+          int digit = Character.digit(data[index], 16);
+          if(digit < 0)
+          {
+            if(isWhitespace(data[index]))
+              continue;
+            else
+              break;
+          }
+          if(high < 0)
+          {high = digit;}
+          else
+          {
+            encryptedData[encryptedLength++] = (byte)((high << 4) | digit);
+            high = -1;
+          }
+        }
+        encryptedStart = 0;
+      }
+      privateData = decrypt(encryptedData, encryptedStart, encryptedLength, EexecKey, 4);
+    }
+    privatePosition = 0;
+    int lenIV = 4;
+    {
+      int lenIVStart = indexOf(privateData, "/lenIV", 0);
+      if(lenIVStart >= 0)
+      {
+        privatePosition = lenIVStart + 6;
+        lenIV = parseInt(readToken(), 4);
+      }
+    }
+
+    // Subroutines.
+    int subrsStart = indexOf(privateData, "/Subrs", 0);
+    if(subrsStart >= 0)
+    {
+      privatePosition = subrsStart + 6;
+      subrs = new byte[Math.max(0, parseInt(readToken(), 0))][];
+      readToken(); // 'array'.
+      String token = readToken();
+      while("dup".equals(token))
+      {
+        int subrIndex = parseInt(readToken(), -1);
+        byte[] subr = readCharString(lenIV);
+        if(subr == null)
+          break;
+
+        if(subrIndex >= 0 && subrIndex < subrs.length)
+        {subrs[subrIndex] = subr;}
+        // Skip the trailing tokens (e.g. 'NP', '|', 'noaccess put')!
+        do
+        {token = readToken();}
+        while(token != null && !"dup".equals(token) && !token.equals("def") && !token.startsWith("/"));
+      }
+    }
+
+    // Glyph programs.
+    int charStringsStart = indexOf(privateData, "/CharStrings", Math.max(subrsStart, 0));
+    if(charStringsStart >= 0)
+    {
+      privatePosition = charStringsStart + 12;
+      String token;
+      do
+      {token = readToken();}
+      while(token != null && !token.startsWith("/"));
+      while(token != null && token.startsWith("/"))
+      {
+        String name = token.substring(1);
+        byte[] charString = readCharString(lenIV);
+        if(charString == null)
+          break;
+
+        charStrings.put(name, charString);
+        // Skip the trailing tokens (e.g. 'ND', '|-', 'noaccess def')!
+        do
+        {token = readToken();}
+        while(token != null && !token.startsWith("/") && !token.equals("end"));
+      }
+    }
+    privateData = null;
+  }
+
+  /**
+    Gets the position of the given ASCII text within the given data.
+
+    @return -1, in case no match is found.
+  */
+  private int indexOf(
+    byte[] data,
+    String text,
+    int start
+    )
+  {
+    int textLength = text.length();
+    for(int index = start, endIndex = data.length - textLength; index <= endIndex; index++)
+    {
+      int textIndex = 0;
+      while(textIndex < textLength && data[index + textIndex] == text.charAt(textIndex))
+      {textIndex++;}
+      if(textIndex == textLength)
+        return index;
+    }
+    return -1;
+  }
+
+  private int parseInt(
+    String token,
+    int defaultValue
+    )
+  {
+    try
+    {return Integer.parseInt(token);}
+    catch(Exception e)
+    {return defaultValue;}
+  }
+
+  /**
+    Reads a binary charstring (<code>length RD binary</code>) from the private data.
+
+    @param lenIV Number of leading random bytes.
+    @return <code>null</code>, in case of malformed data.
+  */
+  private byte[] readCharString(
+    int lenIV
+    )
+  {
+    int length = parseInt(readToken(), -1);
+    if(length < 0)
+      return null;
+
+    readToken(); // 'RD' (or '-|').
+    // NOTE: A single space separates the binary data from its operator.
+    int start = privatePosition + 1;
+    if(start + length > privateData.length)
+      return null;
+
+    privatePosition = start + length;
+    return decrypt(privateData, start, length, CharStringKey, lenIV);
+  }
+
+  /**
+    Reads the next whitespace-delimited token from the private data.
+
+    @return <code>null</code>, in case the end of the data is reached.
+  */
+  private String readToken(
+    )
+  {
+    while(privatePosition < privateData.length && isWhitespace(privateData[privatePosition] & 0xFF))
+    {privatePosition++;}
+    if(privatePosition >= privateData.length)
+      return null;
+
+    int start = privatePosition;
+    while(privatePosition < privateData.length && !isWhitespace(privateData[privatePosition] & 0xFF))
+    {privatePosition++;}
+    try
+    {return new String(privateData, start, privatePosition - start, CharsetName.ISO88591);}
+    catch(UnsupportedEncodingException e)
+    {throw new RuntimeException(e);}
+  }
+
+  /**
+    Extracts the payload of the segments of the given PFB data.
+  */
+  private byte[] unwrapSegments(
+    byte[] data
+    )
+  {
+    java.io.ByteArrayOutputStream payload = new java.io.ByteArrayOutputStream(data.length);
+    int position = 0;
+    while(position + 6 <= data.length && (data[position] & 0xFF) == 0x80)
+    {
+      int type = data[position + 1];
+      if(type == 3) // EOF.
+        break;
+
+      int length = (data[position + 2] & 0xFF)
+        | ((data[position + 3] & 0xFF) << 8)
+        | ((data[position + 4] & 0xFF) << 16)
+        | ((data[position + 5] & 0xFF) << 24);
+      position += 6;
+      length = Math.min(length, data.length - position);
+      payload.write(data, position, length);
+      position += length;
+    }
+    return payload.toByteArray();
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
 }
\ No newline at end of file
@@ -25,7 +25,6 @@
 
 package org.pdfclown.documents.contents.fonts;
 
-import java.util.Hashtable;
 import java.util.Map;
 
 import org.pdfclown.PDF;
@@ -38,6 +37,7 @@ import org.pdfclown.objects.PdfInteger;
 import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfNumber;
 import org.pdfclown.util.ByteArray;
+import org.pdfclown.util.IntIntMap;
 
 /**
   Simple font [PDF:1.6:5.5].
@@ -120,7 +120,7 @@ public abstract class SimpleFont
     // Glyph widths.
     if(glyphWidths == null)
     {
-      glyphWidths = new Hashtable<Integer,Integer>();
+      IntIntMap glyphWidths = new IntIntMap();
       PdfArray glyphWidthObjects = (PdfArray)getBaseDataObject().resolve(PdfName.Widths);
       if(glyphWidthObjects != null)
       {
@@ -136,15 +136,15 @@ public abstract class SimpleFont
             Integer code = codes.get(charCode);
             if(code != null)
             {
-              glyphWidths.put(
-                glyphIndexes.get(code),
-                glyphWidth
-                );
+              int glyphIndex = glyphIndexes.get(code,-1);
+              if(glyphIndex != -1)
+              {glyphWidths.put(glyphIndex,glyphWidth);}
             }
           }
           charCode.data[0]++;
         }
       }
+      this.glyphWidths = glyphWidths;
     }
     // Default glyph width.
     {
@@ -26,6 +26,7 @@
 package org.pdfclown.documents.contents.fonts;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.EnumSet;
 import java.util.Hashtable;
@@ -38,6 +39,7 @@ import org.pdfclown.objects.PdfDirectObject;
 import org.pdfclown.objects.PdfName;
 import org.pdfclown.util.ByteArray;
 import org.pdfclown.util.ConvertUtils;
+import org.pdfclown.util.IntIntMap;
 
 /**
   Standard Type 1 font [PDF:1.6:5.5.1].
@@ -75,6 +77,86 @@ public final class StandardType1Font
   };
   // </classes>
 
+  // <static>
+  // <fields>
+  /**
+    Standard font metrics by font name.
+    <p>Standard font metrics are immutable resources: once parsed, they are shared read-only
+    across all the documents of the process.</p>
+  */
+  private static final Map<String,AfmParser> FontMetrics = new Hashtable<String,AfmParser>();
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Gets the metrics of the given standard font.
+
+    @param fontName Standard font name.
+  */
+  private static AfmParser getFontMetrics(
+    String fontName
+    )
+  {
+    AfmParser parser = FontMetrics.get(fontName);
+    if(parser == null)
+    {
+      /*
+        NOTE: Concurrent misses may parse the same resource twice; as the outcome is identical,
+        that's harmless and cheaper than serializing all the lookups.
+      */
+      parser = loadFontMetrics(fontName);
+      FontMetrics.put(fontName, parser);
+    }
+    return parser;
+  }
+
+  /**
+    Loads the metrics of the given standard font.
+
+    @param fontName Standard font name.
+  */
+  private static AfmParser loadFontMetrics(
+    String fontName
+    )
+  {
+    BufferedReader fontMetricsStream = null;
+    try
+    {
+      InputStream fontMetricsResourceStream = StandardType1Font.class.getResourceAsStream("/fonts/afm/" + fontName + ".afm");
+      if(fontMetricsResourceStream == null)
+        throw new IllegalArgumentException("Unknown standard font: " + fontName);
+
+      fontMetricsStream = new BufferedReader(
+        new InputStreamReader(fontMetricsResourceStream)
+        );
+
+      AfmParser parser = new AfmParser(fontMetricsStream);
+      // Detach the parser from its source!
+      /*
+        NOTE: Its tables are shared across font instances, so they are handed out as read-only
+        views only (see load(String)).
+      */
+      parser.fontData = null;
+      return parser;
+    }
+    catch(Exception e)
+    {throw new RuntimeException("Failed to load '" + fontName + "'.",e);}
+    finally
+    {
+      try
+      {
+        if(fontMetricsStream != null)
+        {fontMetricsStream.close();}
+      }
+      catch(Exception e)
+      {/* NOOP */}
+    }
+  }
+  // </private>
+  // </interface>
+  // </static>
+
   // <dynamic>
   // <constructors>
   public StandardType1Font(
@@ -158,11 +240,11 @@ public final class StandardType1Font
     if(symbolic) // Symbolic font.
     {
       Map<ByteArray,Integer> codes = new Hashtable<ByteArray,Integer>();
-      for(Map.Entry<Integer,Integer> glyphIndexEntry : glyphIndexes.entrySet())
+      for(int code : glyphIndexes.keys())
       {
         codes.put(
-          new ByteArray(new byte[]{ConvertUtils.intToByteArray(glyphIndexEntry.getValue())[3]}),
-          glyphIndexEntry.getKey()
+          new ByteArray(new byte[]{ConvertUtils.intToByteArray(glyphIndexes.get(code,0))[3]}),
+          code
           );
       }
       return codes;
@@ -227,34 +309,12 @@ public final class StandardType1Font
     String fontName
     )
   {
-    BufferedReader fontMetricsStream = null;
-    try
-    {
-      fontMetricsStream = new BufferedReader(
-        new InputStreamReader(
-          getClass().getResourceAsStream("/fonts/afm/" + fontName + ".afm")
-          )
-        );
-
-      AfmParser parser = new AfmParser(fontMetricsStream);
-      metrics = parser.metrics;
-      symbolic = metrics.isCustomEncoding;
-      glyphIndexes = parser.glyphIndexes;
-      glyphKernings = parser.glyphKernings;
-      glyphWidths = parser.glyphWidths;
-    }
-    catch(Exception e)
-    {throw new RuntimeException("Failed to load '" + fontName + "'.",e);}
-    finally
-    {
-      try
-      {
-        if(fontMetricsStream != null)
-        {fontMetricsStream.close();}
-      }
-      catch(Exception e)
-      {/* NOOP */}
-    }
+    AfmParser parser = getFontMetrics(fontName);
+    metrics = parser.metrics;
+    symbolic = metrics.isCustomEncoding;
+    glyphIndexes = IntIntMap.unmodifiable(parser.glyphIndexes);
+    glyphKernings = (parser.glyphKernings != null ? IntIntMap.unmodifiable(parser.glyphKernings) : null);
+    glyphWidths = IntIntMap.unmodifiable(parser.glyphWidths);
   }
   // </private>
   // </interface>
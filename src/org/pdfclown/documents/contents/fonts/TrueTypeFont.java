@@ -37,18 +37,19 @@ import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfStream;
 import org.pdfclown.util.BiMap;
 import org.pdfclown.util.ByteArray;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.NotImplementedException;
 
+import java.awt.Shape;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.Map;
 
 /**
   TrueType font [PDF:1.6:5;OFF:2009].
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
-  @version 0.1.0
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class TrueTypeFont
@@ -60,6 +61,10 @@ public final class TrueTypeFont
 
   // <dynamic>
   // <fields>
+  /**
+    Embedded font program parser.
+  */
+  private OpenFontParser parser;
   // </fields>
 
   // <constructors>
@@ -79,6 +84,30 @@ public final class TrueTypeFont
   // </public>
 
   // <protected>
+  @Override
+  protected Shape loadGlyphOutline(
+    ByteArray charCode
+    )
+  {
+    if(parser == null)
+      return super.loadGlyphOutline(charCode);
+
+    int glyphIndex;
+    if(parser.metrics.isCustomEncoding) // Glyphs natively mapped to character codes.
+    {
+      int code = charCode.data[0] & 0xFF;
+      glyphIndex = parser.glyphIndexes.get(code,0);
+      if(glyphIndex == 0)
+      {glyphIndex = parser.glyphIndexes.get(0xF000 | code,0);}
+    }
+    else // Glyphs mapped to Unicode.
+    {
+      Integer textChar = codes.get(charCode);
+      glyphIndex = (textChar != null ? parser.glyphIndexes.get(textChar,0) : 0);
+    }
+    return glyphIndex > 0 ? parser.getGlyphOutline(glyphIndex) : null;
+  }
+
   @Override
   protected void loadEncoding(
     )
@@ -103,6 +132,7 @@ public final class TrueTypeFont
       else
       {parser = null;}
     }
+    this.parser = parser;
     if(parser != null) // Embedded font file.
     {
       // Glyph indexes.
@@ -116,14 +146,18 @@ public final class TrueTypeFont
           so they must be remapped to Unicode whenever possible
           (i.e. when ToUnicode stream is available).
         */
-        Map<Integer,Integer> unicodeGlyphIndexes = new Hashtable<Integer,Integer>();
-        for(Map.Entry<Integer,Integer> glyphIndexEntry : glyphIndexes.entrySet())
+        IntIntMap unicodeGlyphIndexes = new IntIntMap();
+        for(int charCode = 0; charCode < 256; charCode++)
         {
-          Integer code = codes.get(new ByteArray(new byte[]{(byte)(int)glyphIndexEntry.getKey()}));
+          int glyphCharCode = getGlyphCharCode(charCode);
+          if(glyphCharCode == -1)
+            continue;
+
+          Integer code = codes.get(new ByteArray(new byte[]{(byte)charCode}));
           if(code == null)
             continue;
 
-          unicodeGlyphIndexes.put(code,glyphIndexEntry.getValue());
+          unicodeGlyphIndexes.put(code,glyphIndexes.get(glyphCharCode,0));
         }
         glyphIndexes = unicodeGlyphIndexes;
       }
@@ -142,7 +176,7 @@ public final class TrueTypeFont
           NOTE: In case no font file is available, we have to synthesize its metrics
           from existing entries.
         */
-        glyphIndexes = new Hashtable<Integer,Integer>();
+        IntIntMap glyphIndexes = new IntIntMap();
         PdfArray glyphWidthObjects = (PdfArray)getBaseDataObject().resolve(PdfName.Widths);
         if(glyphWidthObjects != null)
         {
@@ -155,19 +189,17 @@ public final class TrueTypeFont
             code++;
           }
         }
+        this.glyphIndexes = glyphIndexes;
       }
 
       if(codes == null)
       {
         Map<ByteArray,Integer> codes = new HashMap<ByteArray,Integer>();
-        for(Map.Entry<Integer,Integer> glyphIndexEntry : glyphIndexes.entrySet())
+        for(int charCode = 0; charCode < 256; charCode++)
         {
-          if(glyphIndexEntry.getValue() > 0)
-          {
-            int glyphCharCode = glyphIndexEntry.getKey();
-            byte[] charCode = new byte[]{(byte)glyphCharCode};
-            codes.put(new ByteArray(charCode),glyphCharCode);
-          }
+          int glyphCharCode = getGlyphCharCode(charCode);
+          if(glyphCharCode != -1)
+          {codes.put(new ByteArray(new byte[]{(byte)charCode}),glyphCharCode);}
         }
         this.codes = new BiMap<ByteArray,Integer>(codes);
       }
@@ -206,7 +238,7 @@ public final class TrueTypeFont
           NOTE: In case no font file is available, we have to synthesize its metrics
           from existing entries.
         */
-        glyphIndexes = new Hashtable<Integer,Integer>();
+        IntIntMap glyphIndexes = new IntIntMap();
         PdfArray glyphWidthObjects = (PdfArray)getBaseDataObject().resolve(PdfName.Widths);
         if(glyphWidthObjects != null)
         {
@@ -225,10 +257,32 @@ public final class TrueTypeFont
             charCode.data[0]++;
           }
         }
+        this.glyphIndexes = glyphIndexes;
       }
     }
   }
   // </protected>
+
+  // <private>
+  /**
+    Gets the glyph table key corresponding to the given single-byte character code.
+    <p>Symbolic font programs map their codes into the Microsoft symbol range (0xF000-0xF0FF)
+    [PDF:1.6:5.5.5].</p>
+
+    @return -1, in case no glyph matches.
+  */
+  private int getGlyphCharCode(
+    int charCode
+    )
+  {
+    if(glyphIndexes.get(charCode,0) > 0)
+      return charCode;
+    else if(glyphIndexes.get(0xF000 | charCode,0) > 0)
+      return 0xF000 | charCode;
+    else
+      return -1;
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
@@ -0,0 +1,452 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents.fonts;
+
+import java.awt.geom.Path2D;
+
+/**
+  Type 1 charstring interpreter [T1:6].
+  <p>It translates a (decrypted) glyph program into its outline, ignoring hints.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+final class Type1CharStringParser
+{
+  // <class>
+  // <static>
+  // <fields>
+  /**
+    Maximum nesting level of subroutine calls.
+  */
+  private static final int MaxCallDepth = 10;
+  /**
+    Maximum number of operands on the argument stack [T1:6.1].
+  */
+  private static final int MaxStackSize = 24;
+  // </fields>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final PfbParser font;
+  private final byte[][] subrs;
+
+  private Path2D path;
+  private boolean pathOpen;
+  private double x;
+  private double y;
+  /**
+    Origin offset (used to place accent glyphs).
+  */
+  private double originX;
+  private double originY;
+
+  private double[] stack = new double[MaxStackSize];
+  private int stackSize;
+  /**
+    PostScript interpreter stack (used to exchange values with OtherSubrs).
+  */
+  private double[] psStack = new double[MaxStackSize];
+  private int psStackSize;
+
+  /**
+    Whether flex points are being collected [T1:8.3].
+  */
+  private boolean flexing;
+  private double[] flexPoints = new double[14];
+  private int flexPointCount;
+  private boolean ended;
+  // </fields>
+
+  // <constructors>
+  /**
+    @param font Font the charstrings belong to (used to resolve accented characters).
+    @param subrs Subroutines.
+  */
+  Type1CharStringParser(
+    PfbParser font,
+    byte[][] subrs
+    )
+  {
+    this.font = font;
+    this.subrs = subrs;
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the outline described by the given (decrypted) charstring (in glyph space units).
+  */
+  public Path2D parse(
+    byte[] charString
+    )
+  {
+    path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+    pathOpen = false;
+    x = y = originX = originY = 0;
+    stackSize = psStackSize = 0;
+    flexing = ended = false;
+
+    execute(charString, 0);
+    closePath();
+    return path;
+  }
+  // </public>
+
+  // <private>
+  private double at(
+    int index
+    )
+  {return index < stackSize ? stack[index] : 0;}
+
+  private void closePath(
+    )
+  {
+    if(pathOpen)
+    {
+      path.closePath();
+      pathOpen = false;
+    }
+  }
+
+  private void curveTo(
+    double dx1,
+    double dy1,
+    double dx2,
+    double dy2,
+    double dx3,
+    double dy3
+    )
+  {
+    ensureOpen();
+    double x1 = x + dx1, y1 = y + dy1;
+    double x2 = x1 + dx2, y2 = y1 + dy2;
+    x = x2 + dx3; y = y2 + dy3;
+    path.curveTo(x1, y1, x2, y2, x, y);
+  }
+
+  /**
+    Ensures a subpath is open (some fonts draw right after closepath without moving).
+  */
+  private void ensureOpen(
+    )
+  {
+    if(!pathOpen)
+    {
+      path.moveTo(x, y);
+      pathOpen = true;
+    }
+  }
+
+  /**
+    Executes the given charstring.
+
+    @param charString Charstring to execute.
+    @param depth Subroutine nesting level.
+  */
+  private void execute(
+    byte[] charString,
+    int depth
+    )
+  {
+    if(charString == null || depth > MaxCallDepth)
+      return;
+
+    int position = 0;
+    int length = charString.length;
+    while(position < length && !ended)
+    {
+      int b0 = charString[position++] & 0xFF;
+      if(b0 >= 32) // Operand.
+      {
+        double value;
+        if(b0 <= 246) // Single-byte integer.
+        {value = b0 - 139;}
+        else if(b0 <= 250) // Positive two-byte integer.
+        {
+          if(position >= length)
+            return;
+
+          value = ((b0 - 247) << 8) + (charString[position++] & 0xFF) + 108;
+        }
+        else if(b0 <= 254) // Negative two-byte integer.
+        {
+          if(position >= length)
+            return;
+
+          value = -((b0 - 251) << 8) - (charString[position++] & 0xFF) - 108;
+        }
+        else // Signed 32-bit integer.
+        {
+          if(position + 4 > length)
+            return;
+
+          value = ((charString[position] & 0xFF) << 24)
+            | ((charString[position + 1] & 0xFF) << 16)
+            | ((charString[position + 2] & 0xFF) << 8)
+            | (charString[position + 3] & 0xFF);
+          position += 4;
+        }
+        if(stackSize < stack.length)
+        {stack[stackSize++] = value;}
+        continue;
+      }
+
+      switch(b0)
+      {
+        case 13: // hsbw.
+          x = originX + at(0); y = originY;
+          stackSize = 0;
+          break;
+        case 21: // rmoveto.
+          moveTo(at(0), at(1));
+          stackSize = 0;
+          break;
+        case 22: // hmoveto.
+          moveTo(at(0), 0);
+          stackSize = 0;
+          break;
+        case 4: // vmoveto.
+          moveTo(0, at(0));
+          stackSize = 0;
+          break;
+        case 5: // rlineto.
+          lineTo(at(0), at(1));
+          stackSize = 0;
+          break;
+        case 6: // hlineto.
+          lineTo(at(0), 0);
+          stackSize = 0;
+          break;
+        case 7: // vlineto.
+          lineTo(0, at(0));
+          stackSize = 0;
+          break;
+        case 8: // rrcurveto.
+          curveTo(at(0), at(1), at(2), at(3), at(4), at(5));
+          stackSize = 0;
+          break;
+        case 30: // vhcurveto.
+          curveTo(0, at(0), at(1), at(2), at(3), 0);
+          stackSize = 0;
+          break;
+        case 31: // hvcurveto.
+          curveTo(at(0), 0, at(1), at(2), 0, at(3));
+          stackSize = 0;
+          break;
+        case 9: // closepath.
+          closePath();
+          stackSize = 0;
+          break;
+        case 10: // callsubr.
+        {
+          if(stackSize == 0)
+            return;
+
+          int subrIndex = (int)stack[--stackSize];
+          if(subrs != null && subrIndex >= 0 && subrIndex < subrs.length)
+          {execute(subrs[subrIndex], depth + 1);}
+          break;
+        }
+        case 11: // return.
+          return;
+        case 14: // endchar.
+          closePath();
+          stackSize = 0;
+          ended = true;
+          break;
+        case 12: // Escape.
+        {
+          if(position >= length)
+            return;
+
+          parseEscape(charString[position++] & 0xFF, depth);
+          break;
+        }
+        default: // Hints (hstem, vstem) or reserved.
+          stackSize = 0;
+          break;
+      }
+    }
+  }
+
+  private void lineTo(
+    double dx,
+    double dy
+    )
+  {
+    ensureOpen();
+    x += dx; y += dy;
+    path.lineTo(x, y);
+  }
+
+  private void moveTo(
+    double dx,
+    double dy
+    )
+  {
+    x += dx; y += dy;
+    if(flexing) // NOTE: Flex points are just collected (see callothersubr).
+      return;
+
+    closePath();
+    path.moveTo(x, y);
+    pathOpen = true;
+  }
+
+  /**
+    Composes an accented character out of its base and accent glyphs [T1:6.4].
+  */
+  private void parseAccentedChar(
+    double asb,
+    double adx,
+    double ady,
+    int bchar,
+    int achar,
+    int depth
+    )
+  {
+    byte[] baseCharString = font.getStandardCharString(bchar);
+    byte[] accentCharString = font.getStandardCharString(achar);
+    if(baseCharString == null || accentCharString == null)
+      return;
+
+    // Base glyph.
+    closePath();
+    originX = originY = 0;
+    stackSize = 0;
+    execute(baseCharString, depth + 1);
+    closePath();
+    // Accent glyph.
+    ended = false;
+    originX = adx - asb; originY = ady;
+    stackSize = 0;
+    execute(accentCharString, depth + 1);
+    closePath();
+  }
+
+  private void parseEscape(
+    int b1,
+    int depth
+    )
+  {
+    switch(b1)
+    {
+      case 7: // sbw.
+        x = originX + at(0); y = originY + at(1);
+        stackSize = 0;
+        break;
+      case 6: // seac.
+      {
+        double asb = at(0), adx = at(1), ady = at(2);
+        int bchar = (int)at(3), achar = (int)at(4);
+        parseAccentedChar(asb, adx, ady, bchar, achar, depth);
+        stackSize = 0;
+        ended = true;
+        break;
+      }
+      case 12: // div.
+        if(stackSize >= 2)
+        {
+          stackSize--;
+          stack[stackSize - 1] = (stack[stackSize] != 0 ? stack[stackSize - 1] / stack[stackSize] : 0);
+        }
+        break;
+      case 16: // callothersubr.
+      {
+        if(stackSize < 2)
+        {
+          stackSize = 0;
+          break;
+        }
+        int otherSubrIndex = (int)stack[--stackSize];
+        int argCount = Math.max(0, Math.min((int)stack[--stackSize], stackSize));
+        stackSize -= argCount;
+        switch(otherSubrIndex)
+        {
+          case 0: // Flex end.
+          {
+            flexing = false;
+            if(flexPointCount >= 7)
+            {
+              // NOTE: The first flex point is just the reference one.
+              ensureOpen();
+              path.curveTo(flexPoints[2], flexPoints[3], flexPoints[4], flexPoints[5], flexPoints[6], flexPoints[7]);
+              path.curveTo(flexPoints[8], flexPoints[9], flexPoints[10], flexPoints[11], flexPoints[12], flexPoints[13]);
+              x = flexPoints[12]; y = flexPoints[13];
+            }
+            // NOTE: The flex end point is returned to the subsequent setcurrentpoint.
+            psStackSize = 0;
+            psStack[psStackSize++] = y;
+            psStack[psStackSize++] = x;
+            break;
+          }
+          case 1: // Flex start.
+            flexing = true;
+            flexPointCount = 0;
+            break;
+          case 2: // Flex point.
+            if(flexing && flexPointCount < 7)
+            {
+              flexPoints[flexPointCount * 2] = x;
+              flexPoints[flexPointCount * 2 + 1] = y;
+              flexPointCount++;
+            }
+            break;
+          case 3: // Hint replacement.
+            psStackSize = 0;
+            psStack[psStackSize++] = 3;
+            break;
+          default: // Unknown (its arguments are returned untouched).
+            psStackSize = 0;
+            for(int index = stackSize + argCount - 1; index >= stackSize && psStackSize < psStack.length; index--)
+            {psStack[psStackSize++] = stack[index];}
+            break;
+        }
+        break;
+      }
+      case 17: // pop.
+        if(psStackSize > 0 && stackSize < stack.length)
+        {stack[stackSize++] = psStack[--psStackSize];}
+        break;
+      case 33: // setcurrentpoint.
+        // NOTE: Its operands come from the flex end (see callothersubr), so they are absolute.
+        x = at(0); y = at(1);
+        stackSize = 0;
+        break;
+      default: // Hints (dotsection, vstem3, hstem3) or reserved.
+        stackSize = 0;
+        break;
+    }
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -25,27 +25,33 @@
 
 package org.pdfclown.documents.contents.fonts;
 
+import java.awt.Shape;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.documents.Document;
+import org.pdfclown.objects.PdfArray;
 import org.pdfclown.objects.PdfDataObject;
 import org.pdfclown.objects.PdfDictionary;
 import org.pdfclown.objects.PdfDirectObject;
+import org.pdfclown.objects.PdfInteger;
 import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfStream;
 import org.pdfclown.util.BiMap;
 import org.pdfclown.util.ByteArray;
 import org.pdfclown.util.ConvertUtils;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.NotImplementedException;
 
 /**
   Type 1 font [PDF:1.6:5.5.1;AFM:4.1].
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 /*
   NOTE: Type 1 fonts encompass several formats:
@@ -61,6 +67,21 @@ public class Type1Font
   // <dynamic>
   // <fields>
   protected AfmParser.FontMetrics metrics;
+
+  /**
+    Embedded compact font program parser.
+  */
+  private CffParser cffParser;
+  /**
+    Character names by character code, according to the font encoding (built-in encoding
+    excluded).
+  */
+  private String[] encodingNames;
+  /**
+    Embedded noncompact font program parser.
+  */
+  private PfbParser pfbParser;
+  private boolean programLoaded;
   // </fields>
 
   // <constructors>
@@ -85,6 +106,59 @@ public class Type1Font
   // </public>
 
   // <protected>
+  @Override
+  protected Shape loadGlyphOutline(
+    ByteArray charCode
+    )
+  {
+    if(!programLoaded)
+    {loadProgram();}
+    if(pfbParser == null && cffParser == null)
+      return super.loadGlyphOutline(charCode);
+
+    int code = charCode.data[0] & 0xFF;
+    /*
+      NOTE: Font programs identify their glyphs by name, so the candidate names are tried in order
+      of precedence: font encoding, built-in encoding and standard glyph name of the character.
+    */
+    List<String> names = new ArrayList<String>(3);
+    if(code < encodingNames.length && encodingNames[code] != null)
+    {names.add(encodingNames[code]);}
+    if(pfbParser != null)
+    {
+      String name = pfbParser.getEncodingName(code);
+      if(name != null)
+      {names.add(name);}
+    }
+    Integer textChar = codes.get(charCode);
+    if(textChar != null)
+    {
+      String name = GlyphMapping.codeToName(textChar);
+      if(name != null)
+      {names.add(name);}
+    }
+    for(String name : names)
+    {
+      Shape outline;
+      if(pfbParser != null)
+      {outline = pfbParser.getGlyphOutline(name);}
+      else
+      {
+        int glyphIndex = cffParser.getGlyphIndex(name);
+        outline = (glyphIndex > 0 ? cffParser.getGlyphOutline(glyphIndex) : null);
+      }
+      if(outline != null)
+        return outline;
+    }
+    if(cffParser != null)
+    {
+      int glyphIndex = cffParser.getCodeGlyphIndex(code);
+      if(glyphIndex > 0)
+        return cffParser.getGlyphOutline(glyphIndex);
+    }
+    return null;
+  }
+
   protected Map<ByteArray,Integer> getNativeEncoding(
     )
   {
@@ -103,7 +177,7 @@ public class Type1Font
       {
         CffParser parser = new CffParser(fontFileStream.getBody());
         Map<ByteArray,Integer> codes = new Hashtable<ByteArray,Integer>();
-        for(Map.Entry<Integer,Integer> glyphIndexEntry : parser.glyphIndexes.entrySet())
+        for(int glyphIndex : parser.glyphIndexes.keys())
         {
           /*
             FIXME: Custom (non-unicode) encodings require name handling to match encoding differences;
@@ -113,8 +187,8 @@ public class Type1Font
             only the final stage.
            */
           codes.put(
-            new ByteArray(new byte[]{ConvertUtils.intToByteArray(glyphIndexEntry.getValue())[3]}),
-            glyphIndexEntry.getKey()
+            new ByteArray(new byte[]{ConvertUtils.intToByteArray(parser.glyphIndexes.get(glyphIndex,0))[3]}),
+            glyphIndex
             );
         }
         return codes;
@@ -161,12 +235,82 @@ public class Type1Font
     // Glyph indexes.
     if(glyphIndexes == null)
     {
-      glyphIndexes = new Hashtable<Integer,Integer>();
+      IntIntMap glyphIndexes = new IntIntMap(codes.size());
       for(Map.Entry<ByteArray,Integer> codeEntry : codes.entrySet())
       {glyphIndexes.put(codeEntry.getValue(),ConvertUtils.byteArrayToInt(codeEntry.getKey().data));}
+      this.glyphIndexes = glyphIndexes;
     }
   }
   // </protected>
+
+  // <private>
+  /**
+    Loads the embedded font program along with the font encoding names.
+  */
+  private void loadProgram(
+    )
+  {
+    programLoaded = true;
+
+    // Encoding names.
+    encodingNames = new String[256];
+    {
+      PdfDataObject encodingObject = getBaseDataObject().resolve(PdfName.Encoding);
+      PdfName baseEncodingName = null;
+      PdfArray differenceObjects = null;
+      if(encodingObject instanceof PdfName)
+      {baseEncodingName = (PdfName)encodingObject;}
+      else if(encodingObject instanceof PdfDictionary)
+      {
+        baseEncodingName = (PdfName)((PdfDictionary)encodingObject).get(PdfName.BaseEncoding);
+        differenceObjects = (PdfArray)((PdfDictionary)encodingObject).resolve(PdfName.Differences);
+      }
+      if(baseEncodingName != null)
+      {
+        Encoding baseEncoding = Encoding.get(baseEncodingName);
+        if(baseEncoding != null)
+        {
+          for(int code = 0; code < encodingNames.length; code++)
+          {encodingNames[code] = baseEncoding.getName(code);}
+        }
+      }
+      if(differenceObjects != null)
+      {
+        int code = 0;
+        for(PdfDirectObject differenceObject : differenceObjects)
+        {
+          if(differenceObject instanceof PdfInteger)
+          {code = ((PdfInteger)differenceObject).getRawValue() & 0xFF;}
+          else if(differenceObject instanceof PdfName)
+          {
+            if(code < encodingNames.length)
+            {encodingNames[code] = ((PdfName)differenceObject).getValue();}
+            code++;
+          }
+        }
+      }
+    }
+
+    // Font program.
+    PdfDictionary descriptor = getDescriptor();
+    if(descriptor == null)
+      return;
+
+    try
+    {
+      if(descriptor.containsKey(PdfName.FontFile)) // Embedded noncompact Type 1 font.
+      {pfbParser = new PfbParser(((PdfStream)descriptor.resolve(PdfName.FontFile)).getBody());}
+      else if(descriptor.containsKey(PdfName.FontFile3)) // Embedded compact Type 1 font.
+      {
+        PdfStream fontFileStream = (PdfStream)descriptor.resolve(PdfName.FontFile3);
+        if(PdfName.Type1C.equals(fontFileStream.getHeader().get(PdfName.Subtype)))
+        {cffParser = new CffParser(fontFileStream.getBody());}
+      }
+    }
+    catch(RuntimeException e)
+    {/* NOOP: Malformed font programs fall back to substitute outlines. */}
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
@@ -0,0 +1,639 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.documents.contents.fonts;
+
+import java.awt.geom.Path2D;
+
+/**
+  Type 2 charstring interpreter [CFF:5177.Type2].
+  <p>It translates a glyph program into its outline, ignoring hints.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+final class Type2CharStringParser
+{
+  // <class>
+  // <static>
+  // <fields>
+  /**
+    Maximum nesting level of subroutine calls [CFF:5177.Type2:B].
+  */
+  private static final int MaxCallDepth = 10;
+  /**
+    Maximum number of operands on the argument stack [CFF:5177.Type2:B].
+  */
+  private static final int MaxStackSize = 48;
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Gets the number to be added to subroutine numbers in order to get their actual index
+    [CFF:5177.Type2:4.7].
+  */
+  private static int getBias(
+    byte[][] subrs
+    )
+  {
+    if(subrs == null || subrs.length < 1240)
+      return 107;
+    else if(subrs.length < 33900)
+      return 1131;
+    else
+      return 32768;
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final CffParser font;
+  private final byte[][] globalSubrs;
+  private final int globalSubrsBias;
+  private final byte[][] localSubrs;
+  private final int localSubrsBias;
+
+  private Path2D path;
+  private boolean pathOpen;
+  private double x;
+  private double y;
+
+  private double[] stack = new double[MaxStackSize];
+  private int stackSize;
+  private double[] transientArray = new double[32];
+  private int stemCount;
+  private boolean widthParsed;
+  private boolean ended;
+  // </fields>
+
+  // <constructors>
+  /**
+    @param font Font the charstrings belong to (used to resolve accented characters).
+    @param globalSubrs Global subroutines.
+    @param localSubrs Local subroutines.
+  */
+  Type2CharStringParser(
+    CffParser font,
+    byte[][] globalSubrs,
+    byte[][] localSubrs
+    )
+  {
+    this.font = font;
+    this.globalSubrs = globalSubrs;
+    this.globalSubrsBias = getBias(globalSubrs);
+    this.localSubrs = localSubrs;
+    this.localSubrsBias = getBias(localSubrs);
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the outline described by the given charstring (in glyph space units).
+  */
+  public Path2D parse(
+    byte[] charString
+    )
+  {
+    path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+    pathOpen = false;
+    x = y = 0;
+    stackSize = 0;
+    stemCount = 0;
+    widthParsed = ended = false;
+
+    execute(charString, 0);
+    closePath();
+    return path;
+  }
+  // </public>
+
+  // <private>
+  private void closePath(
+    )
+  {
+    if(pathOpen)
+    {
+      path.closePath();
+      pathOpen = false;
+    }
+  }
+
+  private void curveTo(
+    double dx1,
+    double dy1,
+    double dx2,
+    double dy2,
+    double dx3,
+    double dy3
+    )
+  {
+    double x1 = x + dx1, y1 = y + dy1;
+    double x2 = x1 + dx2, y2 = y1 + dy2;
+    x = x2 + dx3; y = y2 + dy3;
+    path.curveTo(x1, y1, x2, y2, x, y);
+  }
+
+  /**
+    Executes the given charstring.
+
+    @param charString Charstring to execute.
+    @param depth Subroutine nesting level.
+  */
+  private void execute(
+    byte[] charString,
+    int depth
+    )
+  {
+    if(charString == null || depth > MaxCallDepth)
+      return;
+
+    int position = 0;
+    int length = charString.length;
+    while(position < length && !ended)
+    {
+      int b0 = charString[position++] & 0xFF;
+      if(b0 >= 32 || b0 == 28) // Operand.
+      {
+        double value;
+        if(b0 == 28) // Signed 16-bit integer.
+        {
+          if(position + 2 > length)
+            return;
+
+          value = (short)(((charString[position] & 0xFF) << 8) | (charString[position + 1] & 0xFF));
+          position += 2;
+        }
+        else if(b0 <= 246) // Single-byte integer.
+        {value = b0 - 139;}
+        else if(b0 <= 250) // Positive two-byte integer.
+        {
+          if(position >= length)
+            return;
+
+          value = ((b0 - 247) << 8) + (charString[position++] & 0xFF) + 108;
+        }
+        else if(b0 <= 254) // Negative two-byte integer.
+        {
+          if(position >= length)
+            return;
+
+          value = -((b0 - 251) << 8) - (charString[position++] & 0xFF) - 108;
+        }
+        else // 16.16 fixed-point number.
+        {
+          if(position + 4 > length)
+            return;
+
+          value = (((charString[position] & 0xFF) << 24)
+            | ((charString[position + 1] & 0xFF) << 16)
+            | ((charString[position + 2] & 0xFF) << 8)
+            | (charString[position + 3] & 0xFF)) / 65536d;
+          position += 4;
+        }
+        push(value);
+        continue;
+      }
+
+      switch(b0)
+      {
+        case 1: // hstem.
+        case 3: // vstem.
+        case 18: // hstemhm.
+        case 23: // vstemhm.
+          parseStems();
+          break;
+        case 19: // hintmask.
+        case 20: // cntrmask.
+          // NOTE: Operands preceding the mask are implicit vstem hints.
+          parseStems();
+          position += (stemCount + 7) >> 3;
+          break;
+        case 21: // rmoveto.
+          parseWidth(2);
+          moveTo(at(0), at(1));
+          stackSize = 0;
+          break;
+        case 22: // hmoveto.
+          parseWidth(1);
+          moveTo(at(0), 0);
+          stackSize = 0;
+          break;
+        case 4: // vmoveto.
+          parseWidth(1);
+          moveTo(0, at(0));
+          stackSize = 0;
+          break;
+        case 5: // rlineto.
+          for(int index = 0; index + 1 < stackSize; index += 2)
+          {lineTo(stack[index], stack[index + 1]);}
+          stackSize = 0;
+          break;
+        case 6: // hlineto.
+        case 7: // vlineto.
+        {
+          boolean horizontal = (b0 == 6);
+          for(int index = 0; index < stackSize; index++)
+          {
+            if(horizontal)
+            {lineTo(stack[index], 0);}
+            else
+            {lineTo(0, stack[index]);}
+            horizontal = !horizontal;
+          }
+          stackSize = 0;
+          break;
+        }
+        case 8: // rrcurveto.
+          for(int index = 0; index + 5 < stackSize; index += 6)
+          {curveTo(stack[index], stack[index + 1], stack[index + 2], stack[index + 3], stack[index + 4], stack[index + 5]);}
+          stackSize = 0;
+          break;
+        case 24: // rcurveline.
+        {
+          int index = 0;
+          for(; index + 5 < stackSize - 2; index += 6)
+          {curveTo(stack[index], stack[index + 1], stack[index + 2], stack[index + 3], stack[index + 4], stack[index + 5]);}
+          if(index + 1 < stackSize)
+          {lineTo(stack[index], stack[index + 1]);}
+          stackSize = 0;
+          break;
+        }
+        case 25: // rlinecurve.
+        {
+          int index = 0;
+          for(; index + 1 < stackSize - 6; index += 2)
+          {lineTo(stack[index], stack[index + 1]);}
+          if(index + 5 < stackSize)
+          {curveTo(stack[index], stack[index + 1], stack[index + 2], stack[index + 3], stack[index + 4], stack[index + 5]);}
+          stackSize = 0;
+          break;
+        }
+        case 26: // vvcurveto.
+        {
+          int index = 0;
+          double dx1 = 0;
+          if((stackSize & 1) == 1)
+          {dx1 = stack[index++];}
+          for(; index + 3 < stackSize; index += 4)
+          {
+            curveTo(dx1, stack[index], stack[index + 1], stack[index + 2], 0, stack[index + 3]);
+            dx1 = 0;
+          }
+          stackSize = 0;
+          break;
+        }
+        case 27: // hhcurveto.
+        {
+          int index = 0;
+          double dy1 = 0;
+          if((stackSize & 1) == 1)
+          {dy1 = stack[index++];}
+          for(; index + 3 < stackSize; index += 4)
+          {
+            curveTo(stack[index], dy1, stack[index + 1], stack[index + 2], stack[index + 3], 0);
+            dy1 = 0;
+          }
+          stackSize = 0;
+          break;
+        }
+        case 30: // vhcurveto.
+        case 31: // hvcurveto.
+        {
+          boolean horizontal = (b0 == 31);
+          for(int index = 0; index + 3 < stackSize; index += 4)
+          {
+            // NOTE: The last curve may take an additional final delta.
+            double lastDelta = (index + 5 == stackSize ? stack[index + 4] : 0);
+            if(horizontal)
+            {curveTo(stack[index], 0, stack[index + 1], stack[index + 2], lastDelta, stack[index + 3]);}
+            else
+            {curveTo(0, stack[index], stack[index + 1], stack[index + 2], stack[index + 3], lastDelta);}
+            horizontal = !horizontal;
+          }
+          stackSize = 0;
+          break;
+        }
+        case 10: // callsubr.
+        case 29: // callgsubr.
+        {
+          if(stackSize == 0)
+            return;
+
+          byte[][] subrs = (b0 == 10 ? localSubrs : globalSubrs);
+          int subrIndex = (int)stack[--stackSize] + (b0 == 10 ? localSubrsBias : globalSubrsBias);
+          if(subrs != null && subrIndex >= 0 && subrIndex < subrs.length)
+          {execute(subrs[subrIndex], depth + 1);}
+          break;
+        }
+        case 11: // return.
+          return;
+        case 14: // endchar.
+          parseWidth(stackSize >= 4 ? 4 : 0);
+          if(stackSize >= 4) // Accented character (seac-like).
+          {
+            double adx = at(0), ady = at(1);
+            int bchar = (int)at(2), achar = (int)at(3);
+            stackSize = 0;
+            parseAccentedChar(adx, ady, bchar, achar, depth);
+          }
+          closePath();
+          ended = true;
+          break;
+        case 12: // Escape.
+        {
+          if(position >= length)
+            return;
+
+          parseEscape(charString[position++] & 0xFF);
+          break;
+        }
+        default: // Reserved.
+          stackSize = 0;
+          break;
+      }
+    }
+  }
+
+  private double at(
+    int index
+    )
+  {return index < stackSize ? stack[index] : 0;}
+
+  private void lineTo(
+    double dx,
+    double dy
+    )
+  {
+    x += dx; y += dy;
+    path.lineTo(x, y);
+  }
+
+  private void moveTo(
+    double dx,
+    double dy
+    )
+  {
+    closePath();
+    x += dx; y += dy;
+    path.moveTo(x, y);
+    pathOpen = true;
+  }
+
+  /**
+    Composes an accented character out of its base and accent glyphs [CFF:5177.Type2:A].
+  */
+  private void parseAccentedChar(
+    double adx,
+    double ady,
+    int bchar,
+    int achar,
+    int depth
+    )
+  {
+    byte[] baseCharString = font.getStandardCharString(bchar);
+    byte[] accentCharString = font.getStandardCharString(achar);
+    if(baseCharString == null || accentCharString == null)
+      return;
+
+    // Base glyph.
+    x = y = 0;
+    widthParsed = false;
+    execute(baseCharString, depth + 1);
+    closePath();
+    // Accent glyph.
+    x = adx; y = ady;
+    stackSize = 0;
+    widthParsed = ended = false;
+    execute(accentCharString, depth + 1);
+    closePath();
+  }
+
+  private void parseEscape(
+    int b1
+    )
+  {
+    switch(b1)
+    {
+      case 35: // flex.
+        curveTo(at(0), at(1), at(2), at(3), at(4), at(5));
+        curveTo(at(6), at(7), at(8), at(9), at(10), at(11));
+        stackSize = 0;
+        break;
+      case 34: // hflex.
+      {
+        double y0 = y;
+        curveTo(at(0), 0, at(1), at(2), at(3), 0);
+        curveTo(at(4), 0, at(5), y0 - y, at(6), 0);
+        stackSize = 0;
+        break;
+      }
+      case 36: // hflex1.
+      {
+        // NOTE: hflex1 ends at its starting vertical position.
+        double y0 = y;
+        curveTo(at(0), at(1), at(2), at(3), at(4), 0);
+        curveTo(at(5), 0, at(6), at(7), at(8), y0 - (y + at(7)));
+        stackSize = 0;
+        break;
+      }
+      case 37: // flex1.
+      {
+        double dx = at(0) + at(2) + at(4) + at(6) + at(8);
+        double dy = at(1) + at(3) + at(5) + at(7) + at(9);
+        double dx6, dy6;
+        if(Math.abs(dx) > Math.abs(dy))
+        {dx6 = at(10); dy6 = -dy;}
+        else
+        {dx6 = -dx; dy6 = at(10);}
+        curveTo(at(0), at(1), at(2), at(3), at(4), at(5));
+        curveTo(at(6), at(7), at(8), at(9), dx6, dy6);
+        stackSize = 0;
+        break;
+      }
+      case 3: // and.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] = (stack[stackSize - 1] != 0 && stack[stackSize] != 0 ? 1 : 0);}
+        break;
+      case 4: // or.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] = (stack[stackSize - 1] != 0 || stack[stackSize] != 0 ? 1 : 0);}
+        break;
+      case 5: // not.
+        if(stackSize >= 1)
+        {stack[stackSize - 1] = (stack[stackSize - 1] == 0 ? 1 : 0);}
+        break;
+      case 9: // abs.
+        if(stackSize >= 1)
+        {stack[stackSize - 1] = Math.abs(stack[stackSize - 1]);}
+        break;
+      case 10: // add.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] += stack[stackSize];}
+        break;
+      case 11: // sub.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] -= stack[stackSize];}
+        break;
+      case 12: // div.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] = (stack[stackSize] != 0 ? stack[stackSize - 1] / stack[stackSize] : 0);}
+        break;
+      case 14: // neg.
+        if(stackSize >= 1)
+        {stack[stackSize - 1] = -stack[stackSize - 1];}
+        break;
+      case 15: // eq.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] = (stack[stackSize - 1] == stack[stackSize] ? 1 : 0);}
+        break;
+      case 18: // drop.
+        if(stackSize >= 1)
+        {stackSize--;}
+        break;
+      case 20: // put.
+        if(stackSize >= 2)
+        {
+          int index = (int)stack[--stackSize];
+          double value = stack[--stackSize];
+          if(index >= 0 && index < transientArray.length)
+          {transientArray[index] = value;}
+        }
+        break;
+      case 21: // get.
+        if(stackSize >= 1)
+        {
+          int index = (int)stack[stackSize - 1];
+          stack[stackSize - 1] = (index >= 0 && index < transientArray.length ? transientArray[index] : 0);
+        }
+        break;
+      case 22: // ifelse.
+        if(stackSize >= 4)
+        {
+          stackSize -= 3;
+          if(stack[stackSize + 1] > stack[stackSize + 2])
+          {stack[stackSize - 1] = stack[stackSize];}
+        }
+        break;
+      case 23: // random.
+        push(.5);
+        break;
+      case 24: // mul.
+        if(stackSize >= 2)
+        {stackSize--; stack[stackSize - 1] *= stack[stackSize];}
+        break;
+      case 26: // sqrt.
+        if(stackSize >= 1)
+        {stack[stackSize - 1] = Math.sqrt(Math.abs(stack[stackSize - 1]));}
+        break;
+      case 27: // dup.
+        if(stackSize >= 1)
+        {push(stack[stackSize - 1]);}
+        break;
+      case 28: // exch.
+        if(stackSize >= 2)
+        {
+          double value = stack[stackSize - 1];
+          stack[stackSize - 1] = stack[stackSize - 2];
+          stack[stackSize - 2] = value;
+        }
+        break;
+      case 29: // index.
+        if(stackSize >= 1)
+        {
+          int index = (int)stack[stackSize - 1];
+          if(index < 0)
+          {index = 0;}
+          stack[stackSize - 1] = (stackSize - 2 - index >= 0 ? stack[stackSize - 2 - index] : 0);
+        }
+        break;
+      case 30: // roll.
+        if(stackSize >= 2)
+        {
+          int shift = (int)stack[--stackSize];
+          int count = (int)stack[--stackSize];
+          if(count > 0 && count <= stackSize)
+          {
+            double[] items = new double[count];
+            int base = stackSize - count;
+            for(int index = 0; index < count; index++)
+            {items[(((index + shift) % count) + count) % count] = stack[base + index];}
+            System.arraycopy(items, 0, stack, base, count);
+          }
+        }
+        break;
+      default: // Deprecated (e.g. dotsection) or reserved.
+        stackSize = 0;
+        break;
+    }
+  }
+
+  /**
+    Consumes stem hints.
+  */
+  private void parseStems(
+    )
+  {
+    // NOTE: Stem hints come in pairs, so an odd operand count implies a leading width.
+    parseWidth(stackSize & ~1);
+    stemCount += stackSize / 2;
+    stackSize = 0;
+  }
+
+  /**
+    Discards the optional width preceding the first stack-clearing operator.
+
+    @param operandCount Number of operands expected by the operator.
+  */
+  private void parseWidth(
+    int operandCount
+    )
+  {
+    if(widthParsed)
+      return;
+
+    widthParsed = true;
+    if(stackSize > operandCount)
+    {
+      System.arraycopy(stack, 1, stack, 0, --stackSize);
+    }
+  }
+
+  private void push(
+    double value
+    )
+  {
+    if(stackSize < stack.length)
+    {stack[stackSize++] = value;}
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -25,7 +25,7 @@
 
 package org.pdfclown.documents.contents.fonts;
 
-import java.util.Hashtable;
+import java.awt.Shape;
 import java.util.Map;
 
 import org.pdfclown.PDF;
@@ -38,6 +38,7 @@ import org.pdfclown.objects.PdfName;
 import org.pdfclown.util.BiMap;
 import org.pdfclown.util.ByteArray;
 import org.pdfclown.util.ConvertUtils;
+import org.pdfclown.util.IntIntMap;
 import org.pdfclown.util.NotImplementedException;
 
 /**
@@ -45,7 +46,7 @@ import org.pdfclown.util.NotImplementedException;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 11/14/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class Type3Font
@@ -119,9 +120,19 @@ public final class Type3Font
     // Glyph indexes.
     if(glyphIndexes == null)
     {
-      glyphIndexes = new Hashtable<Integer,Integer>();
+      IntIntMap glyphIndexes = new IntIntMap(codes.size());
       for(Map.Entry<ByteArray,Integer> codeEntry : codes.entrySet())
       {glyphIndexes.put(codeEntry.getValue(),ConvertUtils.byteArrayToInt(codeEntry.getKey().data));}
+      this.glyphIndexes = glyphIndexes;
     }
   }
+
+  @Override
+  protected Shape loadGlyphOutline(
+    ByteArray charCode
+    )
+  {
+    // NOTE: Type 3 glyphs are content streams, not outlines (no substitution applies either).
+    return null;
+  }
 }
@@ -27,6 +27,10 @@ package org.pdfclown.documents.contents.objects;
 
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,22 +40,423 @@ import org.pdfclown.bytes.IOutputStream;
 import org.pdfclown.documents.Document;
 import org.pdfclown.documents.contents.ContentScanner;
 import org.pdfclown.documents.contents.ContentScanner.GraphicsState;
+import org.pdfclown.documents.contents.TextRenderModeEnum;
+import org.pdfclown.documents.contents.fonts.Font;
+import org.pdfclown.documents.contents.xObjects.FormXObject;
+import org.pdfclown.documents.contents.xObjects.ImageXObject;
 
 /**
   Composite object. It is made up of multiple content objects.
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.4
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public abstract class CompositeObject
   extends ContentObject
 {
   // <class>
+  // <classes>
+  /**
+    Bounding box builder.
+    <p>It accumulates the extent of the contents of a composite object while its scan level walks
+    through them, so that the box comes for free with the first (rendering or dry) scan of the
+    object instead of requiring a walk of its own.</p>
+    <p><span style="color:red">For internal use only.</span></p>
+
+    @since 0.1.2
+  */
+  public static final class BoxBuilder
+  {
+    private final BoxEntry entry;
+    private final CompositeObject object;
+    /**
+      Transformation from the device space to the user space at the start of the object
+      (<code>null</code> if not invertible).
+    */
+    private final AffineTransform startCtmInverse;
+    private final AffineTransform transform = new AffineTransform();
+
+    private Rectangle2D box;
+    private boolean bounded = true;
+    private boolean clipping;
+    /**
+      Whether the contents have been fully accounted for.
+    */
+    private boolean complete = true;
+
+    /**
+      Inner composite object whose box is being computed by its own scan.
+    */
+    private CompositeObject pendingObject;
+    private BoxEntry pendingObjectEntry;
+    private final AffineTransform pendingObjectTransform = new AffineTransform();
+
+    private BoxBuilder(
+      CompositeObject object,
+      GraphicsState state
+      )
+    {
+      this.object = object;
+      this.entry = new BoxEntry(state);
+
+      AffineTransform startCtmInverse;
+      try
+      {startCtmInverse = state.getCtm().createInverse();}
+      catch(NoninvertibleTransformException e)
+      {startCtmInverse = null;}
+      this.startCtmInverse = startCtmInverse;
+    }
+
+    /**
+      Accounts for the specified inner object.
+
+      @param object Inner object about to be scanned.
+      @param objectState Graphics state at the start of the inner object.
+    */
+    public void add(
+      ContentObject object,
+      GraphicsState objectState
+      )
+    {
+      resolvePendingObject();
+      if(startCtmInverse == null
+        || !bounded)
+        return;
+
+      // Object user space to start user space.
+      transform.setTransform(startCtmInverse);
+      transform.concatenate(objectState.getCtm());
+      if(object instanceof Path)
+      {
+        Path path = (Path)object;
+        Rectangle2D pathBox = getBox(path, objectState);
+        if(pathBox != null)
+        {box = CompositeObject.add(box, pathBox, transform);}
+        if(isClipping(path))
+        {clipping = true;}
+      }
+      else if(object instanceof InlineImage)
+      {box = CompositeObject.add(box, UnitSquare, transform);}
+      else if(object instanceof CompositeObject)
+      {
+        CompositeObject compositeObject = (CompositeObject)object;
+        BoxEntry objectBoxEntry = compositeObject.getBoxEntry(objectState);
+        if(objectBoxEntry != null)
+        {add(compositeObject, objectBoxEntry, transform);}
+        else
+        {
+          // NOTE: The inner box will be available as soon as the inner object has been scanned.
+          pendingObject = compositeObject;
+          pendingObjectEntry = compositeObject.boxEntry;
+          pendingObjectTransform.setTransform(transform);
+        }
+      }
+      else if(object instanceof ShowText)
+      {
+        Rectangle2D textBox = ((ShowText)object).getBox(objectState);
+        if(textBox == null)
+        {bounded = false;}
+        else
+        {box = CompositeObject.add(box, textBox, transform);}
+        switch(objectState.getRenderMode())
+        {
+          case FillClip:
+          case StrokeClip:
+          case FillStrokeClip:
+          case Clip:
+            clipping = true;
+            break;
+          default:
+            break;
+        }
+      }
+      else if(object instanceof PaintXObject)
+      {
+        org.pdfclown.documents.contents.xObjects.XObject xObject = ((PaintXObject)object).getXObject(objectState.getScanner().getContentContext());
+        if(xObject instanceof ImageXObject)
+        {box = CompositeObject.add(box, UnitSquare, transform);}
+        else if(xObject instanceof FormXObject)
+        {
+          FormXObject formXObject = (FormXObject)xObject;
+          transform.concatenate(formXObject.getMatrix());
+          box = CompositeObject.add(box, formXObject.getBox(), transform);
+        }
+        else
+        {bounded = false;}
+      }
+      else if(object instanceof PaintShading)
+      {bounded = false;}
+      else if(object instanceof ModifyClipPath)
+      {clipping = true;}
+    }
+
+    /**
+      Assigns the accumulated box to the object, as its contents have been entirely walked through.
+    */
+    public void commit(
+      )
+    {
+      resolvePendingObject();
+      if(!complete)
+        return;
+
+      if(startCtmInverse == null)
+      {
+        bounded = false;
+        clipping = true;
+      }
+      entry.box = (bounded ? box : null);
+      entry.bounded = bounded;
+      // NOTE: Unbounded contents are conservatively assumed to clip, as they weren't fully accounted for.
+      entry.clipping = clipping || !bounded;
+      object.boxEntry = entry;
+    }
+
+    private void add(
+      CompositeObject object,
+      BoxEntry objectBoxEntry,
+      AffineTransform transform
+      )
+    {
+      if(!objectBoxEntry.bounded)
+      {bounded = false;}
+      else if(objectBoxEntry.box != null)
+      {box = CompositeObject.add(box, objectBoxEntry.box, transform);}
+      if(objectBoxEntry.clipping
+        && !(object instanceof LocalGraphicsState))
+      {clipping = true;}
+    }
+
+    private void resolvePendingObject(
+      )
+    {
+      if(pendingObject == null)
+        return;
+
+      BoxEntry objectBoxEntry = pendingObject.boxEntry;
+      if(objectBoxEntry == null
+        || objectBoxEntry == pendingObjectEntry) // Inner object not walked through (e.g. skipped).
+      {complete = false;}
+      else
+      {add(pendingObject, objectBoxEntry, pendingObjectTransform);}
+      pendingObject = null;
+      pendingObjectEntry = null;
+    }
+  }
+
+  /**
+    Cached bounding box.
+    <p>Besides the current transformation matrix (neutralized by expressing the box in the user
+    space at the start of the object), the extent of contents depends on the inherited text and
+    line parameters: they are retained along with the box to validate it against the graphics state
+    it's requested for.</p>
+  */
+  private static final class BoxEntry
+  {
+    /**
+      Contents bounds (<code>null</code> if nothing is painted).
+    */
+    private Rectangle2D box;
+    private boolean bounded;
+    private boolean clipping;
+
+    private final double charSpace;
+    private final Font font;
+    private final double fontSize;
+    private final double lead;
+    private final double lineWidth;
+    private final double miterLimit;
+    private final TextRenderModeEnum renderMode;
+    private final double rise;
+    private final double scale;
+    private final AffineTransform tlm;
+    private final AffineTransform tm;
+    private final double wordSpace;
+
+    private BoxEntry(
+      GraphicsState state
+      )
+    {
+      charSpace = state.getCharSpace();
+      font = state.getFont();
+      fontSize = state.getFontSize();
+      lead = state.getLead();
+      lineWidth = state.getLineWidth();
+      miterLimit = state.getMiterLimit();
+      renderMode = state.getRenderMode();
+      rise = state.getRise();
+      scale = state.getScale();
+      tlm = new AffineTransform(state.getTlm());
+      tm = new AffineTransform(state.getTm());
+      wordSpace = state.getWordSpace();
+    }
+
+    private BoxEntry(
+      GraphicsState state,
+      Rectangle2D box,
+      boolean bounded,
+      boolean clipping
+      )
+    {
+      this(state);
+      this.box = box;
+      this.bounded = bounded;
+      this.clipping = clipping;
+    }
+
+    private boolean matches(
+      GraphicsState state
+      )
+    {
+      return state.getFont() == font
+        && state.getFontSize() == fontSize
+        && state.getCharSpace() == charSpace
+        && state.getWordSpace() == wordSpace
+        && state.getScale() == scale
+        && state.getLead() == lead
+        && state.getRise() == rise
+        && state.getRenderMode() == renderMode
+        && state.getLineWidth() == lineWidth
+        && state.getMiterLimit() == miterLimit
+        && state.getTm().equals(tm)
+        && state.getTlm().equals(tlm);
+    }
+  }
+  // </classes>
+
+  // <static>
+  // <fields>
+  private static final AffineTransform IdentityTransform = new AffineTransform();
+  /**
+    Unit square (image space [PDF:1.6:4.8.3]).
+  */
+  private static final Rectangle2D UnitSquare = new Rectangle2D.Double(0, 0, 1, 1);
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Adds the specified box to the specified bounds.
+
+    @param bounds Bounds to extend (<code>null</code> if empty).
+    @param box Box to add.
+    @param transform Transformation from the box space to the bounds space.
+    @return Extended bounds.
+  */
+  private static Rectangle2D add(
+    Rectangle2D bounds,
+    Rectangle2D box,
+    AffineTransform transform
+    )
+  {
+    Rectangle2D transformedBox = transform.createTransformedShape(box).getBounds2D();
+    if(bounds == null)
+      return transformedBox;
+
+    bounds.add(transformedBox);
+    return bounds;
+  }
+
+  /**
+    Gets the painted bounds of the specified path, in its user space.
+
+    @return <code>null</code> if nothing is painted.
+  */
+  private static Rectangle2D getBox(
+    Path path,
+    GraphicsState state
+    )
+  {
+    Rectangle2D box = null, pathBox = null;
+    for(ContentObject pathObject : path.getObjects())
+    {
+      if(pathObject instanceof BeginSubpath)
+      {pathBox = add(pathBox, ((BeginSubpath)pathObject).getPoint());}
+      else if(pathObject instanceof DrawLine)
+      {pathBox = add(pathBox, ((DrawLine)pathObject).getPoint());}
+      else if(pathObject instanceof DrawCurve)
+      {
+        DrawCurve curve = (DrawCurve)pathObject;
+        pathBox = add(pathBox, curve.getControl1());
+        pathBox = add(pathBox, curve.getControl2());
+        pathBox = add(pathBox, curve.getPoint());
+      }
+      else if(pathObject instanceof DrawRectangle)
+      {
+        DrawRectangle rectangle = (DrawRectangle)pathObject;
+        pathBox = add(pathBox, new Point2D.Double(rectangle.getX(), rectangle.getY()));
+        pathBox = add(pathBox, new Point2D.Double(rectangle.getX() + rectangle.getWidth(), rectangle.getY() + rectangle.getHeight()));
+      }
+      else if(pathObject instanceof PaintPath
+        && pathBox != null)
+      {
+        PaintPath paintPath = (PaintPath)pathObject;
+        if(paintPath.isStroked())
+        {
+          // NOTE: Miter joins may spike out up to the miter limit [PDF:1.6:4.3.2].
+          double padding = state.getLineWidth() / 2 * Math.max(state.getMiterLimit(), Math.sqrt(2));
+          box = add(
+            box,
+            new Rectangle2D.Double(
+              pathBox.getX() - padding,
+              pathBox.getY() - padding,
+              pathBox.getWidth() + padding * 2,
+              pathBox.getHeight() + padding * 2
+              ),
+            IdentityTransform
+            );
+        }
+        else if(paintPath.isFilled())
+        {box = add(box, pathBox, IdentityTransform);}
+      }
+    }
+    return box;
+  }
+
+  /**
+    Gets whether the specified path modifies the clipping path.
+  */
+  private static boolean isClipping(
+    Path path
+    )
+  {
+    for(ContentObject pathObject : path.getObjects())
+    {
+      if(pathObject instanceof ModifyClipPath)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+    Adds the specified point to the specified path bounds.
+
+    @return Extended path bounds.
+  */
+  private static Rectangle2D add(
+    Rectangle2D pathBox,
+    Point2D point
+    )
+  {
+    if(point == null)
+      return pathBox;
+    else if(pathBox == null)
+      return new Rectangle2D.Double(point.getX(), point.getY(), 0, 0);
+
+    pathBox.add(point);
+    return pathBox;
+  }
+  // </private>
+  // </interface>
+  // </static>
+
   // <dynamic>
   // <fields>
   protected List<ContentObject> objects;
+
+  private BoxEntry boxEntry;
   // </fields>
 
   // <constructors>
@@ -84,6 +489,32 @@ public abstract class CompositeObject
 
   // <interface>
   // <public>
+  /**
+    Gets the bounding box of the contents of this object.
+    <p>It's expressed in the user space at the start of this object (that is, before any inner
+    change of the current transformation matrix), so it holds wherever this object is placed; it's
+    collected while the contents are scanned and cached as long as the inherited text and line
+    parameters stay the same and the contents aren't edited (see {@link #invalidateBox()}); in case
+    it's requested before any scan, the contents are dry-scanned once in advance. Form external
+    objects are bounded by their {@link FormXObject#getBox() BBox}.</p>
+
+    @param state Graphics state at the start of this object; it MUST be the current state of the
+      scanner level whose current object is this object.
+    @return <code>null</code> in case the contents can't be bounded (e.g. shadings, which paint the
+      whole clipping region); an empty box at the origin in case they paint nothing.
+    @since 0.1.2
+  */
+  public Rectangle2D getBox(
+    GraphicsState state
+    )
+  {
+    BoxEntry boxEntry = loadBoxEntry(state);
+    if(!boxEntry.bounded)
+      return null;
+
+    return boxEntry.box != null ? (Rectangle2D)boxEntry.box.clone() : new Rectangle2D.Double();
+  }
+
   /**
     Gets the object header.
   */
@@ -93,11 +524,58 @@ public abstract class CompositeObject
 
   /**
     Gets the list of inner objects.
+    <p>In case it's edited directly (that is, not through a {@link ContentScanner}),
+    {@link #invalidateBox()} MUST be called on this object and its containers.</p>
   */
   public List<ContentObject> getObjects(
     )
   {return objects;}
 
+  /**
+    Discards the cached bounding box of this object, as its contents have changed.
+
+    @see #getBox(GraphicsState)
+    @since 0.1.2
+  */
+  public void invalidateBox(
+    )
+  {boxEntry = null;}
+
+  /**
+    Gets whether the contents of this object alter the clipping path.
+    <p>Such contents can't be skipped just because they don't paint anything within the clipping
+    region, as they still narrow it for the subsequent contents (unless isolated by a
+    {@link LocalGraphicsState local graphics state}).</p>
+
+    @param state Graphics state at the start of this object (see {@link #getBox(GraphicsState)}).
+    @since 0.1.2
+  */
+  public boolean isClipping(
+    GraphicsState state
+    )
+  {return loadBoxEntry(state).clipping;}
+
+  /**
+    Creates a builder of the bounding box of this object, to be fed while walking through its
+    contents.
+    <p><span style="color:red">For internal use only.</span></p>
+
+    @param state Graphics state at the start of this object.
+    @return <code>null</code> in case the cached box is still valid for the specified state (or it's
+      available without walking through the contents).
+    @since 0.1.2
+  */
+  public BoxBuilder newBoxBuilder(
+    GraphicsState state
+    )
+  {
+    if(this instanceof Path
+      || (boxEntry != null && boxEntry.matches(state)))
+      return null;
+
+    return new BoxBuilder(this, state);
+  }
+
   @Override
   public void scan(
     GraphicsState state
@@ -167,6 +645,58 @@ public abstract class CompositeObject
     return true;
   }
   // </protected>
+
+  // <private>
+  /**
+    Gets the cached bounding box of this object, valid for the specified state.
+
+    @return <code>null</code> in case the contents haven't been walked through yet.
+  */
+  private BoxEntry getBoxEntry(
+    GraphicsState state
+    )
+  {
+    if(boxEntry == null
+      || !boxEntry.matches(state))
+    {
+      if(!(this instanceof Path))
+        return null;
+
+      // NOTE: Path boxes are cheaply computed on demand, as paths hold plain operations.
+      Path path = (Path)this;
+      boxEntry = new BoxEntry(state, getBox(path, state), true, isClipping(path));
+    }
+    return boxEntry;
+  }
+
+  /**
+    Gets the bounding box of this object, valid for the specified state, collecting it in case the
+    contents haven't been walked through yet.
+  */
+  private BoxEntry loadBoxEntry(
+    GraphicsState state
+    )
+  {
+    BoxEntry boxEntry = getBoxEntry(state);
+    if(boxEntry == null)
+    {
+      /*
+        NOTE: A single dry scan collects the boxes of the inner composite objects too, so that
+        subsequent requests on them (e.g. while rendering the contents) come for free.
+      */
+      ContentScanner level = state.getScanner().getChildLevel();
+      if(level.getIndex() != -1)
+      {level.moveStart();}
+      level.moveEnd();
+      level.moveStart(); // Rewinds the inner level for its actual consumers.
+
+      boxEntry = getBoxEntry(state);
+      if(boxEntry == null) // Contents not entirely accounted for.
+      {this.boxEntry = boxEntry = new BoxEntry(state, null, false, true);}
+    }
+    return boxEntry;
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
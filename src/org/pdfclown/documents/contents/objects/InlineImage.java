@@ -25,13 +25,25 @@
 
 package org.pdfclown.documents.contents.objects;
 
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Paint;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.bytes.IOutputStream;
 import org.pdfclown.documents.Document;
+import org.pdfclown.documents.contents.ContentScanner;
+import org.pdfclown.documents.contents.ContentScanner.GraphicsState;
+import org.pdfclown.documents.contents.IContentContext;
+import org.pdfclown.documents.contents.ImageDecoder;
+import org.pdfclown.documents.contents.colorSpaces.ColorSpace;
+import org.pdfclown.objects.PdfArray;
+import org.pdfclown.objects.PdfBoolean;
+import org.pdfclown.objects.PdfDirectObject;
 import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfNumber;
 
@@ -40,7 +52,7 @@ import org.pdfclown.objects.PdfNumber;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.4
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class InlineImage
@@ -54,6 +66,29 @@ public final class InlineImage
 
   private static final String DataOperator = "ID";
   // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Expands the specified color space name, in case it's abbreviated [PDF:1.6:4.8.6].
+  */
+  private static PdfName expandColorSpaceName(
+    PdfName name
+    )
+  {
+    if(name.equals(PdfName.G))
+      return PdfName.DeviceGray;
+    else if(name.equals(PdfName.RGB))
+      return PdfName.DeviceRGB;
+    else if(name.equals(PdfName.CMYK))
+      return PdfName.DeviceCMYK;
+    else if(name.equals(PdfName.I))
+      return PdfName.Indexed;
+    else
+      return name;
+  }
+  // </private>
+  // </interface>
   // </static>
 
   // <dynamic>
@@ -95,6 +130,38 @@ public final class InlineImage
       );
   }
 
+  @Override
+  public void scan(
+    GraphicsState state
+    )
+  {
+    ContentScanner scanner = state.getScanner();
+    if(scanner.getRenderContext() == null)
+      return;
+
+    InlineImageHeader header = getHeader();
+    PdfBoolean imageMaskObject = (PdfBoolean)header.get(header.containsKey(PdfName.IM) ? PdfName.IM : PdfName.ImageMask);
+    Color maskColor = null;
+    if(imageMaskObject != null && imageMaskObject.getValue())
+    {
+      Paint fillPaint = state.getFillColorSpace().getPaint(state.getFillColor());
+      maskColor = (fillPaint instanceof Color ? (Color)fillPaint : Color.BLACK);
+    }
+    Dimension2D size = getSize();
+    AffineTransform ctm = state.getCtm();
+    BufferedImage image = ImageDecoder.decode(
+      header,
+      getBody().getValue().toByteArray(),
+      header.get(header.containsKey(PdfName.F) ? PdfName.F : PdfName.Filter),
+      header.get(header.containsKey(PdfName.DP) ? PdfName.DP : PdfName.DecodeParms),
+      maskColor == null ? getColorSpace(scanner.getContentContext()) : null,
+      ImageDecoder.getSubsampling(ctm, (int)size.getWidth(), (int)size.getHeight()),
+      maskColor
+      );
+    if(image != null)
+    {ImageDecoder.paint(scanner.getRenderContext(), ctm, image);}
+  }
+
   @Override
   public void writeTo(
     IOutputStream stream,
@@ -105,9 +172,42 @@ public final class InlineImage
     getHeader().writeTo(stream, context);
     stream.write(DataOperator); stream.write("\n");
     getBody().writeTo(stream, context); stream.write("\n");
-    stream.write(EndOperator);
+    stream.write(EndOperator); stream.write("\n");
   }
   // </public>
+
+  // <private>
+  /**
+    Gets the color space of the image samples.
+
+    @param context Content context (its resources define the named color spaces).
+  */
+  private ColorSpace<?> getColorSpace(
+    IContentContext context
+    )
+  {
+    InlineImageHeader header = getHeader();
+    PdfDirectObject colorSpaceObject = header.get(header.containsKey(PdfName.CS) ? PdfName.CS : PdfName.ColorSpace);
+    if(colorSpaceObject instanceof PdfName)
+    {
+      PdfName colorSpaceName = expandColorSpaceName((PdfName)colorSpaceObject);
+      if(!colorSpaceName.equals(PdfName.DeviceGray)
+        && !colorSpaceName.equals(PdfName.DeviceRGB)
+        && !colorSpaceName.equals(PdfName.DeviceCMYK))
+        return context.getResources().getColorSpaces().get(colorSpaceName);
+
+      colorSpaceObject = colorSpaceName;
+    }
+    else if(colorSpaceObject instanceof PdfArray) // Indexed color space.
+    {
+      PdfArray colorSpaceArray = new PdfArray();
+      for(PdfDirectObject item : (PdfArray)colorSpaceObject)
+      {colorSpaceArray.add(item instanceof PdfName ? expandColorSpaceName((PdfName)item) : item);}
+      colorSpaceObject = colorSpaceArray;
+    }
+    return ColorSpace.wrap(colorSpaceObject);
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
@@ -42,7 +42,7 @@ import org.pdfclown.tokens.Symbol;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.4
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class LocalGraphicsState
@@ -94,6 +94,14 @@ public final class LocalGraphicsState
       context.setClip(clip);
       context.setTransform(state.getCtm());
     }
+    else
+    {
+      /*
+        NOTE: As isolated contents have no effect on the outer graphics state, they are walked
+        through on dry scans just in case their bounding box hasn't been collected yet.
+      */
+      getBox(state);
+    }
   }
 
   @Override
@@ -26,12 +26,8 @@
 package org.pdfclown.documents.contents.objects;
 
 import java.awt.BasicStroke;
-import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Path2D;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.io.PrintWriter;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
@@ -46,7 +42,7 @@ import org.pdfclown.util.ConvertUtils;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.7
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class PaintPath
@@ -65,8 +61,6 @@ public final class PaintPath
   public static final String FillStrokeEvenOddOperator = "B*";
   public static final String FillStrokeOperator = "B";
   public static final String StrokeOperator = "S";
-  
-  private static int renderNo = 1;
 
   /**
     'Close, fill, and then stroke the path, using the nonzero winding number rule to determine
@@ -110,8 +104,11 @@ public final class PaintPath
   // </fields>
 
   // <interface>
-  // <private>
-  private static java.awt.Stroke getStroke(
+  // <internal>
+  /**
+    Gets the stroke corresponding to the line parameters of the specified graphics state.
+  */
+  static java.awt.Stroke getStroke(
     GraphicsState state
     )
   {
@@ -127,7 +124,7 @@ public final class PaintPath
       (float)lineDash.getDashPhase()
       );
   }
-  // </private>
+  // </internal>
   // </interface>
   // </static>
 
@@ -207,28 +204,8 @@ public final class PaintPath
         context.setPaint(
           state.getFillColorSpace().getPaint(state.getFillColor())
           );
-        Color color = new Color(128, 0, 0, 29);
-        context.setPaint(color);
         pathObject.setWindingRule(fillMode.toAwt());
         context.fill(pathObject);
-        
-        System.out.println(renderNo + "," + this.toString());
-        BufferedImage bi = new BufferedImage(1400, 1400, BufferedImage.TYPE_INT_BGR);
-        context = bi.createGraphics();
-        context.setColor(java.awt.Color.WHITE);
-        context.fillRect(0,0,1400,1400);
-        context.setPaint(
-                state.getFillColorSpace().getPaint(state.getFillColor())
-                );
-        context.fill(pathObject); 
-        String filename = "render/Render_" + renderNo + ".JPG";
-        try {
-			javax.imageio.ImageIO.write(bi, "JPG", new java.io.File(filename));
-			renderNo++;
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
       }
       if(stroked)
       {
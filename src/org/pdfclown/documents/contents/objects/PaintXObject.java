@@ -25,13 +25,23 @@
 
 package org.pdfclown.documents.contents.objects;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
 import java.util.List;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.documents.contents.ContentScanner;
+import org.pdfclown.documents.contents.ContentScanner.GraphicsState;
 import org.pdfclown.documents.contents.IContentContext;
+import org.pdfclown.documents.contents.ImageDecoder;
 import org.pdfclown.documents.contents.xObjects.FormXObject;
+import org.pdfclown.documents.contents.xObjects.ImageXObject;
 import org.pdfclown.documents.contents.xObjects.XObject;
 import org.pdfclown.objects.PdfDirectObject;
 import org.pdfclown.objects.PdfName;
@@ -41,7 +51,7 @@ import org.pdfclown.objects.PdfName;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.4
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class PaintXObject
@@ -95,6 +105,51 @@ public final class PaintXObject
     )
   {return getResource(context);}
 
+  @Override
+  public void scan(
+    GraphicsState state
+    )
+  {
+    ContentScanner scanner = state.getScanner();
+    if(scanner.getRenderContext() == null)
+      return;
+
+    XObject xObject = getXObject(scanner.getContentContext());
+    if(xObject instanceof ImageXObject)
+    {
+      ImageXObject imageXObject = (ImageXObject)xObject;
+      Color maskColor = null;
+      if(imageXObject.isImageMask())
+      {
+        Paint fillPaint = state.getFillColorSpace().getPaint(state.getFillColor());
+        maskColor = (fillPaint instanceof Color ? (Color)fillPaint : Color.BLACK);
+      }
+      Dimension2D size = imageXObject.getSize();
+      AffineTransform ctm = state.getCtm();
+      BufferedImage image = imageXObject.getImage(
+        ImageDecoder.getSubsampling(ctm, (int)size.getWidth(), (int)size.getHeight()),
+        maskColor
+        );
+      if(image != null)
+      {ImageDecoder.paint(scanner.getRenderContext(), ctm, image);}
+    }
+    else if(xObject instanceof FormXObject)
+    {
+      Graphics2D context = scanner.getRenderContext();
+      /*
+        NOTE: Form contents are isolated from the surrounding graphics state [PDF:1.6:4.9].
+      */
+      // Save outer graphics state!
+      Shape clip = context.getClip();
+
+      new ContentScanner((FormXObject)xObject, scanner).render(context, scanner.getCanvasSize(), null);
+
+      // Restore outer graphics state!
+      context.setClip(clip);
+      context.setTransform(state.getCtm());
+    }
+  }
+
   // <IResourceReference>
   @Override
   public PdfName getName(
@@ -25,8 +25,12 @@
 
 package org.pdfclown.documents.contents.objects;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Shape;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 import java.util.Arrays;
 import java.util.List;
@@ -35,8 +39,11 @@ import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.documents.contents.ContentScanner;
 import org.pdfclown.documents.contents.ContentScanner.GraphicsState;
+import org.pdfclown.documents.contents.GlyphCache;
 import org.pdfclown.documents.contents.IContentContext;
+import org.pdfclown.documents.contents.TextRenderModeEnum;
 import org.pdfclown.documents.contents.fonts.Font;
+import org.pdfclown.documents.contents.fonts.Type3Font;
 import org.pdfclown.objects.PdfDirectObject;
 
 /**
@@ -44,7 +51,7 @@ import org.pdfclown.objects.PdfDirectObject;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public abstract class ShowText
@@ -67,6 +74,167 @@ public abstract class ShowText
   }
   // </interfaces>
 
+  // <classes>
+  /**
+    Sequence of glyphs shown by text-showing operations.
+    <p>Glyph values and positions are kept in parallel primitive arrays, so that no object has to
+    be allocated per glyph while scanning.</p>
+    <p>Glyph boxes are expressed in the same coordinate space of the boxes notified through
+    {@link IScanner}; as glyphs belonging to the same operation share their height, a single
+    height is retained (the one of the latest scanned operation).</p>
+  */
+  public static final class GlyphRun
+  {
+    private static final int DefaultCapacity = 16;
+
+    private char[] chars;
+    private int count;
+    private double height;
+    private double[] widths;
+    private double[] xs;
+    private double[] ys;
+
+    public GlyphRun(
+      )
+    {this(DefaultCapacity);}
+
+    /**
+      @param capacity Initial number of glyphs which can be stored without reallocation.
+    */
+    public GlyphRun(
+      int capacity
+      )
+    {
+      chars = new char[capacity];
+      widths = new double[capacity];
+      xs = new double[capacity];
+      ys = new double[capacity];
+    }
+
+    /**
+      Gets the bounding box of the glyph at the specified position.
+    */
+    public Rectangle2D getBox(
+      int index
+      )
+    {return new Rectangle2D.Double(xs[index], ys[index], widths[index], height);}
+
+    /**
+      Gets the bounding box of the whole run.
+
+      @return <code>null</code>, if the run is empty.
+    */
+    public Rectangle2D getBounds(
+      )
+    {
+      if(count == 0)
+        return null;
+
+      double minX = xs[0], minY = ys[0], maxX = xs[0] + widths[0], maxY = ys[0];
+      for(int index = 1; index < count; index++)
+      {
+        double x = xs[index], y = ys[index], maxGlyphX = x + widths[index];
+        if(x < minX)
+        {minX = x;}
+        if(maxGlyphX > maxX)
+        {maxX = maxGlyphX;}
+        if(y < minY)
+        {minY = y;}
+        else if(y > maxY)
+        {maxY = y;}
+      }
+      return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY + height);
+    }
+
+    /**
+      Gets the character value of the glyph at the specified position.
+    */
+    public char getChar(
+      int index
+      )
+    {return chars[index];}
+
+    /**
+      Gets the number of glyphs.
+    */
+    public int getCount(
+      )
+    {return count;}
+
+    /**
+      Gets the glyph height.
+    */
+    public double getHeight(
+      )
+    {return height;}
+
+    /**
+      Gets the text of the run.
+    */
+    public String getText(
+      )
+    {return new String(chars, 0, count);}
+
+    /**
+      Gets the width of the glyph at the specified position.
+    */
+    public double getWidth(
+      int index
+      )
+    {return widths[index];}
+
+    /**
+      Gets the horizontal position of the glyph at the specified position.
+    */
+    public double getX(
+      int index
+      )
+    {return xs[index];}
+
+    /**
+      Gets the vertical position (top) of the glyph at the specified position.
+    */
+    public double getY(
+      int index
+      )
+    {return ys[index];}
+
+    private void add(
+      char value,
+      double x,
+      double y,
+      double width
+      )
+    {
+      chars[count] = value;
+      xs[count] = x;
+      ys[count] = y;
+      widths[count] = width;
+      count++;
+    }
+
+    private void ensureCapacity(
+      int additionalCount
+      )
+    {
+      int capacity = count + additionalCount;
+      if(capacity <= chars.length)
+        return;
+
+      capacity = Math.max(capacity, chars.length << 1);
+      chars = Arrays.copyOf(chars, capacity);
+      widths = Arrays.copyOf(widths, capacity);
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+    }
+
+    private void setHeight(
+      double value
+      )
+    {height = value;}
+  }
+  // </classes>
+
   // <dynamic>
   // <constructors>
   protected ShowText(
@@ -89,6 +257,89 @@ public abstract class ShowText
 
   // <interface>
   // <public>
+  /**
+    Gets a conservative bounding box of the glyphs shown by this operation, without applying it.
+    <p>It's based on glyph advances, padded by the font size and line height to cover ascenders,
+    descenders and overhangs; it's expressed in the user space.</p>
+
+    @param state Graphics state context.
+    @return <code>null</code> in case the glyph extent can't be bounded (e.g. Type 3 fonts).
+    @since 0.1.2
+  */
+  public Rectangle2D getBox(
+    GraphicsState state
+    )
+  {
+    Font font = state.getFont();
+    if(font == null
+      || font instanceof Type3Font)
+      return null;
+
+    double fontSize = state.getFontSize();
+    double scale = state.getScale() / 100;
+    double scaledFactor = Font.getScalingFactor(fontSize) * scale;
+    double wordSpace = state.getWordSpace() * scale;
+    double charSpace = state.getCharSpace() * scale;
+    AffineTransform tm;
+    if(this instanceof ShowTextToNextLine)
+    {
+      ShowTextToNextLine showTextToNextLine = (ShowTextToNextLine)this;
+      Double newWordSpace = showTextToNextLine.getWordSpace();
+      if(newWordSpace != null)
+      {wordSpace = newWordSpace * scale;}
+      Double newCharSpace = showTextToNextLine.getCharSpace();
+      if(newCharSpace != null)
+      {charSpace = newCharSpace * scale;}
+      tm = (AffineTransform)state.getTlm().clone();
+      tm.translate(0, state.getLead());
+    }
+    else
+    {tm = state.getTm();}
+
+    // Text displacement range (in unscaled text space units).
+    double tx = 0, minX = 0, maxX = 0;
+    for(Object textElement : getValue())
+    {
+      if(textElement instanceof byte[]) // Text string.
+      {
+        String textString = font.decode((byte[])textElement);
+        for(int index = 0, length = textString.length(); index < length; index++)
+        {
+          char textChar = textString.charAt(index);
+          tx += font.getWidth(textChar) * scaledFactor + charSpace + (textChar == ' ' ? wordSpace : 0);
+          if(tx < minX)
+          {minX = tx;}
+          else if(tx > maxX)
+          {maxX = tx;}
+        }
+      }
+      else // Text position adjustment.
+      {tx -= ((Number)textElement).doubleValue() * scaledFactor;}
+    }
+
+    double padding = Math.abs(fontSize) + Math.abs(font.getLineHeight(fontSize));
+    switch(state.getRenderMode())
+    {
+      case Stroke:
+      case FillStroke:
+      case StrokeClip:
+      case FillStrokeClip:
+        padding += state.getLineWidth();
+        break;
+      default:
+        break;
+    }
+    double rise = state.getRise();
+    return tm.createTransformedShape(
+      new Rectangle2D.Double(
+        minX - padding * Math.abs(scale),
+        Math.min(rise, 0) - padding,
+        maxX - minX + padding * Math.abs(scale) * 2,
+        Math.abs(rise) + padding * 2
+        )
+      ).getBounds2D();
+  }
+
   /**
     Gets the encoded text.
     <h3>Remarks</h3>
@@ -117,9 +368,7 @@ public abstract class ShowText
   public void scan(
     GraphicsState state
     )
-  {
-	  scan(state, null);
-  }
+  {scan(state, null, null);}
 
   /**
     Executes scanning on this operation.
@@ -132,6 +381,70 @@ public abstract class ShowText
     ContentScanner.GraphicsState state,
     IScanner textScanner
     )
+  {scan(state, textScanner, null);}
+
+  /**
+    Collects the glyphs shown by this operation, without applying it to the graphics state context.
+
+    @param state Graphics state context.
+    @param glyphRun Target glyph run (glyphs are appended to the existing ones).
+    @return <code>glyphRun</code>.
+  */
+  public GlyphRun scan(
+    ContentScanner.GraphicsState state,
+    GlyphRun glyphRun
+    )
+  {
+    scan(state, null, glyphRun);
+    return glyphRun;
+  }
+
+  /**
+    @see #getText()
+  */
+  public abstract void setText(
+    byte[] value
+    );
+
+  /**
+    @see #getValue()
+  */
+  public void setValue(
+    List<Object> value
+    )
+  {setText((byte[])value.get(0));}
+  // </public>
+
+  // <private>
+  /**
+    Gets the clipping path collecting the glyphs shown within the current text object.
+
+    @return <code>null</code> if this operation lies outside a text object.
+  */
+  private Path2D getClipPath(
+    ContentScanner scanner
+    )
+  {
+    Shape renderObject = scanner.getRenderObject();
+    return scanner.getParent() instanceof Text && renderObject instanceof Path2D
+      ? (Path2D)renderObject
+      : null;
+  }
+
+  /**
+    Executes scanning on this operation.
+
+    @param state Graphics state context.
+    @param textScanner Scanner to be notified about text characters.
+    @param glyphRun Glyph run to be fed with text characters.
+      In case both <code>textScanner</code> and <code>glyphRun</code> are null, the operation is
+      applied to the graphics state context.
+  */
+  private void scan(
+    ContentScanner.GraphicsState state,
+    IScanner textScanner,
+    GlyphRun glyphRun
+    )
   {
     /*
       TODO: I really dislike this solution -- it's a temporary hack until the event-driven
@@ -141,6 +454,7 @@ public abstract class ShowText
       TODO: support to vertical writing mode.
     */
 
+    boolean applied = (textScanner == null && glyphRun == null);
     IContentContext context = state.getScanner().getContentContext();
     double contextHeight = context.getBox().getHeight();
     Font font = state.getFont();
@@ -149,7 +463,6 @@ public abstract class ShowText
     double scaledFactor = Font.getScalingFactor(fontSize) * scale;
     double wordSpace = state.getWordSpace() * scale;
     double charSpace = state.getCharSpace() * scale;
-    AffineTransform ctm = (AffineTransform)state.getCtm().clone();
     AffineTransform tm;
     if(this instanceof ShowTextToNextLine)
     {
@@ -157,14 +470,14 @@ public abstract class ShowText
       Double newWordSpace = showTextToNextLine.getWordSpace();
       if(newWordSpace != null)
       {
-        if(textScanner == null)
+        if(applied)
         {state.setWordSpace(newWordSpace);}
         wordSpace = newWordSpace * scale;
       }
       Double newCharSpace = showTextToNextLine.getCharSpace();
       if(newCharSpace != null)
       {
-        if(textScanner == null)
+        if(applied)
         {state.setCharSpace(newCharSpace);}
         charSpace = newCharSpace * scale;
       }
@@ -174,77 +487,181 @@ public abstract class ShowText
     else
     {tm = (AffineTransform)state.getTm().clone();}
 
-    for(Object textElement : getValue())
+    /*
+      NOTE: The text rendering matrix is recomputed before each glyph is painted during a
+      text-showing operation [PDF:1.6:5.3.3]; as glyph displacements are purely horizontal
+      translations in text space, it's computed just once per operation and its origin is then
+      advanced incrementally.
+    */
+    AffineTransform trm = new AffineTransform(state.getCtm()); trm.concatenate(tm);
+    double trmScaleX = trm.getScaleX(), trmScaleY = trm.getScaleY(), trmShearY = trm.getShearY();
+    double trmX = trm.getTranslateX(), trmY = trm.getTranslateY();
+    // Text displacement (in unscaled text space units).
+    double tx = 0;
+    if(!applied)
     {
-      if(textElement instanceof byte[]) // Text string.
+      double charTop = contextHeight - font.getAscent(fontSize) * trmScaleY;
+      double charHeight = font.getLineHeight(fontSize) * trmScaleY;
+      if(glyphRun != null)
+      {glyphRun.setHeight(charHeight);}
+      for(Object textElement : getValue())
       {
-        String textString = font.decode((byte[])textElement);
-        for(char textChar : textString.toCharArray())
+        if(textElement instanceof byte[]) // Text string.
         {
-          double charWidth = font.getWidth(textChar) * scaledFactor;
-          
-          AffineTransform trm = (AffineTransform)ctm.clone(); trm.concatenate(tm);
-          double charHeight = font.getHeight(textChar,fontSize);
-          Rectangle2D charBox = new Rectangle2D.Double(
-            trm.getTranslateX(),
-            contextHeight - trm.getTranslateY() - font.getAscent(fontSize) * trm.getScaleY(),
-            charWidth * trm.getScaleX(),
-            charHeight * trm.getScaleY()
-            );
-          
-          if(textScanner != null)
+          String textString = font.decode((byte[])textElement);
+          if(glyphRun != null)
+          {glyphRun.ensureCapacity(textString.length());}
+          for(int index = 0, length = textString.length(); index < length; index++)
           {
+            char textChar = textString.charAt(index);
+            double charWidth = font.getWidth(textChar) * scaledFactor;
+            double charX = trmX + trmScaleX * tx;
+            double charY = charTop - (trmY + trmShearY * tx);
+            if(glyphRun != null)
+            {glyphRun.add(textChar, charX, charY, charWidth * trmScaleX);}
+            else
+            {
+              textScanner.scanChar(
+                textChar,
+                new Rectangle2D.Double(charX, charY, charWidth * trmScaleX, charHeight)
+                );
+            }
+
             /*
-              NOTE: The text rendering matrix is recomputed before each glyph is painted
-              during a text-showing operation.
+              NOTE: After the glyph is painted, the text matrix is updated
+              according to the glyph displacement and any applicable spacing parameter.
             */
-            
-            textScanner.scanChar(textChar,charBox);
-            //.drawString(new Character(textChar).toString(), new System.Drawing.Font("Arial", 4), System.Drawing.Brushes.Black, charBox);
-          } else {
-        	  Graphics2D g = state.getScanner().getRenderContext();
-//              java.awt.Font defFont = java.awt.Font.getFont("Arial");
-//              g.setFont(defFont);
-//              System.out.println(defFont);
-//              g.drawString(new Character(textChar).toString(), (float)charBox.getX(), (float)charBox.getY());
-        	 // g.drawString("H", (float)charBox.getX(), (float)charBox.getY());
+            tx += charWidth + charSpace + (textChar == ' ' ? wordSpace : 0);
           }
+        }
+        else // Text position adjustment.
+        {tx -= ((Number)textElement).doubleValue() * scaledFactor;}
+      }
+    }
+    else
+    {
+      ContentScanner scanner = state.getScanner();
+      Graphics2D renderContext = scanner.getRenderContext();
+      TextRenderModeEnum renderMode = state.getRenderMode();
+      boolean filled = false, stroked = false;
+      /*
+        NOTE: Glyphs shown in clipping render modes are collected into the text clipping path, which
+        is applied at the end of the enclosing text object (see Text) [PDF:1.6:5.2.5].
+      */
+      Path2D clipPath = null;
+      if(renderContext != null)
+      {
+        switch(renderMode)
+        {
+          case Fill:
+            filled = true;
+            break;
+          case Stroke:
+            stroked = true;
+            break;
+          case FillStroke:
+            filled = stroked = true;
+            break;
+          case FillClip:
+            filled = true;
+            clipPath = getClipPath(scanner);
+            break;
+          case StrokeClip:
+            stroked = true;
+            clipPath = getClipPath(scanner);
+            break;
+          case FillStrokeClip:
+            filled = stroked = true;
+            clipPath = getClipPath(scanner);
+            break;
+          case Clip:
+            clipPath = getClipPath(scanner);
+            break;
+          default:
+            break;
+        }
 
+        /*
+          Glyphs falling below the detail threshold are skipped (just their displacement is applied),
+          unless they contribute to the clipping path.
+        */
+        double detailThreshold = scanner.getRenderDetailThreshold();
+        if(Math.abs(fontSize) * Math.hypot(trm.getScaleX(), trm.getShearY()) < detailThreshold
+          && Math.abs(fontSize) * Math.hypot(trm.getShearX(), trm.getScaleY()) < detailThreshold)
+        {filled = stroked = false;}
+      }
+      Paint fillPaint = null;
+      if(filled)
+      {fillPaint = state.getFillColorSpace().getPaint(state.getFillColor());}
+      if(stroked)
+      {
+        renderContext.setPaint(state.getStrokeColorSpace().getPaint(state.getStrokeColor()));
+        renderContext.setStroke(PaintPath.getStroke(state));
+      }
+      double rise = state.getRise();
+      double glyphScaleX = fontSize * scale / 1000, glyphScaleY = fontSize / 1000;
+      AffineTransform glyphTransform = new AffineTransform();
+
+      for(Object textElement : getValue())
+      {
+        if(textElement instanceof byte[]) // Text string.
+        {
           /*
-            NOTE: After the glyph is painted, the text matrix is updated
-            according to the glyph displacement and any applicable spacing parameter.
+            NOTE: Glyphs are selected by character code, as distinct codes may map to the same
+            character while selecting distinct glyphs.
           */
-          tm.translate(charWidth + charSpace + (textChar == ' ' ? wordSpace : 0), 0);
+          byte[] textBytes = (byte[])textElement;
+          for(int position = 0; position < textBytes.length;)
+          {
+            int charCodeLength = font.getCharCodeLength(textBytes, position);
+            int charCode = 0;
+            for(int index = 0; index < charCodeLength; index++)
+            {charCode = (charCode << 8) | (textBytes[position++] & 0xFF);}
+            int textChar = font.decode(charCode, charCodeLength);
+            if(filled || stroked || clipPath != null)
+            {
+              // Glyph space to user space.
+              glyphTransform.setTransform(tm);
+              glyphTransform.translate(tx, rise);
+              glyphTransform.scale(glyphScaleX, glyphScaleY);
+              boolean cached = (filled
+                && fillPaint instanceof Color
+                && GlyphCache.get().paint(renderContext, font, charCode, charCodeLength, glyphTransform, (Color)fillPaint));
+              if((filled && !cached) || stroked || clipPath != null)
+              {
+                Shape glyphOutline = font.getGlyphOutline(charCode, charCodeLength);
+                if(glyphOutline != null)
+                {
+                  Shape glyphShape = glyphTransform.createTransformedShape(glyphOutline);
+                  if(filled && !cached)
+                  {
+                    Paint strokePaint = renderContext.getPaint();
+                    renderContext.setPaint(fillPaint);
+                    renderContext.fill(glyphShape);
+                    renderContext.setPaint(strokePaint);
+                  }
+                  if(stroked)
+                  {renderContext.draw(glyphShape);}
+                  if(clipPath != null)
+                  {clipPath.append(glyphShape, false);}
+                }
+              }
+            }
+            tx += font.getWidth((char)textChar) * scaledFactor + charSpace + (textChar == ' ' ? wordSpace : 0);
+          }
         }
+        else // Text position adjustment.
+        {tx -= ((Number)textElement).doubleValue() * scaledFactor;}
       }
-      else // Text position adjustment.
-      {tm.translate(-((Number)textElement).doubleValue() * scaledFactor, 0);}
-    }
 
-    if(textScanner == null)
-    {
+      tm.translate(tx, 0);
       state.setTm(tm);
 
       if(this instanceof ShowTextToNextLine)
       {state.setTlm((AffineTransform)tm.clone());}
     }
   }
-
-  /**
-    @see #getText()
-  */
-  public abstract void setText(
-    byte[] value
-    );
-
-  /**
-    @see #getValue()
-  */
-  public void setValue(
-    List<Object> value
-    )
-  {setText((byte[])value.get(0));}
-  // </public>
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
@@ -25,12 +25,16 @@
 
 package org.pdfclown.documents.contents.objects;
 
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
 import java.util.List;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.bytes.IOutputStream;
 import org.pdfclown.documents.Document;
+import org.pdfclown.documents.contents.ContentScanner;
+import org.pdfclown.documents.contents.ContentScanner.GraphicsState;
 import org.pdfclown.tokens.Encoding;
 import org.pdfclown.tokens.Symbol;
 
@@ -39,7 +43,7 @@ import org.pdfclown.tokens.Symbol;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.4
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class Text
@@ -81,6 +85,34 @@ public final class Text
     stream.write(EndChunk);
   }
   // </public>
+
+  // <protected>
+  @Override
+  protected boolean render(
+    GraphicsState state
+    )
+  {
+    ContentScanner scanner = state.getScanner();
+    Graphics2D context = scanner.getRenderContext();
+    if(context == null)
+      return false;
+
+    // Render the inner elements, collecting the glyphs shown in clipping render modes!
+    Path2D clipPath = new Path2D.Double(Path2D.WIND_NON_ZERO);
+    scanner.getChildLevel().render(
+      context,
+      scanner.getCanvasSize(),
+      clipPath
+      );
+    // Apply the text clipping path [PDF:1.6:5.2.5]!
+    if(clipPath.getCurrentPoint() != null)
+    {
+      context.setTransform(state.getCtm());
+      context.clip(clipPath);
+    }
+    return true;
+  }
+  // </protected>
   // </interface>
   // </dynamic>
   // </class>
@@ -66,7 +66,7 @@ import org.pdfclown.util.parsers.ParseException;
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.1.1
-  @version 0.1.2, 09/24/12
+  @version 0.1.2, 10/19/12
 */
 public final class ContentParser
   extends BaseParser
@@ -210,19 +210,25 @@ public final class ContentParser
     InlineImageBody body;
     {
       IInputStream stream = getStream();
-      moveNext();
       Buffer data = new Buffer();
       try
       {
-        byte prevByte = 0;
+        /*
+          NOTE: Image data begins after the single white-space character following the ID operator
+          and ends before the white-space character preceding the EI operator [PDF:1.6:4.8.6].
+        */
+        stream.readByte();
+        byte prevPrevByte = 0, prevByte = 0;
         while(true)
         {
           byte curByte = stream.readByte();
-          if(prevByte == 'E' && curByte == 'I')
+          if(curByte == 'I' && prevByte == 'E' && isWhitespace(prevPrevByte & 0xff))
             break;
 
-          data.append(prevByte = curByte);
+          data.append(curByte);
+          prevPrevByte = prevByte; prevByte = curByte;
         }
+        data.setLength(Math.max((int)data.getLength() - 2, 0)); // Strips the EI operator prefix.
       }
       catch(EOFException e)
       {throw new ParseException(e);}
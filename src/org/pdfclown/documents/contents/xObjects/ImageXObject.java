@@ -25,17 +25,24 @@
 
 package org.pdfclown.documents.contents.xObjects;
 
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Dimension2D;
+import java.awt.image.BufferedImage;
 
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.documents.Document;
+import org.pdfclown.documents.contents.ImageCache;
+import org.pdfclown.documents.contents.ImageDecoder;
+import org.pdfclown.documents.contents.colorSpaces.ColorSpace;
+import org.pdfclown.objects.PdfBoolean;
 import org.pdfclown.objects.PdfDictionary;
 import org.pdfclown.objects.PdfDirectObject;
 import org.pdfclown.objects.PdfInteger;
 import org.pdfclown.objects.PdfName;
+import org.pdfclown.objects.PdfReference;
 import org.pdfclown.objects.PdfStream;
 import org.pdfclown.util.NotImplementedException;
 
@@ -43,7 +50,7 @@ import org.pdfclown.util.NotImplementedException;
   Image external object [PDF:1.6:4.8.4].
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
-  @version 0.1.2, 08/23/12
+  @version 0.1.2, 10/19/12
 */
 @PDF(VersionEnum.PDF10)
 public final class ImageXObject
@@ -103,6 +110,61 @@ public final class ImageXObject
     )
   {return ((PdfName)getBaseDataObject().getHeader().get(PdfName.ColorSpace)).getRawValue();}
 
+  /**
+    Gets the decoded image.
+    <p>Decoded images are shared through the {@link Document#getImageCache() document cache}.</p>
+
+    @param subsampling Number of samples per decoded pixel along each axis (see
+      {@link ImageDecoder#getSubsampling(AffineTransform, int, int)}).
+    @param maskColor Painting color (applies to {@link #isImageMask() stencil masks} only).
+    @return <code>null</code>, if the image encoding isn't supported.
+    @since 0.1.2
+  */
+  public BufferedImage getImage(
+    int subsampling,
+    Color maskColor
+    )
+  {
+    if(!isImageMask())
+    {maskColor = null;}
+
+    PdfDirectObject baseObject = getBaseObject();
+    PdfReference reference = (baseObject instanceof PdfReference ? (PdfReference)baseObject : null);
+    ImageCache cache = (reference != null ? getDocument().getImageCache() : null);
+    BufferedImage image = (cache != null ? cache.get(reference, subsampling, maskColor) : null);
+    if(image == null)
+    {
+      PdfStream stream = getBaseDataObject();
+      PdfDictionary header = stream.getHeader();
+      /*
+        NOTE: The stream body is decoded apart, as its in-place decoding would alter the document.
+      */
+      image = ImageDecoder.decode(
+        header,
+        stream.getBody(false).toByteArray(),
+        stream.getFilter(),
+        stream.getParameters(),
+        maskColor == null ? ColorSpace.wrap(header.get(PdfName.ColorSpace)) : null,
+        subsampling,
+        maskColor
+        );
+      if(image == null)
+        return null;
+
+      ImageXObject softMask = getSoftMask();
+      if(softMask != null)
+      {
+        BufferedImage softMaskImage = softMask.getImage(subsampling, null);
+        if(softMaskImage != null)
+        {image = ImageDecoder.applySoftMask(image, softMaskImage);}
+      }
+
+      if(cache != null)
+      {cache.put(reference, subsampling, maskColor, image);}
+    }
+    return image;
+  }
+
   @Override
   public AffineTransform getMatrix(
     )
@@ -122,6 +184,18 @@ public final class ImageXObject
       );
   }
 
+  /**
+    Gets the soft mask defining the opacity of this image [PDF:1.6:7.5.4].
+
+    @since 0.1.2
+  */
+  public ImageXObject getSoftMask(
+    )
+  {
+    PdfDirectObject softMaskObject = getBaseDataObject().getHeader().get(PdfName.SMask);
+    return softMaskObject != null ? new ImageXObject(softMaskObject) : null;
+  }
+
   /**
     Gets the size of the image (in samples).
   */
@@ -137,6 +211,18 @@ public final class ImageXObject
       );
   }
 
+  /**
+    Gets whether this image is a stencil mask painted with the current fill color [PDF:1.6:4.8.5].
+
+    @since 0.1.2
+  */
+  public boolean isImageMask(
+    )
+  {
+    PdfBoolean imageMaskObject = (PdfBoolean)getBaseDataObject().getHeader().resolve(PdfName.ImageMask);
+    return imageMaskObject != null && imageMaskObject.getValue();
+  }
+
   @Override
   public void setMatrix(
     AffineTransform value
@@ -28,6 +28,7 @@ package org.pdfclown.documents.interaction.forms;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -36,9 +37,12 @@ import java.util.Set;
 import org.pdfclown.PDF;
 import org.pdfclown.VersionEnum;
 import org.pdfclown.documents.Document;
+import org.pdfclown.files.File;
+import org.pdfclown.files.FileSnapshot;
 import org.pdfclown.objects.PdfArray;
 import org.pdfclown.objects.PdfDictionary;
 import org.pdfclown.objects.PdfDirectObject;
+import org.pdfclown.objects.PdfIndirectObject;
 import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfObjectWrapper;
 import org.pdfclown.objects.PdfReference;
@@ -58,6 +62,144 @@ public final class Fields
   implements Map<String,Field>
 {
   // <class>
+  // <classes>
+  /**
+    Field index, mapping fully-qualified names to field objects.
+    <p>It's built on demand, walking the whole field tree once, and then kept up to date by the
+    structural operations of the fields collection; this way, lookups don't need to scan the field
+    tree.</p>
+    <p>Fields are tracked by object number, so that an index built on a {@link FileSnapshot
+    snapshot} can be shared by all its overlays (which copy it on write).</p>
+  */
+  private static final class Index
+  {
+    /**
+      Field object numbers by fully-qualified name.
+    */
+    private Map<String,Integer> objectNumbers;
+    /**
+      Whether the map is shared with other indexes (so it has to be copied before being modified).
+    */
+    private boolean shared;
+
+    private Index(
+      Map<String,Integer> objectNumbers
+      )
+    {this.objectNumbers = objectNumbers;}
+
+    private Index(
+      Index source
+      )
+    {
+      objectNumbers = source.objectNumbers;
+      shared = true;
+    }
+
+    public Integer get(
+      String fullName
+      )
+    {return objectNumbers.get(fullName);}
+
+    public void put(
+      String fullName,
+      int objectNumber
+      )
+    {getObjectNumbers().put(fullName, objectNumber);}
+
+    /**
+      Removes the specified field along with its descendants.
+    */
+    public void remove(
+      String fullName
+      )
+    {
+      Map<String,Integer> objectNumbers = getObjectNumbers();
+      objectNumbers.remove(fullName);
+      String descendantsPrefix = fullName + ".";
+      for(Iterator<String> iterator = objectNumbers.keySet().iterator(); iterator.hasNext();)
+      {
+        if(iterator.next().startsWith(descendantsPrefix))
+        {iterator.remove();}
+      }
+    }
+
+    private Map<String,Integer> getObjectNumbers(
+      )
+    {
+      if(shared)
+      {
+        objectNumbers = new HashMap<String,Integer>(objectNumbers);
+        shared = false;
+      }
+      return objectNumbers;
+    }
+  }
+  // </classes>
+
+  // <static>
+  // <interface>
+  // <private>
+  /**
+    Collects the fully-qualified names of the specified fields and their descendants.
+
+    @param fieldObjects Field references.
+    @param parentFullName Fully-qualified name of the parent field (<code>null</code> for root
+      fields).
+    @param objectNumbers Target map.
+  */
+  private static void collect(
+    PdfArray fieldObjects,
+    String parentFullName,
+    Map<String,Integer> objectNumbers
+    )
+  {
+    for(PdfDirectObject fieldObject : fieldObjects)
+    {
+      PdfReference fieldReference = (PdfReference)fieldObject;
+      PdfDictionary fieldDictionary = (PdfDictionary)fieldReference.getDataObject();
+      PdfTextString fieldName = (PdfTextString)fieldDictionary.get(PdfName.T);
+      if(fieldName == null) // Widget annotation.
+        continue;
+
+      String fullName = (parentFullName == null ? "" : parentFullName + ".") + fieldName.getValue();
+      // NOTE: In case of homonymous fields, the first one wins (consistently with tree scanning).
+      if(!objectNumbers.containsKey(fullName))
+      {objectNumbers.put(fullName, fieldReference.getObjectNumber());}
+
+      PdfArray kidFieldObjects = (PdfArray)fieldDictionary.resolve(PdfName.Kids);
+      if(kidFieldObjects != null)
+      {collect(kidFieldObjects, fullName, objectNumbers);}
+    }
+  }
+
+  /**
+    Gets the fully-qualified name of the specified field.
+
+    @return <code>null</code>, if any field in its hierarchy is unnamed.
+  */
+  private static String getFullName(
+    PdfDictionary fieldDictionary
+    )
+  {
+    StringBuilder buffer = new StringBuilder();
+    while(fieldDictionary != null)
+    {
+      PdfTextString fieldName = (PdfTextString)fieldDictionary.get(PdfName.T);
+      if(fieldName == null)
+        return null;
+
+      if(buffer.length() > 0)
+      {buffer.insert(0, '.');}
+      buffer.insert(0, fieldName.getValue());
+
+      fieldDictionary = (PdfDictionary)fieldDictionary.resolve(PdfName.Parent);
+    }
+    return buffer.toString();
+  }
+  // </private>
+  // </interface>
+  // </static>
+
   // <dynamic>
   // <constructors>
   public Fields(
@@ -76,7 +218,23 @@ public final class Fields
   public boolean add(
     Field value
     )
-  {return getBaseDataObject().add(value.getBaseObject());}
+  {
+    if(!getBaseDataObject().add(value.getBaseObject()))
+      return false;
+
+    Index index = getIndex(false);
+    if(index != null)
+    {
+      Map<String,Integer> objectNumbers = new HashMap<String,Integer>();
+      collect(new PdfArray(new PdfDirectObject[]{value.getBaseObject()}), null, objectNumbers);
+      for(Map.Entry<String,Integer> entry : objectNumbers.entrySet())
+      {
+        if(index.get(entry.getKey()) == null)
+        {index.put(entry.getKey(), entry.getValue());}
+      }
+    }
+    return true;
+  }
 
   @Override
   public Fields clone(
@@ -84,11 +242,43 @@ public final class Fields
     )
   {throw new NotImplementedException();}
 
+  /**
+    Fills the specified fields.
+    <p>All the fields are looked up before any value is set, so that a missing field leaves the form
+    untouched; each field is then set (regenerating its appearance) just once.</p>
+
+    @param values Field values by fully-qualified name.
+    @throws IllegalArgumentException If any of the fields is missing.
+  */
+  public void fill(
+    Map<String,?> values
+    )
+  {
+    List<Field> fields = new ArrayList<Field>(values.size());
+    for(String key : values.keySet())
+    {
+      Field field = get(key);
+      if(field == null)
+        throw new IllegalArgumentException("Field '" + key + "' not found.");
+
+      fields.add(field);
+    }
+
+    Iterator<Field> fieldsIterator = fields.iterator();
+    for(Object value : values.values())
+    {fieldsIterator.next().setValue(value);}
+  }
+
   // <Map>
   @Override
   public void clear(
     )
-  {getBaseDataObject().clear();}
+  {
+    getBaseDataObject().clear();
+    PdfReference indexKey = getIndexKey();
+    if(indexKey != null)
+    {getDocument().cache.remove(indexKey);}
+  }
 
   @Override
   public boolean containsKey(
@@ -122,32 +312,37 @@ public final class Fields
       fully qualified field name must have the same field type (FT), value (V), and default
       value (DV).
      */
-    PdfReference valueFieldReference = null;
+    String fullName = (String)key;
+    Index index = getIndex(true);
+    if(index != null)
     {
-      Iterator<String> partialNamesIterator = Arrays.asList(((String)key).split("\\.")).iterator();
-      Iterator<PdfDirectObject> fieldObjectsIterator = getBaseDataObject().iterator();
-      while(partialNamesIterator.hasNext())
+      Integer objectNumber = index.get(fullName);
+      if(objectNumber != null)
       {
-        String partialName = partialNamesIterator.next();
-        valueFieldReference = null;
-        while(fieldObjectsIterator != null && fieldObjectsIterator.hasNext())
-        {
-          PdfReference fieldReference = (PdfReference)fieldObjectsIterator.next();
-          PdfDictionary fieldDictionary = (PdfDictionary)fieldReference.getDataObject();
-          PdfTextString fieldName = (PdfTextString)fieldDictionary.get(PdfName.T);
-          if(fieldName != null && fieldName.getValue().equals(partialName))
-          {
-            valueFieldReference = fieldReference;
-            PdfArray kidFieldObjects = (PdfArray)fieldDictionary.resolve(PdfName.Kids);
-            fieldObjectsIterator = (kidFieldObjects == null ? null : kidFieldObjects.iterator());
-            break;
-          }
-        }
-        if(valueFieldReference == null)
-          break;
+        PdfIndirectObject fieldObject = getFile().getIndirectObjects().get(objectNumber);
+        /*
+          NOTE: Fields may have been renamed or moved bypassing this collection: stale entries are
+          detected verifying the name of their target.
+        */
+        if(fieldObject.getDataObject() instanceof PdfDictionary
+          && fullName.equals(getFullName((PdfDictionary)fieldObject.getDataObject())))
+          return Field.wrap(fieldObject.getReference());
       }
     }
-    return Field.wrap(valueFieldReference);
+
+    /*
+      NOTE: Fields may have been added bypassing this collection: index misses are confirmed
+      scanning the field tree.
+    */
+    PdfReference fieldReference = find(fullName);
+    if(index != null)
+    {
+      if(fieldReference != null)
+      {index.put(fullName, fieldReference.getObjectNumber());}
+      else if(index.get(fullName) != null)
+      {index.remove(fullName);}
+    }
+    return Field.wrap(fieldReference);
   }
 
   @Override
@@ -197,7 +392,13 @@ TODO:put the field into the correct position, based on the full name (key)!!!
       else
       {fieldObjects = (PdfArray)((PdfDictionary)fieldParentReference.getDataObject()).resolve(PdfName.Kids);}
     }
-    return (fieldObjects.remove(field.getBaseObject()) ? field : null);
+    if(!fieldObjects.remove(field.getBaseObject()))
+      return null;
+
+    Index index = getIndex(false);
+    if(index != null)
+    {index.remove((String)key);}
+    return field;
   }
 
   @Override
@@ -218,6 +419,127 @@ TODO:put the field into the correct position, based on the full name (key)!!!
   // </public>
 
   // <private>
+  /**
+    Finds the specified field scanning the field tree.
+  */
+  private PdfReference find(
+    String fullName
+    )
+  {
+    PdfReference valueFieldReference = null;
+    {
+      Iterator<String> partialNamesIterator = Arrays.asList(fullName.split("\\.")).iterator();
+      Iterator<PdfDirectObject> fieldObjectsIterator = getBaseDataObject().iterator();
+      while(partialNamesIterator.hasNext())
+      {
+        String partialName = partialNamesIterator.next();
+        valueFieldReference = null;
+        while(fieldObjectsIterator != null && fieldObjectsIterator.hasNext())
+        {
+          PdfReference fieldReference = (PdfReference)fieldObjectsIterator.next();
+          PdfDictionary fieldDictionary = (PdfDictionary)fieldReference.getDataObject();
+          PdfTextString fieldName = (PdfTextString)fieldDictionary.get(PdfName.T);
+          if(fieldName != null && fieldName.getValue().equals(partialName))
+          {
+            valueFieldReference = fieldReference;
+            PdfArray kidFieldObjects = (PdfArray)fieldDictionary.resolve(PdfName.Kids);
+            fieldObjectsIterator = (kidFieldObjects == null ? null : kidFieldObjects.iterator());
+            break;
+          }
+        }
+        if(valueFieldReference == null)
+          break;
+      }
+    }
+    return valueFieldReference;
+  }
+
+  /**
+    Gets the field index of this collection.
+    <p>The index is shared by all the wrappers of this collection through the document cache.</p>
+
+    @param build Whether the index has to be built in case it's not available.
+    @return <code>null</code>, if the index is not available and <code>build</code> is false, or
+      this collection isn't bound to an indirect object.
+  */
+  private Index getIndex(
+    boolean build
+    )
+  {
+    PdfReference indexKey = getIndexKey();
+    if(indexKey == null)
+      return null;
+
+    Map<PdfReference,Object> cache = getDocument().cache;
+    Index index = (Index)cache.get(indexKey);
+    if(index == null && build)
+    {
+      Index sharedIndex = getSharedIndex();
+      if(sharedIndex != null)
+      {index = new Index(sharedIndex);}
+      else
+      {
+        Map<String,Integer> objectNumbers = new HashMap<String,Integer>();
+        collect(getBaseDataObject(), null, objectNumbers);
+        index = new Index(objectNumbers);
+      }
+      cache.put(indexKey, index);
+    }
+    return index;
+  }
+
+  /**
+    Gets the key of the field index within the document cache.
+  */
+  private PdfReference getIndexKey(
+    )
+  {
+    PdfIndirectObject container = getBaseDataObject().getContainer();
+    return container != null ? container.getReference() : null;
+  }
+
+  /**
+    Gets the field index shared by the overlays of the snapshot this collection belongs to.
+
+    @return <code>null</code>, if this collection doesn't correspond to the original form of a
+      snapshot.
+  */
+  private Index getSharedIndex(
+    )
+  {
+    File file = getFile();
+    FileSnapshot snapshot = file.getSnapshot();
+    PdfIndirectObject container = getBaseDataObject().getContainer();
+    if(snapshot == null
+      || !container.isOriginal())
+      return null;
+
+    synchronized(snapshot)
+    {
+      /*
+        NOTE: The original field tree is read from the shared base of the snapshot, so that it's
+        scanned just once for all the overlays.
+      */
+      File baseFile = snapshot.getFile();
+      PdfDictionary baseFormObject = (PdfDictionary)baseFile.getDocument().getBaseDataObject().resolve(PdfName.AcroForm);
+      PdfArray baseFieldObjects = (baseFormObject != null ? (PdfArray)baseFormObject.resolve(PdfName.Fields) : null);
+      if(baseFieldObjects == null
+        || baseFieldObjects.getContainer().getReference().getObjectNumber() != container.getReference().getObjectNumber())
+        return null;
+
+      PdfReference baseIndexKey = baseFieldObjects.getContainer().getReference();
+      Map<PdfReference,Object> baseCache = baseFile.getDocument().cache;
+      Index baseIndex = (Index)baseCache.get(baseIndexKey);
+      if(baseIndex == null)
+      {
+        Map<String,Integer> objectNumbers = new HashMap<String,Integer>();
+        collect(baseFieldObjects, null, objectNumbers);
+        baseCache.put(baseIndexKey, baseIndex = new Index(objectNumbers));
+      }
+      return baseIndex;
+    }
+  }
+
   private void retrieveValues(
     PdfArray fieldObjects,
     List<Field> values
@@ -319,6 +319,7 @@ public final class TextField
         {
           // Remove old text representation!
           markedContent.getObjects().clear();
+          markedContent.invalidateBox();
           // Add new text representation!
           baseComposer.setScanner(currentLevel.getChildLevel()); // Ensures the composer places new contents within the marked content block.
           showText(composer, fontName, fontSize);
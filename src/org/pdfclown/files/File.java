@@ -40,6 +40,7 @@ import org.pdfclown.bytes.IOutputStream;
 import org.pdfclown.bytes.OutputStream;
 import org.pdfclown.documents.Document;
 import org.pdfclown.documents.Document.Configuration.XRefModeEnum;
+import org.pdfclown.documents.contents.fonts.Font;
 import org.pdfclown.objects.IPdfIndirectObject;
 import org.pdfclown.objects.PdfDataObject;
 import org.pdfclown.objects.PdfDictionary;
@@ -164,6 +165,7 @@ public final class File
   private final IndirectObjects indirectObjects;
   private String path;
   private Reader reader;
+  private final FileSnapshot snapshot;
   private final PdfDictionary trailer;
   private final Version version;
   // </fields>
@@ -173,6 +175,7 @@ public final class File
     )
   {
     version = VersionEnum.PDF14.getVersion();
+    snapshot = null;
     trailer = prepareTrailer(new PdfDictionary());
     indirectObjects = new IndirectObjects(this, null);
     document = new Document(this);
@@ -198,6 +201,7 @@ public final class File
 
     FileInfo info = reader.readInfo();
     version = info.getVersion();
+    snapshot = null;
     trailer = prepareTrailer(info.getTrailer());
     if(trailer.containsKey(PdfName.Encrypt)) // Encrypted file.
       throw new NotImplementedException("Encrypted files are currently not supported.");
@@ -206,6 +210,26 @@ public final class File
     document = new Document(trailer.get(PdfName.Root));
     document.getConfiguration().setXrefMode(PdfName.XRef.equals(trailer.get(PdfName.Type)) ? XRefModeEnum.Compressed : XRefModeEnum.Plain);
   }
+
+  /**
+    Creates an overlay of the specified snapshot.
+
+    @see FileSnapshot#open()
+  */
+  File(
+    FileSnapshot snapshot
+    )
+  {
+    this.snapshot = snapshot;
+    reader = new Reader(snapshot.openStream(), this);
+
+    version = snapshot.getVersion();
+    trailer = prepareTrailer((PdfDictionary)reader.parse(snapshot.openTrailerStream()));
+
+    indirectObjects = new IndirectObjects(this, snapshot.openXrefEntries());
+    document = new Document(trailer.get(PdfName.Root));
+    document.getConfiguration().setXrefMode(PdfName.XRef.equals(trailer.get(PdfName.Type)) ? XRefModeEnum.Compressed : XRefModeEnum.Plain);
+  }
   // </constructors>
 
   // <interface>
@@ -254,6 +278,16 @@ public final class File
     )
   {return reader;}
 
+  /**
+    Gets the snapshot this file is an overlay of.
+
+    @return <code>null</code> in case of standalone file.
+    @see FileSnapshot#open()
+  */
+  public FileSnapshot getSnapshot(
+    )
+  {return snapshot;}
+
   /**
     Gets the file trailer.
   */
@@ -389,6 +423,17 @@ public final class File
       {/* NOOP */}
     }
 
+    // Complete the pending font structures!
+    /*
+      NOTE: Font structures may be finalized only once the characters they have to render are known
+      (e.g. font subsetting).
+    */
+    for(Object cacheObject : getDocument().cache.values())
+    {
+      if(cacheObject instanceof Font)
+      {((Font)cacheObject).flush();}
+    }
+
     Writer writer = Writer.get(this, stream);
     writer.write(mode);
   }
@@ -424,7 +469,11 @@ public final class File
       /*
         NOTE: If the temporary file exists (see save() method), it must overwrite the document file.
       */
-      java.io.File sourceFile = new java.io.File(getTempPath());
+      String tempPath = getTempPath();
+      if(tempPath == null) // No file-system source.
+        return;
+
+      java.io.File sourceFile = new java.io.File(tempPath);
       if(sourceFile.exists())
       {
         java.io.File targetFile = new java.io.File(path);
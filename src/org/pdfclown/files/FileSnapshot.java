@@ -0,0 +1,247 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.files;
+
+import java.io.IOException;
+
+import org.pdfclown.Version;
+import org.pdfclown.bytes.Buffer;
+import org.pdfclown.bytes.FileInputStream;
+import org.pdfclown.bytes.IInputStream;
+import org.pdfclown.objects.PdfDataObject;
+import org.pdfclown.objects.PdfObject;
+import org.pdfclown.tokens.Reader;
+import org.pdfclown.tokens.XRefEntries;
+
+/**
+  Immutable snapshot of a PDF file.
+  <p>The file structure (notably its cross-reference information) is parsed once, on snapshot
+  creation; each file {@link #open() opened} from the snapshot is a lightweight overlay which gets
+  private copies of just the original indirect objects it uses (parsed once for all the overlays)
+  and keeps its modifications for itself (see {@link IndirectObjects#getModifiedObjects()}). This way, a template used by many concurrent
+  tasks can be loaded just once: each task opens its own overlay, fills it in and saves it (typically
+  in {@link SerializationModeEnum#Incremental incremental mode}, which appends the modifications to
+  the shared data) without affecting the snapshot nor the other overlays.</p>
+  <p>This class is thread-safe; conversely, each overlay, like any other file, MUST be confined to
+  a single thread at a time.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class FileSnapshot
+{
+  // <class>
+  // <static>
+  // <interface>
+  // <private>
+  private static byte[] getData(
+    File file
+    )
+  {
+    Reader reader = file.getReader();
+    if(reader == null)
+      throw new IllegalArgumentException("file MUST come from an existing serialization.");
+
+    return reader.getParser().getStream().toByteArray();
+  }
+
+  private static byte[] getData(
+    String path
+    ) throws IOException
+  {
+    FileInputStream stream = new FileInputStream(
+      new java.io.RandomAccessFile(path, "r")
+      );
+    try
+    {return stream.toByteArray();}
+    finally
+    {stream.close();}
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  /**
+    Serialized file.
+  */
+  private final byte[] data;
+  /**
+    Shared base of the overlays.
+    <p>Its objects are parsed once for all the overlays, which clone them on demand (see {@link
+    #getDataObject(int, File)}); they MUST NOT be modified.</p>
+  */
+  private final File file;
+  /**
+    Serialized trailer.
+    <p>As data objects are bound to their file, each overlay parses its own trailer.</p>
+  */
+  private final byte[] trailerData;
+  private final Version version;
+  /**
+    Cross-reference entries, shared (on a copy-on-write basis) by the overlays.
+  */
+  private final XRefEntries xrefEntries;
+  // </fields>
+
+  // <constructors>
+  /**
+    Creates a snapshot of the specified serialized file.
+
+    @param data Serialized file. It MUST NOT be modified afterwards, as it's shared by the overlays.
+  */
+  public FileSnapshot(
+    byte[] data
+    )
+  {
+    this.data = data;
+
+    file = new File(new Buffer(data));
+    version = file.getVersion();
+    {
+      Buffer trailerBuffer = new Buffer();
+      file.getTrailer().writeTo(trailerBuffer, file);
+      trailerData = trailerBuffer.getByteArray(0, (int)trailerBuffer.getLength());
+    }
+    xrefEntries = new XRefEntries((XRefEntries)file.getIndirectObjects().getXrefEntries());
+  }
+
+  /**
+    Creates a snapshot of the original state of the specified file.
+    <p>Modifications applied to the file during the current session are NOT included.</p>
+
+    @param file File to snapshot. It MUST come from an existing serialization.
+  */
+  public FileSnapshot(
+    File file
+    )
+  {this(getData(file));}
+
+  /**
+    Creates a snapshot of the specified file-system file.
+
+    @param path File-system path.
+  */
+  public FileSnapshot(
+    String path
+    ) throws IOException
+  {this(getData(path));}
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the file header version [PDF:1.6:3.4.1].
+  */
+  public Version getVersion(
+    )
+  {return version;}
+
+  /**
+    Gets the shared base of the overlays of this snapshot.
+    <p>Its objects MUST NOT be modified, and it MUST be accessed only while holding the lock on
+    this snapshot (<code>synchronized(snapshot)</code>).</p>
+    <span style="color:red">For internal use only.</span>
+  */
+  public File getFile(
+    )
+  {return file;}
+
+  /**
+    Gets whether the specified file is the shared base of the overlays of this snapshot.
+    <span style="color:red">For internal use only.</span>
+  */
+  public boolean isBase(
+    File file
+    )
+  {return file == this.file;}
+
+  /**
+    Opens a new overlay of this snapshot.
+    <p>Overlays are independent of each other, so they can be used by concurrent threads.</p>
+  */
+  public File open(
+    )
+  {return new File(this);}
+  // </public>
+
+  // <internal>
+  /**
+    Gets a private copy of the specified original data object.
+    <p>Shared objects are parsed only once, then cloned into each overlay requesting them (so that
+    an overlay pays just for the objects it actually uses, without re-parsing them).</p>
+    <span style="color:red">For internal use only.</span>
+
+    @param objectNumber Object number of the original indirect object.
+    @param context Overlay the copy belongs to.
+  */
+  public synchronized PdfDataObject getDataObject(
+    int objectNumber,
+    File context
+    )
+  {
+    /*
+      NOTE: Both parsing and cloning happen within the lock, as shared objects may lazily alter their
+      own state (e.g. object streams collecting their compressed objects).
+    */
+    return (PdfDataObject)PdfObject.clone(
+      file.getIndirectObjects().get(objectNumber).getDataObject(),
+      context
+      );
+  }
+
+  /**
+    Gets a new stream over the serialized file.
+  */
+  IInputStream openStream(
+    )
+  {return new Buffer(data);}
+
+  /**
+    Gets a new stream over the serialized trailer.
+  */
+  IInputStream openTrailerStream(
+    )
+  {return new Buffer(trailerData);}
+
+  /**
+    Gets a new copy of the cross-reference entries.
+  */
+  XRefEntries openXrefEntries(
+    )
+  {
+    /*
+      NOTE: The copy shares its storage with the snapshot's until it's modified.
+    */
+    return new XRefEntries(xrefEntries);
+  }
+  // </internal>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
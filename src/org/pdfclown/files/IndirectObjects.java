@@ -26,18 +26,21 @@
 package org.pdfclown.files;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 import org.pdfclown.objects.PdfDataObject;
 import org.pdfclown.objects.PdfIndirectObject;
 import org.pdfclown.tokens.XRefEntry;
+import org.pdfclown.util.LongMap;
 import org.pdfclown.util.NotImplementedException;
 
 /**
@@ -75,10 +78,12 @@ public final class IndirectObjects
     Map of matching references of imported indirect objects.
     <p>This collection is used to prevent duplications among imported indirect
     objects.</p>
-    <p><code>Key</code> is the external indirect object hashcode, <code>Value</code> is the
-    matching internal indirect object.</p>
+    <p>Imported indirect objects are grouped by source file (so that they are released along with
+    it); within each group, <code>Key</code> is the external indirect object identifier (see {@link
+    #getImportKey(PdfIndirectObject)}), <code>Value</code> is the matching internal indirect
+    object.</p>
   */
-  private final Hashtable<Integer,PdfIndirectObject> importedObjects = new Hashtable<Integer,PdfIndirectObject>();
+  private final Map<File,LongMap<PdfIndirectObject>> importedObjects = new WeakHashMap<File,LongMap<PdfIndirectObject>>();
   /**
     Collection of newly-registered indirect objects.
   */
@@ -93,6 +98,12 @@ public final class IndirectObjects
     Object counter.
   */
   private int lastObjectNumber;
+  /**
+    Sorted offsets of the uncompressed original indirect objects inside the associated file.
+    <p>This information is lazily collected to infer the length of the original indirect objects
+    (see {@link #getOriginalLength(PdfIndirectObject)}).</p>
+  */
+  private int[] originalOffsets;
   /**
     Offsets of the original indirect objects inside the associated file (to say:
     implicit collection of the original indirect objects).
@@ -175,13 +186,21 @@ public final class IndirectObjects
     PdfIndirectObject object
     )
   {
-    PdfIndirectObject indirectObject = importedObjects.get(object.hashCode());
+    // Is it the shared counterpart of an original object of this overlay?
+    FileSnapshot snapshot = file.getSnapshot();
+    if(snapshot != null
+      && snapshot.isBase(object.getFile()))
+      return get(object.getXrefEntry().getNumber());
+
+    LongMap<PdfIndirectObject> fileImportedObjects = getImportedObjects(object.getFile());
+    long importKey = getImportKey(object);
+    PdfIndirectObject indirectObject = fileImportedObjects.get(importKey);
     // Hasn't the external indirect object been imported yet?
     if(indirectObject == null)
     {
       // Keep track of the imported indirect object!
-      importedObjects.put(
-        object.hashCode(),
+      fileImportedObjects.put(
+        importKey,
         indirectObject = add((PdfDataObject)object.getDataObject().clone(file)) // Registers the clone of the data object corresponding to the external indirect object.
         );
     }
@@ -207,6 +226,28 @@ public final class IndirectObjects
     return addedObjects;
   }
 
+  /**
+    Forgets the <i>external</i> indirect objects imported so far.
+    <p>Import tracking prevents duplications among imported indirect objects (see {@link
+    #addExternal(PdfIndirectObject)}); clearing it between import batches which don't share any
+    object (e.g. distinct source files) releases the memory it takes. Objects imported again after
+    this call are cloned anew.</p>
+  */
+  public void clearImports(
+    )
+  {importedObjects.clear();}
+
+  /**
+    Forgets the <i>external</i> indirect objects imported so far from the specified file.
+
+    @param source Alien file.
+    @see #clearImports()
+  */
+  public void clearImports(
+    File source
+    )
+  {importedObjects.remove(source);}
+
   /**
     Gets the file associated to this collection.
   */
@@ -554,6 +595,52 @@ public final class IndirectObjects
     return object;
   }
 
+  /**
+    Gets the length of the persistent representation of the specified original indirect object
+    inside the associated file.
+    <p>As each representation is assumed to span up to the following one, this length is an upper
+    bound which may include interleaved file structures (e.g. cross-reference sections and
+    superseded object revisions).</p>
+    <span style="color:red">For internal use only.</span>
+
+    @return <code>-1</code>, if the object isn't stored as-is in the associated file (e.g. new,
+      modified or compressed object).
+  */
+  public long getOriginalLength(
+    PdfIndirectObject object
+    )
+  {
+    XRefEntry xrefEntry = object.getXrefEntry();
+    if(xrefEntries == null
+      || !object.isOriginal()
+      || object.getFile() != file
+      || xrefEntry.getUsage() != XRefEntry.UsageEnum.InUse)
+      return -1;
+
+    if(originalOffsets == null)
+    {
+      int[] offsets = new int[xrefEntries.size()];
+      int offsetCount = 0;
+      for(XRefEntry entry : xrefEntries.values())
+      {
+        if(entry.getUsage() == XRefEntry.UsageEnum.InUse)
+        {offsets[offsetCount++] = entry.getOffset();}
+      }
+      Arrays.sort(offsets, 0, offsetCount);
+      originalOffsets = Arrays.copyOf(offsets, offsetCount);
+    }
+
+    int offset = xrefEntry.getOffset();
+    int index = Arrays.binarySearch(originalOffsets, offset);
+    if(index < 0)
+      return -1;
+
+    return (index + 1 < originalOffsets.length
+        ? originalOffsets[index + 1]
+        : file.getReader().getParser().getLength())
+      - offset;
+  }
+
   /**
     <span style="color:red">For internal use only.</span>
   */
@@ -561,6 +648,27 @@ public final class IndirectObjects
     )
   {return modifiedObjects;}
 
+  /**
+    Gets the cross-reference entries of the original indirect objects.
+
+    @return <code>null</code>, if no original indirect object is available.
+  */
+  SortedMap<Integer,XRefEntry> getXrefEntries(
+    )
+  {return xrefEntries;}
+
+  /**
+    Maps an <i>external</i> indirect object to an internal one, so that its import (see {@link
+    #addExternal(PdfIndirectObject)}) resolves to the latter instead of cloning it.
+    <p>This is useful to share identical objects coming from multiple alien files.</p>
+    <span style="color:red">For internal use only.</span>
+  */
+  public void mapExternal(
+    PdfIndirectObject external,
+    PdfIndirectObject internal
+    )
+  {getImportedObjects(external.getFile()).put(getImportKey(external), internal);}
+
   /**
     <span style="color:red">For internal use only.</span>
   */
@@ -585,6 +693,32 @@ public final class IndirectObjects
     return old;
   }
   // </internal>
+
+  // <private>
+  /**
+    Gets the identifier of the specified indirect object within its file.
+  */
+  private long getImportKey(
+    PdfIndirectObject object
+    )
+  {
+    XRefEntry xrefEntry = object.getXrefEntry();
+    return ((long)xrefEntry.getNumber() << 32) | (xrefEntry.getGeneration() & 0xFFFFFFFFL);
+  }
+
+  /**
+    Gets the indirect objects imported from the specified file.
+  */
+  private LongMap<PdfIndirectObject> getImportedObjects(
+    File source
+    )
+  {
+    LongMap<PdfIndirectObject> fileImportedObjects = importedObjects.get(source);
+    if(fileImportedObjects == null)
+    {importedObjects.put(source, fileImportedObjects = new LongMap<PdfIndirectObject>());}
+    return fileImportedObjects;
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
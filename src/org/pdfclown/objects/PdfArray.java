@@ -122,6 +122,7 @@ public final class PdfArray
       clone.items = new ArrayList<PdfDirectObject>(items.size());
       for(PdfDirectObject item : items)
       {clone.add((PdfDirectObject)PdfObject.clone(item, context));}
+      clone.updated = updated; // NOTE: Populating the clone isn't an update.
     }
     return clone;
   }
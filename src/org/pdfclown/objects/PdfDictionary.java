@@ -132,6 +132,7 @@ public final class PdfDictionary
           (PdfDirectObject)PdfObject.clone(entry.getValue(), context)
           );
       }
+      clone.updated = updated; // NOTE: Populating the clone isn't an update.
     }
     return clone;
   }
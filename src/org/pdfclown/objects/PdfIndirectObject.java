@@ -27,6 +27,7 @@ package org.pdfclown.objects;
 
 import org.pdfclown.bytes.IOutputStream;
 import org.pdfclown.files.File;
+import org.pdfclown.files.FileSnapshot;
 import org.pdfclown.tokens.Encoding;
 import org.pdfclown.tokens.FileParser;
 import org.pdfclown.tokens.Keyword;
@@ -278,26 +279,39 @@ public class PdfIndirectObject
   {
     if(dataObject == null)
     {
-      switch (xrefEntry.getUsage())
+      FileSnapshot snapshot = file.getSnapshot();
+      if(snapshot != null) // Overlay object.
       {
-        case Free: // Free entry (no data object at all).
-          break;
-        case InUse: // In-use entry (late-bound data object).
-        {
-          FileParser parser = file.getReader().getParser();
-          // Retrieve the associated data object among the original objects!
-          parser.seek(xrefEntry.getOffset());
-          // Get the indirect data object!
-          dataObject = include(parser.parsePdfObject(4)); // NOTE: Skips the indirect-object header.
-          break;
-        }
-        case InUseCompressed:
+        /*
+          NOTE: Original objects of overlays are cloned from their shared counterparts instead of
+          being parsed.
+        */
+        if(isInUse())
+        {dataObject = include(snapshot.getDataObject(xrefEntry.getNumber(), file));}
+      }
+      else
+      {
+        switch (xrefEntry.getUsage())
         {
-          // Get the object stream where its data object is stored!
-          ObjectStream objectStream = (ObjectStream)file.getIndirectObjects().get(xrefEntry.getStreamNumber()).getDataObject();
-          // Get the indirect data object!
-          dataObject = include(objectStream.get(xrefEntry.getNumber()));
-          break;
+          case Free: // Free entry (no data object at all).
+            break;
+          case InUse: // In-use entry (late-bound data object).
+          {
+            FileParser parser = file.getReader().getParser();
+            // Retrieve the associated data object among the original objects!
+            parser.seek(xrefEntry.getOffset());
+            // Get the indirect data object!
+            dataObject = include(parser.parsePdfObject(4)); // NOTE: Skips the indirect-object header.
+            break;
+          }
+          case InUseCompressed:
+          {
+            // Get the object stream where its data object is stored!
+            ObjectStream objectStream = (ObjectStream)file.getIndirectObjects().get(xrefEntry.getStreamNumber()).getDataObject();
+            // Get the indirect data object!
+            dataObject = include(objectStream.get(xrefEntry.getNumber()));
+            break;
+          }
         }
       }
     }
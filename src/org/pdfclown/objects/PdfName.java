@@ -126,6 +126,7 @@ public final class PdfName
   public static final PdfName CenterWindow = new PdfName("CenterWindow");
   public static final PdfName Ch = new PdfName("Ch");
   public static final PdfName CIDFontType0 = new PdfName("CIDFontType0");
+  public static final PdfName CIDFontType0C = new PdfName("CIDFontType0C");
   public static final PdfName CIDFontType2 = new PdfName("CIDFontType2");
   public static final PdfName CIDSystemInfo = new PdfName("CIDSystemInfo");
   public static final PdfName CIDToGIDMap = new PdfName("CIDToGIDMap");
@@ -134,6 +135,7 @@ public final class PdfName
   public static final PdfName ClosedArrow = new PdfName("ClosedArrow");
   public static final PdfName CMap = new PdfName("CMap");
   public static final PdfName CMapName = new PdfName("CMapName");
+  public static final PdfName CMYK = new PdfName("CMYK");
   public static final PdfName Color = new PdfName("Color");
   public static final PdfName ColorBurn = new PdfName("ColorBurn");
   public static final PdfName ColorDodge = new PdfName("ColorDodge");
@@ -246,6 +248,7 @@ public final class PdfName
   public static final PdfName Functions = new PdfName("Functions");
   public static final PdfName FunctionType = new PdfName("FunctionType");
   public static final PdfName FWParams = new PdfName("FWParams");
+  public static final PdfName G = new PdfName("G");
   public static final PdfName Gamma = new PdfName("Gamma");
   public static final PdfName Glitter = new PdfName("Glitter");
   public static final PdfName GoTo = new PdfName("GoTo");
@@ -273,7 +276,9 @@ public final class PdfName
   public static final PdfName IdentityH = new PdfName("Identity-H");
   public static final PdfName IdentityV = new PdfName("Identity-V");
   public static final PdfName IF = new PdfName("IF");
+  public static final PdfName IM = new PdfName("IM");
   public static final PdfName Image = new PdfName("Image");
+  public static final PdfName ImageMask = new PdfName("ImageMask");
   public static final PdfName ImportData = new PdfName("ImportData");
   public static final PdfName Index = new PdfName("Index");
   public static final PdfName Indexed = new PdfName("Indexed");
@@ -451,6 +456,7 @@ public final class PdfName
   public static final PdfName SinglePage = new PdfName("SinglePage");
   public static final PdfName Size = new PdfName("Size");
   public static final PdfName Slash = new PdfName("Slash");
+  public static final PdfName SMask = new PdfName("SMask");
   public static final PdfName SoftLight = new PdfName("SoftLight");
   public static final PdfName Sold = new PdfName("Sold");
   public static final PdfName Sound = new PdfName("Sound");
@@ -480,6 +486,7 @@ public final class PdfName
   public static final PdfName Text = new PdfName("Text");
   public static final PdfName TF = new PdfName("TF");
   public static final PdfName Thread = new PdfName("Thread");
+  public static final PdfName Thumb = new PdfName("Thumb");
   public static final PdfName TilingType = new PdfName("TilingType");
   public static final PdfName Timespan = new PdfName("Timespan");
   public static final PdfName Title = new PdfName("Title");
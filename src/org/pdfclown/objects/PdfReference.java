@@ -27,6 +27,7 @@ package org.pdfclown.objects;
 
 import org.pdfclown.bytes.IOutputStream;
 import org.pdfclown.files.File;
+import org.pdfclown.files.FileSnapshot;
 import org.pdfclown.tokens.FileParser;
 import org.pdfclown.tokens.Symbol;
 import org.pdfclown.util.NotImplementedException;
@@ -180,9 +181,20 @@ public final class PdfReference
     File context
     )
   {
-    return context == null || context == file
-      ? (PdfReference)super.clone(context) // Local clone (immutable).
-      : getIndirectObject().clone(context).getReference(); // Alien clone.
+    if(context == null || context == file)
+      return (PdfReference)super.clone(context); // Local clone (immutable).
+
+    FileSnapshot snapshot = context.getSnapshot();
+    if(snapshot != null
+      && file != null
+      && snapshot.isBase(file)) // Overlay clone.
+      /*
+        NOTE: References from the shared base of an overlay point to the overlay's own counterparts
+        (which share the same numbers), without resolving the shared ones.
+      */
+      return context.getIndirectObjects().get(objectNumber).getReference();
+
+    return getIndirectObject().clone(context).getReference(); // Alien clone.
   }
 
   @Override
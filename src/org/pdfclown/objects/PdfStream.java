@@ -113,16 +113,8 @@ public class PdfStream
   {
     this.header = (PdfDictionary)include(header);
 
-    this.body = body;
     body.setDirty(false);
-    body.addListener(new IBuffer.IListener()
-    {
-      @Override
-      public void onChange(
-        IBuffer buffer
-        )
-      {update();}
-    });
+    attachBody(body);
   }
   // </constructors>
 
@@ -142,8 +134,8 @@ public class PdfStream
   {
     PdfStream clone = (PdfStream)super.clone(context);
     {
-      clone.header = header.clone(context);
-      clone.body = body.clone();
+      clone.header = (PdfDictionary)clone.include(header.clone(context));
+      clone.attachBody(body.clone());
     }
     return clone;
   }
@@ -539,6 +531,26 @@ public class PdfStream
     )
   {parent = value;}
   // </internal>
+
+  // <private>
+  /**
+    Sets the body, listening to its changes.
+  */
+  private void attachBody(
+    IBuffer body
+    )
+  {
+    this.body = body;
+    body.addListener(new IBuffer.IListener()
+    {
+      @Override
+      public void onChange(
+        IBuffer buffer
+        )
+      {update();}
+    });
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
@@ -45,6 +45,7 @@ import org.pdfclown.objects.PdfDirectObject;
 import org.pdfclown.objects.PdfIndirectObject;
 import org.pdfclown.objects.PdfInteger;
 import org.pdfclown.objects.PdfName;
+import org.pdfclown.objects.PdfObject;
 import org.pdfclown.objects.PdfStream;
 import org.pdfclown.util.MapEntry;
 
@@ -130,6 +131,34 @@ public final class ObjectStream
     )
   {return visitor.visit(this, data);}
 
+  @Override
+  public ObjectStream clone(
+    File context
+    )
+  {
+    ObjectStream clone = (ObjectStream)super.clone(context);
+    {
+      /*
+        NOTE: Compressed objects are bound to their object stream, so the clone collects its own
+        ones (either cloning the current ones or, if they haven't been collected yet, parsing them
+        anew from its own body).
+      */
+      clone.parser = null;
+      if(entries != null)
+      {
+        clone.entries = new HashMap<Integer,ObjectEntry>(entries.size());
+        for(Map.Entry<Integer,ObjectEntry> entry : entries.entrySet())
+        {
+          clone.entries.put(
+            entry.getKey(),
+            clone.new ObjectEntry((PdfDataObject)PdfObject.clone(entry.getValue().getDataObject(), context))
+            );
+        }
+      }
+    }
+    return clone;
+  }
+
   /**
     Gets the object stream extended by this one.
     <p>Both streams are considered part of a collection of object streams  whose links form a
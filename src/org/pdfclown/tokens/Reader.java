@@ -26,13 +26,14 @@
 package org.pdfclown.tokens;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.SortedMap;
-import java.util.TreeMap;
 
 import org.pdfclown.Version;
 import org.pdfclown.bytes.IInputStream;
 import org.pdfclown.files.File;
+import org.pdfclown.objects.PdfDataObject;
 import org.pdfclown.objects.PdfDictionary;
 import org.pdfclown.objects.PdfInteger;
 import org.pdfclown.objects.PdfName;
@@ -81,6 +82,54 @@ public final class Reader
   }
   // </classes>
 
+  // <static>
+  // <fields>
+  /**
+    Number of xref-table entries read at once (see {@link #readXRefEntries(XRefEntries, int, int)}).
+  */
+  private static final int XRefEntryChunkSize = 1024;
+  /**
+    Length of an xref-table entry [PDF:1.6:3.4.3].
+  */
+  private static final int XRefEntryLength = 20;
+  // </fields>
+
+  // <interface>
+  // <private>
+  private static boolean isEOL(
+    byte c
+    )
+  {return c == ' ' || c == '\r' || c == '\n';}
+
+  private static boolean isDigits(
+    byte[] data,
+    int offset,
+    int length
+    )
+  {
+    for(int index = offset, endIndex = offset + length; index < endIndex; index++)
+    {
+      if(data[index] < '0' || data[index] > '9')
+        return false;
+    }
+    return true;
+  }
+
+  private static int parseDigits(
+    byte[] data,
+    int offset,
+    int length
+    )
+  {
+    int value = 0;
+    for(int index = offset, endIndex = offset + length; index < endIndex; index++)
+    {value = value * 10 + (data[index] - '0');}
+    return value;
+  }
+  // </private>
+  // </interface>
+  // </static>
+
   // <dynamic>
   // <fields>
   private FileParser parser;
@@ -108,6 +157,16 @@ public final class Reader
     )
   {return parser;}
 
+  /**
+    Parses the data object serialized in the specified stream, binding it to the file of this
+    reader.
+    <span style="color:red">For internal use only.</span>
+  */
+  public PdfDataObject parse(
+    IInputStream stream
+    )
+  {return new FileParser(stream, parser.getFile()).parsePdfObject(1);}
+
   /**
     Retrieves the file information.
   */
@@ -117,7 +176,7 @@ public final class Reader
 //TODO:hybrid xref table/stream
     Version version = Version.get(parser.retrieveVersion());
     PdfDictionary trailer = null;
-    SortedMap<Integer,XRefEntry> xrefEntries = new TreeMap<Integer,XRefEntry>();
+    XRefEntries xrefEntries = new XRefEntries();
     {
       long sectionOffset = parser.retrieveXRefOffset();
       while(sectionOffset > -1)
@@ -156,8 +215,12 @@ public final class Reader
             int endObjectNumber = (Integer)parser.getToken() + startObjectNumber;
 
             // 3. XRef-table subsection entries.
+            /*
+              NOTE: Well-formed entries are read in bulk as fixed-length records, falling back to
+              token parsing from the first malformed one onward.
+            */
             for(
-              int index = startObjectNumber;
+              int index = readXRefEntries(xrefEntries, startObjectNumber, endObjectNumber);
               index < endObjectNumber;
               index++
               )
@@ -186,15 +249,7 @@ public final class Reader
               }
 
               // Define entry!
-              xrefEntries.put(
-                index,
-                new XRefEntry(
-                  index,
-                  generation,
-                  offset,
-                  usage
-                  )
-                );
+              xrefEntries.put(index, generation, offset, usage);
             }
           }
 
@@ -211,7 +266,12 @@ public final class Reader
               continue;
 
             // Define entry!
-            xrefEntries.put(xrefEntry.getNumber(), xrefEntry);
+            xrefEntries.put(
+              xrefEntry.getNumber(),
+              xrefEntry.getUsage() == XRefEntry.UsageEnum.InUseCompressed ? xrefEntry.getStreamNumber() : xrefEntry.getGeneration(),
+              xrefEntry.getOffset(),
+              xrefEntry.getUsage()
+              );
           }
 
           // Get the previous trailer!
@@ -254,6 +314,92 @@ public final class Reader
     {super.finalize();}
   }
   // </protected>
+
+  // <private>
+  /**
+    Reads the entries of the current xref-table subsection as fixed-length records, bypassing the
+    tokenizer.
+    <p>Each entry is exactly 20 bytes long: a 10-digit byte offset, a space, a 5-digit generation
+    number, a space, the usage keyword and a 2-character end-of-line [PDF:1.6:3.4.3].</p>
+
+    @param xrefEntries Target entries (already-defined ones are preserved).
+    @param startObjectNumber Object number of the first entry of the subsection.
+    @param endObjectNumber Object number after the last entry of the subsection.
+    @return Object number of the first unread entry (in case of malformed entry, the stream is
+      positioned at its beginning).
+  */
+  private int readXRefEntries(
+    XRefEntries xrefEntries,
+    int startObjectNumber,
+    int endObjectNumber
+    )
+  {
+    IInputStream stream = parser.getStream();
+    try
+    {
+      // Skip the whitespace preceding the first entry!
+      while(true)
+      {
+        byte c = stream.readByte();
+        if(c != 32 && c != 10 && c != 13 && c != 0 && c != 9 && c != 12)
+        {
+          stream.skip(-1);
+          break;
+        }
+      }
+
+      byte[] chunk = new byte[XRefEntryLength * Math.min(XRefEntryChunkSize, endObjectNumber - startObjectNumber)];
+      int index = startObjectNumber;
+      while(index < endObjectNumber)
+      {
+        long chunkPosition = stream.getPosition();
+        int entryCount = (int)Math.min(
+          Math.min(XRefEntryChunkSize, endObjectNumber - index),
+          (stream.getLength() - chunkPosition) / XRefEntryLength
+          );
+        if(entryCount == 0)
+          break;
+
+        stream.read(chunk, 0, entryCount * XRefEntryLength);
+        for(
+          int entryOffset = 0,
+            chunkLength = entryCount * XRefEntryLength;
+          entryOffset < chunkLength;
+          entryOffset += XRefEntryLength,
+            index++
+          )
+        {
+          byte usageToken = chunk[entryOffset + 17];
+          if(!isDigits(chunk, entryOffset, 10)
+            || chunk[entryOffset + 10] != ' '
+            || !isDigits(chunk, entryOffset + 11, 5)
+            || chunk[entryOffset + 16] != ' '
+            || (usageToken != 'n' && usageToken != 'f')
+            || !isEOL(chunk[entryOffset + 18])
+            || !isEOL(chunk[entryOffset + 19]))
+          {
+            // Malformed entry: resume from its beginning!
+            stream.seek(chunkPosition + entryOffset);
+            return index;
+          }
+
+          if(xrefEntries.containsKey(index)) // Already-defined entry.
+            continue;
+
+          xrefEntries.put(
+            index,
+            parseDigits(chunk, entryOffset + 11, 5),
+            parseDigits(chunk, entryOffset, 10),
+            usageToken == 'n' ? XRefEntry.UsageEnum.InUse : XRefEntry.UsageEnum.Free
+            );
+        }
+      }
+      return index;
+    }
+    catch(EOFException e)
+    {throw new ParseException("Unexpected end of xref section.", e);}
+  }
+  // </private>
   // </interface>
   // </dynamic>
   // </class>
@@ -0,0 +1,768 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.tokens;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.pdfclown.tokens.XRefEntry.UsageEnum;
+
+/**
+  Cross-reference entries, sorted by object number.
+  <p>Entries are stored in primitive arrays indexed by object number, so that even huge
+  cross-reference sections keep a compact footprint; as such a dense layout would waste memory
+  whenever object numbers are scattered far beyond the entry count (e.g. a lone update section
+  referring to high object numbers), entries fall back to sparse storage in that case.</p>
+  <p>{@link XRefEntry} instances are materialized on request (see {@link #get(Object)}) as
+  detached copies: changes to them don't affect this map unless they are put back (see
+  {@link #put(Integer, XRefEntry)}).</p>
+  <p>Copies (see {@link #XRefEntries(XRefEntries)}) share their storage with their source until
+  either of them is modified, so that many files can cheaply spring from the same cross-reference
+  information.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class XRefEntries
+  extends AbstractMap<Integer,XRefEntry>
+  implements SortedMap<Integer,XRefEntry>
+{
+  // <class>
+  // <classes>
+  /**
+    Entry iterator over an object number range.
+  */
+  private final class EntryIterator
+    implements Iterator<Map.Entry<Integer,XRefEntry>>
+  {
+    private final long toNumber;
+
+    private int lastNumber = -1;
+    private int number;
+
+    /**
+      @param fromNumber Beginning object number, inclusive.
+      @param toNumber Ending object number, exclusive.
+    */
+    EntryIterator(
+      int fromNumber,
+      long toNumber
+      )
+    {
+      this.toNumber = toNumber;
+      number = nextInRange(fromNumber - 1);
+    }
+
+    @Override
+    public boolean hasNext(
+      )
+    {return number != -1;}
+
+    @Override
+    public Map.Entry<Integer,XRefEntry> next(
+      )
+    {
+      if(number == -1)
+        throw new NoSuchElementException();
+
+      Map.Entry<Integer,XRefEntry> entry = new SimpleImmutableEntry<Integer,XRefEntry>(number, createEntry(number));
+      lastNumber = number;
+      number = nextInRange(number);
+      return entry;
+    }
+
+    @Override
+    public void remove(
+      )
+    {
+      if(lastNumber == -1)
+        throw new IllegalStateException();
+
+      XRefEntries.this.remove(lastNumber);
+      lastNumber = -1;
+    }
+
+    private int nextInRange(
+      int number
+      )
+    {
+      number = XRefEntries.this.next(number);
+      return number < toNumber ? number : -1;
+    }
+  }
+
+  /**
+    View over an object number range.
+  */
+  private final class RangeMap
+    extends AbstractMap<Integer,XRefEntry>
+    implements SortedMap<Integer,XRefEntry>
+  {
+    /**
+      Beginning object number, inclusive.
+    */
+    private final int fromNumber;
+    /**
+      Ending object number, exclusive.
+    */
+    private final long toNumber;
+
+    RangeMap(
+      int fromNumber,
+      long toNumber
+      )
+    {
+      this.fromNumber = fromNumber;
+      this.toNumber = toNumber;
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator(
+      )
+    {return null;}
+
+    @Override
+    public boolean containsKey(
+      Object key
+      )
+    {return contains(key) && XRefEntries.this.containsKey(key);}
+
+    @Override
+    public Set<Map.Entry<Integer,XRefEntry>> entrySet(
+      )
+    {
+      return new AbstractSet<Map.Entry<Integer,XRefEntry>>()
+      {
+        @Override
+        public Iterator<Map.Entry<Integer,XRefEntry>> iterator(
+          )
+        {return new EntryIterator(fromNumber, toNumber);}
+
+        @Override
+        public int size(
+          )
+        {
+          int size = 0;
+          for(
+            int number = next(fromNumber - 1);
+            number != -1 && number < toNumber;
+            number = next(number)
+            )
+          {size++;}
+          return size;
+        }
+      };
+    }
+
+    @Override
+    public Integer firstKey(
+      )
+    {
+      int number = next(fromNumber - 1);
+      if(number == -1 || number >= toNumber)
+        throw new NoSuchElementException();
+
+      return number;
+    }
+
+    @Override
+    public XRefEntry get(
+      Object key
+      )
+    {return contains(key) ? XRefEntries.this.get(key) : null;}
+
+    @Override
+    public SortedMap<Integer,XRefEntry> headMap(
+      Integer toKey
+      )
+    {return subMap(fromNumber, toKey);}
+
+    @Override
+    public Integer lastKey(
+      )
+    {
+      int number = previous((int)Math.min(toNumber, Integer.MAX_VALUE));
+      if(number < fromNumber)
+        throw new NoSuchElementException();
+
+      return number;
+    }
+
+    @Override
+    public XRefEntry put(
+      Integer key,
+      XRefEntry value
+      )
+    {
+      if(!contains(key))
+        throw new IllegalArgumentException("Key out of range.");
+
+      return XRefEntries.this.put(key, value);
+    }
+
+    @Override
+    public XRefEntry remove(
+      Object key
+      )
+    {return contains(key) ? XRefEntries.this.remove(key) : null;}
+
+    @Override
+    public SortedMap<Integer,XRefEntry> subMap(
+      Integer fromKey,
+      Integer toKey
+      )
+    {
+      if(fromKey > toKey
+        || fromKey < fromNumber
+        || toKey > toNumber)
+        throw new IllegalArgumentException("Key out of range.");
+
+      return new RangeMap(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<Integer,XRefEntry> tailMap(
+      Integer fromKey
+      )
+    {
+      if(fromKey < fromNumber
+        || fromKey > toNumber)
+        throw new IllegalArgumentException("Key out of range.");
+
+      return new RangeMap(fromKey, toNumber);
+    }
+
+    private boolean contains(
+      Object key
+      )
+    {
+      if(!(key instanceof Integer))
+        return false;
+
+      int number = (Integer)key;
+      return number >= fromNumber && number < toNumber;
+    }
+  }
+  // </classes>
+
+  // <static>
+  // <fields>
+  private static final int DefaultCapacity = 1024;
+  /**
+    Minimum entry density (entry count to object number span ratio, inverted) below which entries
+    are stored sparsely.
+  */
+  private static final int SparseRatio = 8;
+
+  private static final byte NoUsage = 0;
+
+  private static final UsageEnum[] Usages = UsageEnum.values();
+  // </fields>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  /**
+    Entry usages by object number (ordinal + 1; 0 for missing entries), in case of dense storage.
+  */
+  private byte[] usages;
+  /**
+    Entry offsets by object number (see {@link XRefEntry#getOffset()}), in case of dense storage.
+  */
+  private int[] offsets;
+  /**
+    Entry generations (object stream numbers, in case of compressed entries) by object number, in
+    case of dense storage.
+  */
+  private int[] generations;
+  /**
+    Entries by object number, in case of sparse storage.
+    <p>Its entries are private copies, never exposed to the caller.</p>
+  */
+  private TreeMap<Integer,XRefEntry> sparseEntries;
+
+  private int lastNumber = -1;
+  /**
+    Whether the storage is shared with other instances (so it has to be copied before being
+    modified).
+  */
+  private boolean shared;
+  private int size;
+  // </fields>
+
+  // <constructors>
+  public XRefEntries(
+    )
+  {allocate(DefaultCapacity);}
+
+  /**
+    Creates a copy of the specified entries.
+    <p>The storage is shared with the source and copied on the first modification of either of
+    them. Concurrent copies of the same source are safe as long as the source itself isn't
+    modified.</p>
+
+    @param source Entries to copy.
+  */
+  public XRefEntries(
+    XRefEntries source
+    )
+  {
+    lastNumber = source.lastNumber;
+    size = source.size;
+    usages = source.usages;
+    offsets = source.offsets;
+    generations = source.generations;
+    sparseEntries = source.sparseEntries;
+    shared = source.shared = true;
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  @Override
+  public void clear(
+    )
+  {
+    if(sparseEntries != null)
+    {
+      sparseEntries = null;
+      usages = null;
+      allocate(DefaultCapacity);
+    }
+    else
+    {
+      if(shared)
+      {allocate(usages.length);}
+      Arrays.fill(usages, NoUsage);
+    }
+    lastNumber = -1;
+    size = 0;
+  }
+
+  @Override
+  public Comparator<? super Integer> comparator(
+    )
+  {return null;}
+
+  @Override
+  public boolean containsKey(
+    Object key
+    )
+  {return key instanceof Integer && containsKey((int)(Integer)key);}
+
+  /**
+    Gets whether an entry is defined for the specified object number.
+  */
+  public boolean containsKey(
+    int number
+    )
+  {
+    if(number < 0 || number > lastNumber)
+      return false;
+    else if(sparseEntries != null)
+      return sparseEntries.containsKey(number);
+    else
+      return usages[number] != NoUsage;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer,XRefEntry>> entrySet(
+    )
+  {
+    return new AbstractSet<Map.Entry<Integer,XRefEntry>>()
+    {
+      @Override
+      public Iterator<Map.Entry<Integer,XRefEntry>> iterator(
+        )
+      {return new EntryIterator(0, Integer.MAX_VALUE + 1L);}
+
+      @Override
+      public int size(
+        )
+      {return size;}
+    };
+  }
+
+  @Override
+  public Integer firstKey(
+    )
+  {
+    int number = next(-1);
+    if(number == -1)
+      throw new NoSuchElementException();
+
+    return number;
+  }
+
+  @Override
+  public XRefEntry get(
+    Object key
+    )
+  {return key instanceof Integer ? get((int)(Integer)key) : null;}
+
+  /**
+    Gets the entry of the specified object number.
+    <p>The returned entry is a new instance, detached from this map.</p>
+
+    @return <code>null</code>, if no entry is defined for <code>number</code>.
+  */
+  public XRefEntry get(
+    int number
+    )
+  {return containsKey(number) ? createEntry(number) : null;}
+
+  /**
+    Gets the offset of the entry of the specified object number, without materializing it.
+
+    @see XRefEntry#getOffset()
+  */
+  public int getOffset(
+    int number
+    )
+  {
+    if(!containsKey(number))
+      throw new NoSuchElementException();
+
+    return sparseEntries != null ? sparseEntries.get(number).getOffset() : offsets[number];
+  }
+
+  /**
+    Gets the usage of the entry of the specified object number, without materializing it.
+
+    @return <code>null</code>, if no entry is defined for <code>number</code>.
+  */
+  public UsageEnum getUsage(
+    int number
+    )
+  {
+    if(!containsKey(number))
+      return null;
+
+    return sparseEntries != null ? sparseEntries.get(number).getUsage() : Usages[usages[number] - 1];
+  }
+
+  @Override
+  public SortedMap<Integer,XRefEntry> headMap(
+    Integer toKey
+    )
+  {return new RangeMap(0, toKey);}
+
+  @Override
+  public Integer lastKey(
+    )
+  {
+    if(lastNumber == -1)
+      throw new NoSuchElementException();
+
+    return lastNumber;
+  }
+
+  /**
+    Gets the object number of the entry following the specified one.
+
+    @param number Object number to start from (exclusive); to get the first entry, use value -1.
+    @return <code>-1</code>, if no entry follows.
+  */
+  public int next(
+    int number
+    )
+  {
+    if(sparseEntries != null)
+    {
+      Integer nextNumber = sparseEntries.higherKey(number);
+      return nextNumber != null ? nextNumber : -1;
+    }
+
+    while(++number <= lastNumber)
+    {
+      if(usages[number] != NoUsage)
+        return number;
+    }
+    return -1;
+  }
+
+  /**
+    Defines the entry of the specified object number.
+    <p>Only the state of <code>value</code> is stored: later changes to it don't affect this map.
+    </p>
+  */
+  @Override
+  public XRefEntry put(
+    Integer key,
+    XRefEntry value
+    )
+  {
+    int number = key;
+    XRefEntry oldValue = get(number);
+    put(
+      number,
+      value.getUsage() == UsageEnum.InUseCompressed ? value.getStreamNumber() : value.getGeneration(),
+      value.getOffset(),
+      value.getUsage()
+      );
+    return oldValue;
+  }
+
+  /**
+    Defines the entry of the specified object number, without materializing it.
+
+    @param number Object number.
+    @param generation Generation number (object stream number, in case of compressed entry).
+    @param offset Indirect-object byte offset within the serialized file (in-use entry), next
+      free-object object number (free entry) or object index within its object stream (compressed
+      entry).
+    @param usage Usage state.
+  */
+  public void put(
+    int number,
+    int generation,
+    int offset,
+    UsageEnum usage
+    )
+  {
+    if(number < 0)
+      throw new IllegalArgumentException("Object number MUST be non-negative.");
+
+    ensureWritable(number);
+    if(sparseEntries != null)
+    {
+      if(sparseEntries.put(number, newEntry(number, generation, offset, usage)) == null)
+      {size++;}
+    }
+    else
+    {
+      if(usages[number] == NoUsage)
+      {size++;}
+      usages[number] = (byte)(usage.ordinal() + 1);
+      offsets[number] = offset;
+      generations[number] = generation;
+    }
+    if(number > lastNumber)
+    {lastNumber = number;}
+
+    if(sparseEntries != null
+      && (long)size * (SparseRatio >> 1) > lastNumber) // Entries became dense enough.
+    {densify();}
+  }
+
+  @Override
+  public XRefEntry remove(
+    Object key
+    )
+  {
+    if(!containsKey(key))
+      return null;
+
+    int number = (Integer)key;
+    XRefEntry oldValue = createEntry(number);
+    if(shared)
+    {ensureWritable(number);}
+    if(sparseEntries != null)
+    {sparseEntries.remove(number);}
+    else
+    {usages[number] = NoUsage;}
+    size--;
+    if(number == lastNumber)
+    {lastNumber = previous(number);}
+    return oldValue;
+  }
+
+  @Override
+  public int size(
+    )
+  {return size;}
+
+  @Override
+  public SortedMap<Integer,XRefEntry> subMap(
+    Integer fromKey,
+    Integer toKey
+    )
+  {
+    if(fromKey > toKey)
+      throw new IllegalArgumentException("fromKey MUST NOT be greater than toKey.");
+
+    return new RangeMap(fromKey, toKey);
+  }
+
+  @Override
+  public SortedMap<Integer,XRefEntry> tailMap(
+    Integer fromKey
+    )
+  {return new RangeMap(fromKey, Integer.MAX_VALUE + 1L);}
+  // </public>
+
+  // <private>
+  private void allocate(
+    int capacity
+    )
+  {
+    if(usages == null)
+    {
+      usages = new byte[capacity];
+      offsets = new int[capacity];
+      generations = new int[capacity];
+    }
+    else
+    {
+      usages = Arrays.copyOf(usages, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+      generations = Arrays.copyOf(generations, capacity);
+    }
+    shared = false;
+  }
+
+  private XRefEntry createEntry(
+    int number
+    )
+  {
+    if(sparseEntries != null)
+    {
+      XRefEntry entry = sparseEntries.get(number);
+      UsageEnum usage = entry.getUsage();
+      return newEntry(
+        number,
+        usage == UsageEnum.InUseCompressed ? entry.getStreamNumber() : entry.getGeneration(),
+        entry.getOffset(),
+        usage
+        );
+    }
+    else
+      return newEntry(number, generations[number], offsets[number], Usages[usages[number] - 1]);
+  }
+
+  /**
+    Switches to dense storage.
+  */
+  private void densify(
+    )
+  {
+    TreeMap<Integer,XRefEntry> sparseEntries = this.sparseEntries;
+    this.sparseEntries = null;
+    usages = null;
+    allocate(Math.max(DefaultCapacity, lastNumber + 1));
+    for(XRefEntry entry : sparseEntries.values())
+    {
+      int number = entry.getNumber();
+      UsageEnum usage = entry.getUsage();
+      usages[number] = (byte)(usage.ordinal() + 1);
+      offsets[number] = entry.getOffset();
+      generations[number] = (usage == UsageEnum.InUseCompressed ? entry.getStreamNumber() : entry.getGeneration());
+    }
+  }
+
+  /**
+    Ensures the storage can be modified at the specified object number.
+  */
+  private void ensureWritable(
+    int number
+    )
+  {
+    if(sparseEntries != null)
+    {
+      if(shared)
+      {
+        sparseEntries = new TreeMap<Integer,XRefEntry>(sparseEntries);
+        shared = false;
+      }
+    }
+    else if(number >= usages.length)
+    {
+      if(number >= DefaultCapacity
+        && number > (long)(size + 1) * SparseRatio) // Entries would be too scattered.
+      {sparsify();}
+      else
+      {allocate(Math.max(usages.length << 1, number + 1));}
+    }
+    else if(shared)
+    {allocate(usages.length);}
+  }
+
+  private XRefEntry newEntry(
+    int number,
+    int generation,
+    int offset,
+    UsageEnum usage
+    )
+  {
+    return usage == UsageEnum.InUseCompressed
+      ? new XRefEntry(number, offset, generation)
+      : new XRefEntry(number, generation, offset, usage);
+  }
+
+  /**
+    Gets the object number of the entry preceding the specified one.
+
+    @param number Object number to start from (exclusive).
+    @return <code>-1</code>, if no entry precedes.
+  */
+  private int previous(
+    int number
+    )
+  {
+    if(sparseEntries != null)
+    {
+      Integer previousNumber = sparseEntries.lowerKey(number);
+      return previousNumber != null ? previousNumber : -1;
+    }
+
+    number = Math.min(number, lastNumber + 1);
+    while(--number >= 0)
+    {
+      if(usages[number] != NoUsage)
+        return number;
+    }
+    return -1;
+  }
+
+  /**
+    Switches to sparse storage.
+  */
+  private void sparsify(
+    )
+  {
+    TreeMap<Integer,XRefEntry> sparseEntries = new TreeMap<Integer,XRefEntry>();
+    for(int number = next(-1); number != -1; number = next(number))
+    {sparseEntries.put(number, createEntry(number));}
+    this.sparseEntries = sparseEntries;
+    usages = null;
+    offsets = null;
+    generations = null;
+    shared = false;
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
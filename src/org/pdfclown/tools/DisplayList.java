@@ -0,0 +1,1122 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.tools;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+  Recorded sequence of drawing operations.
+  <p>It decouples content scanning from rasterization: the operations issued to its
+  {@link #createGraphics() recording context} are kept along with their device-space bounds, so
+  that they can be replayed any number of times, even concurrently, each replay skipping the
+  operations falling outside its target area. Operations entirely clipped out are discarded on
+  recording.</p>
+  <p>Recorded shapes and images are retained by reference, so they MUST NOT be modified after
+  being drawn.</p>
+  <p>Operations reading back the canvas (see {@link Graphics#copyArea(int, int, int, int, int, int)
+  copyArea(...)}) make the list {@link #isTileable() untileable}, as their outcome depends on
+  areas other than the replayed one.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+final class DisplayList
+{
+  // <class>
+  // <classes>
+  /**
+    Recorded drawing operation.
+  */
+  private static final class Command
+  {
+    private final Image image;
+    private final AffineTransform imageTransform;
+    /**
+      Copy offset (copy-area operations only).
+    */
+    private final Point offset;
+    private final Shape shape;
+    private final State state;
+    private final CommandTypeEnum type;
+
+    // Device-space bounds.
+    private final double maxX;
+    private final double maxY;
+    private final double minX;
+    private final double minY;
+
+    private Command(
+      CommandTypeEnum type,
+      State state,
+      Shape shape,
+      Image image,
+      AffineTransform imageTransform,
+      Point offset,
+      Rectangle2D bounds
+      )
+    {
+      this.type = type;
+      this.state = state;
+      this.shape = shape;
+      this.image = image;
+      this.imageTransform = imageTransform;
+      this.offset = offset;
+      minX = bounds.getMinX(); minY = bounds.getMinY();
+      maxX = bounds.getMaxX(); maxY = bounds.getMaxY();
+    }
+  }
+
+  private enum CommandTypeEnum
+  {
+    CopyArea,
+    Draw,
+    Fill,
+    Image
+  }
+
+  /**
+    Recording context.
+  */
+  private final class Recorder
+    extends Graphics2D
+  {
+    private Color background = Color.WHITE;
+    /**
+      Current clip (device space).
+    */
+    private Shape clip;
+    private Color color = Color.WHITE;
+    private Composite composite = AlphaComposite.SrcOver;
+    private Font font = new Font(Font.DIALOG, Font.PLAIN, 12);
+    private RenderingHints hints = new RenderingHints(null);
+    private Paint paint = Color.WHITE;
+    /**
+      Current state snapshot (<code>null</code> in case the state changed since the latest one).
+    */
+    private State state;
+    private Stroke stroke = new BasicStroke();
+    private AffineTransform transform = new AffineTransform();
+    /**
+      XOR-mode alternation color (<code>null</code> in case of paint mode).
+    */
+    private Color xorColor;
+
+    @Override
+    public void addRenderingHints(
+      Map<?,?> hints
+      )
+    {
+      this.hints = (RenderingHints)this.hints.clone();
+      this.hints.putAll(hints);
+      state = null;
+    }
+
+    @Override
+    public void clearRect(
+      int x,
+      int y,
+      int width,
+      int height
+      )
+    {
+      Paint paint = this.paint;
+      Composite composite = this.composite;
+      setPaint(background);
+      setComposite(AlphaComposite.Src);
+      fillRect(x, y, width, height);
+      setPaint(paint);
+      setComposite(composite);
+    }
+
+    @Override
+    public void clip(
+      Shape shape
+      )
+    {
+      if(shape == null)
+      {setClip(null); return;}
+
+      Shape deviceShape = transform.createTransformedShape(shape);
+      if(clip == null)
+      {clip = deviceShape;}
+      else if(clip instanceof Rectangle2D
+        && deviceShape instanceof Rectangle2D)
+      {clip = ((Rectangle2D)clip).createIntersection((Rectangle2D)deviceShape);}
+      else
+      {
+        Area area = new Area(clip);
+        area.intersect(new Area(deviceShape));
+        clip = area;
+      }
+      state = null;
+    }
+
+    @Override
+    public void clipRect(
+      int x,
+      int y,
+      int width,
+      int height
+      )
+    {clip(new Rectangle(x, y, width, height));}
+
+    @Override
+    public void copyArea(
+      int x,
+      int y,
+      int width,
+      int height,
+      int dx,
+      int dy
+      )
+    {
+      if(width <= 0 || height <= 0)
+        return;
+
+      // NOTE: Copied pixels may come from anywhere on the canvas, so replays can't be partial.
+      tileable = false;
+      record(
+        CommandTypeEnum.CopyArea,
+        new Rectangle(x, y, width, height),
+        null,
+        null,
+        new Point(dx, dy),
+        new Rectangle(x + dx, y + dy, width, height)
+        );
+    }
+
+    @Override
+    public Graphics create(
+      )
+    {
+      Recorder recorder = new Recorder();
+      recorder.background = background;
+      recorder.clip = clip;
+      recorder.color = color;
+      recorder.composite = composite;
+      recorder.font = font;
+      recorder.hints = hints;
+      recorder.paint = paint;
+      recorder.state = state;
+      recorder.stroke = stroke;
+      recorder.transform = new AffineTransform(transform);
+      recorder.xorColor = xorColor;
+      return recorder;
+    }
+
+    @Override
+    public void dispose(
+      )
+    {/* NOOP */}
+
+    @Override
+    public void draw(
+      Shape shape
+      )
+    {
+      Rectangle2D bounds = shape.getBounds2D();
+      if(stroke instanceof BasicStroke)
+      {
+        BasicStroke basicStroke = (BasicStroke)stroke;
+        // NOTE: Miter joins may spike out up to the miter limit [PDF:1.6:4.3.2].
+        double padding = basicStroke.getLineWidth() / 2
+          * (basicStroke.getLineJoin() == BasicStroke.JOIN_MITER ? Math.max(basicStroke.getMiterLimit(), Math.sqrt(2)) : Math.sqrt(2));
+        bounds.setRect(
+          bounds.getX() - padding,
+          bounds.getY() - padding,
+          bounds.getWidth() + padding * 2,
+          bounds.getHeight() + padding * 2
+          );
+      }
+      else
+      {bounds = stroke.createStrokedShape(shape).getBounds2D();}
+      record(CommandTypeEnum.Draw, shape, null, null, null, bounds);
+    }
+
+    @Override
+    public void drawArc(
+      int x,
+      int y,
+      int width,
+      int height,
+      int startAngle,
+      int arcAngle
+      )
+    {draw(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));}
+
+    @Override
+    public void drawGlyphVector(
+      GlyphVector glyphs,
+      float x,
+      float y
+      )
+    {fill(glyphs.getOutline(x, y));}
+
+    @Override
+    public void drawImage(
+      BufferedImage image,
+      BufferedImageOp operation,
+      int x,
+      int y
+      )
+    {drawImage(operation != null ? operation.filter(image, null) : image, x, y, null);}
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      AffineTransform imageTransform,
+      ImageObserver observer
+      )
+    {
+      int width = image.getWidth(null), height = image.getHeight(null);
+      Rectangle2D bounds = (width >= 0 && height >= 0
+        ? new Rectangle2D.Double(0, 0, width, height)
+        : null);
+      imageTransform = (imageTransform != null ? new AffineTransform(imageTransform) : new AffineTransform());
+      record(CommandTypeEnum.Image, null, image, imageTransform, null, bounds);
+      return true;
+    }
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      int x,
+      int y,
+      Color background,
+      ImageObserver observer
+      )
+    {return drawImage(image, x, y, image.getWidth(null), image.getHeight(null), background, observer);}
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      int x,
+      int y,
+      ImageObserver observer
+      )
+    {return drawImage(image, AffineTransform.getTranslateInstance(x, y), observer);}
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      int x,
+      int y,
+      int width,
+      int height,
+      Color background,
+      ImageObserver observer
+      )
+    {
+      if(background != null)
+      {fillBackground(new Rectangle(x, y, width, height), background);}
+      return drawImage(image, x, y, width, height, observer);
+    }
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      int x,
+      int y,
+      int width,
+      int height,
+      ImageObserver observer
+      )
+    {
+      AffineTransform imageTransform = AffineTransform.getTranslateInstance(x, y);
+      imageTransform.scale(
+        (double)width / image.getWidth(null),
+        (double)height / image.getHeight(null)
+        );
+      return drawImage(image, imageTransform, observer);
+    }
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      int dx1,
+      int dy1,
+      int dx2,
+      int dy2,
+      int sx1,
+      int sy1,
+      int sx2,
+      int sy2,
+      Color background,
+      ImageObserver observer
+      )
+    {
+      if(background != null)
+      {fillBackground(new Rectangle(Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1)), background);}
+      return drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, observer);
+    }
+
+    @Override
+    public boolean drawImage(
+      Image image,
+      int dx1,
+      int dy1,
+      int dx2,
+      int dy2,
+      int sx1,
+      int sy1,
+      int sx2,
+      int sy2,
+      ImageObserver observer
+      )
+    {
+      if(dx1 == dx2 || dy1 == dy2 || sx1 == sx2 || sy1 == sy2)
+        return true;
+
+      // Source area.
+      BufferedImage sourceImage = toBufferedImage(image);
+      BufferedImage areaImage = sourceImage.getSubimage(
+        Math.min(sx1, sx2),
+        Math.min(sy1, sy2),
+        Math.abs(sx2 - sx1),
+        Math.abs(sy2 - sy1)
+        );
+      // Source area to destination area (flips included).
+      AffineTransform imageTransform = AffineTransform.getTranslateInstance(dx1, dy1);
+      imageTransform.scale(
+        (double)(dx2 - dx1) / (sx2 - sx1),
+        (double)(dy2 - dy1) / (sy2 - sy1)
+        );
+      imageTransform.translate(-sx1 + Math.min(sx1, sx2), -sy1 + Math.min(sy1, sy2));
+      return drawImage(areaImage, imageTransform, observer);
+    }
+
+    @Override
+    public void drawLine(
+      int x1,
+      int y1,
+      int x2,
+      int y2
+      )
+    {draw(new Line2D.Double(x1, y1, x2, y2));}
+
+    @Override
+    public void drawOval(
+      int x,
+      int y,
+      int width,
+      int height
+      )
+    {draw(new Ellipse2D.Double(x, y, width, height));}
+
+    @Override
+    public void drawPolygon(
+      int[] xPoints,
+      int[] yPoints,
+      int pointCount
+      )
+    {draw(new Polygon(xPoints, yPoints, pointCount));}
+
+    @Override
+    public void drawPolyline(
+      int[] xPoints,
+      int[] yPoints,
+      int pointCount
+      )
+    {
+      if(pointCount < 1)
+        return;
+
+      Path2D path = new Path2D.Double();
+      path.moveTo(xPoints[0], yPoints[0]);
+      for(int index = 1; index < pointCount; index++)
+      {path.lineTo(xPoints[index], yPoints[index]);}
+      draw(path);
+    }
+
+    @Override
+    public void drawRenderableImage(
+      RenderableImage image,
+      AffineTransform imageTransform
+      )
+    {drawRenderedImage(image.createDefaultRendering(), imageTransform);}
+
+    @Override
+    public void drawRenderedImage(
+      RenderedImage image,
+      AffineTransform imageTransform
+      )
+    {
+      BufferedImage bufferedImage;
+      if(image instanceof BufferedImage)
+      {bufferedImage = (BufferedImage)image;}
+      else
+      {
+        bufferedImage = new BufferedImage(
+          image.getColorModel(),
+          image.copyData(null),
+          image.getColorModel().isAlphaPremultiplied(),
+          null
+          );
+      }
+      drawImage(bufferedImage, imageTransform, null);
+    }
+
+    @Override
+    public void drawRoundRect(
+      int x,
+      int y,
+      int width,
+      int height,
+      int arcWidth,
+      int arcHeight
+      )
+    {draw(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));}
+
+    @Override
+    public void drawString(
+      AttributedCharacterIterator iterator,
+      float x,
+      float y
+      )
+    {fill(new TextLayout(iterator, getFontRenderContext()).getOutline(AffineTransform.getTranslateInstance(x, y)));}
+
+    @Override
+    public void drawString(
+      AttributedCharacterIterator iterator,
+      int x,
+      int y
+      )
+    {drawString(iterator, (float)x, (float)y);}
+
+    @Override
+    public void drawString(
+      String text,
+      float x,
+      float y
+      )
+    {drawGlyphVector(font.createGlyphVector(getFontRenderContext(), text), x, y);}
+
+    @Override
+    public void drawString(
+      String text,
+      int x,
+      int y
+      )
+    {drawString(text, (float)x, (float)y);}
+
+    @Override
+    public void fill(
+      Shape shape
+      )
+    {record(CommandTypeEnum.Fill, shape, null, null, null, shape.getBounds2D());}
+
+    @Override
+    public void fillArc(
+      int x,
+      int y,
+      int width,
+      int height,
+      int startAngle,
+      int arcAngle
+      )
+    {fill(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));}
+
+    @Override
+    public void fillOval(
+      int x,
+      int y,
+      int width,
+      int height
+      )
+    {fill(new Ellipse2D.Double(x, y, width, height));}
+
+    @Override
+    public void fillPolygon(
+      int[] xPoints,
+      int[] yPoints,
+      int pointCount
+      )
+    {fill(new Polygon(xPoints, yPoints, pointCount));}
+
+    @Override
+    public void fillRect(
+      int x,
+      int y,
+      int width,
+      int height
+      )
+    {fill(new Rectangle(x, y, width, height));}
+
+    @Override
+    public void fillRoundRect(
+      int x,
+      int y,
+      int width,
+      int height,
+      int arcWidth,
+      int arcHeight
+      )
+    {fill(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));}
+
+    @Override
+    public Color getBackground(
+      )
+    {return background;}
+
+    @Override
+    public Shape getClip(
+      )
+    {
+      if(clip == null)
+        return null;
+
+      try
+      {return transform.createInverse().createTransformedShape(clip);}
+      catch(NoninvertibleTransformException e)
+      {return null;}
+    }
+
+    @Override
+    public Rectangle getClipBounds(
+      )
+    {
+      Shape clip = getClip();
+      return (clip != null ? clip.getBounds() : null);
+    }
+
+    @Override
+    public Color getColor(
+      )
+    {return color;}
+
+    @Override
+    public Composite getComposite(
+      )
+    {return composite;}
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration(
+      )
+    {
+      Graphics2D scratchContext = createScratchContext();
+      try
+      {return scratchContext.getDeviceConfiguration();}
+      finally
+      {scratchContext.dispose();}
+    }
+
+    @Override
+    public Font getFont(
+      )
+    {return font;}
+
+    @Override
+    public FontMetrics getFontMetrics(
+      Font font
+      )
+    {
+      Graphics2D scratchContext = createScratchContext();
+      try
+      {
+        scratchContext.setRenderingHints(hints);
+        return scratchContext.getFontMetrics(font);
+      }
+      finally
+      {scratchContext.dispose();}
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext(
+      )
+    {
+      return new FontRenderContext(
+        transform,
+        RenderingHints.VALUE_TEXT_ANTIALIAS_ON.equals(hints.get(RenderingHints.KEY_TEXT_ANTIALIASING)),
+        RenderingHints.VALUE_FRACTIONALMETRICS_ON.equals(hints.get(RenderingHints.KEY_FRACTIONALMETRICS))
+        );
+    }
+
+    @Override
+    public Paint getPaint(
+      )
+    {return paint;}
+
+    @Override
+    public Object getRenderingHint(
+      RenderingHints.Key key
+      )
+    {return hints.get(key);}
+
+    @Override
+    public RenderingHints getRenderingHints(
+      )
+    {return (RenderingHints)hints.clone();}
+
+    @Override
+    public Stroke getStroke(
+      )
+    {return stroke;}
+
+    @Override
+    public AffineTransform getTransform(
+      )
+    {return new AffineTransform(transform);}
+
+    @Override
+    public boolean hit(
+      Rectangle rectangle,
+      Shape shape,
+      boolean onStroke
+      )
+    {
+      if(onStroke)
+      {shape = stroke.createStrokedShape(shape);}
+      shape = transform.createTransformedShape(shape);
+      if(clip != null)
+      {
+        Area area = new Area(shape);
+        area.intersect(new Area(clip));
+        shape = area;
+      }
+      return shape.intersects(rectangle);
+    }
+
+    @Override
+    public void rotate(
+      double theta
+      )
+    {transform.rotate(theta); state = null;}
+
+    @Override
+    public void rotate(
+      double theta,
+      double x,
+      double y
+      )
+    {transform.rotate(theta, x, y); state = null;}
+
+    @Override
+    public void scale(
+      double sx,
+      double sy
+      )
+    {transform.scale(sx, sy); state = null;}
+
+    @Override
+    public void setBackground(
+      Color value
+      )
+    {background = value;}
+
+    @Override
+    public void setClip(
+      int x,
+      int y,
+      int width,
+      int height
+      )
+    {setClip(new Rectangle(x, y, width, height));}
+
+    @Override
+    public void setClip(
+      Shape value
+      )
+    {
+      clip = (value != null ? transform.createTransformedShape(value) : null);
+      state = null;
+    }
+
+    @Override
+    public void setColor(
+      Color value
+      )
+    {
+      if(value == null)
+        return;
+
+      setPaint(value);
+    }
+
+    @Override
+    public void setComposite(
+      Composite value
+      )
+    {composite = value; xorColor = null; state = null;}
+
+    @Override
+    public void setFont(
+      Font value
+      )
+    {
+      if(value == null)
+        return;
+
+      font = value;
+    }
+
+    @Override
+    public void setPaint(
+      Paint value
+      )
+    {
+      if(value == null)
+        return;
+
+      paint = value;
+      if(value instanceof Color)
+      {color = (Color)value;}
+      state = null;
+    }
+
+    @Override
+    public void setPaintMode(
+      )
+    {setComposite(AlphaComposite.SrcOver);}
+
+    @Override
+    public void setRenderingHint(
+      RenderingHints.Key key,
+      Object value
+      )
+    {
+      hints = (RenderingHints)hints.clone();
+      hints.put(key, value);
+      state = null;
+    }
+
+    @Override
+    public void setRenderingHints(
+      Map<?,?> hints
+      )
+    {
+      this.hints = new RenderingHints(null);
+      this.hints.putAll(hints);
+      state = null;
+    }
+
+    @Override
+    public void setStroke(
+      Stroke value
+      )
+    {stroke = value; state = null;}
+
+    @Override
+    public void setTransform(
+      AffineTransform value
+      )
+    {transform = new AffineTransform(value); state = null;}
+
+    @Override
+    public void setXORMode(
+      Color color
+      )
+    {xorColor = color; state = null;}
+
+    @Override
+    public void shear(
+      double shx,
+      double shy
+      )
+    {transform.shear(shx, shy); state = null;}
+
+    @Override
+    public void transform(
+      AffineTransform value
+      )
+    {transform.concatenate(value); state = null;}
+
+    @Override
+    public void translate(
+      double tx,
+      double ty
+      )
+    {transform.translate(tx, ty); state = null;}
+
+    @Override
+    public void translate(
+      int x,
+      int y
+      )
+    {translate((double)x, (double)y);}
+
+    private Graphics2D createScratchContext(
+      )
+    {return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();}
+
+    private void fillBackground(
+      Shape shape,
+      Color background
+      )
+    {
+      Paint paint = this.paint;
+      setPaint(background);
+      fill(shape);
+      setPaint(paint);
+    }
+
+    /**
+      Records a drawing operation.
+
+      @param bounds Operation bounds (user space, image space for images); <code>null</code> if
+        unknown.
+    */
+    private void record(
+      CommandTypeEnum type,
+      Shape shape,
+      Image image,
+      AffineTransform imageTransform,
+      Point offset,
+      Rectangle2D bounds
+      )
+    {
+      // Device-space bounds.
+      if(bounds == null)
+      {bounds = new Rectangle2D.Double(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE);}
+      else
+      {
+        AffineTransform boundsTransform = transform;
+        if(imageTransform != null)
+        {
+          boundsTransform = new AffineTransform(transform);
+          boundsTransform.concatenate(imageTransform);
+        }
+        bounds = boundsTransform.createTransformedShape(bounds).getBounds2D();
+        // NOTE: Antialiasing may spill over the geometric bounds.
+        bounds.setRect(bounds.getX() - 1, bounds.getY() - 1, bounds.getWidth() + 2, bounds.getHeight() + 2);
+      }
+      if(clip != null)
+      {
+        Rectangle2D clipBounds = clip.getBounds2D();
+        if(!clipBounds.intersects(bounds))
+          return; // Clipped out.
+
+        Rectangle2D.intersect(bounds, clipBounds, bounds);
+      }
+
+      if(state == null)
+      {state = new State(transform, clip, paint, stroke, composite, xorColor, hints);}
+      commands.add(new Command(type, state, shape, image, imageTransform, offset, bounds));
+    }
+  }
+
+  /**
+    Graphics state snapshot shared by consecutive operations.
+  */
+  private static final class State
+  {
+    private final Shape clip;
+    private final Composite composite;
+    private final RenderingHints hints;
+    private final Paint paint;
+    private final Stroke stroke;
+    private final AffineTransform transform;
+    private final Color xorColor;
+
+    private State(
+      AffineTransform transform,
+      Shape clip,
+      Paint paint,
+      Stroke stroke,
+      Composite composite,
+      Color xorColor,
+      RenderingHints hints
+      )
+    {
+      this.transform = new AffineTransform(transform);
+      this.clip = clip;
+      this.paint = paint;
+      this.stroke = stroke;
+      this.composite = composite;
+      this.xorColor = xorColor;
+      this.hints = hints;
+    }
+  }
+  // </classes>
+
+  // <static>
+  // <interface>
+  // <private>
+  private static BufferedImage toBufferedImage(
+    Image image
+    )
+  {
+    if(image instanceof BufferedImage)
+      return (BufferedImage)image;
+
+    BufferedImage bufferedImage = new BufferedImage(
+      image.getWidth(null),
+      image.getHeight(null),
+      BufferedImage.TYPE_INT_ARGB
+      );
+    Graphics2D context = bufferedImage.createGraphics();
+    context.drawImage(image, 0, 0, null);
+    context.dispose();
+    return bufferedImage;
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final List<Command> commands = new ArrayList<Command>();
+  private boolean tileable = true;
+  // </fields>
+
+  // <interface>
+  // <public>
+  /**
+    Creates a new context recording into this list.
+    <p>Its initial state corresponds to that of a fresh device context (identity transform, no
+    clip). Recording isn't thread-safe.</p>
+  */
+  public Graphics2D createGraphics(
+    )
+  {return new Recorder();}
+
+  /**
+    Gets whether the recorded operations can be replayed area by area.
+    <p>Otherwise, the whole canvas has to be replayed at once (see
+    {@link #render(Graphics2D, int, int, int, int) render(...)}).</p>
+  */
+  public boolean isTileable(
+    )
+  {return tileable;}
+
+  /**
+    Replays the recorded operations falling within the specified device area.
+    <p>Once recording is complete, replays can run concurrently.</p>
+
+    @param context Target context; its origin is mapped to the area origin.
+    @param x Horizontal position of the area (in device-space units).
+    @param y Vertical position of the area (in device-space units).
+    @param width Area width (in device-space units).
+    @param height Area height (in device-space units).
+  */
+  public void render(
+    Graphics2D context,
+    int x,
+    int y,
+    int width,
+    int height
+    )
+  {
+    AffineTransform baseTransform = AffineTransform.getTranslateInstance(-x, -y);
+    AffineTransform transform = new AffineTransform();
+    int maxX = x + width, maxY = y + height;
+    State appliedState = null;
+    for(Command command : commands)
+    {
+      if(command.maxX < x
+        || command.minX > maxX
+        || command.maxY < y
+        || command.minY > maxY)
+        continue; // Outside the area.
+
+      State state = command.state;
+      if(state != appliedState)
+      {
+        context.setRenderingHints(state.hints);
+        // NOTE: Paint mode is restored before the composite, as the XOR mode of a previous state would
+        // otherwise leak into this one.
+        context.setPaintMode();
+        context.setComposite(state.composite);
+        if(state.xorColor != null)
+        {context.setXORMode(state.xorColor);}
+        context.setPaint(state.paint);
+        context.setStroke(state.stroke);
+        context.setTransform(baseTransform);
+        context.setClip(state.clip);
+        transform.setTransform(baseTransform);
+        transform.concatenate(state.transform);
+        context.setTransform(transform);
+        appliedState = state;
+      }
+      switch(command.type)
+      {
+        case CopyArea:
+        {
+          Rectangle source = (Rectangle)command.shape;
+          context.copyArea(source.x, source.y, source.width, source.height, command.offset.x, command.offset.y);
+          break;
+        }
+        case Draw:
+          context.draw(command.shape);
+          break;
+        case Fill:
+          context.fill(command.shape);
+          break;
+        case Image:
+          context.drawImage(command.image, command.imageTransform, null);
+          break;
+      }
+    }
+  }
+
+  /**
+    Gets the number of recorded operations.
+  */
+  public int size(
+    )
+  {return commands.size();}
+  // </public>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -0,0 +1,383 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.tools;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.pdfclown.bytes.Buffer;
+import org.pdfclown.bytes.IBuffer;
+import org.pdfclown.documents.Document;
+import org.pdfclown.documents.Page;
+import org.pdfclown.files.IndirectObjects;
+import org.pdfclown.objects.PdfArray;
+import org.pdfclown.objects.PdfDataObject;
+import org.pdfclown.objects.PdfDictionary;
+import org.pdfclown.objects.PdfDirectObject;
+import org.pdfclown.objects.PdfIndirectObject;
+import org.pdfclown.objects.PdfName;
+import org.pdfclown.objects.PdfReference;
+import org.pdfclown.objects.PdfStream;
+
+/**
+  Tool for merging multiple documents into a single one, sharing their identical resources.
+  <p>Sources are accepted one at a time, so that each of them can be closed as soon as it has been
+  merged: the merger retains just the fingerprints of the imported objects.</p>
+  <p>Imported objects are fingerprinted by content (their canonical representation, where references
+  are substituted by the fingerprints of their targets), so that the same resource (e.g. a font or
+  a logo image) coming from several sources is stored only once in the target document. Objects
+  whose identity matters (pages, page tree nodes and any object bound to them) are never
+  shared.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class DocumentMerger
+{
+  // <class>
+  // <static>
+  // <fields>
+  private static final String FingerprintAlgorithm = "SHA-256";
+
+  private static final byte ArrayTag = 'A';
+  private static final byte DictionaryTag = 'D';
+  private static final byte NullTag = 'N';
+  private static final byte ReferenceTag = 'R';
+  private static final byte SimpleObjectTag = 'V';
+  private static final byte StreamTag = 'S';
+  // </fields>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private final Document document;
+
+  /**
+    Imported objects by fingerprint.
+  */
+  private final Map<ByteBuffer,PdfIndirectObject> objects = new HashMap<ByteBuffer,PdfIndirectObject>();
+
+  private final Buffer buffer = new Buffer();
+  private int sharedObjectCount;
+
+  /**
+    Fingerprints of the source objects visited during the current merge (<code>null</code> values
+    correspond to unique objects).
+  */
+  private Map<PdfIndirectObject,byte[]> fingerprints;
+  /**
+    Source objects being currently fingerprinted (used to detect circular references).
+  */
+  private Set<PdfIndirectObject> visitingObjects;
+  // </fields>
+
+  // <constructors>
+  /**
+    @param document Target document.
+  */
+  public DocumentMerger(
+    Document document
+    )
+  {this.document = document;}
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Appends the pages of the specified document to the target document.
+
+    @param source Document to merge.
+  */
+  public void add(
+    Document source
+    )
+  {add(source.getPages());}
+
+  /**
+    Appends the specified pages to the target document.
+
+    @param pages Pages to merge.
+  */
+  @SuppressWarnings("unchecked")
+  public void add(
+    Collection<Page> pages
+    )
+  {
+    fingerprints = new HashMap<PdfIndirectObject,byte[]>();
+    visitingObjects = new HashSet<PdfIndirectObject>();
+    try
+    {
+      // Map the source objects to their shared counterparts!
+      /*
+        NOTE: Source objects are mapped before the actual import, so that their cloning resolves to
+        the existing target objects.
+      */
+      for(Page page : pages)
+      {
+        PdfIndirectObject pageObject = page.getBaseObject().getIndirectObject();
+        visitingObjects.add(pageObject);
+        for(Map.Entry<PdfName,PdfDirectObject> entry : page.getBaseDataObject().entrySet())
+        {
+          PdfName key = entry.getKey();
+          // Is the entry excluded from page cloning?
+          if(key.equals(PdfName.Parent)
+            || key.equals(PdfName.Annots))
+            continue;
+
+          digest(entry.getValue(), null);
+        }
+        visitingObjects.remove(pageObject);
+      }
+
+      // Import the pages!
+      document.getPages().addAll(
+        (Collection<Page>)document.include(pages)
+        );
+
+      // Release the import tracking of the sources!
+      /*
+        NOTE: Shared objects are tracked by fingerprint, so there's no need to retain their
+        per-source mapping.
+      */
+      IndirectObjects targetObjects = document.getFile().getIndirectObjects();
+      for(Page page : pages)
+      {targetObjects.clearImports(page.getFile());}
+    }
+    finally
+    {
+      fingerprints = null;
+      visitingObjects = null;
+    }
+  }
+
+  /**
+    Gets the target document.
+  */
+  public Document getDocument(
+    )
+  {return document;}
+
+  /**
+    Gets the number of source objects which have been resolved to previously-imported identical
+    objects.
+  */
+  public int getSharedObjectCount(
+    )
+  {return sharedObjectCount;}
+  // </public>
+
+  // <private>
+  /**
+    Feeds the canonical representation of the specified object to the digest, mapping the source
+    objects it references.
+
+    @param object Object to digest.
+    @param digest Target digest (<code>null</code> to just map the referenced objects).
+    @return Whether the object has to be kept unique.
+  */
+  private boolean digest(
+    PdfDataObject object,
+    MessageDigest digest
+    )
+  {
+    if(object == null)
+    {
+      if(digest != null)
+      {digest.update(NullTag);}
+      return false;
+    }
+    else if(object instanceof PdfReference)
+    {
+      byte[] fingerprint = getFingerprint(((PdfReference)object).getIndirectObject());
+      if(fingerprint == null)
+        return true;
+
+      if(digest != null)
+      {
+        digest.update(ReferenceTag);
+        digest.update(fingerprint);
+      }
+      return false;
+    }
+    else if(object instanceof PdfStream)
+    {
+      PdfStream stream = (PdfStream)object;
+      if(digest != null)
+      {digest.update(StreamTag);}
+      boolean unique = digest(stream.getHeader(), digest);
+      if(digest != null)
+      {
+        IBuffer body = stream.getBody(false);
+        byte[] bodyData = body.getByteArray(0, (int)body.getLength());
+        update(digest, bodyData.length);
+        digest.update(bodyData);
+      }
+      return unique;
+    }
+    else if(object instanceof PdfDictionary)
+    {
+      PdfDictionary dictionary = (PdfDictionary)object;
+      if(isIdentityBound(dictionary))
+        return true;
+
+      if(digest != null)
+      {
+        digest.update(DictionaryTag);
+        update(digest, dictionary.size());
+      }
+      PdfName[] keys = dictionary.keySet().toArray(new PdfName[dictionary.size()]);
+      Arrays.sort(keys);
+      boolean unique = false;
+      for(PdfName key : keys)
+      {
+        // Is it the stream length?
+        if(key.equals(PdfName.Length)
+          && dictionary.getParent() instanceof PdfStream)
+          continue; // NOTE: Body length is implicit in its digest.
+
+        digest(key, digest);
+        unique |= digest(dictionary.get(key), digest);
+      }
+      return unique;
+    }
+    else if(object instanceof PdfArray)
+    {
+      PdfArray array = (PdfArray)object;
+      if(digest != null)
+      {
+        digest.update(ArrayTag);
+        update(digest, array.size());
+      }
+      boolean unique = false;
+      for(PdfDirectObject item : array)
+      {unique |= digest(item, digest);}
+      return unique;
+    }
+    else // Simple object.
+    {
+      if(digest != null)
+      {
+        buffer.setLength(0);
+        ((PdfDirectObject)object).writeTo(buffer, document.getFile()); // NOTE: Target context ensures consistent formatting across sources.
+        digest.update(SimpleObjectTag);
+        update(digest, (int)buffer.getLength());
+        digest.update(buffer.getByteArray(0, (int)buffer.getLength()));
+      }
+      return false;
+    }
+  }
+
+  /**
+    Gets the fingerprint of the specified source object, mapping it to its shared counterpart in
+    the target document.
+
+    @return <code>null</code>, if the object has to be kept unique.
+  */
+  private byte[] getFingerprint(
+    PdfIndirectObject object
+    )
+  {
+    if(fingerprints.containsKey(object))
+      return fingerprints.get(object);
+    else if(!visitingObjects.add(object)) // Circular reference.
+      return null;
+
+    MessageDigest digest = createDigest();
+    boolean unique = digest(object.getDataObject(), digest);
+    visitingObjects.remove(object);
+
+    byte[] fingerprint = null;
+    if(!unique)
+    {
+      fingerprint = digest.digest();
+
+      IndirectObjects targetObjects = document.getFile().getIndirectObjects();
+      ByteBuffer key = ByteBuffer.wrap(fingerprint);
+      PdfIndirectObject targetObject = objects.get(key);
+      if(targetObject == null)
+      {
+        // Import the object!
+        /*
+          NOTE: As the objects it references have already been mapped (see digest(...)), its clone
+          shares them.
+        */
+        objects.put(key, targetObjects.addExternal(object));
+      }
+      else
+      {
+        // Map the object to its identical counterpart!
+        targetObjects.mapExternal(object, targetObject);
+        sharedObjectCount++;
+      }
+    }
+    fingerprints.put(object, fingerprint);
+    return fingerprint;
+  }
+
+  private MessageDigest createDigest(
+    )
+  {
+    try
+    {return MessageDigest.getInstance(FingerprintAlgorithm);}
+    catch(NoSuchAlgorithmException e)
+    {throw new RuntimeException(e);}
+  }
+
+  /**
+    Gets whether the specified dictionary is bound to its identity (so it cannot be shared).
+  */
+  private boolean isIdentityBound(
+    PdfDictionary dictionary
+    )
+  {
+    PdfDirectObject type = dictionary.get(PdfName.Type);
+    return PdfName.Page.equals(type)
+      || PdfName.Pages.equals(type);
+  }
+
+  private void update(
+    MessageDigest digest,
+    int value
+    )
+  {
+    digest.update((byte)(value >>> 24));
+    digest.update((byte)(value >>> 16));
+    digest.update((byte)(value >>> 8));
+    digest.update((byte)value);
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -25,22 +25,37 @@
 
 package org.pdfclown.tools;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.pdfclown.bytes.Buffer;
 import org.pdfclown.bytes.IOutputStream;
+import org.pdfclown.bytes.OutputStream;
 import org.pdfclown.documents.Document;
 import org.pdfclown.documents.Page;
 import org.pdfclown.documents.Pages;
 import org.pdfclown.files.File;
+import org.pdfclown.files.SerializationModeEnum;
 import org.pdfclown.objects.PdfArray;
 import org.pdfclown.objects.PdfDataObject;
 import org.pdfclown.objects.PdfDictionary;
 import org.pdfclown.objects.PdfDirectObject;
+import org.pdfclown.objects.PdfIndirectObject;
 import org.pdfclown.objects.PdfName;
 import org.pdfclown.objects.PdfReference;
 import org.pdfclown.objects.PdfStream;
@@ -64,6 +79,225 @@ public final class PageManager
   */
 
   // <class>
+  // <classes>
+  /**
+    Split part sink.
+    <p>It provides the target streams the split parts are serialized to, as soon as they are
+    produced.</p>
+  */
+  public interface ISplitSink
+  {
+    /**
+      Gets the stream the specified split part has to be serialized to.
+      <p>The stream is closed by the splitter as soon as the part has been written.</p>
+
+      @param partIndex Part position (zero-based).
+      @param startIndex The beginning index (inclusive) of the part within the source document.
+      @param endIndex The ending index (exclusive) of the part within the source document.
+    */
+    java.io.OutputStream getStream(
+      int partIndex,
+      int startIndex,
+      int endIndex
+      ) throws IOException;
+  }
+
+  /**
+    Streaming split session.
+    <p>Parts are extracted (i.e. cloned) from the source document on the calling thread, as source
+    parsing isn't thread-safe; their serialization happens either on the calling thread or, if
+    {@link PageManager#getParallelism() parallelism} is enabled, on worker threads. Anyway, no more
+    than <code>parallelism</code> parts are held in memory at once, as each part is released as
+    soon as it has been written.</p>
+  */
+  private final class SplitSession
+  {
+    private final ExecutorService executor;
+    private final SerializationModeEnum mode;
+    private final Semaphore permits;
+    private final List<Future<?>> pendingWrites = new ArrayList<Future<?>>();
+    private final ISplitSink sink;
+
+    private int partIndex;
+
+    SplitSession(
+      ISplitSink sink,
+      SerializationModeEnum mode
+      )
+    {
+      this.sink = sink;
+      this.mode = mode;
+      if(parallelism > 1)
+      {
+        executor = Executors.newFixedThreadPool(parallelism);
+        permits = new Semaphore(parallelism);
+      }
+      else
+      {
+        executor = null;
+        permits = null;
+      }
+    }
+
+    /**
+      Waits for the pending parts to be written.
+    */
+    public void close(
+      ) throws IOException
+    {
+      if(executor == null)
+        return;
+
+      try
+      {
+        for(Future<?> pendingWrite : pendingWrites)
+        {join(pendingWrite);}
+      }
+      finally
+      {executor.shutdownNow();}
+    }
+
+    /**
+      Writes the specified page range as a new part.
+
+      @param startIndex The beginning index, inclusive.
+      @param endIndex The ending index, exclusive.
+    */
+    public void write(
+      int startIndex,
+      int endIndex
+      ) throws IOException
+    {
+      int partIndex = this.partIndex++;
+      if(executor == null)
+      {
+        Document part = extract(startIndex, endIndex);
+        write(part, getStream(part, partIndex, startIndex, endIndex));
+        return;
+      }
+
+      // Wait for a slot to be available!
+      try
+      {permits.acquire();}
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      boolean submitted = false;
+      try
+      {
+        final Document part = extract(startIndex, endIndex);
+        final java.io.OutputStream stream = getStream(part, partIndex, startIndex, endIndex);
+        pendingWrites.add(
+          executor.submit(
+            new Callable<Void>()
+            {
+              @Override
+              public Void call(
+                ) throws IOException
+              {
+                try
+                {write(part, stream);}
+                finally
+                {permits.release();}
+                return null;
+              }
+            }
+            )
+          );
+        submitted = true;
+      }
+      finally
+      {
+        if(!submitted)
+        {permits.release();}
+      }
+
+      // Collect the completed parts (failures are reported as early as possible)!
+      for(Iterator<Future<?>> pendingWriteIterator = pendingWrites.iterator(); pendingWriteIterator.hasNext();)
+      {
+        Future<?> pendingWrite = pendingWriteIterator.next();
+        if(!pendingWrite.isDone())
+          continue;
+
+        pendingWriteIterator.remove();
+        join(pendingWrite);
+      }
+    }
+
+    /**
+      Gets the target stream of the specified part, releasing the part if the sink fails.
+    */
+    private java.io.OutputStream getStream(
+      Document part,
+      int partIndex,
+      int startIndex,
+      int endIndex
+      ) throws IOException
+    {
+      boolean done = false;
+      try
+      {
+        java.io.OutputStream stream = sink.getStream(partIndex, startIndex, endIndex);
+        done = true;
+        return stream;
+      }
+      finally
+      {
+        if(!done)
+        {part.getFile().close();}
+      }
+    }
+
+    private void join(
+      Future<?> pendingWrite
+      ) throws IOException
+    {
+      try
+      {pendingWrite.get();}
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      catch(ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        if(cause instanceof IOException)
+          throw (IOException)cause;
+        else if(cause instanceof RuntimeException)
+          throw (RuntimeException)cause;
+        else if(cause instanceof Error)
+          throw (Error)cause;
+        else
+          throw new IOException(cause);
+      }
+    }
+
+    private void write(
+      Document part,
+      java.io.OutputStream stream
+      ) throws IOException
+    {
+      File file = part.getFile();
+      try
+      {
+        BufferedOutputStream bufferedStream = new BufferedOutputStream(stream);
+        file.save(new OutputStream(bufferedStream), mode);
+        bufferedStream.flush();
+      }
+      finally
+      {
+        try
+        {stream.close();}
+        finally
+        {file.close();}
+      }
+    }
+  }
+  // </classes>
+
   // <static>
   // <interface>
   // <public>
@@ -89,10 +323,58 @@ public final class PageManager
     Page page,
     Set<PdfReference> visitedReferences
     )
-  {return getSize(page.getBaseObject(), visitedReferences, true);}
+  {return getSize(page, visitedReferences, new HashMap<PdfReference,Long>());}
   // </public>
 
   // <private>
+  /**
+    Gets the data size of the specified page expressed in bytes.
+
+    @param page Page whose data size has to be calculated.
+    @param visitedReferences References to data objects excluded from calculation.
+    @param objectSizes Data sizes of the already-measured indirect objects.
+      This map is useful to share measurements across multiple calculations on the same document
+      (e.g. splitting by data size).
+  */
+  private static long getSize(
+    Page page,
+    Set<PdfReference> visitedReferences,
+    Map<PdfReference,Long> objectSizes
+    )
+  {return getSize(page.getBaseObject(), visitedReferences, objectSizes, true);}
+
+  /**
+    Gets the data size of the specified indirect object expressed in bytes.
+    <p>Original objects are measured through their byte span inside the source file, while new or
+    modified ones are serialized; either way, measurements are memoized so that (possibly expensive)
+    stream encodings happen at most once.</p>
+
+    @param reference Reference to the indirect object whose size has to be calculated.
+    @param objectSizes Data sizes of the already-measured indirect objects.
+  */
+  private static long getSize(
+    PdfReference reference,
+    Map<PdfReference,Long> objectSizes
+    )
+  {
+    Long objectSize = objectSizes.get(reference);
+    if(objectSize == null)
+    {
+      PdfIndirectObject indirectObject = reference.getIndirectObject();
+      long originalLength = reference.getFile().getIndirectObjects().getOriginalLength(indirectObject);
+      if(originalLength >= 0)
+      {objectSize = originalLength;}
+      else
+      {
+        IOutputStream buffer = new Buffer();
+        indirectObject.writeTo(buffer, reference.getFile());
+        objectSize = buffer.getLength();
+      }
+      objectSizes.put(reference, objectSize);
+    }
+    return objectSize;
+  }
+
   /**
     Gets the data size of the specified object expressed in bytes.
 
@@ -100,11 +382,13 @@ public final class PageManager
     @param visitedReferences References to data objects excluded from calculation.
       This set is useful, for example, to avoid recalculating the data size of shared resources.
       During the operation, this set is populated with references to visited data objects.
+    @param objectSizes Data sizes of the already-measured indirect objects.
     @param isRoot Whether this data object represents the page root.
   */
   private static long getSize(
     PdfDirectObject object,
     Set<PdfReference> visitedReferences,
+    Map<PdfReference,Long> objectSizes,
     boolean isRoot
     )
   {
@@ -127,9 +411,7 @@ public final class PageManager
         visitedReferences.add(reference);
 
         // Calculate the data size of the current object!
-        IOutputStream buffer = new Buffer();
-        reference.getIndirectObject().writeTo(buffer, reference.getFile());
-        dataSize += buffer.getLength();
+        dataSize += getSize(reference, objectSizes);
       }
 
       // 2. Evaluating the current object's children...
@@ -146,7 +428,7 @@ public final class PageManager
       {
         // Calculate the data size of the current object's children!
         for(PdfDirectObject value : values)
-        {dataSize += getSize(value, visitedReferences, false);}
+        {dataSize += getSize(value, visitedReferences, objectSizes, false);}
       }
     }
     return dataSize;
@@ -159,6 +441,7 @@ public final class PageManager
   // <fields>
   private Document document;
   private Pages pages;
+  private int parallelism = 1;
   // </fields>
 
   // <constructors>
@@ -311,6 +594,15 @@ public final class PageManager
     )
   {return document;}
 
+  /**
+    Gets the maximum number of parts concurrently serialized by the streaming split operations.
+
+    @see #split(ISplitSink, SerializationModeEnum)
+  */
+  public int getParallelism(
+    )
+  {return parallelism;}
+
   /**
     Removes a page range from the document.
 
@@ -344,6 +636,19 @@ public final class PageManager
     pages = document.getPages();
   }
 
+  /**
+    @see #getParallelism()
+  */
+  public void setParallelism(
+    int value
+    )
+  {
+    if(value < 1)
+      throw new IllegalArgumentException("Parallelism MUST be positive.");
+
+    parallelism = value;
+  }
+
   /**
     Bursts the document into single-page documents.
 
@@ -405,9 +710,10 @@ public final class PageManager
       int startPageIndex = 0;
       long incrementalDataSize = 0;
       Set<PdfReference> visitedReferences = new HashSet<PdfReference>();
+      Map<PdfReference,Long> objectSizes = new HashMap<PdfReference,Long>();
       for(Page page : pages)
       {
-        long pageDifferentialDataSize = getSize(page, visitedReferences);
+        long pageDifferentialDataSize = getSize(page, visitedReferences, objectSizes);
         incrementalDataSize += pageDifferentialDataSize;
         if(incrementalDataSize > maxDataSize) // Data size limit reached.
         {
@@ -417,7 +723,7 @@ public final class PageManager
           documents.add(extract(startPageIndex, endPageIndex));
 
           startPageIndex = endPageIndex;
-          incrementalDataSize = getSize(page, visitedReferences = new HashSet<PdfReference>());
+          incrementalDataSize = getSize(page, visitedReferences = new HashSet<PdfReference>(), objectSizes);
         }
       }
       // Split the last document page range!
@@ -425,6 +731,106 @@ public final class PageManager
     }
     return documents;
   }
+
+  /**
+    Bursts the document into single-page documents, writing each of them as soon as it is produced.
+    <p>Unlike {@link #split()}, split documents aren't retained: each of them is serialized to the
+    stream provided by the sink, then released, so that memory usage doesn't depend on the number of
+    parts.</p>
+
+    @param sink Target of the split documents.
+    @param mode Serialization mode.
+  */
+  public void split(
+    ISplitSink sink,
+    SerializationModeEnum mode
+    ) throws IOException
+  {
+    SplitSession session = new SplitSession(sink, mode);
+    try
+    {
+      for(int index = 0, length = pages.size(); index < length; index++)
+      {session.write(index, index + 1);}
+    }
+    finally
+    {session.close();}
+  }
+
+  /**
+    Splits the document into multiple subdocuments delimited by the specified page indexes, writing
+    each of them as soon as it is produced.
+
+    @param sink Target of the split documents.
+    @param mode Serialization mode.
+    @param indexes Split page indexes.
+    @see #split(ISplitSink, SerializationModeEnum)
+  */
+  public void split(
+    ISplitSink sink,
+    SerializationModeEnum mode,
+    int... indexes
+    ) throws IOException
+  {
+    SplitSession session = new SplitSession(sink, mode);
+    try
+    {
+      int startIndex = 0;
+      for(int index : indexes)
+      {
+        session.write(startIndex, index);
+        startIndex = index;
+      }
+      session.write(startIndex, pages.size());
+    }
+    finally
+    {session.close();}
+  }
+
+  /**
+    Splits the document into multiple subdocuments on maximum file size, writing each of them as
+    soon as it is produced.
+
+    @param sink Target of the split documents.
+    @param mode Serialization mode.
+    @param maxDataSize Maximum data size (expressed in bytes) of target files.
+      Note that resulting files may be a little bit larger than this value, as file data include (along with actual page data)
+      some extra structures such as cross reference tables.
+    @see #split(ISplitSink, SerializationModeEnum)
+  */
+  public void split(
+    ISplitSink sink,
+    SerializationModeEnum mode,
+    long maxDataSize
+    ) throws IOException
+  {
+    SplitSession session = new SplitSession(sink, mode);
+    try
+    {
+      int startPageIndex = 0;
+      int pageIndex = 0;
+      long incrementalDataSize = 0;
+      Set<PdfReference> visitedReferences = new HashSet<PdfReference>();
+      Map<PdfReference,Long> objectSizes = new HashMap<PdfReference,Long>();
+      for(Page page : pages)
+      {
+        incrementalDataSize += getSize(page, visitedReferences, objectSizes);
+        if(incrementalDataSize > maxDataSize // Data size limit reached.
+          && pageIndex > startPageIndex)
+        {
+          // Split the current document page range!
+          session.write(startPageIndex, pageIndex);
+
+          startPageIndex = pageIndex;
+          incrementalDataSize = getSize(page, visitedReferences = new HashSet<PdfReference>(), objectSizes);
+        }
+        pageIndex++;
+      }
+      // Split the last document page range!
+      session.write(startPageIndex, pages.size());
+    }
+    finally
+    {session.close();}
+  }
   // </public>
   // </interface>
   // </dynamic>
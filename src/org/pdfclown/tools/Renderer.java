@@ -25,6 +25,8 @@
 
 package org.pdfclown.tools;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -32,21 +34,168 @@ import java.awt.print.Book;
 import java.awt.print.Pageable;
 import java.awt.print.PrinterException;
 import java.awt.print.PrinterJob;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.pdfclown.documents.Document;
 import org.pdfclown.documents.Page;
+import org.pdfclown.documents.contents.ContentScanner;
 import org.pdfclown.documents.contents.Contents;
 import org.pdfclown.documents.contents.IContentContext;
+import org.pdfclown.documents.contents.xObjects.ImageXObject;
+import org.pdfclown.util.math.geom.Dimension;
 
 /**
   Tool for rendering {@link IContentContext content contexts}.
+  <p>Canvases larger than a {@link #getTileSize() tile} are rasterized in tiles: contents are scanned
+  just once, on the calling thread (as source parsing isn't thread-safe), into a display list whose
+  tiles are then rasterized either on the calling thread or, if {@link #getParallelism()
+  parallelism} is enabled, on worker threads.</p>
+  <p>Thumbnails of multiple pages are {@link #renderThumbnails(List, int) rendered in batch} the
+  same way, each page being rasterized on a worker thread while the next one is scanned.</p>
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.1.0
-  @version 0.1.0
+  @version 0.1.2, 10/19/12
 */
 public final class Renderer
 {
+  // <class>
+  // <interfaces>
+  /**
+    Tile sink.
+    <p>It receives the tiles of a canvas as soon as they are rasterized.</p>
+  */
+  public interface ITileSink
+  {
+    /**
+      Receives a rasterized tile.
+      <p>In case {@link Renderer#getParallelism() parallelism} is enabled, it's called concurrently
+      on worker threads.</p>
+
+      @param x Horizontal position of the tile within the canvas (in device-space units).
+      @param y Vertical position of the tile within the canvas (in device-space units).
+      @param tile Tile image.
+    */
+    void onTile(
+      int x,
+      int y,
+      BufferedImage tile
+      );
+  }
+  // </interfaces>
+
+  // <static>
+  // <fields>
+  /**
+    Default minimum size of the details rendered into thumbnails, that is one device pixel.
+  */
+  private static final double DefaultThumbnailDetailThreshold = 1;
+  private static final int DefaultTileSize = 1024;
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Waits for the specified task to complete, rethrowing its failure.
+  */
+  private static void join(
+    Future<?> future
+    )
+  {
+    try
+    {future.get();}
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch(ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if(cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      else if(cause instanceof Error)
+        throw (Error)cause;
+      else
+        throw new RuntimeException(cause);
+    }
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private double detailThreshold = 0;
+  private boolean embeddedThumbnailUsed = true;
+  private int parallelism = 1;
+  private RenderingHints renderingHints;
+  private double thumbnailDetailThreshold = DefaultThumbnailDetailThreshold;
+  private int tileSize = DefaultTileSize;
+  // </fields>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the minimum device-space size of the paths and text to render.
+
+    @see ContentScanner#getRenderDetailThreshold()
+  */
+  public double getDetailThreshold(
+    )
+  {return detailThreshold;}
+
+  /**
+    Gets the maximum number of tiles (or thumbnails) rasterized concurrently.
+    <p>Default value is 1 (tiles are rasterized on the calling thread).</p>
+  */
+  public int getParallelism(
+    )
+  {return parallelism;}
+
+  /**
+    Gets the rendering hints.
+
+    @return <code>null</code> in case of default hints.
+    @see ContentScanner#getRenderingHints()
+  */
+  public RenderingHints getRenderingHints(
+    )
+  {return renderingHints;}
+
+  /**
+    Gets the minimum device-space size of the paths and text to render on
+    {@link #renderThumbnails(List, int) thumbnail rendering}.
+    <p>Default value is 1 (details smaller than a thumbnail pixel are skipped).</p>
+
+    @see #getDetailThreshold()
+  */
+  public double getThumbnailDetailThreshold(
+    )
+  {return thumbnailDetailThreshold;}
+
+  /**
+    Gets the maximum tile side (in device-space units).
+  */
+  public int getTileSize(
+    )
+  {return tileSize;}
+
+  /**
+    Gets whether {@link Page#getThumbnail() embedded thumbnails} are used in place of page contents
+    on {@link #renderThumbnails(List, int) thumbnail rendering}.
+    <p>Default value is <code>true</code>.</p>
+  */
+  public boolean isEmbeddedThumbnailUsed(
+    )
+  {return embeddedThumbnailUsed;}
+
   /**
     Prints the specified document.
     <p>The <code>document</code> can be either a {@link Document} object
@@ -113,6 +262,8 @@ public final class Renderer
 
   /**
     Renders the specified contents into an image context.
+    <p>As the bounding boxes of composite objects are collected along the way, rendering the same
+    contents again (e.g. other areas of them) can skip the objects falling outside the area.</p>
 
     @param contents Source contents.
     @param size Image size expressed in device-space units (that is typically pixels).
@@ -124,7 +275,7 @@ public final class Renderer
     Dimension2D size,
     Rectangle2D area
     )
-  {return render(contents.getContentContext(), size, area);}
+  {return render(contents, size, area, detailThreshold);}
 
   /**
     Renders the specified content context into an image context.
@@ -139,14 +290,384 @@ public final class Renderer
     Dimension2D size,
     Rectangle2D area
     )
+  {return render(contentContext.getContents(), size, area);}
+
+  /**
+    Renders the specified contents tile by tile.
+
+    @param contents Source contents.
+    @param size Canvas size expressed in device-space units (that is typically pixels).
+    @param area Content area to render; <code>null</code> corresponds to the entire {@link IContentContext#getBox() content bounding box}.
+    @param sink Tile sink.
+    @see #render(IContentContext, Dimension2D, Rectangle2D, ITileSink)
+   */
+  public void render(
+    Contents contents,
+    Dimension2D size,
+    Rectangle2D area,
+    ITileSink sink
+    )
+  {render(record(contents, size, area, detailThreshold), (int)size.getWidth(), (int)size.getHeight(), null, sink);}
+
+  /**
+    Renders the specified content context tile by tile.
+    <p>As each tile is handed to the sink as soon as it's rasterized, the whole canvas is never
+    allocated at once.</p>
+
+    @param contentContext Source content context.
+    @param size Canvas size expressed in device-space units (that is typically pixels).
+    @param area Content area to render; <code>null</code> corresponds to the entire {@link IContentContext#getBox() content bounding box}.
+    @param sink Tile sink.
+   */
+  public void render(
+    IContentContext contentContext,
+    Dimension2D size,
+    Rectangle2D area,
+    ITileSink sink
+    )
+  {render(contentContext.getContents(), size, area, sink);}
+
+  /**
+    Renders the thumbnails of the specified pages.
+    <p>Pages are scanned one after the other on the calling thread (as source parsing isn't
+    thread-safe), while, if {@link #getParallelism() parallelism} is enabled, their rasterization
+    is carried out concurrently on worker threads. Rendering speed can be further traded for quality
+    through the {@link #setRenderingHints(RenderingHints) rendering hints} and the
+    {@link #setThumbnailDetailThreshold(double) thumbnail detail threshold}; {@link Page#getThumbnail() embedded
+    thumbnails}, when {@link #isEmbeddedThumbnailUsed() used}, spare the page rendering
+    altogether.</p>
+
+    @param pages Pages to render (e.g. {@link Document#getPages() all the document pages}).
+    @param size Thumbnail size, that is the length of its longer side (in pixels).
+    @return Page thumbnails, in the same order as the pages.
+   */
+  public List<BufferedImage> renderThumbnails(
+    List<Page> pages,
+    int size
+    )
   {
-    //TODO:area!
-    BufferedImage image = new BufferedImage(
-      (int)size.getWidth(),
-      (int)size.getHeight(),
-      BufferedImage.TYPE_INT_BGR
-      );
-    contentContext.render(image.createGraphics(),size);
+    if(size < 1)
+      throw new IllegalArgumentException("Thumbnail size MUST be positive.");
+
+    final BufferedImage[] thumbnails = new BufferedImage[pages.size()];
+    ExecutorService executor = (parallelism > 1 && thumbnails.length > 1
+      ? Executors.newFixedThreadPool(Math.min(parallelism, thumbnails.length))
+      : null);
+    try
+    {
+      List<Future<?>> thumbnailFutures = new ArrayList<Future<?>>(thumbnails.length);
+      for(int index = 0; index < thumbnails.length; index++)
+      {
+        Page page = pages.get(index);
+        // Thumbnail size.
+        final int width, height;
+        {
+          Dimension2D pageSize = page.getSize();
+          double pageWidth = pageSize.getWidth(), pageHeight = pageSize.getHeight();
+          switch(page.getRotation())
+          {
+            case Leftward:
+            case Rightward:
+              pageWidth = pageSize.getHeight(); pageHeight = pageSize.getWidth();
+              break;
+            default:
+              break;
+          }
+          double scale = size / Math.max(pageWidth, pageHeight);
+          width = Math.max((int)Math.round(pageWidth * scale), 1);
+          height = Math.max((int)Math.round(pageHeight * scale), 1);
+        }
+
+        // Thumbnail source (scanned on the calling thread).
+        BufferedImage embeddedThumbnail = null;
+        if(embeddedThumbnailUsed)
+        {
+          ImageXObject thumbnailObject = page.getThumbnail();
+          if(thumbnailObject != null)
+          {embeddedThumbnail = thumbnailObject.getImage(1, null);}
+        }
+        if(executor == null)
+        {
+          thumbnails[index] = (embeddedThumbnail != null
+            ? scale(embeddedThumbnail, width, height)
+            : render(page.getContents(), new Dimension(width, height), null, thumbnailDetailThreshold));
+          continue;
+        }
+
+        final int thumbnailIndex = index;
+        final BufferedImage thumbnailSource = embeddedThumbnail;
+        final DisplayList displayList = (embeddedThumbnail == null
+          ? record(page.getContents(), new Dimension(width, height), null, thumbnailDetailThreshold)
+          : null);
+        /*
+          NOTE: In order to bound the memory retained by pending display lists, scanning doesn't
+          run ahead of rasterization more than a couple of pages per worker.
+        */
+        int pendingIndex = index - parallelism * 2;
+        if(pendingIndex >= 0)
+        {join(thumbnailFutures.get(pendingIndex));}
+        thumbnailFutures.add(
+          executor.submit(
+            new Runnable()
+            {
+              @Override
+              public void run(
+                )
+              {
+                BufferedImage thumbnail;
+                if(displayList != null)
+                {
+                  thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_BGR);
+                  Graphics2D context = thumbnail.createGraphics();
+                  displayList.render(context, 0, 0, width, height);
+                  context.dispose();
+                }
+                else
+                {thumbnail = scale(thumbnailSource, width, height);}
+                thumbnails[thumbnailIndex] = thumbnail;
+              }
+            }
+            )
+          );
+      }
+      for(Future<?> thumbnailFuture : thumbnailFutures)
+      {join(thumbnailFuture);}
+    }
+    finally
+    {
+      if(executor != null)
+      {executor.shutdownNow();}
+    }
+    return Arrays.asList(thumbnails);
+  }
+
+  /**
+    @see #getDetailThreshold()
+  */
+  public void setDetailThreshold(
+    double value
+    )
+  {detailThreshold = value;}
+
+  /**
+    @see #getThumbnailDetailThreshold()
+  */
+  public void setThumbnailDetailThreshold(
+    double value
+    )
+  {thumbnailDetailThreshold = value;}
+
+  /**
+    @see #isEmbeddedThumbnailUsed()
+  */
+  public void setEmbeddedThumbnailUsed(
+    boolean value
+    )
+  {embeddedThumbnailUsed = value;}
+
+  /**
+    @see #getParallelism()
+  */
+  public void setParallelism(
+    int value
+    )
+  {
+    if(value < 1)
+      throw new IllegalArgumentException("Parallelism MUST be positive.");
+
+    parallelism = value;
+  }
+
+  /**
+    @see #getRenderingHints()
+  */
+  public void setRenderingHints(
+    RenderingHints value
+    )
+  {renderingHints = value;}
+
+  /**
+    @see #getTileSize()
+  */
+  public void setTileSize(
+    int value
+    )
+  {
+    if(value < 1)
+      throw new IllegalArgumentException("Tile size MUST be positive.");
+
+    tileSize = value;
+  }
+  // </public>
+
+  // <private>
+  /**
+    Creates a scanner for rendering the specified contents according to the current settings.
+
+    @param detailThreshold Minimum device-space size of the paths and text to render.
+  */
+  private ContentScanner createScanner(
+    Contents contents,
+    double detailThreshold
+    )
+  {
+    ContentScanner scanner = new ContentScanner(contents);
+    scanner.setRenderingHints(renderingHints);
+    scanner.setRenderDetailThreshold(detailThreshold);
+    return scanner;
+  }
+
+  /**
+    Renders the specified content area into an image.
+
+    @param detailThreshold Minimum device-space size of the paths and text to render.
+  */
+  private BufferedImage render(
+    Contents contents,
+    Dimension2D size,
+    Rectangle2D area,
+    double detailThreshold
+    )
+  {
+    int width = (int)size.getWidth(), height = (int)size.getHeight();
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_BGR);
+    if(width > tileSize || height > tileSize)
+    {render(record(contents, size, area, detailThreshold), width, height, image, null);}
+    else
+    {
+      Graphics2D context = image.createGraphics();
+      createScanner(contents, detailThreshold).render(context, size, area, null);
+      context.dispose();
+    }
     return image;
   }
+
+  /**
+    Scans the specified content area into a display list.
+
+    @param detailThreshold Minimum device-space size of the paths and text to render.
+  */
+  private DisplayList record(
+    Contents contents,
+    Dimension2D size,
+    Rectangle2D area,
+    double detailThreshold
+    )
+  {
+    DisplayList displayList = new DisplayList();
+    Graphics2D context = displayList.createGraphics();
+    createScanner(contents, detailThreshold).render(context, size, area, null);
+    context.dispose();
+    return displayList;
+  }
+
+  /**
+    Rasterizes the specified display list tile by tile.
+    <p>In case the display list isn't {@link DisplayList#isTileable() tileable}, the whole canvas
+    is rasterized at once, then handed to the sink tile by tile.</p>
+
+    @param displayList Source display list.
+    @param width Canvas width.
+    @param height Canvas height.
+    @param image Target canvas image (<code>null</code> to rasterize each tile into its own image).
+    @param sink Tile sink (may be <code>null</code>).
+  */
+  private void render(
+    final DisplayList displayList,
+    int width,
+    int height,
+    final BufferedImage image,
+    final ITileSink sink
+    )
+  {
+    if(!displayList.isTileable())
+    {
+      BufferedImage canvas = (image != null ? image : new BufferedImage(width, height, BufferedImage.TYPE_INT_BGR));
+      Graphics2D context = canvas.createGraphics();
+      displayList.render(context, 0, 0, width, height);
+      context.dispose();
+      if(sink != null)
+      {
+        for(int y = 0; y < height; y += tileSize)
+        {
+          for(int x = 0; x < width; x += tileSize)
+          {sink.onTile(x, y, canvas.getSubimage(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));}
+        }
+      }
+      return;
+    }
+
+    List<Runnable> tileTasks = new ArrayList<Runnable>();
+    for(int y = 0; y < height; y += tileSize)
+    {
+      for(int x = 0; x < width; x += tileSize)
+      {
+        final int tileX = x, tileY = y;
+        final int tileWidth = Math.min(tileSize, width - x), tileHeight = Math.min(tileSize, height - y);
+        tileTasks.add(
+          new Runnable()
+          {
+            @Override
+            public void run(
+              )
+            {
+              // NOTE: Canvas tiles share the canvas raster, so they need no copy.
+              BufferedImage tile = (image != null
+                ? image.getSubimage(tileX, tileY, tileWidth, tileHeight)
+                : new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_BGR));
+              Graphics2D context = tile.createGraphics();
+              displayList.render(context, tileX, tileY, tileWidth, tileHeight);
+              context.dispose();
+              if(sink != null)
+              {sink.onTile(tileX, tileY, tile);}
+            }
+          }
+          );
+      }
+    }
+
+    if(parallelism == 1
+      || tileTasks.size() == 1)
+    {
+      for(Runnable tileTask : tileTasks)
+      {tileTask.run();}
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tileTasks.size()));
+    try
+    {
+      List<Future<?>> tileFutures = new ArrayList<Future<?>>(tileTasks.size());
+      for(Runnable tileTask : tileTasks)
+      {tileFutures.add(executor.submit(tileTask));}
+      for(Future<?> tileFuture : tileFutures)
+      {join(tileFuture);}
+    }
+    finally
+    {executor.shutdownNow();}
+  }
+
+  /**
+    Stretches the specified image to the specified size.
+  */
+  private BufferedImage scale(
+    BufferedImage image,
+    int width,
+    int height
+    )
+  {
+    BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_BGR);
+    Graphics2D context = scaledImage.createGraphics();
+    if(renderingHints != null)
+    {context.addRenderingHints(renderingHints);}
+    else
+    {context.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);}
+    context.drawImage(image, 0, 0, width, height, java.awt.Color.WHITE, null);
+    context.dispose();
+    return scaledImage;
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
 }
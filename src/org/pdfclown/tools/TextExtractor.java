@@ -25,8 +25,10 @@
 
 package org.pdfclown.tools;
 
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -34,24 +36,28 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.pdfclown.documents.Document;
+import org.pdfclown.documents.Page;
 import org.pdfclown.documents.contents.ContentScanner;
 import org.pdfclown.documents.contents.Contents;
 import org.pdfclown.documents.contents.IContentContext;
 import org.pdfclown.documents.contents.ITextString;
 import org.pdfclown.documents.contents.TextChar;
 import org.pdfclown.documents.contents.TextStyle;
+import org.pdfclown.documents.contents.objects.CompositeObject;
 import org.pdfclown.documents.contents.objects.ContainerObject;
 import org.pdfclown.documents.contents.objects.ContentObject;
 import org.pdfclown.documents.contents.objects.Text;
 import org.pdfclown.documents.contents.objects.XObject;
 import org.pdfclown.util.math.Interval;
+import org.pdfclown.util.math.geom.RectangleIndex;
 
 /**
   Tool for extracting text from {@link IContentContext content contexts}.
 
   @author Stefano Chizzolini (http://www.stefanochizzolini.it)
   @since 0.0.8
-  @version 0.1.1, 11/01/11
+  @version 0.1.2, 10/19/12
 */
 public final class TextExtractor
 {
@@ -91,6 +97,48 @@ public final class TextExtractor
       );
   }
 
+  /**
+    Text consumer for streaming extraction.
+    <p>Text strings are pushed as soon as they are available: in case the extractor is neither
+    {@link TextExtractor#isSorted() sorted} nor {@link TextExtractor#getAreas() area-filtered}, as
+    the content scanner steps onto them; otherwise, once their content context has been scanned
+    (area by area, in the same order of the areas list).</p>
+  */
+  public interface ITextSink
+  {
+    /**
+      Notifies the beginning of a content context.
+
+      @param contentContext Content context about to be extracted (e.g. a page).
+      @return Whether the content context has to be extracted (<code>false</code> skips it).
+    */
+    boolean begin(
+      IContentContext contentContext
+      );
+
+    /**
+      Notifies the end of a content context.
+      <p>It's not notified in case the extraction was stopped while processing the content
+      context.</p>
+
+      @param contentContext Content context just extracted.
+      @return Whether the extraction has to go on (<code>false</code> stops it).
+    */
+    boolean end(
+      IContentContext contentContext
+      );
+
+    /**
+      Notifies an extracted text string.
+
+      @param textString Extracted text string.
+      @return Whether the extraction has to go on (<code>false</code> stops it).
+    */
+    boolean process(
+      ITextString textString
+      );
+  }
+
   /**
     Text string.
     <p>This is typically used to assemble contiguous raw text strings.</p>
@@ -99,24 +147,61 @@ public final class TextExtractor
     implements ITextString
   {
     // <class>
+    // <classes>
+    /**
+      Character list tracking its structural changes, so that derived information can be cached.
+    */
+    private static final class TextCharList
+      extends ArrayList<TextChar>
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public TextChar set(
+        int index,
+        TextChar element
+        )
+      {
+        modCount++;
+        return super.set(index, element);
+      }
+
+      int getModCount(
+        )
+      {return modCount;}
+    }
+    // </classes>
+
     // <dynamic>
     // <fields>
-    private final List<TextChar> textChars = new ArrayList<TextChar>();
+    private final TextCharList textChars = new TextCharList();
+
+    private Rectangle2D box;
+    private int boxModCount = -1;
     // </fields>
 
     // <interface>
     // <public>
+    /**
+      {@inheritDoc}
+      <p>The box is cached until the characters are changed.</p>
+    */
     @Override
     public Rectangle2D getBox(
       )
     {
-      Rectangle2D box = null;
-      for(TextChar textChar : textChars)
+      int modCount = textChars.getModCount();
+      if(boxModCount != modCount)
       {
-        if(box == null)
-        {box = (Rectangle2D)textChar.getBox().clone();}
-        else
-        {box.add(textChar.getBox());}
+        box = null;
+        for(TextChar textChar : textChars)
+        {
+          if(box == null)
+          {box = (Rectangle2D)textChar.getBox().clone();}
+          else
+          {box.add(textChar.getBox());}
+        }
+        boxModCount = modCount;
       }
       return box;
     }
@@ -142,13 +227,269 @@ public final class TextExtractor
   }
 
   /**
-    Text string position comparator.
-   */
-  private static class TextStringPositionComparator
-    implements Comparator<ITextString>
+    Spatial index of text strings.
+    <p>It's meant to be built once per page (or other text source) and then reused by any number
+    of {@link TextExtractor#filter(TextIndex, Rectangle2D...) area} and {@link
+    TextExtractor#filter(TextIndex, IIntervalFilter) interval} queries: text string boxes are
+    computed once at construction, whilst the other lookup structures are built on first use.</p>
+    <p>The indexed text strings MUST NOT be modified while the index is in use. This class is NOT
+    thread-safe.</p>
+  */
+  public static final class TextIndex
   {
     // <class>
     // <static>
+    // <fields>
+    /**
+      Minimum number of characters for a text string to get its character bounds indexed.
+    */
+    private static final int CharIndexThreshold = 32;
+    // </fields>
+
+    // <interface>
+    // <private>
+    private static List<ITextString> flatten(
+      Map<Rectangle2D,List<ITextString>> textStrings
+      )
+    {
+      List<ITextString> flattenedTextStrings = new ArrayList<ITextString>();
+      for(List<ITextString> areaTextStrings : textStrings.values())
+      {flattenedTextStrings.addAll(areaTextStrings);}
+      return flattenedTextStrings;
+    }
+    // </private>
+    // </interface>
+    // </static>
+
+    // <dynamic>
+    // <fields>
+    private final Rectangle2D[] boxes;
+    private final ITextString[] textStrings;
+
+    /**
+      Character offsets of the text strings (the last item is the total character count).
+    */
+    private int[] charOffsets;
+    /**
+      Running maximum of the right bounds of the characters of each text string.
+    */
+    private double[][] charMaxXs;
+    /**
+      Running minimum (backwards) of the left bounds of the characters of each text string.
+    */
+    private double[][] charMinXs;
+    private RectangleIndex index;
+    // </fields>
+
+    // <constructors>
+    /**
+      @param textStrings Text strings to index.
+    */
+    public TextIndex(
+      List<? extends ITextString> textStrings
+      )
+    {
+      this.textStrings = textStrings.toArray(new ITextString[textStrings.size()]);
+      boxes = new Rectangle2D[this.textStrings.length];
+      for(int index = 0; index < boxes.length; index++)
+      {boxes[index] = this.textStrings[index].getBox();}
+    }
+
+    /**
+      @param textStrings Text strings to index, grouped by source area (they are indexed as a
+        single sequence, in iteration order).
+    */
+    public TextIndex(
+      Map<Rectangle2D,List<ITextString>> textStrings
+      )
+    {this(flatten(textStrings));}
+    // </constructors>
+
+    // <interface>
+    // <public>
+    /**
+      Gets the indexed text strings.
+    */
+    public List<ITextString> getTextStrings(
+      )
+    {return Collections.unmodifiableList(Arrays.asList(textStrings));}
+    // </public>
+
+    // <private>
+    /**
+      Gets the text strings whose box matches the given area.
+
+      @return Positions of the matching text strings, in ascending order.
+    */
+    private int[] find(
+      Rectangle2D area
+      )
+    {
+      if(index == null)
+      {index = new RectangleIndex(boxes);}
+      return index.find(area);
+    }
+
+    /**
+      Gets the position of the first character of the given text string which may match the given
+      area.
+    */
+    private int getCharStart(
+      int textStringIndex,
+      List<TextChar> textChars,
+      Rectangle2D area
+      )
+    {
+      double[] maxXs = getCharMaxXs(textStringIndex, textChars);
+      if(maxXs == null)
+        return 0;
+
+      // Binary search of the first character whose right bound reaches the area.
+      double minX = area.getMinX();
+      int low = 0, high = maxXs.length;
+      while(low < high)
+      {
+        int middle = (low + high) >>> 1;
+        if(maxXs[middle] < minX)
+        {low = middle + 1;}
+        else
+        {high = middle;}
+      }
+      return low;
+    }
+
+    /**
+      Gets whether none of the characters of the given text string from the given position on may
+      match the given area.
+    */
+    private boolean isCharEnd(
+      int textStringIndex,
+      int textCharIndex,
+      Rectangle2D area
+      )
+    {
+      double[] minXs = (charMinXs != null ? charMinXs[textStringIndex] : null);
+      return minXs != null && minXs[textCharIndex] > area.getMaxX();
+    }
+
+    private double[] getCharMaxXs(
+      int textStringIndex,
+      List<TextChar> textChars
+      )
+    {
+      int textCharCount = textChars.size();
+      if(textCharCount < CharIndexThreshold)
+        return null;
+
+      if(charMaxXs == null)
+      {
+        charMaxXs = new double[textStrings.length][];
+        charMinXs = new double[textStrings.length][];
+      }
+      double[] maxXs = charMaxXs[textStringIndex];
+      if(maxXs == null)
+      {
+        maxXs = charMaxXs[textStringIndex] = new double[textCharCount];
+        double[] minXs = charMinXs[textStringIndex] = new double[textCharCount];
+        for(int index = 0; index < textCharCount; index++)
+        {
+          Rectangle2D textCharBox = textChars.get(index).getBox();
+          maxXs[index] = textCharBox.getMaxX();
+          minXs[index] = textCharBox.getMinX();
+        }
+        for(int index = 1; index < textCharCount; index++)
+        {maxXs[index] = Math.max(maxXs[index], maxXs[index - 1]);}
+        for(int index = textCharCount - 2; index >= 0; index--)
+        {minXs[index] = Math.min(minXs[index], minXs[index + 1]);}
+      }
+      return maxXs;
+    }
+
+    /**
+      Gets the position of the text string containing the given character offset.
+    */
+    private int getTextStringIndex(
+      int charOffset
+      )
+    {
+      if(charOffsets == null)
+      {
+        charOffsets = new int[textStrings.length + 1];
+        for(int index = 0; index < textStrings.length; index++)
+        {charOffsets[index + 1] = charOffsets[index] + textStrings[index].getTextChars().size();}
+      }
+
+      // Binary search of the last text string starting at or before the offset.
+      int low = 0, high = textStrings.length - 1;
+      while(low < high)
+      {
+        int middle = (low + high + 1) >>> 1;
+        if(charOffsets[middle] <= charOffset)
+        {low = middle;}
+        else
+        {high = middle - 1;}
+      }
+      return low;
+    }
+    // </private>
+    // </interface>
+    // </dynamic>
+    // </class>
+  }
+
+  /**
+    Text layout, arranging text strings in reading order.
+    <p>Text strings are clustered into lines through a single sweep over their vertical positions;
+    each line is then ordered horizontally. Optionally, text strings are first partitioned into
+    columns separated by vertical gutters, so that each column is read before the next one.</p>
+  */
+  private static final class TextLayout
+  {
+    // <class>
+    // <classes>
+    private static final class Entry
+    {
+      final Rectangle2D box;
+      final ContentScanner.TextStringWrapper textString;
+
+      Entry(
+        ContentScanner.TextStringWrapper textString,
+        Rectangle2D box
+        )
+      {
+        this.textString = textString;
+        this.box = box;
+      }
+    }
+    // </classes>
+
+    // <static>
+    // <fields>
+    private static final Comparator<Entry> HorizontalComparator = new Comparator<Entry>()
+    {
+      @Override
+      public int compare(
+        Entry entry1,
+        Entry entry2
+        )
+      {return Double.compare(entry1.box.getX(), entry2.box.getX());}
+    };
+    private static final Comparator<Entry> VerticalComparator = new Comparator<Entry>()
+    {
+      @Override
+      public int compare(
+        Entry entry1,
+        Entry entry2
+        )
+      {
+        int result = Double.compare(entry1.box.getY(), entry2.box.getY());
+        return result != 0 ? result : Double.compare(entry1.box.getX(), entry2.box.getX());
+      }
+    };
+    // </fields>
+
+    // <interface>
+    // <public>
     /**
       Gets whether the specified boxes lay on the same text line.
     */
@@ -169,34 +510,107 @@ public final class TextExtractor
         || (box2.getY() > box1.getY() - yThreshold
           && box2.getY() < box1.getMaxY() + yThreshold - minHeight));
     }
-    // </static>
 
-    // <dynamic>
-    // <Comparator>
-    @Override
-    public int compare(
-      ITextString textString1,
-      ITextString textString2
+    /**
+      Arranges the given text strings into lines.
+
+      @param textStrings Text strings to arrange (empty ones are discarded).
+      @param columnDetected Whether text columns have to be detected.
+      @return Text lines, in reading order.
+    */
+    public static List<List<ContentScanner.TextStringWrapper>> getLines(
+      List<ContentScanner.TextStringWrapper> textStrings,
+      boolean columnDetected
+      )
+    {
+      List<Entry> entries = new ArrayList<Entry>(textStrings.size());
+      for(ContentScanner.TextStringWrapper textString : textStrings)
+      {
+        Rectangle2D box = textString.getBox();
+        if(box != null)
+        {entries.add(new Entry(textString, box));}
+      }
+
+      List<List<ContentScanner.TextStringWrapper>> lines = new ArrayList<List<ContentScanner.TextStringWrapper>>();
+      for(List<Entry> column : (columnDetected ? getColumns(entries) : Collections.singletonList(entries)))
+      {
+        Collections.sort(column, VerticalComparator);
+        /*
+          NOTE: Each line is anchored to its topmost text string; as entries are swept top-down,
+          each entry either belongs to the current line or opens the next one. Comparing against
+          the anchor (rather than the latest entry) prevents skewed lines from drifting into each
+          other.
+        */
+        int lineStart = 0;
+        Rectangle2D anchorBox = null;
+        for(int index = 0, count = column.size(); index <= count; index++)
+        {
+          Rectangle2D box = (index < count ? column.get(index).box : null);
+          if(anchorBox != null
+            && box != null
+            && isOnTheSameLine(anchorBox, box))
+            continue;
+
+          if(anchorBox != null)
+          {
+            List<Entry> lineEntries = column.subList(lineStart, index);
+            Collections.sort(lineEntries, HorizontalComparator);
+            List<ContentScanner.TextStringWrapper> line = new ArrayList<ContentScanner.TextStringWrapper>(lineEntries.size());
+            for(Entry entry : lineEntries)
+            {line.add(entry.textString);}
+            lines.add(line);
+          }
+          lineStart = index;
+          anchorBox = box;
+        }
+      }
+      return lines;
+    }
+    // </public>
+
+    // <private>
+    /**
+      Partitions the given entries into columns.
+      <p>Columns are delimited by vertical gutters, that is horizontal ranges not covered by any
+      entry and at least as wide as the average entry height (a full-width text string, such as
+      a heading spanning multiple columns, prevents them from being split).</p>
+
+      @return Columns, from left to right.
+    */
+    private static List<List<Entry>> getColumns(
+      List<Entry> entries
       )
     {
-      Rectangle2D box1 = textString1.getBox();
-      Rectangle2D box2 = textString2.getBox();
-      if(isOnTheSameLine(box1,box2))
+      List<List<Entry>> columns = new ArrayList<List<Entry>>();
+      if(entries.isEmpty())
+        return columns;
+
+      double minGutterWidth = 0;
+      for(Entry entry : entries)
+      {minGutterWidth += entry.box.getHeight();}
+      minGutterWidth /= entries.size();
+
+      List<Entry> sortedEntries = new ArrayList<Entry>(entries);
+      Collections.sort(sortedEntries, HorizontalComparator);
+      List<Entry> column = null;
+      double columnMaxX = 0;
+      for(Entry entry : sortedEntries)
       {
-        if(box1.getX() < box2.getX())
-          return -1;
-        else if(box1.getX() > box2.getX())
-          return 1;
+        if(column == null
+          || entry.box.getMinX() - columnMaxX >= minGutterWidth) // Gutter.
+        {
+          columns.add(column = new ArrayList<Entry>());
+          columnMaxX = entry.box.getMaxX();
+        }
         else
-          return 0;
+        {columnMaxX = Math.max(columnMaxX, entry.box.getMaxX());}
+        column.add(entry);
       }
-      else if(box1.getY() < box2.getY())
-        return -1;
-      else
-        return 1;
+      return columns;
     }
-    // </Comparator>
-    // </dynamic>
+    // </private>
+    // </interface>
+    // </static>
     // </class>
   }
   // </classes>
@@ -249,6 +663,7 @@ public final class TextExtractor
   private AreaModeEnum areaMode = AreaModeEnum.Containment;
   private List<Rectangle2D> areas;
   private double areaTolerance = 0;
+  private boolean columnDetected;
   private boolean dehyphenated;
   private boolean sorted;
   // </fields>
@@ -286,6 +701,18 @@ public final class TextExtractor
   public Map<Rectangle2D,List<ITextString>> extract(
     IContentContext contentContext
     )
+  {return extract(contentContext.getContents());}
+
+  /**
+    Extracts text strings from the specified contents.
+    <p>The contents instance itself is scanned, so the bounding boxes collected on its objects are
+    retained across extractions.</p>
+
+    @param contents Source contents.
+  */
+  public Map<Rectangle2D,List<ITextString>> extract(
+    Contents contents
+    )
   {
     Map<Rectangle2D,List<ITextString>> extractedTextStrings;
     {
@@ -294,8 +721,9 @@ public final class TextExtractor
         // 1. Extract the source text strings!
         List<ContentScanner.TextStringWrapper> rawTextStrings = new ArrayList<ContentScanner.TextStringWrapper>();
         extract(
-          new ContentScanner(contentContext),
-          rawTextStrings
+          new ContentScanner(contents),
+          rawTextStrings,
+          getAreaBounds()
           );
 
         // 2. Sort the target text strings!
@@ -312,20 +740,66 @@ public final class TextExtractor
         extractedTextStrings.put(null, textStrings);
       }
       else
-      {extractedTextStrings = filter(textStrings,areas.toArray(new Rectangle2D[areas.size()]));}
+      {extractedTextStrings = filter(new TextIndex(textStrings),areas.toArray(new Rectangle2D[areas.size()]));}
     }
     return extractedTextStrings;
   }
 
   /**
-    Extracts text strings from the specified contents.
+    Streams the text strings of the specified content context to the specified sink.
+    <p>Unless sorting or area filtering are required, text strings are neither collected nor
+    retained, so memory usage doesn't depend on the amount of extracted text.</p>
 
-    @param contents Source contents.
+    @param contentContext Source content context.
+    @param sink Text consumer.
+    @return Whether the extraction was completed (<code>false</code> if stopped by the sink).
   */
-  public Map<Rectangle2D,List<ITextString>> extract(
-    Contents contents
+  public boolean extract(
+    IContentContext contentContext,
+    ITextSink sink
+    )
+  {
+    if(!sink.begin(contentContext))
+      return true;
+
+    if(sorted || !areas.isEmpty())
+    {
+      // NOTE: Sorting and area filtering work on the whole content context.
+      Map<Rectangle2D,List<ITextString>> textStrings = extract(contentContext);
+      for(Rectangle2D area : (areas.isEmpty() ? Collections.<Rectangle2D>singletonList(null) : areas))
+      {
+        for(ITextString textString : textStrings.get(area))
+        {
+          if(!sink.process(textString))
+            return false;
+        }
+      }
+    }
+    else if(!extract(new ContentScanner(contentContext), sink, null))
+      return false;
+
+    return sink.end(contentContext);
+  }
+
+  /**
+    Streams the text strings of the specified document to the specified sink, page by page.
+
+    @param document Source document.
+    @param sink Text consumer.
+    @return Whether the extraction was completed (<code>false</code> if stopped by the sink).
+  */
+  public boolean extract(
+    Document document,
+    ITextSink sink
     )
-  {return extract(contents.getContentContext());}
+  {
+    for(Page page : document.getPages())
+    {
+      if(!extract(page, sink))
+        return false;
+    }
+    return true;
+  }
 
   /**
     Gets the text strings matching the specified intervals.
@@ -385,45 +859,47 @@ public final class TextExtractor
     Map<Rectangle2D,List<ITextString>> textStrings,
     IIntervalFilter filter
     )
-  {
-    Iterator<List<ITextString>> textStringsIterator = textStrings.values().iterator();
-    if(!textStringsIterator.hasNext())
-      return;
+  {filter(new TextIndex(textStrings), filter);}
+
+  /**
+    Processes the text strings matching the specified filter.
+    <p>Each interval is located through binary search, independently of the position of the
+    previous one.</p>
 
-    Iterator<ITextString> areaTextStringsIterator = textStringsIterator.next().iterator();
-    if(!areaTextStringsIterator.hasNext())
+    @param index Text strings to filter.
+    @param filter Matching processor.
+  */
+  public void filter(
+    TextIndex index,
+    IIntervalFilter filter
+    )
+  {
+    ITextString[] textStrings = index.textStrings;
+    if(textStrings.length == 0)
       return;
 
-    List<TextChar> textChars = areaTextStringsIterator.next().getTextChars();
-    int baseTextCharIndex = 0;
-    int textCharIndex = 0;
     while(filter.hasNext())
     {
       Interval<Integer> interval = filter.next();
       TextString match = new TextString();
       {
-        int matchStartIndex = interval.getLow();
         int matchEndIndex = interval.getHigh();
-        while(matchStartIndex > baseTextCharIndex + textChars.size())
+        int textCharIndex = interval.getLow();
+        int textStringIndex = index.getTextStringIndex(textCharIndex);
+        int baseTextCharIndex = index.charOffsets[textStringIndex];
+        List<TextChar> textChars = textStrings[textStringIndex].getTextChars();
+        while(textCharIndex < matchEndIndex)
         {
-          baseTextCharIndex += textChars.size();
-          if(!areaTextStringsIterator.hasNext())
-          {areaTextStringsIterator = textStringsIterator.next().iterator();}
-          textChars = areaTextStringsIterator.next().getTextChars();
-        }
-        textCharIndex = matchStartIndex - baseTextCharIndex;
-
-        while(baseTextCharIndex + textCharIndex < matchEndIndex)
-        {
-          if(textCharIndex == textChars.size())
+          if(textCharIndex - baseTextCharIndex == textChars.size())
           {
-            baseTextCharIndex += textChars.size();
-            if(!areaTextStringsIterator.hasNext())
-            {areaTextStringsIterator = textStringsIterator.next().iterator();}
-            textChars = areaTextStringsIterator.next().getTextChars();
-            textCharIndex = 0;
+            if(++textStringIndex == textStrings.length)
+              break;
+
+            baseTextCharIndex = index.charOffsets[textStringIndex];
+            textChars = textStrings[textStringIndex].getTextChars();
+            continue;
           }
-          match.textChars.add(textChars.get(textCharIndex++));
+          match.textChars.add(textChars.get(textCharIndex++ - baseTextCharIndex));
         }
       }
       filter.process(interval, match);
@@ -452,21 +928,7 @@ public final class TextExtractor
     Map<Rectangle2D,List<ITextString>> textStrings,
     Rectangle2D... areas
     )
-  {
-    Map<Rectangle2D,List<ITextString>> filteredTextStrings = null;
-    for(List<ITextString> areaTextStrings : textStrings.values())
-    {
-      Map<Rectangle2D,List<ITextString>> filteredAreasTextStrings = filter(areaTextStrings,areas);
-      if(filteredTextStrings == null)
-      {filteredTextStrings = filteredAreasTextStrings;}
-      else
-      {
-        for(Map.Entry<Rectangle2D,List<ITextString>> filteredAreaTextStringsEntry : filteredAreasTextStrings.entrySet())
-        {filteredTextStrings.get(filteredAreaTextStringsEntry.getKey()).addAll(filteredAreaTextStringsEntry.getValue());}
-      }
-    }
-    return filteredTextStrings;
-  }
+  {return filter(new TextIndex(textStrings),areas);}
 
   /**
     Gets the text strings matching the specified area.
@@ -490,6 +952,20 @@ public final class TextExtractor
     List<? extends ITextString> textStrings,
     Rectangle2D... areas
     )
+  {return filter(new TextIndex(textStrings),areas);}
+
+  /**
+    Gets the text strings matching the specified areas.
+    <p>Reusing the same index across calls saves its construction cost when the same text strings
+    are queried multiple times.</p>
+
+    @param index Text strings to filter.
+    @param areas Graphic areas which text strings have to be matched to.
+  */
+  public Map<Rectangle2D,List<ITextString>> filter(
+    TextIndex index,
+    Rectangle2D... areas
+    )
   {
     Map<Rectangle2D,List<ITextString>> filteredAreasTextStrings = new HashMap<Rectangle2D,List<ITextString>>();
     for(Rectangle2D area : areas)
@@ -504,22 +980,29 @@ public final class TextExtractor
           area.getHeight() + areaTolerance * 2
           )
         : area);
-      for(ITextString textString : textStrings)
+      for(int textStringIndex : index.find(toleratedArea))
       {
-        Rectangle2D textStringBox = textString.getBox();
-        if(toleratedArea.intersects(textStringBox))
+        if(!toleratedArea.intersects(index.boxes[textStringIndex]))
+          continue;
+
+        TextString filteredTextString = new TextString();
+        List<TextChar> filteredTextStringChars = filteredTextString.getTextChars();
+        List<TextChar> textChars = index.textStrings[textStringIndex].getTextChars();
+        for(
+          int textCharIndex = index.getCharStart(textStringIndex, textChars, toleratedArea),
+            textCharCount = textChars.size();
+          textCharIndex < textCharCount
+            && !index.isCharEnd(textStringIndex, textCharIndex, toleratedArea);
+          textCharIndex++
+          )
         {
-          TextString filteredTextString = new TextString();
-          List<TextChar> filteredTextStringChars = filteredTextString.getTextChars();
-          for(TextChar textChar : textString.getTextChars())
-          {
-            Rectangle2D textCharBox = textChar.getBox();
-            if((areaMode == AreaModeEnum.Containment && toleratedArea.contains(textCharBox))
-              || (areaMode == AreaModeEnum.Intersection && toleratedArea.intersects(textCharBox)))
-            {filteredTextStringChars.add(textChar);}
-          }
-          filteredAreaTextStrings.add(filteredTextString);
+          TextChar textChar = textChars.get(textCharIndex);
+          Rectangle2D textCharBox = textChar.getBox();
+          if((areaMode == AreaModeEnum.Containment && toleratedArea.contains(textCharBox))
+            || (areaMode == AreaModeEnum.Intersection && toleratedArea.intersects(textCharBox)))
+          {filteredTextStringChars.add(textChar);}
         }
+        filteredAreaTextStrings.add(filteredTextString);
       }
     }
     return filteredAreasTextStrings;
@@ -548,6 +1031,15 @@ public final class TextExtractor
     )
   {return areaTolerance;}
 
+  /**
+    Gets whether text columns have to be detected on sorting.
+    <p>When enabled, text strings are partitioned into columns separated by vertical gutters, and
+    each column is read before the next one; otherwise, lines span the whole content width.</p>
+  */
+  public boolean isColumnDetected(
+    )
+  {return columnDetected;}
+
   /**
     Gets whether the text strings have to be dehyphenated.
   */
@@ -586,6 +1078,18 @@ public final class TextExtractor
     )
   {areaTolerance = value;}
 
+  /**
+    @see #isColumnDetected()
+  */
+  public void setColumnDetected(
+    boolean value
+    )
+  {
+    columnDetected = value;
+    if(columnDetected)
+    {setSorted(true);}
+  }
+
   /**
     @see #isDehyphenated()
   */
@@ -607,49 +1111,160 @@ public final class TextExtractor
   {
     sorted = value;
     if(!sorted)
-    {setDehyphenated(false);}
+    {
+      setColumnDetected(false);
+      setDehyphenated(false);
+    }
   }
   // </public>
 
   // <private>
   /**
     Scans a content level looking for text.
+
+    @param area Area outside which contents can be skipped (<code>null</code> for no restriction).
   */
   private void extract(
     ContentScanner level,
-    List<ContentScanner.TextStringWrapper> extractedTextStrings
+    final List<ContentScanner.TextStringWrapper> extractedTextStrings,
+    Rectangle2D area
+    )
+  {
+    extract(
+      level,
+      new ITextSink()
+      {
+        @Override
+        public boolean begin(
+          IContentContext contentContext
+          )
+        {return true;}
+
+        @Override
+        public boolean end(
+          IContentContext contentContext
+          )
+        {return true;}
+
+        @Override
+        public boolean process(
+          ITextString textString
+          )
+        {
+          extractedTextStrings.add((ContentScanner.TextStringWrapper)textString);
+          return true;
+        }
+      },
+      area
+      );
+  }
+
+  /**
+    Scans a content level looking for text, pushing it to the specified sink.
+
+    @param area Area outside which contents can be skipped (<code>null</code> for no restriction).
+    @return Whether the scanning was completed (<code>false</code> if stopped by the sink).
+  */
+  private boolean extract(
+    ContentScanner level,
+    ITextSink sink,
+    Rectangle2D area
     )
   {
     if(level == null)
-      return;
+      return true;
 
     while(level.moveNext())
     {
       ContentObject content = level.getCurrent();
+      if(area != null
+        && content instanceof CompositeObject
+        && isOutside((CompositeObject)content, level, area))
+        continue; // NOTE: Skipped contents are still scanned for their graphics state effects.
+
       if(content instanceof Text)
       {
-        // Collect the text strings!
-        extractedTextStrings.addAll(
-          ((ContentScanner.TextWrapper)level.getCurrentWrapper()).getTextStrings()
-          );
+        // Push the text strings!
+        for(ContentScanner.TextStringWrapper textString : ((ContentScanner.TextWrapper)level.getCurrentWrapper()).getTextStrings())
+        {
+          if(!sink.process(textString))
+            return false;
+        }
       }
       else if(content instanceof XObject)
       {
         // Scan the external level!
-        extract(
+        if(!extract(
           ((XObject)content).getScanner(level),
-          extractedTextStrings
-          );
+          sink,
+          area
+          ))
+          return false;
       }
       else if(content instanceof ContainerObject)
       {
         // Scan the inner level!
-        extract(
+        if(!extract(
           level.getChildLevel(),
-          extractedTextStrings
-          );
+          sink,
+          area
+          ))
+          return false;
       }
     }
+    return true;
+  }
+
+  /**
+    Gets the bounds of the areas whose text has to be extracted, area tolerance included.
+
+    @return <code>null</code> in case of no area restriction.
+  */
+  private Rectangle2D getAreaBounds(
+    )
+  {
+    Rectangle2D areaBounds = null;
+    for(Rectangle2D area : areas)
+    {
+      if(areaBounds == null)
+      {areaBounds = (Rectangle2D)area.clone();}
+      else
+      {areaBounds.add(area);}
+    }
+    if(areaBounds != null)
+    {
+      areaBounds.setRect(
+        areaBounds.getX() - areaTolerance,
+        areaBounds.getY() - areaTolerance,
+        areaBounds.getWidth() + areaTolerance * 2,
+        areaBounds.getHeight() + areaTolerance * 2
+        );
+    }
+    return areaBounds;
+  }
+
+  /**
+    Gets whether the specified (current) composite object lies entirely outside the specified
+    area.
+  */
+  private boolean isOutside(
+    CompositeObject object,
+    ContentScanner level,
+    Rectangle2D area
+    )
+  {
+    Rectangle2D box = object.getBox(level.getState());
+    if(box == null)
+      return false;
+
+    // NOTE: Text boxes are expressed in top-down content context coordinates (see ShowText).
+    AffineTransform transform = new AffineTransform(1, 0, 0, -1, 0, level.getContentContext().getBox().getHeight());
+    transform.concatenate(level.getState().getCtm());
+    box = transform.createTransformedShape(box).getBounds2D();
+    return box.getMaxX() < area.getMinX()
+      || box.getMinX() > area.getMaxX()
+      || box.getMaxY() < area.getMinY()
+      || box.getMinY() > area.getMaxY();
   }
 
   /**
@@ -665,29 +1280,19 @@ public final class TextExtractor
     List<ITextString> textStrings
     )
   {
-    // Sorting the source text strings...
-    {
-      TextStringPositionComparator positionComparator = new TextStringPositionComparator();
-      Collections.sort(rawTextStrings, positionComparator);
-    }
-
     // Aggregating and integrating the source text strings into the target ones...
     TextString textString = null;
     TextStyle textStyle = null;
     TextChar previousTextChar = null;
     boolean dehyphenating = false;
-    for(ContentScanner.TextStringWrapper rawTextString : rawTextStrings)
+    for(List<ContentScanner.TextStringWrapper> line : TextLayout.getLines(rawTextStrings, columnDetected))
     {
       /*
         NOTE: Contents on the same line are grouped together within the same text string.
       */
       // Add a new text string in case of new line!
       if(textString != null
-        && !textString.textChars.isEmpty()
-        && !TextStringPositionComparator.isOnTheSameLine(
-          textString.getBox(),
-          rawTextString.getBox()
-          ))
+        && !textString.textChars.isEmpty())
       {
         if(dehyphenated
           && previousTextChar.getValue() == '-') // Hyphened word.
@@ -719,46 +1324,49 @@ public final class TextExtractor
       if(textString == null)
       {textStrings.add(textString = new TextString());}
 
-      textStyle = rawTextString.getStyle();
-      double spaceWidth = textStyle.getFont().getWidth(' ', textStyle.getFontSize());
-      if(spaceWidth == 0)
-      {spaceWidth = textStyle.getFontSize() * .25f;} // NOTE: as a rule of thumb, space width is estimated according to the font size.
-      for(TextChar textChar : rawTextString.getTextChars())
+      for(ContentScanner.TextStringWrapper rawTextString : line)
       {
-        if(previousTextChar != null)
+        textStyle = rawTextString.getStyle();
+        double spaceWidth = textStyle.getFont().getWidth(' ', textStyle.getFontSize());
+        if(spaceWidth == 0)
+        {spaceWidth = textStyle.getFontSize() * .25f;} // NOTE: as a rule of thumb, space width is estimated according to the font size.
+        for(TextChar textChar : rawTextString.getTextChars())
         {
-          /*
-            NOTE: PDF files may have text contents omitting space characters,
-            so they must be inferred and synthesized, marking them as virtual
-            in order to allow the user to distinguish between original contents
-            and augmented ones.
-          */
-          double characterSpace = textChar.getBox().getX() - previousTextChar.getBox().getMaxX();
-          if(characterSpace >= spaceWidth)
-          {
-            // Add synthesized space character!
-            textString.textChars.add(
-              previousTextChar = new TextChar(
-                ' ',
-                new Rectangle2D.Double(
-                  previousTextChar.getBox().getMaxX(),
-                  textChar.getBox().getY(),
-                  characterSpace,
-                  textChar.getBox().getHeight()
-                  ),
-                textStyle,
-                true
-                )
-              );
-          }
-          if(dehyphenating
-            && previousTextChar.getValue() == ' ')
+          if(previousTextChar != null)
           {
-            textStrings.add(textString = new TextString());
-            dehyphenating = false;
+            /*
+              NOTE: PDF files may have text contents omitting space characters,
+              so they must be inferred and synthesized, marking them as virtual
+              in order to allow the user to distinguish between original contents
+              and augmented ones.
+            */
+            double characterSpace = textChar.getBox().getX() - previousTextChar.getBox().getMaxX();
+            if(characterSpace >= spaceWidth)
+            {
+              // Add synthesized space character!
+              textString.textChars.add(
+                previousTextChar = new TextChar(
+                  ' ',
+                  new Rectangle2D.Double(
+                    previousTextChar.getBox().getMaxX(),
+                    textChar.getBox().getY(),
+                    characterSpace,
+                    textChar.getBox().getHeight()
+                    ),
+                  textStyle,
+                  true
+                  )
+                );
+            }
+            if(dehyphenating
+              && previousTextChar.getValue() == ' ')
+            {
+              textStrings.add(textString = new TextString());
+              dehyphenating = false;
+            }
           }
+          textString.textChars.add(previousTextChar = textChar);
         }
-        textString.textChars.add(previousTextChar = textChar);
       }
     }
   }
@@ -0,0 +1,298 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.util;
+
+import java.util.Arrays;
+
+/**
+  Integer-to-integer map.
+  <p>Unlike {@link java.util.Map Map&lt;Integer,Integer&gt;}, it stores its entries in primitive
+  arrays (open addressing with linear probing), so lookups neither allocate nor box.</p>
+  <p>This class is NOT thread-safe; instances shared across threads MUST be treated as read-only.
+  </p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class IntIntMap
+  implements IIntMap
+{
+  // <class>
+  // <classes>
+  /**
+    Read-only view of a map.
+  */
+  private static final class UnmodifiableIntMap
+    implements IIntMap
+  {
+    private final IIntMap map;
+
+    private UnmodifiableIntMap(
+      IIntMap map
+      )
+    {this.map = map;}
+
+    @Override
+    public boolean containsKey(
+      int key
+      )
+    {return map.containsKey(key);}
+
+    @Override
+    public int get(
+      int key,
+      int defaultValue
+      )
+    {return map.get(key, defaultValue);}
+
+    @Override
+    public int[] keys(
+      )
+    {return map.keys();}
+
+    @Override
+    public int size(
+      )
+    {return map.size();}
+  }
+  // </classes>
+
+  // <static>
+  // <fields>
+  private static final int DefaultCapacity = 16;
+  // </fields>
+
+  // <interface>
+  // <public>
+  /**
+    Gets a read-only view of the given map, equivalent to
+    {@link java.util.Collections#unmodifiableMap(java.util.Map) Collections.unmodifiableMap(...)}.
+    <p>It's meant for maps shared across documents, which can't be cast back to be modified.</p>
+  */
+  public static IIntMap unmodifiable(
+    IIntMap map
+    )
+  {return map instanceof UnmodifiableIntMap ? map : new UnmodifiableIntMap(map);}
+  // </public>
+
+  // <private>
+  private static int hash(
+    int key
+    )
+  {
+    // NOTE: Fibonacci hashing spreads sequential keys (the common case for codes) across the table.
+    int hash = key * 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private boolean[] assigned;
+  private int[] keys;
+  private int[] values;
+
+  private int size;
+  private int threshold;
+  // </fields>
+
+  // <constructors>
+  public IntIntMap(
+    )
+  {this(DefaultCapacity);}
+
+  /**
+    @param expectedSize Number of entries expected to be put into this map.
+  */
+  public IntIntMap(
+    int expectedSize
+    )
+  {allocate(getCapacity(expectedSize));}
+
+  /**
+    Creates a copy of the given map.
+  */
+  public IntIntMap(
+    IntIntMap map
+    )
+  {
+    assigned = map.assigned.clone();
+    keys = map.keys.clone();
+    values = map.values.clone();
+    size = map.size;
+    threshold = map.threshold;
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  public void clear(
+    )
+  {
+    Arrays.fill(assigned, false);
+    size = 0;
+  }
+
+  @Override
+  public boolean containsKey(
+    int key
+    )
+  {return assigned[indexOf(key)];}
+
+  @Override
+  public int get(
+    int key,
+    int defaultValue
+    )
+  {
+    int index = indexOf(key);
+    return assigned[index] ? values[index] : defaultValue;
+  }
+
+  public boolean isEmpty(
+    )
+  {return size == 0;}
+
+  /**
+    Gets the keys contained in this map (in no particular order).
+  */
+  @Override
+  public int[] keys(
+    )
+  {
+    int[] keys = new int[size];
+    for(
+      int index = 0,
+        keyIndex = 0,
+        length = assigned.length;
+      index < length;
+      index++
+      )
+    {
+      if(assigned[index])
+      {keys[keyIndex++] = this.keys[index];}
+    }
+    return keys;
+  }
+
+  /**
+    Associates the given value to the given key, replacing any previous association.
+  */
+  public void put(
+    int key,
+    int value
+    )
+  {
+    int index = indexOf(key);
+    if(!assigned[index])
+    {
+      if(size >= threshold)
+      {
+        rehash(assigned.length << 1);
+        index = indexOf(key);
+      }
+      assigned[index] = true;
+      keys[index] = key;
+      size++;
+    }
+    values[index] = value;
+  }
+
+  @Override
+  public int size(
+    )
+  {return size;}
+  // </public>
+
+  // <private>
+  private void allocate(
+    int capacity
+    )
+  {
+    assigned = new boolean[capacity];
+    keys = new int[capacity];
+    values = new int[capacity];
+    threshold = capacity - (capacity >> 2); // 75% load factor.
+  }
+
+  private int getCapacity(
+    int expectedSize
+    )
+  {
+    int capacity = DefaultCapacity;
+    while(capacity - (capacity >> 2) <= expectedSize)
+    {capacity <<= 1;}
+    return capacity;
+  }
+
+  /**
+    Gets the slot either occupied by the given key or (if missing) available to it.
+  */
+  private int indexOf(
+    int key
+    )
+  {
+    int mask = assigned.length - 1;
+    int index = hash(key) & mask;
+    while(assigned[index]
+      && keys[index] != key)
+    {index = (index + 1) & mask;}
+    return index;
+  }
+
+  private void rehash(
+    int capacity
+    )
+  {
+    boolean[] oldAssigned = assigned;
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+
+    allocate(capacity);
+    for(
+      int oldIndex = 0,
+        length = oldAssigned.length;
+      oldIndex < length;
+      oldIndex++
+      )
+    {
+      if(!oldAssigned[oldIndex])
+        continue;
+
+      int index = indexOf(oldKeys[oldIndex]);
+      assigned[index] = true;
+      keys[index] = oldKeys[oldIndex];
+      values[index] = oldValues[oldIndex];
+    }
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
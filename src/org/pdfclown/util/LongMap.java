@@ -0,0 +1,186 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.util;
+
+import java.util.Arrays;
+
+/**
+  Long-to-object map.
+  <p>Unlike {@link java.util.Map Map&lt;Long,TValue&gt;}, it stores its keys in a primitive array
+  (open addressing with linear probing), so lookups neither allocate nor box.</p>
+  <p>This class is NOT thread-safe; instances shared across threads MUST be treated as read-only.
+  </p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class LongMap<TValue>
+{
+  // <class>
+  // <static>
+  // <fields>
+  private static final int DefaultCapacity = 16;
+  // </fields>
+
+  // <interface>
+  // <private>
+  private static int hash(
+    long key
+    )
+  {
+    // NOTE: Fibonacci hashing spreads sequential keys (the common case for object numbers) across the table.
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int)(hash ^ (hash >>> 32));
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  private long[] keys;
+  private Object[] values;
+
+  private int size;
+  private int threshold;
+  // </fields>
+
+  // <constructors>
+  public LongMap(
+    )
+  {allocate(DefaultCapacity);}
+  // </constructors>
+
+  // <interface>
+  // <public>
+  public void clear(
+    )
+  {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+    Gets the value associated to the given key.
+
+    @return <code>null</code>, if <code>key</code> is missing.
+  */
+  @SuppressWarnings("unchecked")
+  public TValue get(
+    long key
+    )
+  {return (TValue)values[indexOf(key)];}
+
+  public boolean isEmpty(
+    )
+  {return size == 0;}
+
+  /**
+    Associates the given value to the given key, replacing any previous association.
+
+    @param value Value to associate (MUST NOT be <code>null</code>).
+  */
+  public void put(
+    long key,
+    TValue value
+    )
+  {
+    if(value == null)
+      throw new IllegalArgumentException("value MUST NOT be null.");
+
+    int index = indexOf(key);
+    if(values[index] == null)
+    {
+      if(size >= threshold)
+      {
+        rehash(values.length << 1);
+        index = indexOf(key);
+      }
+      keys[index] = key;
+      size++;
+    }
+    values[index] = value;
+  }
+
+  public int size(
+    )
+  {return size;}
+  // </public>
+
+  // <private>
+  private void allocate(
+    int capacity
+    )
+  {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    threshold = capacity - (capacity >> 2); // 75% load factor.
+  }
+
+  /**
+    Gets the slot either occupied by the given key or (if missing) available to it.
+  */
+  private int indexOf(
+    long key
+    )
+  {
+    int mask = values.length - 1;
+    int index = hash(key) & mask;
+    while(values[index] != null
+      && keys[index] != key)
+    {index = (index + 1) & mask;}
+    return index;
+  }
+
+  private void rehash(
+    int capacity
+    )
+  {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+
+    allocate(capacity);
+    for(
+      int oldIndex = 0,
+        length = oldValues.length;
+      oldIndex < length;
+      oldIndex++
+      )
+    {
+      if(oldValues[oldIndex] == null)
+        continue;
+
+      int index = indexOf(oldKeys[oldIndex]);
+      keys[index] = oldKeys[oldIndex];
+      values[index] = oldValues[oldIndex];
+    }
+  }
+  // </private>
+  // </interface>
+  // </dynamic>
+  // </class>
+}
@@ -0,0 +1,282 @@
+/*
+  Copyright 2012 Stefano Chizzolini. http://www.pdfclown.org
+
+  Contributors:
+    * Stefano Chizzolini (original code developer, http://www.stefanochizzolini.it)
+
+  This file should be part of the source code distribution of "PDF Clown library"
+  (the Program): see the accompanying README files for more info.
+
+  This Program is free software; you can redistribute it and/or modify it under the terms
+  of the GNU Lesser General Public License as published by the Free Software Foundation;
+  either version 3 of the License, or (at your option) any later version.
+
+  This Program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY,
+  either expressed or implied; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License along with this
+  Program (see README files); if not, go to the GNU website (http://www.gnu.org/licenses/).
+
+  Redistribution and use, with or without modification, are permitted provided that such
+  redistributions retain the above copyright notice, license and disclaimer, along with
+  this list of conditions.
+*/
+
+package org.pdfclown.util.math.geom;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+  Static spatial index of rectangles.
+  <p>It's a packed R-tree, bulk-loaded through the Sort-Tile-Recursive algorithm: as its entries
+  are known in advance, nodes are filled up completely and no rebalancing ever occurs. Node bounds
+  are stored in primitive arrays, so that queries don't allocate anything but their result.</p>
+  <p>Entries are identified by their position within the source array. This class is immutable,
+  so it can be safely shared across threads.</p>
+
+  @author Stefano Chizzolini (http://www.stefanochizzolini.it)
+  @since 0.1.2
+  @version 0.1.2, 10/19/12
+*/
+public final class RectangleIndex
+{
+  // <class>
+  // <static>
+  // <fields>
+  /**
+    Maximum number of children per node.
+  */
+  private static final int NodeCapacity = 16;
+  // </fields>
+
+  // <interface>
+  // <private>
+  /**
+    Sorts the given entry positions by the given keys.
+  */
+  private static void sort(
+    int[] ids,
+    double[] keys,
+    int low,
+    int high // Exclusive.
+    )
+  {
+    while(high - low > 16)
+    {
+      // Median-of-three pivot.
+      int middle = (low + high) >>> 1;
+      double a = keys[ids[low]], b = keys[ids[middle]], c = keys[ids[high - 1]];
+      double pivot = (a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b)));
+
+      int left = low, right = high - 1;
+      while(left <= right)
+      {
+        while(keys[ids[left]] < pivot)
+        {left++;}
+        while(keys[ids[right]] > pivot)
+        {right--;}
+        if(left <= right)
+        {
+          int id = ids[left]; ids[left] = ids[right]; ids[right] = id;
+          left++; right--;
+        }
+      }
+      // Recurse on the smaller partition to bound the stack depth.
+      if(right - low < high - left)
+      {
+        sort(ids, keys, low, right + 1);
+        low = left;
+      }
+      else
+      {
+        sort(ids, keys, left, high);
+        high = right + 1;
+      }
+    }
+    // Insertion sort on small ranges.
+    for(int index = low + 1; index < high; index++)
+    {
+      int id = ids[index];
+      double key = keys[id];
+      int slot = index;
+      for(; slot > low && keys[ids[slot - 1]] > key; slot--)
+      {ids[slot] = ids[slot - 1];}
+      ids[slot] = id;
+    }
+  }
+  // </private>
+  // </interface>
+  // </static>
+
+  // <dynamic>
+  // <fields>
+  /**
+    Entry positions, in tree order.
+  */
+  private final int[] ids;
+  /**
+    Node bounds by level (level 0 is made of the entries themselves).
+  */
+  private final double[][] maxXs;
+  private final double[][] maxYs;
+  private final double[][] minXs;
+  private final double[][] minYs;
+  // </fields>
+
+  // <constructors>
+  /**
+    @param boxes Rectangles to index (<code>null</code> items are ignored).
+  */
+  public RectangleIndex(
+    Rectangle2D[] boxes
+    )
+  {
+    int count = 0;
+    for(Rectangle2D box : boxes)
+    {
+      if(box != null)
+      {count++;}
+    }
+
+    // 1. Entries sorting (Sort-Tile-Recursive).
+    ids = new int[count];
+    {
+      double[] centerXs = new double[boxes.length];
+      double[] centerYs = new double[boxes.length];
+      for(int index = 0, idIndex = 0; index < boxes.length; index++)
+      {
+        Rectangle2D box = boxes[index];
+        if(box == null)
+          continue;
+
+        ids[idIndex++] = index;
+        centerXs[index] = box.getCenterX();
+        centerYs[index] = box.getCenterY();
+      }
+      /*
+        NOTE: Entries are sorted by horizontal center and partitioned into vertical slices, each of
+        which is then sorted by vertical center, so that consecutive runs of entries are spatially
+        compact.
+      */
+      sort(ids, centerXs, 0, count);
+      int leafCount = (count + NodeCapacity - 1) / NodeCapacity;
+      int sliceSize = (int)Math.ceil(Math.sqrt(leafCount)) * NodeCapacity;
+      for(int sliceStart = 0; sliceStart < count; sliceStart += sliceSize)
+      {sort(ids, centerYs, sliceStart, Math.min(sliceStart + sliceSize, count));}
+    }
+
+    // 2. Levels packing.
+    int levelCount = 1;
+    for(int nodeCount = count; nodeCount > 1; nodeCount = (nodeCount + NodeCapacity - 1) / NodeCapacity)
+    {levelCount++;}
+    minXs = new double[levelCount][];
+    minYs = new double[levelCount][];
+    maxXs = new double[levelCount][];
+    maxYs = new double[levelCount][];
+    {
+      double[] minX = minXs[0] = new double[count], minY = minYs[0] = new double[count];
+      double[] maxX = maxXs[0] = new double[count], maxY = maxYs[0] = new double[count];
+      for(int index = 0; index < count; index++)
+      {
+        Rectangle2D box = boxes[ids[index]];
+        minX[index] = box.getMinX();
+        minY[index] = box.getMinY();
+        maxX[index] = box.getMaxX();
+        maxY[index] = box.getMaxY();
+      }
+    }
+    for(int level = 1; level < levelCount; level++)
+    {
+      int childCount = minXs[level - 1].length;
+      int nodeCount = (childCount + NodeCapacity - 1) / NodeCapacity;
+      double[] childMinX = minXs[level - 1], childMinY = minYs[level - 1];
+      double[] childMaxX = maxXs[level - 1], childMaxY = maxYs[level - 1];
+      double[] minX = minXs[level] = new double[nodeCount], minY = minYs[level] = new double[nodeCount];
+      double[] maxX = maxXs[level] = new double[nodeCount], maxY = maxYs[level] = new double[nodeCount];
+      for(int node = 0; node < nodeCount; node++)
+      {
+        int childStart = node * NodeCapacity, childEnd = Math.min(childStart + NodeCapacity, childCount);
+        minX[node] = childMinX[childStart]; minY[node] = childMinY[childStart];
+        maxX[node] = childMaxX[childStart]; maxY[node] = childMaxY[childStart];
+        for(int child = childStart + 1; child < childEnd; child++)
+        {
+          minX[node] = Math.min(minX[node], childMinX[child]);
+          minY[node] = Math.min(minY[node], childMinY[child]);
+          maxX[node] = Math.max(maxX[node], childMaxX[child]);
+          maxY[node] = Math.max(maxY[node], childMaxY[child]);
+        }
+      }
+    }
+  }
+  // </constructors>
+
+  // <interface>
+  // <public>
+  /**
+    Gets the positions of the rectangles overlapping the given area.
+    <p>Overlapping is evaluated including boundaries, so callers requiring stricter conditions
+    (e.g. {@link Rectangle2D#intersects(Rectangle2D)}) have to refine the result.</p>
+
+    @param area Area to match.
+    @return Matching positions, in ascending order.
+  */
+  public int[] find(
+    Rectangle2D area
+    )
+  {
+    int[] result = new int[Math.min(ids.length, NodeCapacity)];
+    int resultCount = 0;
+    if(ids.length > 0)
+    {
+      double minX = area.getMinX(), minY = area.getMinY(), maxX = area.getMaxX(), maxY = area.getMaxY();
+      int topLevel = minXs.length - 1;
+      // Depth-first traversal (nodes are identified by level and position).
+      int[] levelStack = new int[topLevel * (NodeCapacity - 1) + 1];
+      int[] nodeStack = new int[levelStack.length];
+      int stackSize = 0;
+      levelStack[stackSize] = topLevel; nodeStack[stackSize++] = 0;
+      while(stackSize > 0)
+      {
+        int level = levelStack[--stackSize], node = nodeStack[stackSize];
+        if(minXs[level][node] > maxX
+          || maxXs[level][node] < minX
+          || minYs[level][node] > maxY
+          || maxYs[level][node] < minY)
+          continue;
+
+        if(level == 0)
+        {
+          if(resultCount == result.length)
+          {result = Arrays.copyOf(result, Math.min(resultCount << 1, ids.length));}
+          result[resultCount++] = ids[node];
+        }
+        else
+        {
+          int childStart = node * NodeCapacity;
+          for(
+            int child = Math.min(childStart + NodeCapacity, minXs[level - 1].length) - 1;
+            child >= childStart;
+            child--
+            )
+          {levelStack[stackSize] = level - 1; nodeStack[stackSize++] = child;}
+        }
+      }
+    }
+    result = Arrays.copyOf(result, resultCount);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+    Gets the number of indexed rectangles.
+  */
+  public int size(
+    )
+  {return ids.length;}
+  // </public>
+  // </interface>
+  // </dynamic>
+  // </class>
+}